@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import org.teavm.callgraph.CallGraph;
+import org.teavm.callgraph.CallGraphNode;
+import org.teavm.callgraph.CallSite;
+import org.teavm.model.ClassReader;
+import org.teavm.model.ListableClassReaderSource;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Distributes classes between main output and lazily loaded chunks, one chunk per split point class.
+ * Chunk of a split point gets the split point itself and classes which are only used by methods reachable
+ * from split point. Classes used by main code or by several split points stay in main output.</p>
+ *
+ * <p>Since any method moved to a chunk is replaced by a stub that loads the chunk, partitioning does not
+ * need to be exact. Calls not represented in call graph, like calls from runtime, only cause chunk to be
+ * loaded earlier.</p>
+ */
+class ChunkPartitioner {
+    private static final int SHARED = -1;
+    private CallGraph callGraph;
+    private ListableClassReaderSource classes;
+    private Set<MethodReference> mainMethods = new HashSet<>();
+    private Map<MethodReference, Integer> chunkByMethod = new HashMap<>();
+
+    ChunkPartitioner(CallGraph callGraph, ListableClassReaderSource classes) {
+        this.callGraph = callGraph;
+        this.classes = classes;
+    }
+
+    Map<String, Integer> partition(List<String> splitPoints, Collection<MethodReference> entryPoints) {
+        Set<String> splitPointSet = new HashSet<>(splitPoints);
+        Queue<MethodReference> queue = new ArrayDeque<>(entryPoints);
+        while (!queue.isEmpty()) {
+            MethodReference method = queue.remove();
+            if (splitPointSet.contains(method.getClassName()) || !mainMethods.add(method)) {
+                continue;
+            }
+            queue.addAll(getCallees(method));
+        }
+
+        for (int i = 0; i < splitPoints.size(); ++i) {
+            ClassReader cls = classes.get(splitPoints.get(i));
+            if (cls == null) {
+                continue;
+            }
+            for (MethodReader method : cls.getMethods()) {
+                queue.add(method.getReference());
+            }
+            Set<MethodReference> visited = new HashSet<>();
+            while (!queue.isEmpty()) {
+                MethodReference method = queue.remove();
+                if (mainMethods.contains(method) || !visited.add(method)) {
+                    continue;
+                }
+                Integer chunk = chunkByMethod.get(method);
+                chunkByMethod.put(method, chunk == null || chunk == i ? i : SHARED);
+                queue.addAll(getCallees(method));
+            }
+        }
+
+        Map<String, Integer> chunkByClass = new HashMap<>();
+        for (int i = 0; i < splitPoints.size(); ++i) {
+            if (classes.get(splitPoints.get(i)) != null) {
+                chunkByClass.put(splitPoints.get(i), i);
+            }
+        }
+        for (String className : classes.getClassNames()) {
+            if (!splitPointSet.contains(className)) {
+                Integer chunk = getChunk(classes.get(className));
+                if (chunk != null) {
+                    chunkByClass.put(className, chunk);
+                }
+            }
+        }
+        return chunkByClass;
+    }
+
+    private Integer getChunk(ClassReader cls) {
+        Integer result = null;
+        for (MethodReader method : cls.getMethods()) {
+            MethodReference ref = method.getReference();
+            if (mainMethods.contains(ref)) {
+                return null;
+            }
+            Integer chunk = chunkByMethod.get(ref);
+            if (chunk == null) {
+                continue;
+            }
+            if (chunk == SHARED || (result != null && !result.equals(chunk))) {
+                return null;
+            }
+            result = chunk;
+        }
+        return result;
+    }
+
+    private Set<MethodReference> getCallees(MethodReference method) {
+        Set<MethodReference> result = new HashSet<>();
+        CallGraphNode node = callGraph.getNode(method);
+        if (node != null) {
+            for (CallSite callSite : node.getCallSites()) {
+                for (CallGraphNode callee : callSite.getCalledMethods()) {
+                    result.add(callee.getMethod());
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -33,7 +33,11 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 import org.teavm.ast.AsyncMethodNode;
 import org.teavm.ast.ControlFlowEntry;
 import org.teavm.ast.RegularMethodNode;
@@ -50,6 +54,7 @@ import org.teavm.backend.javascript.decompile.PreparedClass;
 import org.teavm.backend.javascript.decompile.PreparedMethod;
 import org.teavm.backend.javascript.rendering.Renderer;
 import org.teavm.backend.javascript.rendering.RenderingContext;
+import org.teavm.backend.javascript.rendering.RenderingUtil;
 import org.teavm.backend.javascript.rendering.RuntimeRenderer;
 import org.teavm.backend.javascript.spi.GeneratedBy;
 import org.teavm.backend.javascript.spi.Generator;
@@ -87,6 +92,7 @@ import org.teavm.model.MethodHolder;
 import org.teavm.model.MethodReader;
 import org.teavm.model.MethodReference;
 import org.teavm.model.Program;
+import org.teavm.model.SynchronizedClassHolderSource;
 import org.teavm.model.TextLocation;
 import org.teavm.model.ValueType;
 import org.teavm.model.Variable;
@@ -103,6 +109,7 @@ import org.teavm.model.util.ProgramUtils;
 import org.teavm.vm.BuildTarget;
 import org.teavm.vm.RenderingException;
 import org.teavm.vm.TeaVMEntryPoint;
+import org.teavm.vm.TeaVMMetrics;
 import org.teavm.vm.TeaVMTarget;
 import org.teavm.vm.TeaVMTargetController;
 import org.teavm.vm.spi.RendererListener;
@@ -132,6 +139,8 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
     private boolean strict;
     private BoundCheckInsertion boundCheckInsertion = new BoundCheckInsertion();
     private NullCheckInsertion nullCheckInsertion = new NullCheckInsertion(NullCheckFilter.EMPTY);
+    private List<String> splitPoints = new ArrayList<>();
+    private JSModuleType moduleType = JSModuleType.NONE;
 
     @Override
     public List<ClassHolderTransformer> getTransformers() {
@@ -206,6 +215,27 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
         this.strict = strict;
     }
 
+    /**
+     * Specifies classes that start lazily loaded parts of application. Methods of each such class, along with
+     * methods of classes used only by it, are written to a separate file, which is loaded the first time
+     * one of these methods is called. Splitting is not performed when debug information is generated.
+     *
+     * @param splitPoints names of classes.
+     */
+    public void setSplitPoints(List<String> splitPoints) {
+        this.splitPoints = new ArrayList<>(splitPoints);
+    }
+
+    /**
+     * Specifies how to expose entry points. By default, code is wrapped into a function and entry points are
+     * declared as global variables. With {@link JSModuleType#ES2015}, output is an ES2015 module, which exports
+     * each entry point as a separate binding. In this case unused functions of hand-written runtime are
+     * not included, unless debug information is generated.
+     */
+    public void setModuleType(JSModuleType moduleType) {
+        this.moduleType = moduleType;
+    }
+
     @Override
     public boolean requiresRegisterAllocation() {
         return true;
@@ -333,7 +363,7 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
     public void emit(ListableClassHolderSource classes, BuildTarget target, String outputName) {
         try (OutputStream output = target.createResource(outputName);
                 Writer writer = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
-            emit(classes, writer, target);
+            emit(classes, writer, target, outputName);
         } catch (IOException e) {
             throw new RenderingException(e);
         }
@@ -357,8 +387,10 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
     public void afterOptimizations(Program program, MethodReader method) {
     }
 
-    private void emit(ListableClassHolderSource classes, Writer writer, BuildTarget target) {
+    private void emit(ListableClassHolderSource classes, Writer writer, BuildTarget target, String outputName) {
+        TeaVMMetrics.Measurement measurement = startMeasurement("decompilation");
         List<PreparedClass> clsNodes = modelToAst(classes);
+        endMeasurement(measurement);
         if (controller.wasCancelled()) {
             return;
         }
@@ -369,7 +401,9 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
         DefaultNamingStrategy naming = new DefaultNamingStrategy(aliasProvider, controller.getUnprocessedClassSource());
         SourceWriterBuilder builder = new SourceWriterBuilder(naming);
         builder.setMinified(obfuscated);
-        SourceWriter sourceWriter = builder.build(writer);
+        boolean runtimeDeferred = moduleType == JSModuleType.ES2015 && debugEmitter == null;
+        StringBuilder deferredOutput = new StringBuilder();
+        SourceWriter sourceWriter = builder.build(runtimeDeferred ? deferredOutput : writer);
 
         DebugInformationEmitter debugEmitterToUse = debugEmitter;
         if (debugEmitterToUse == null) {
@@ -386,6 +420,7 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
         Renderer renderer = new Renderer(sourceWriter, asyncMethods, asyncFamilyMethods,
                 controller.getDiagnostics(), renderingContext);
         RuntimeRenderer runtimeRenderer = new RuntimeRenderer(classes, sourceWriter);
+        runtimeRenderer.setDeferred(runtimeDeferred);
         renderer.setProperties(controller.getProperties());
         renderer.setMinifying(obfuscated);
         renderer.setProgressConsumer(controller::reportProgress);
@@ -403,6 +438,24 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
             renderer.setDebugEmitter(debugEmitter);
         }
         renderer.getDebugEmitter().setLocationProvider(sourceWriter);
+        List<String> chunkNames = new ArrayList<>();
+        List<StringBuilder> chunkContents = new ArrayList<>();
+        if (!splitPoints.isEmpty() && debugEmitter == null) {
+            Map<String, Integer> chunkByClass = new ChunkPartitioner(controller.getDependencyInfo().getCallGraph(),
+                    classes).partition(splitPoints, controller.getEntryPoints().values().stream()
+                            .map(TeaVMEntryPoint::getMethod).collect(Collectors.toList()));
+            String baseName = outputName.endsWith(".js")
+                    ? outputName.substring(0, outputName.length() - 3)
+                    : outputName;
+            List<SourceWriter> chunkWriters = new ArrayList<>();
+            for (int i = 0; i < splitPoints.size(); ++i) {
+                chunkNames.add(baseName + "-" + (i + 1) + ".js");
+                StringBuilder chunkContent = new StringBuilder();
+                chunkContents.add(chunkContent);
+                chunkWriters.add(builder.build(chunkContent));
+            }
+            renderer.setChunks(chunkByClass, chunkWriters);
+        }
         for (Map.Entry<MethodReference, Injector> entry : methodInjectors.entrySet()) {
             renderingContext.addInjector(entry.getKey(), entry.getValue());
         }
@@ -414,6 +467,7 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
             }
             int start = sourceWriter.getOffset();
 
+            measurement = startMeasurement("rendering");
             renderer.prepare(clsNodes);
             runtimeRenderer.renderRuntime();
             sourceWriter.append("var ").append(renderer.getNaming().getScopeName()).ws().append("=").ws()
@@ -438,28 +492,72 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
 
             for (Map.Entry<? extends String, ? extends TeaVMEntryPoint> entry
                     : controller.getEntryPoints().entrySet()) {
-                sourceWriter.append(entry.getKey()).ws().append("=").ws();
+                String name = getEntryPointVariable(entry.getKey());
+                if (moduleType == JSModuleType.ES2015) {
+                    sourceWriter.append("var ");
+                }
+                sourceWriter.append(name).ws().append("=").ws();
                 MethodReference ref = entry.getValue().getMethod();
                 sourceWriter.append("$rt_mainStarter(").appendMethodBody(ref);
                 sourceWriter.append(");").newLine();
-                sourceWriter.append(entry.getKey()).append(".").append("javaException").ws().append("=").ws()
+                sourceWriter.append(name).append(".").append("javaException").ws().append("=").ws()
                         .append("$rt_javaException;").newLine();
             }
 
+            if (!chunkNames.isEmpty()) {
+                renderChunkNames(sourceWriter, chunkNames);
+                runtimeRenderer.renderHandWrittenRuntime("chunks.js");
+                if (moduleType == JSModuleType.ES2015) {
+                    sourceWriter.append("if").ws().append("(typeof document").ws().append("!==").ws()
+                            .append("\"undefined\")").ws().append("{").indent().softNewLine();
+                    sourceWriter.append("$rt_chunkBase").ws().append("=").ws()
+                            .append("new URL(\".\",").ws().append("import.meta.url).href;").softNewLine();
+                    sourceWriter.outdent().append("}").newLine();
+                }
+            }
+
             for (RendererListener listener : rendererListeners) {
                 listener.complete();
             }
 
             printWrapperEnd(sourceWriter);
+            endMeasurement(measurement);
 
             int totalSize = sourceWriter.getOffset() - start;
             printStats(renderer, totalSize);
+
+            if (runtimeDeferred) {
+                writer.append(runtimeRenderer.insertDeferredRuntime(deferredOutput, chunkContents, builder));
+            }
         } catch (IOException e) {
             throw new RenderingException("IO Error occurred", e);
         }
+
+        for (int i = 0; i < chunkNames.size(); ++i) {
+            try (OutputStream output = target.createResource(chunkNames.get(i));
+                    Writer chunkWriter = new OutputStreamWriter(output, StandardCharsets.UTF_8)) {
+                chunkWriter.append(chunkContents.get(i));
+            } catch (IOException e) {
+                throw new RenderingException(e);
+            }
+        }
+    }
+
+    private void renderChunkNames(SourceWriter writer, List<String> chunkNames) throws IOException {
+        writer.append("var $rt_chunkNames").ws().append("=").ws().append("[");
+        for (int i = 0; i < chunkNames.size(); ++i) {
+            if (i > 0) {
+                writer.append(",").ws();
+            }
+            writer.append("\"").append(RenderingUtil.escapeString(chunkNames.get(i))).append("\"");
+        }
+        writer.append("];").newLine();
     }
 
     private void printWrapperStart(SourceWriter writer) throws IOException {
+        if (moduleType == JSModuleType.ES2015) {
+            return;
+        }
         writer.append("\"use strict\";").newLine();
         for (String key : controller.getEntryPoints().keySet()) {
             writer.append("var ").append(key).append(";").softNewLine();
@@ -468,9 +566,20 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
     }
 
     private void printWrapperEnd(SourceWriter writer) throws IOException {
+        if (moduleType == JSModuleType.ES2015) {
+            for (String key : controller.getEntryPoints().keySet()) {
+                writer.append("export").ws().append("{").ws().append(getEntryPointVariable(key)).append(" as ")
+                        .append(key).ws().append("};").newLine();
+            }
+            return;
+        }
         writer.append("})();").newLine();
     }
 
+    private String getEntryPointVariable(String name) {
+        return moduleType == JSModuleType.ES2015 ? "$rt_export_" + name : name;
+    }
+
     private void printStats(Renderer renderer, int totalSize) {
         if (!Boolean.parseBoolean(System.getProperty("teavm.js.stats", "false"))) {
             return;
@@ -508,6 +617,11 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
         Set<MethodReference> splitMethods = new HashSet<>(asyncMethods);
         splitMethods.addAll(asyncFamilyMethods);
 
+        int parallelism = controller.getParallelism();
+        if (parallelism > 1) {
+            return modelToAstInParallel(classes, splitMethods, parallelism);
+        }
+
         Decompiler decompiler = new Decompiler(classes, splitMethods, controller.isFriendlyToDebugger());
 
         List<PreparedClass> classNodes = new ArrayList<>();
@@ -524,6 +638,136 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
         return classNodes;
     }
 
+    /*
+     * Decompiles methods on a fork-join pool. Native method generators, AST cache and lazily
+     * computed programs are accessed from the calling thread only. Each worker uses its own
+     * decompiler, and results are collected in class order, so rendering sees exactly the same
+     * input as in sequential mode.
+     */
+    private List<PreparedClass> modelToAstInParallel(ListableClassHolderSource classes,
+            Set<MethodReference> splitMethods, int parallelism) {
+        ClassHolderSource sharedClasses = new SynchronizedClassHolderSource(classes);
+        ThreadLocal<Decompiler> decompilers = ThreadLocal.withInitial(() -> new Decompiler(sharedClasses,
+                splitMethods, controller.isFriendlyToDebugger()));
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            List<PreparedClass> classNodes = new ArrayList<>();
+            List<List<PendingMethod>> pendingMethodsByClass = new ArrayList<>();
+            for (String className : getClassOrdering(classes)) {
+                ClassHolder cls = classes.get(className);
+                for (MethodHolder method : cls.getMethods()) {
+                    preprocessNativeMethod(method);
+                }
+                if (controller.wasCancelled()) {
+                    return classNodes;
+                }
+
+                PreparedClass clsNode = new PreparedClass(cls);
+                List<PendingMethod> pendingMethods = new ArrayList<>();
+                for (MethodHolder method : getMethodsToDecompile(cls)) {
+                    if (method.hasModifier(ElementModifier.NATIVE)) {
+                        pendingMethods.add(new PendingMethod(method, decompileNative(method)));
+                    } else {
+                        pendingMethods.add(submitDecompilation(pool, decompilers, method));
+                    }
+                }
+                classNodes.add(clsNode);
+                pendingMethodsByClass.add(pendingMethods);
+            }
+
+            for (int i = 0; i < classNodes.size(); ++i) {
+                List<PreparedMethod> preparedMethods = classNodes.get(i).getMethods();
+                for (PendingMethod pendingMethod : pendingMethodsByClass.get(i)) {
+                    preparedMethods.add(completeDecompilation(pendingMethod));
+                }
+                if (controller.wasCancelled()) {
+                    break;
+                }
+            }
+            return classNodes;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private PendingMethod submitDecompilation(ForkJoinPool pool, ThreadLocal<Decompiler> decompilers,
+            MethodHolder method) {
+        MethodReference reference = method.getReference();
+        Program program = method.getProgram();
+        CacheStatus cacheStatus = controller.getCacheStatus();
+        boolean cacheable = astCache != null && !cacheStatus.isStaleMethod(reference);
+        if (asyncMethods.contains(reference)) {
+            ControlFlowEntry[] cfg = ProgramUtils.getLocationCFG(program);
+            AsyncMethodNode node = cacheable ? astCache.getAsync(reference, cacheStatus) : null;
+            if (node != null) {
+                return new PendingMethod(method, new PreparedMethod(method, node, null, false, cfg));
+            }
+            return new PendingMethod(method, pool.submit(() -> decompileAsyncCacheMiss(decompilers.get(), method)),
+                    cfg);
+        } else {
+            AstCacheEntry entry = cacheable ? astCache.get(reference, cacheStatus) : null;
+            if (entry != null) {
+                return new PendingMethod(method, new PreparedMethod(method, entry.method, null, false, entry.cfg));
+            }
+            return new PendingMethod(method, pool.submit(() -> decompileRegularCacheMiss(decompilers.get(),
+                    method)), null);
+        }
+    }
+
+    private PreparedMethod completeDecompilation(PendingMethod pendingMethod) {
+        if (pendingMethod.result != null) {
+            return pendingMethod.result;
+        }
+        MethodHolder method = pendingMethod.method;
+        Object result;
+        try {
+            result = pendingMethod.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RenderingException("Decompilation was interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new DecompilationException("Error decompiling method " + method.getReference(), e.getCause());
+        }
+
+        if (result instanceof AsyncMethodNode) {
+            AsyncMethodNode node = (AsyncMethodNode) result;
+            if (astCache != null) {
+                astCache.storeAsync(method.getReference(), node, () -> dependencyExtractor.extract(node));
+            }
+            return new PreparedMethod(method, node, null, false, pendingMethod.cfg);
+        } else {
+            AstCacheEntry entry = (AstCacheEntry) result;
+            if (astCache != null) {
+                astCache.store(method.getReference(), entry, () -> dependencyExtractor.extract(entry.method));
+            }
+            return new PreparedMethod(method, entry.method, null, false, entry.cfg);
+        }
+    }
+
+    static class PendingMethod {
+        final MethodHolder method;
+        final PreparedMethod result;
+        final Future<?> future;
+        final ControlFlowEntry[] cfg;
+
+        PendingMethod(MethodHolder method, PreparedMethod result) {
+            this.method = method;
+            this.result = result;
+            this.future = null;
+            this.cfg = null;
+        }
+
+        PendingMethod(MethodHolder method, Future<?> future, ControlFlowEntry[] cfg) {
+            this.method = method;
+            this.result = null;
+            this.future = future;
+            this.cfg = cfg;
+        }
+    }
+
     private List<String> getClassOrdering(ListableClassHolderSource classes) {
         List<String> sequence = new ArrayList<>();
         Set<String> visited = new HashSet<>();
@@ -552,6 +796,17 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
 
     private PreparedClass decompile(Decompiler decompiler, ClassHolder cls) {
         PreparedClass clsNode = new PreparedClass(cls);
+        for (MethodHolder method : getMethodsToDecompile(cls)) {
+            PreparedMethod preparedMethod = method.hasModifier(ElementModifier.NATIVE)
+                    ? decompileNative(method)
+                    : decompile(decompiler, method);
+            clsNode.getMethods().add(preparedMethod);
+        }
+        return clsNode;
+    }
+
+    private List<MethodHolder> getMethodsToDecompile(ClassHolder cls) {
+        List<MethodHolder> methods = new ArrayList<>();
         for (MethodHolder method : cls.getMethods()) {
             if (method.getModifiers().contains(ElementModifier.ABSTRACT)) {
                 continue;
@@ -563,13 +818,9 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
             if (!method.hasModifier(ElementModifier.NATIVE) && !method.hasProgram()) {
                 continue;
             }
-
-            PreparedMethod preparedMethod = method.hasModifier(ElementModifier.NATIVE)
-                    ? decompileNative(method)
-                    : decompile(decompiler, method);
-            clsNode.getMethods().add(preparedMethod);
+            methods.add(method);
         }
-        return clsNode;
+        return methods;
     }
 
     private PreparedMethod decompileNative(MethodHolder method) {
@@ -625,14 +876,16 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
     }
 
     private AstCacheEntry decompileRegularCacheMiss(Decompiler decompiler, MethodHolder method) {
+        TeaVMMetrics.Measurement measurement = startMeasurement("decompilation: method", method.getReference());
         RegularMethodNode node = decompiler.decompileRegular(method);
         ControlFlowEntry[] cfg = LocationGraphBuilder.build(node.getBody());
+        endMeasurement(measurement);
         return new AstCacheEntry(node, cfg);
     }
 
     private AsyncMethodNode decompileAsync(Decompiler decompiler, MethodHolder method) {
         if (astCache == null) {
-            return decompiler.decompileAsync(method);
+            return decompileAsyncCacheMiss(decompiler, method);
         }
 
         CacheStatus cacheStatus = controller.getCacheStatus();
@@ -640,13 +893,36 @@ public class JavaScriptTarget implements TeaVMTarget, TeaVMJavaScriptHost {
                 ? astCache.getAsync(method.getReference(), cacheStatus)
                 : null;
         if (node == null) {
-            node = decompiler.decompileAsync(method);
+            node = decompileAsyncCacheMiss(decompiler, method);
             AsyncMethodNode finalNode = node;
             astCache.storeAsync(method.getReference(), node, () -> dependencyExtractor.extract(finalNode));
         }
         return node;
     }
 
+    private AsyncMethodNode decompileAsyncCacheMiss(Decompiler decompiler, MethodHolder method) {
+        TeaVMMetrics.Measurement measurement = startMeasurement("decompilation: method", method.getReference());
+        AsyncMethodNode node = decompiler.decompileAsync(method);
+        endMeasurement(measurement);
+        return node;
+    }
+
+    private TeaVMMetrics.Measurement startMeasurement(String phase) {
+        TeaVMMetrics metrics = controller.getMetrics();
+        return metrics != null ? metrics.start(phase) : null;
+    }
+
+    private TeaVMMetrics.Measurement startMeasurement(String phase, MethodReference method) {
+        TeaVMMetrics metrics = controller.getMetrics();
+        return metrics != null ? metrics.start(phase, method) : null;
+    }
+
+    private static void endMeasurement(TeaVMMetrics.Measurement measurement) {
+        if (measurement != null) {
+            measurement.end();
+        }
+    }
+
     private void preprocessNativeMethod(MethodHolder method) {
         if (!method.getModifiers().contains(ElementModifier.NATIVE)
                 || methodGenerators.get(method.getReference()) != null
@@ -20,6 +20,7 @@ import com.carrotsearch.hppc.ObjectIntMap;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
@@ -65,7 +66,7 @@ import org.teavm.vm.TeaVMProgressFeedback;
 
 public class Renderer implements RenderingManager {
     private final NamingStrategy naming;
-    private final SourceWriter writer;
+    private SourceWriter writer;
     private final ListableClassReaderSource classSource;
     private final ClassLoader classLoader;
     private boolean minifying;
@@ -86,6 +87,8 @@ public class Renderer implements RenderingManager {
 
     private boolean longLibraryUsed;
     private boolean threadLibraryUsed;
+    private Map<String, Integer> chunkByClass = Collections.emptyMap();
+    private List<SourceWriter> chunkWriters = Collections.emptyList();
 
     public Renderer(SourceWriter writer, Set<MethodReference> asyncMethods, Set<MethodReference> asyncFamilyMethods,
             Diagnostics diagnostics, RenderingContext context) {
@@ -172,6 +175,19 @@ public class Renderer implements RenderingManager {
         this.progressConsumer = progressConsumer;
     }
 
+    /**
+     * Makes renderer to move bodies of methods of some classes to separate chunks, which are loaded on demand.
+     * In the main output these methods are replaced by stubs that load corresponding chunk and then call
+     * the actual method.
+     *
+     * @param chunkByClass index of chunk for each class that should be moved.
+     * @param chunkWriters writers to put code of each chunk.
+     */
+    public void setChunks(Map<String, Integer> chunkByClass, List<SourceWriter> chunkWriters) {
+        this.chunkByClass = chunkByClass;
+        this.chunkWriters = chunkWriters;
+    }
+
     public void setProperties(Properties properties) {
         this.properties.clear();
         this.properties.putAll(properties);
@@ -396,6 +412,9 @@ public class Renderer implements RenderingManager {
 
         if (cls.getName().equals("java.lang.Object")) {
             writer.append("this.$id$").ws().append('=').ws().append("0;").softNewLine();
+        } else if (cls.getName().equals("java.lang.String")) {
+            writer.append("this.").append(RuntimeRenderer.NATIVE_STRING_PROPERTY).ws().append('=').ws()
+                    .append("null;").softNewLine();
         }
 
         writer.outdent().append("}");
@@ -439,8 +458,13 @@ public class Renderer implements RenderingManager {
                 }
             }
 
+            Integer chunk = chunkByClass.get(cls.getName());
             for (PreparedMethod method : cls.getMethods()) {
-                renderBody(method);
+                if (chunk != null && (method.node == null || !isTrivialBody(method.node))) {
+                    renderLazyBody(method, chunk);
+                } else {
+                    renderBody(method, false);
+                }
             }
         } catch (IOException e) {
             throw new RenderingException("IO error occurred", e);
@@ -875,7 +899,32 @@ public class Renderer implements RenderingManager {
         writer.append(");").ws().append("}");
     }
 
-    private void renderBody(PreparedMethod method) throws IOException {
+    private void renderLazyBody(PreparedMethod method, int chunk) throws IOException {
+        ScopedName name = naming.getFullNameFor(method.reference);
+        renderFunctionDeclaration(name);
+        writer.append("()").ws().append("{").indent().softNewLine();
+        writer.append("$rt_loadChunk(").append(chunk).append(");").softNewLine();
+        writer.append("return ");
+        if (name.scoped) {
+            writer.append(naming.getScopeName()).append(".");
+        }
+        writer.append(name.value).append(".apply(null,").ws().append("arguments);").softNewLine();
+        writer.outdent().append("}");
+        if (name.scoped) {
+            writer.append(";");
+        }
+        writer.newLine();
+
+        SourceWriter mainWriter = writer;
+        writer = chunkWriters.get(chunk);
+        try {
+            renderBody(method, true);
+        } finally {
+            writer = mainWriter;
+        }
+    }
+
+    private void renderBody(PreparedMethod method, boolean lazy) throws IOException {
         StatementRenderer statementRenderer = new StatementRenderer(context, writer);
         statementRenderer.setCurrentMethod(method.node);
 
@@ -883,7 +932,15 @@ public class Renderer implements RenderingManager {
         debugEmitter.emitMethod(ref.getDescriptor());
         ScopedName name = naming.getFullNameFor(ref);
 
-        renderFunctionDeclaration(name);
+        if (lazy) {
+            // Chunk is evaluated in scope of main output, so it replaces the stub
+            if (name.scoped) {
+                writer.append(naming.getScopeName()).append(".");
+            }
+            writer.append(name.value).ws().append("=").ws().append("function");
+        } else {
+            renderFunctionDeclaration(name);
+        }
         writer.append("(");
         int startParam = 0;
         if (method.methodHolder.getModifiers().contains(ElementModifier.STATIC)) {
@@ -909,7 +966,7 @@ public class Renderer implements RenderingManager {
         }
 
         writer.outdent().append("}");
-        if (name.scoped) {
+        if (name.scoped || lazy) {
             writer.append(";");
         }
 
@@ -20,10 +20,25 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import org.mozilla.javascript.CompilerEnvirons;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Node;
+import org.mozilla.javascript.ast.AstNode;
 import org.mozilla.javascript.ast.AstRoot;
+import org.mozilla.javascript.ast.FunctionNode;
+import org.mozilla.javascript.ast.Name;
 import org.teavm.backend.javascript.codegen.SourceWriter;
+import org.teavm.backend.javascript.codegen.SourceWriterBuilder;
 import org.teavm.model.ClassReader;
 import org.teavm.model.ClassReaderSource;
 import org.teavm.model.ElementModifier;
@@ -53,8 +68,20 @@ public class RuntimeRenderer {
     private static final MethodReference CCE_INIT_METHOD = new MethodReference(ClassCastException.class,
             "<init>", void.class);
 
+    /**
+     * Name of property of <code>java.lang.String</code> instances that keeps JavaScript string with
+     * the same content, so that string is not converted each time it crosses boundary between Java
+     * and JavaScript. This is safe, since <code>characters</code> field of string is only written by
+     * its constructors, so once string is constructed, its content never changes. <code>$rt_str</code> sets
+     * this property right after string is constructed, <code>$rt_ustr</code> sets it on first conversion.
+     */
+    public static final String NATIVE_STRING_PROPERTY = "$jsString$";
+    private static final Pattern IDENTIFIER = Pattern.compile("[A-Za-z_$][A-Za-z0-9_$]*");
+
     private final ClassReaderSource classSource;
     private final SourceWriter writer;
+    private boolean deferred;
+    private final List<DeferredPart> deferredParts = new ArrayList<>();
 
     public RuntimeRenderer(ClassReaderSource classSource, SourceWriter writer) {
         this.classSource = classSource;
@@ -83,8 +110,29 @@ public class RuntimeRenderer {
         }
     }
 
+    /**
+     * <p>When set, hand-written parts of runtime are not rendered immediately. Instead, their positions in
+     * output are remembered, and they are inserted by {@link #insertDeferredRuntime(CharSequence, List,
+     * SourceWriterBuilder)}, when the rest of code is known, so that functions that are never referenced
+     * can be left out.</p>
+     *
+     * <p>Writer passed to constructor must write directly to the buffer that is passed to
+     * <code>insertDeferredRuntime</code>.</p>
+     */
+    public void setDeferred(boolean deferred) {
+        this.deferred = deferred;
+    }
+
     public void renderHandWrittenRuntime(String name) throws IOException {
         AstRoot ast = parseRuntime(name);
+        if (deferred) {
+            deferredParts.add(new DeferredPart(writer.getOffset(), ast));
+            return;
+        }
+        renderHandWrittenRuntime(ast, writer);
+    }
+
+    private void renderHandWrittenRuntime(AstRoot ast, SourceWriter writer) throws IOException {
         ast.visit(new StringConstantElimination());
         new RuntimeAstTransformer(writer.getNaming()).accept(ast);
         AstWriter astWriter = new AstWriter(writer);
@@ -92,6 +140,95 @@ public class RuntimeRenderer {
         astWriter.print(ast);
     }
 
+    public String insertDeferredRuntime(CharSequence code, List<? extends CharSequence> additionalCode,
+            SourceWriterBuilder builder) throws IOException {
+        removeUnusedFunctions(code, additionalCode);
+
+        StringBuilder sb = new StringBuilder();
+        int last = 0;
+        for (DeferredPart part : deferredParts) {
+            sb.append(code, last, part.offset);
+            renderHandWrittenRuntime(part.ast, builder.build(sb));
+            last = part.offset;
+        }
+        sb.append(code, last, code.length());
+        deferredParts.clear();
+        return sb.toString();
+    }
+
+    private void removeUnusedFunctions(CharSequence code, List<? extends CharSequence> additionalCode) {
+        Set<String> usedNames = new HashSet<>();
+        collectIdentifiers(code, usedNames);
+        for (CharSequence additionalPart : additionalCode) {
+            collectIdentifiers(additionalPart, usedNames);
+        }
+
+        Map<String, FunctionNode> functions = new HashMap<>();
+        for (DeferredPart part : deferredParts) {
+            for (Node statement : part.ast) {
+                FunctionNode function = getFunctionDeclaration(statement);
+                if (function != null) {
+                    functions.put(function.getFunctionName().getIdentifier(), function);
+                } else {
+                    collectIdentifiers((AstNode) statement, usedNames);
+                }
+            }
+        }
+
+        Queue<String> queue = new ArrayDeque<>(usedNames);
+        while (!queue.isEmpty()) {
+            FunctionNode function = functions.remove(queue.remove());
+            if (function != null) {
+                Set<String> namesFromFunction = new HashSet<>();
+                collectIdentifiers(function, namesFromFunction);
+                for (String name : namesFromFunction) {
+                    if (usedNames.add(name)) {
+                        queue.add(name);
+                    }
+                }
+            }
+        }
+
+        for (DeferredPart part : deferredParts) {
+            List<Node> unused = new ArrayList<>();
+            for (Node statement : part.ast) {
+                FunctionNode function = getFunctionDeclaration(statement);
+                if (function != null && functions.containsKey(function.getFunctionName().getIdentifier())) {
+                    unused.add(statement);
+                }
+            }
+            for (Node statement : unused) {
+                part.ast.removeChild(statement);
+            }
+        }
+    }
+
+    private static FunctionNode getFunctionDeclaration(Node statement) {
+        if (!(statement instanceof FunctionNode)) {
+            return null;
+        }
+        FunctionNode function = (FunctionNode) statement;
+        return function.getFunctionType() == FunctionNode.FUNCTION_STATEMENT && function.getFunctionName() != null
+                ? function
+                : null;
+    }
+
+    private static void collectIdentifiers(CharSequence code, Set<String> identifiers) {
+        Matcher matcher = IDENTIFIER.matcher(code);
+        while (matcher.find()) {
+            identifiers.add(matcher.group());
+        }
+    }
+
+    private static void collectIdentifiers(AstNode node, Set<String> identifiers) {
+        node.visit(n -> {
+            if (n instanceof Name) {
+                identifiers.add(((Name) n).getIdentifier());
+            }
+            return true;
+        });
+    }
+
     private AstRoot parseRuntime(String name) throws IOException {
         CompilerEnvirons env = new CompilerEnvirons();
         env.setRecoverFromErrors(true);
@@ -132,7 +269,9 @@ public class RuntimeRenderer {
         writer.append("for (var i = 0; i < str.length; i = (i + 1) | 0) {").indent().softNewLine();
         writer.append("charsBuffer[i] = str.charCodeAt(i) & 0xFFFF;").softNewLine();
         writer.outdent().append("}").softNewLine();
-        writer.append("return ").appendInit(stringCons).append("(characters);").softNewLine();
+        writer.append("var result = ").appendInit(stringCons).append("(characters);").softNewLine();
+        writer.append("result." + NATIVE_STRING_PROPERTY + " = str;").softNewLine();
+        writer.append("return result;").softNewLine();
         writer.outdent().append("}").newLine();
     }
 
@@ -142,12 +281,17 @@ public class RuntimeRenderer {
         writer.append("if (str === null) {").indent().softNewLine();
         writer.append("return null;").softNewLine();
         writer.outdent().append("}").softNewLine();
+        writer.append("var result = str." + NATIVE_STRING_PROPERTY + ";").softNewLine();
+        writer.append("if (typeof result === \"string\") {").indent().softNewLine();
+        writer.append("return result;").softNewLine();
+        writer.outdent().append("}").softNewLine();
 
         writer.append("var data = str.").appendField(stringChars).append(".data;").softNewLine();
-        writer.append("var result = \"\";").softNewLine();
-        writer.append("for (var i = 0; i < data.length; i = (i + 1) | 0) {").indent().softNewLine();
-        writer.append("result += String.fromCharCode(data[i]);").softNewLine();
+        writer.append("result = \"\";").softNewLine();
+        writer.append("for (var i = 0; i < data.length; i = (i + 1024) | 0) {").indent().softNewLine();
+        writer.append("result += String.fromCharCode.apply(null, data.subarray(i, i + 1024));").softNewLine();
         writer.outdent().append("}").softNewLine();
+        writer.append("str." + NATIVE_STRING_PROPERTY + " = result;").softNewLine();
         writer.append("return result;").softNewLine();
         writer.outdent().append("}").newLine();
     }
@@ -297,4 +441,14 @@ public class RuntimeRenderer {
 
         writer.outdent().append("}").newLine();
     }
+
+    private static class DeferredPart {
+        final int offset;
+        final AstRoot ast;
+
+        DeferredPart(int offset, AstRoot ast) {
+            this.offset = offset;
+            this.ast = ast;
+        }
+    }
 }
@@ -1141,9 +1141,11 @@ public class StatementRenderer implements ExprVisitor, StatementVisitor {
             if (expr.getLocation() != null) {
                 pushLocation(expr.getLocation());
             }
-            precedence = Precedence.MEMBER_ACCESS;
-            expr.getArray().acceptVisitor(this);
-            writer.append(".data");
+            if (!renderUnwrappedArray(expr.getArray())) {
+                precedence = Precedence.MEMBER_ACCESS;
+                expr.getArray().acceptVisitor(this);
+                writer.append(".data");
+            }
             if (expr.getLocation() != null) {
                 popLocation();
             }
@@ -1152,6 +1154,71 @@ public class StatementRenderer implements ExprVisitor, StatementVisitor {
         }
     }
 
+    /*
+     * When a new array is unwrapped right away, array object itself is never observed, so there's no need
+     * to allocate it, typed array is enough.
+     */
+    private boolean renderUnwrappedArray(Expr array) throws IOException {
+        if (array instanceof NewArrayExpr) {
+            NewArrayExpr newArray = (NewArrayExpr) array;
+            String constructor = getTypedArrayConstructor(newArray.getType());
+            if (constructor == null) {
+                return false;
+            }
+            if (newArray.getLocation() != null) {
+                pushLocation(newArray.getLocation());
+            }
+            writer.append("new ").append(constructor).append("(");
+            precedence = Precedence.min();
+            newArray.getLength().acceptVisitor(this);
+            writer.append(")");
+            if (newArray.getLocation() != null) {
+                popLocation();
+            }
+            return true;
+        } else if (array instanceof ArrayFromDataExpr) {
+            ArrayFromDataExpr arrayFromData = (ArrayFromDataExpr) array;
+            String constructor = getTypedArrayConstructor(arrayFromData.getType());
+            if (constructor == null) {
+                return false;
+            }
+            if (arrayFromData.getLocation() != null) {
+                pushLocation(arrayFromData.getLocation());
+            }
+            writer.append("new ").append(constructor).append("([");
+            writeCommaSeparated(arrayFromData.getData());
+            writer.append("])");
+            if (arrayFromData.getLocation() != null) {
+                popLocation();
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String getTypedArrayConstructor(ValueType type) {
+        if (!(type instanceof ValueType.Primitive)) {
+            return null;
+        }
+        switch (((ValueType.Primitive) type).getKind()) {
+            case BOOLEAN:
+            case BYTE:
+                return "Int8Array";
+            case SHORT:
+                return "Int16Array";
+            case CHARACTER:
+                return "Uint16Array";
+            case INTEGER:
+                return "Int32Array";
+            case FLOAT:
+                return "Float32Array";
+            case DOUBLE:
+                return "Float64Array";
+            default:
+                return null;
+        }
+    }
+
     @Override
     public void visit(InvocationExpr expr) {
         try {
@@ -168,7 +168,11 @@ public class WasmClassGenerator {
             binaryData.start = binaryWriter.append(binaryData.data);
         } else if (type instanceof ValueType.Object) {
             String className = ((ValueType.Object) type).getClassName();
-            ClassReader cls = classSource.get(className);
+            // Optimizations may change set of fields, so take layout from processed class when possible
+            ClassReader cls = processedClassSource.get(className);
+            if (cls == null) {
+                cls = classSource.get(className);
+            }
 
             if (cls != null) {
                 calculateLayout(cls, binaryData);
@@ -0,0 +1,243 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ReferenceCache;
+import org.teavm.model.util.ModelUtils;
+import org.teavm.parsing.resource.DirectoryResourceReader;
+import org.teavm.parsing.resource.ResourceClassHolderMapper;
+
+/**
+ * <p>Snapshot of parsed classes that is shipped alongside class files, so that compiler does not have to parse
+ * them on every build. Snapshot is a {@link PackedCacheFile} stored as {@link #RESOURCE_NAME} resource, keyed by
+ * class name. A class is taken from snapshot only when its class file is found in the same class path entry
+ * as the snapshot itself.</p>
+ *
+ * <p>Class files are rewritten when a JAR is shaded, so snapshot can't be validated by content hash. Instead,
+ * classes that refer to packages relocated by shading are left out of snapshot when it is written.</p>
+ *
+ * <p>Snapshot is memory-mapped when it is available as a file; otherwise (i.e. when it's packed in a JAR) it is
+ * read into memory. In both cases classes are decoded only when they are requested.</p>
+ */
+public class ClassSnapshot {
+    public static final String RESOURCE_NAME = "META-INF/teavm/classes.snapshot";
+    private static final String SYMBOLS_KEY = "#symbols";
+    private static final String FILES_KEY = "#files";
+    private static final String VARIABLES_KEY = "#variables";
+    private String root;
+    private PackedCacheFile data;
+    private ClassIO classIO;
+
+    private ClassSnapshot(String root, PackedCacheFile data, ReferenceCache referenceCache) throws IOException {
+        this.root = root;
+        this.data = data;
+        classIO = new ClassIO(referenceCache, readSymbolTable(data, SYMBOLS_KEY), readSymbolTable(data, FILES_KEY),
+                readSymbolTable(data, VARIABLES_KEY));
+    }
+
+    public static List<ClassSnapshot> load(ClassLoader classLoader, ReferenceCache referenceCache) {
+        List<ClassSnapshot> result = new ArrayList<>();
+        Enumeration<URL> resources;
+        try {
+            resources = classLoader.getResources(RESOURCE_NAME);
+        } catch (IOException e) {
+            return result;
+        }
+        while (resources.hasMoreElements()) {
+            URL resource = resources.nextElement();
+            String url = resource.toString();
+            if (!url.endsWith(RESOURCE_NAME)) {
+                continue;
+            }
+            String root = url.substring(0, url.length() - RESOURCE_NAME.length());
+            try {
+                result.add(new ClassSnapshot(root, new PackedCacheFile(readResource(resource)), referenceCache));
+            } catch (IOException e) {
+                // Snapshot is not readable, classes will be parsed from class files
+            }
+        }
+        return result;
+    }
+
+    private static ByteBuffer readResource(URL resource) throws IOException {
+        if (resource.getProtocol().equals("file")) {
+            try {
+                File file = new File(resource.toURI());
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            } catch (URISyntaxException e) {
+                // Fall back to reading resource stream
+            }
+        }
+        try (InputStream input = resource.openStream()) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            byte[] buffer = new byte[65536];
+            while (true) {
+                int bytesRead = input.read(buffer);
+                if (bytesRead < 0) {
+                    break;
+                }
+                output.write(buffer, 0, bytesRead);
+            }
+            return ByteBuffer.wrap(output.toByteArray());
+        }
+    }
+
+    /**
+     * Returns class from snapshot, if snapshot contains class with given name and comes from the same class path
+     * entry as given class file.
+     */
+    public ClassHolder get(String className, URL classFile) {
+        if (!classFile.toString().startsWith(root)) {
+            return null;
+        }
+        byte[] entry = data.get(className);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return ModelUtils.copyClass(classIO.readClass(new ByteArrayInputStream(entry), className));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static SymbolTable readSymbolTable(PackedCacheFile data, String key) throws IOException {
+        byte[] bytes = data.get(key);
+        if (bytes == null) {
+            throw new IOException("Snapshot does not contain symbol table " + key);
+        }
+        VarDataInput input = new VarDataInput(new ByteArrayInputStream(bytes));
+        InMemorySymbolTable table = new InMemorySymbolTable();
+        int size = input.readUnsigned();
+        for (int i = 0; i < size; ++i) {
+            table.lookup(input.read());
+        }
+        return table;
+    }
+
+    private static byte[] writeSymbolTable(InMemorySymbolTable table) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        VarDataOutput output = new VarDataOutput(bytes);
+        output.writeUnsigned(table.size());
+        for (int i = 0; i < table.size(); ++i) {
+            output.write(table.at(i));
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Parses all class files in given directory and writes snapshot of them.
+     *
+     * @param excludedPackages packages that will be relocated when JAR is shaded. Classes that refer to them
+     *                         are not included into snapshot.
+     */
+    public static void write(File classesDirectory, File snapshotFile, List<String> excludedPackages)
+            throws IOException {
+        List<String> excludedPrefixes = new ArrayList<>();
+        for (String excludedPackage : excludedPackages) {
+            excludedPrefixes.add(excludedPackage.replace('.', '/') + "/");
+        }
+        List<String> classNames = new ArrayList<>();
+        collectClassNames(classesDirectory, "", classNames);
+        Collections.sort(classNames);
+
+        ReferenceCache referenceCache = new ReferenceCache();
+        ResourceClassHolderMapper mapper = new ResourceClassHolderMapper(
+                new DirectoryResourceReader(classesDirectory), referenceCache);
+        InMemorySymbolTable symbolTable = new InMemorySymbolTable();
+        InMemorySymbolTable fileTable = new InMemorySymbolTable();
+        InMemorySymbolTable variableTable = new InMemorySymbolTable();
+        ClassIO classIO = new ClassIO(referenceCache, symbolTable, fileTable, variableTable);
+
+        snapshotFile.delete();
+        PackedCacheFile data = new PackedCacheFile(snapshotFile);
+        for (String className : classNames) {
+            File classFile = new File(classesDirectory, className.replace('.', '/') + ".class");
+            if (refersToPackages(classFile, excludedPrefixes)) {
+                continue;
+            }
+            ClassHolder cls;
+            try {
+                cls = mapper.apply(className);
+            } catch (RuntimeException e) {
+                // Leave class out of snapshot, it will be parsed from class file
+                continue;
+            }
+            if (cls == null) {
+                continue;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            classIO.writeClass(bytes, cls);
+            data.put(className, bytes.toByteArray());
+        }
+        data.put(SYMBOLS_KEY, writeSymbolTable(symbolTable));
+        data.put(FILES_KEY, writeSymbolTable(fileTable));
+        data.put(VARIABLES_KEY, writeSymbolTable(variableTable));
+        data.flush();
+    }
+
+    private static boolean refersToPackages(File classFile, List<String> prefixes) throws IOException {
+        if (prefixes.isEmpty()) {
+            return false;
+        }
+        String content = new String(Files.readAllBytes(classFile.toPath()), StandardCharsets.ISO_8859_1);
+        for (String prefix : prefixes) {
+            if (content.contains(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void collectClassNames(File directory, String prefix, List<String> classNames) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectClassNames(file, prefix + file.getName() + ".", classNames);
+            } else if (file.getName().endsWith(".class")) {
+                String name = file.getName();
+                classNames.add(prefix + name.substring(0, name.length() - ".class".length()));
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        write(new File(args[0]), new File(args[1]), Arrays.asList(args).subList(2, args.length));
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import org.teavm.model.MethodReference;
+import org.teavm.parsing.ClassHashProvider;
+
+/**
+ * Cache status for content-addressed caches, which check hashes of dependencies themselves. Only classes
+ * that don't come from class files, and therefore have no content hash, are considered stale.
+ */
+public class ContentHashCacheStatus implements CacheStatus {
+    private ClassHashProvider classHashProvider;
+
+    public ContentHashCacheStatus(ClassHashProvider classHashProvider) {
+        this.classHashProvider = classHashProvider;
+    }
+
+    @Override
+    public boolean isStaleClass(String className) {
+        return classHashProvider.getContentHash(className) == null;
+    }
+
+    @Override
+    public boolean isStaleMethod(MethodReference method) {
+        return isStaleClass(method.getClassName());
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Keeps shared cache entries in a directory, one file per entry. The directory can be used by several builds
+ * at once: each entry is written to a temporary file first and then atomically moved in place.
+ */
+public class DirectorySharedCacheStore implements SharedCacheStore {
+    private File directory;
+
+    public DirectorySharedCacheStore(File directory) {
+        this.directory = directory;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        try {
+            return Files.readAllBytes(getEntryFile(key).toPath());
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void put(String key, byte[] data) throws IOException {
+        File file = getEntryFile(key);
+        if (file.exists()) {
+            return;
+        }
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        File tempFile = File.createTempFile(key, ".tmp", parent);
+        try {
+            try (OutputStream output = new FileOutputStream(tempFile)) {
+                output.write(data);
+            }
+            try {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            tempFile.delete();
+        }
+    }
+
+    private File getEntryFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key.substring(2) + ".teavm-shared");
+    }
+}
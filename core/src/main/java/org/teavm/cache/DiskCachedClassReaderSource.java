@@ -17,6 +17,10 @@ package org.teavm.cache;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -34,11 +38,14 @@ import org.teavm.model.ClassReaderSource;
 import org.teavm.model.MethodReference;
 import org.teavm.model.ReferenceCache;
 import org.teavm.parsing.ClassDateProvider;
+import org.teavm.parsing.ClassHashProvider;
 
 public class DiskCachedClassReaderSource implements ClassReaderSource, CacheStatus {
     private File directory;
     private ClassHolderSource innerSource;
     private ClassDateProvider classDateProvider;
+    private ClassHashProvider classHashProvider;
+    private String configurationHash;
     private Map<String, Item> cache = new LinkedHashMap<>();
     private Set<String> newClasses = new HashSet<>();
     private ClassIO classIO;
@@ -52,6 +59,23 @@ public class DiskCachedClassReaderSource implements ClassReaderSource, CacheStat
         classIO = new ClassIO(referenceCache, symbolTable, fileTable, variableTable);
     }
 
+    /**
+     * Creates class source that considers cached class stale when hash of its class file changes,
+     * regardless of modification dates.
+     *
+     * @param configurationHash hash of compiler version and options; when it differs from the one recorded
+     *                          in the cache, all classes are considered stale.
+     */
+    public DiskCachedClassReaderSource(File directory, ReferenceCache referenceCache, SymbolTable symbolTable,
+            SymbolTable fileTable, SymbolTable variableTable, ClassHolderSource innerSource,
+            ClassHashProvider classHashProvider, String configurationHash) {
+        this.directory = directory;
+        this.innerSource = innerSource;
+        this.classHashProvider = classHashProvider;
+        this.configurationHash = configurationHash;
+        classIO = new ClassIO(referenceCache, symbolTable, fileTable, variableTable);
+    }
+
     @Override
     public ClassReader get(String name) {
         return getItemFromCache(name).cls;
@@ -72,17 +96,11 @@ public class DiskCachedClassReaderSource implements ClassReaderSource, CacheStat
         if (item == null) {
             item = new Item();
             cache.put(name, item);
-            File classFile = new File(directory, name.replace('.', '/') + ".teavm-cls");
-            if (classFile.exists()) {
-                Date classDate = classDateProvider.getModificationDate(name);
-                if (classDate != null && classDate.before(new Date(classFile.lastModified()))) {
-                    try (InputStream input = new BufferedInputStream(new FileInputStream(classFile))) {
-                        item.cls = classIO.readClass(input, name);
-                    } catch (IOException e) {
-                        // We could not access cache file, so let's parse class file
-                        item.cls = null;
-                    }
-                }
+            if (classHashProvider != null) {
+                item.hash = classHashProvider.getContentHash(name);
+                readByHash(name, item);
+            } else {
+                readByDate(name, item);
             }
             if (item.cls == null) {
                 item.dirty = true;
@@ -93,18 +111,63 @@ public class DiskCachedClassReaderSource implements ClassReaderSource, CacheStat
         return item;
     }
 
+    private void readByDate(String name, Item item) {
+        File classFile = getClassFile(name);
+        if (classFile.exists()) {
+            Date classDate = classDateProvider.getModificationDate(name);
+            if (classDate != null && classDate.before(new Date(classFile.lastModified()))) {
+                try (InputStream input = new BufferedInputStream(new FileInputStream(classFile))) {
+                    item.cls = classIO.readClass(input, name);
+                } catch (IOException e) {
+                    // We could not access cache file, so let's parse class file
+                    item.cls = null;
+                }
+            }
+        }
+    }
+
+    private void readByHash(String name, Item item) {
+        File classFile = getClassFile(name);
+        if (item.hash != null && classFile.exists()) {
+            try (InputStream input = new BufferedInputStream(new FileInputStream(classFile))) {
+                DataInput data = new DataInputStream(input);
+                if (data.readUTF().equals(configurationHash) && data.readUTF().equals(item.hash)) {
+                    item.cls = classIO.readClass(input, name);
+                }
+            } catch (IOException e) {
+                // We could not access cache file, so let's parse class file
+                item.cls = null;
+            }
+        }
+    }
+
+    private File getClassFile(String name) {
+        return new File(directory, name.replace('.', '/') + (classHashProvider != null
+                ? ".teavm-hcls"
+                : ".teavm-cls"));
+    }
+
     private static class Item {
         ClassReader cls;
         boolean dirty;
+        String hash;
     }
 
     public void flush() throws IOException {
         for (String className : newClasses) {
             Item item = cache.get(className);
             if (item.cls != null) {
-                File classFile = new File(directory, className.replace('.', '/') + ".teavm-cls");
+                if (classHashProvider != null && item.hash == null) {
+                    continue;
+                }
+                File classFile = getClassFile(className);
                 classFile.getParentFile().mkdirs();
                 try (OutputStream output = new BufferedOutputStream(new FileOutputStream(classFile))) {
+                    if (classHashProvider != null) {
+                        DataOutput data = new DataOutputStream(output);
+                        data.writeUTF(configurationHash);
+                        data.writeUTF(item.hash);
+                    }
                     classIO.writeClass(output, item.cls);
                 }
             }
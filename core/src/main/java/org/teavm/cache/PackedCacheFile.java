@@ -0,0 +1,237 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>Stores cache entries in a single append-only segment file. The file is read into memory at once when
+ * opened, and an index from keys to entry offsets is rebuilt by scanning entry headers, so that a warm build
+ * opens one file instead of one file per cached method. The file is not memory-mapped, since a live mapping
+ * can't be released explicitly and prevents replacing the file on Windows.</p>
+ *
+ * <p>New entries are kept in memory until {@link #flush()}, which either appends them to the end of the
+ * file or, when superseded entries take more space than live ones, rewrites the file keeping only live
+ * entries.</p>
+ */
+public class PackedCacheFile {
+    private static final int MAGIC = 0x54564D50;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    private static final int ENTRY_HEADER_SIZE = 8;
+
+    private final File file;
+    private ByteBuffer buffer;
+    private long fileLength;
+    private int validLength;
+    private long garbageSize;
+    private final Map<String, Entry> index = new HashMap<>();
+    private final Map<String, byte[]> pendingEntries = new LinkedHashMap<>();
+
+    public PackedCacheFile(File file) {
+        this.file = file;
+        open();
+    }
+
+    /**
+     * Creates read-only view of entries packed in given buffer.
+     */
+    PackedCacheFile(ByteBuffer buffer) {
+        file = null;
+        fileLength = buffer.capacity();
+        readIndex(buffer);
+    }
+
+    private void open() {
+        buffer = null;
+        fileLength = 0;
+        validLength = 0;
+        garbageSize = 0;
+        index.clear();
+        if (!file.exists()) {
+            return;
+        }
+
+        try {
+            if (file.length() > Integer.MAX_VALUE) {
+                return;
+            }
+            byte[] data = Files.readAllBytes(file.toPath());
+            fileLength = data.length;
+            readIndex(ByteBuffer.wrap(data));
+        } catch (IOException e) {
+            // Cache file is not accessible, start with empty cache
+            buffer = null;
+            index.clear();
+        }
+    }
+
+    private void readIndex(ByteBuffer data) {
+        if (data.capacity() < HEADER_SIZE || data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+            return;
+        }
+        buffer = data;
+
+        int limit = (int) fileLength;
+        int position = HEADER_SIZE;
+        while (limit - position >= ENTRY_HEADER_SIZE) {
+            int keyLength = buffer.getInt(position);
+            if (keyLength < 0 || keyLength > limit - position - ENTRY_HEADER_SIZE) {
+                break;
+            }
+            int dataLength = buffer.getInt(position + 4 + keyLength);
+            int dataOffset = position + ENTRY_HEADER_SIZE + keyLength;
+            if (dataLength < 0 || dataLength > limit - dataOffset) {
+                break;
+            }
+
+            String key = new String(readBytes(position + 4, keyLength), StandardCharsets.UTF_8);
+            Entry entry = new Entry(position, dataOffset, dataLength);
+            Entry previous = index.put(key, entry);
+            if (previous != null) {
+                garbageSize += previous.size();
+            }
+            position = dataOffset + dataLength;
+        }
+        validLength = position;
+    }
+
+    byte[] get(String key) {
+        byte[] pending = pendingEntries.get(key);
+        if (pending != null) {
+            return pending;
+        }
+        Entry entry = index.get(key);
+        return entry != null ? readBytes(entry.dataOffset, entry.dataLength) : null;
+    }
+
+    void put(String key, byte[] data) {
+        pendingEntries.put(key, data);
+    }
+
+    private byte[] readBytes(int offset, int length) {
+        byte[] result = new byte[length];
+        ByteBuffer view = buffer.duplicate();
+        ((Buffer) view).position(offset);
+        view.get(result);
+        return result;
+    }
+
+    public void flush() throws IOException {
+        if (pendingEntries.isEmpty()) {
+            return;
+        }
+
+        long liveSize = 0;
+        long obsoleteSize = garbageSize;
+        for (Map.Entry<String, Entry> mapEntry : index.entrySet()) {
+            if (pendingEntries.containsKey(mapEntry.getKey())) {
+                obsoleteSize += mapEntry.getValue().size();
+            } else {
+                liveSize += mapEntry.getValue().size();
+            }
+        }
+
+        if (buffer == null || validLength != fileLength || obsoleteSize > liveSize) {
+            rewrite();
+        } else {
+            append();
+        }
+        pendingEntries.clear();
+        open();
+    }
+
+    private void append() throws IOException {
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file, true)))) {
+            writePendingEntries(output);
+        }
+    }
+
+    private void rewrite() throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            for (Map.Entry<String, Entry> mapEntry : index.entrySet()) {
+                if (!pendingEntries.containsKey(mapEntry.getKey())) {
+                    Entry entry = mapEntry.getValue();
+                    output.write(readBytes(entry.offset, entry.size()));
+                }
+            }
+            writePendingEntries(output);
+        }
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void writePendingEntries(DataOutputStream output) throws IOException {
+        for (Map.Entry<String, byte[]> mapEntry : pendingEntries.entrySet()) {
+            byte[] key = mapEntry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] data = mapEntry.getValue();
+            output.writeInt(key.length);
+            output.write(key);
+            output.writeInt(data.length);
+            output.write(data);
+        }
+    }
+
+    static void writeDependencies(VarDataOutput output, String[] dependencies) throws IOException {
+        output.writeUnsigned(dependencies.length);
+        for (String dependency : dependencies) {
+            output.write(dependency);
+        }
+    }
+
+    static boolean dependenciesChanged(VarDataInput input, CacheStatus cacheStatus) throws IOException {
+        int depCount = input.readUnsigned();
+        for (int i = 0; i < depCount; ++i) {
+            if (cacheStatus.isStaleClass(input.read())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Entry {
+        final int offset;
+        final int dataOffset;
+        final int dataLength;
+
+        Entry(int offset, int dataOffset, int dataLength) {
+            this.offset = offset;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+        }
+
+        int size() {
+            return dataOffset + dataLength - offset;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.teavm.ast.AsyncMethodNode;
+import org.teavm.ast.ControlFlowEntry;
+import org.teavm.ast.RegularMethodNode;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ReferenceCache;
+
+public class PackedMethodNodeCache implements MethodNodeCache {
+    private static final String KEY_PREFIX = "ast:";
+    private static final String ASYNC_KEY_PREFIX = "ast-async:";
+    private final PackedCacheFile file;
+    private final AstIO astIO;
+    private final Map<MethodReference, AstCacheEntry> cache = new HashMap<>();
+    private final Map<MethodReference, AsyncMethodNode> asyncCache = new HashMap<>();
+
+    public PackedMethodNodeCache(PackedCacheFile file, ReferenceCache referenceCache, SymbolTable symbolTable,
+            SymbolTable fileTable, SymbolTable variableTable) {
+        this.file = file;
+        astIO = new AstIO(referenceCache, symbolTable, fileTable, variableTable);
+    }
+
+    @Override
+    public AstCacheEntry get(MethodReference methodReference, CacheStatus cacheStatus) {
+        if (cache.containsKey(methodReference)) {
+            return cache.get(methodReference);
+        }
+        AstCacheEntry entry = null;
+        VarDataInput input = open(KEY_PREFIX, methodReference, cacheStatus);
+        if (input != null) {
+            try {
+                ControlFlowEntry[] cfg = astIO.readControlFlow(input);
+                RegularMethodNode node = astIO.read(input, methodReference);
+                entry = new AstCacheEntry(node, cfg);
+            } catch (IOException e) {
+                // we could not read AST, just leave it empty
+            }
+        }
+        cache.put(methodReference, entry);
+        return entry;
+    }
+
+    @Override
+    public void store(MethodReference methodReference, AstCacheEntry entry, Supplier<String[]> dependencies) {
+        cache.put(methodReference, entry);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            VarDataOutput data = new VarDataOutput(output);
+            PackedCacheFile.writeDependencies(data, dependencies.get());
+            astIO.write(data, entry.cfg);
+            astIO.write(data, entry.method);
+            file.put(KEY_PREFIX + methodReference, output.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public AsyncMethodNode getAsync(MethodReference methodReference, CacheStatus cacheStatus) {
+        if (asyncCache.containsKey(methodReference)) {
+            return asyncCache.get(methodReference);
+        }
+        AsyncMethodNode node = null;
+        VarDataInput input = open(ASYNC_KEY_PREFIX, methodReference, cacheStatus);
+        if (input != null) {
+            try {
+                node = astIO.readAsync(input, methodReference);
+            } catch (IOException e) {
+                // we could not read AST, just leave it empty
+            }
+        }
+        asyncCache.put(methodReference, node);
+        return node;
+    }
+
+    @Override
+    public void storeAsync(MethodReference methodReference, AsyncMethodNode node, Supplier<String[]> dependencies) {
+        asyncCache.put(methodReference, node);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            VarDataOutput data = new VarDataOutput(output);
+            PackedCacheFile.writeDependencies(data, dependencies.get());
+            astIO.writeAsync(data, node);
+            file.put(ASYNC_KEY_PREFIX + methodReference, output.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private VarDataInput open(String prefix, MethodReference methodReference, CacheStatus cacheStatus) {
+        byte[] data = file.get(prefix + methodReference);
+        if (data == null) {
+            return null;
+        }
+        VarDataInput input = new VarDataInput(new ByteArrayInputStream(data));
+        try {
+            return !PackedCacheFile.dependenciesChanged(input, cacheStatus) ? input : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ProgramCache;
+import org.teavm.model.ReferenceCache;
+
+public class PackedProgramCache implements ProgramCache {
+    private static final String KEY_PREFIX = "program:";
+    private PackedCacheFile file;
+    private ProgramIO programIO;
+    private Map<MethodReference, Program> cache = new HashMap<>();
+
+    public PackedProgramCache(PackedCacheFile file, ReferenceCache referenceCache, SymbolTable symbolTable,
+            SymbolTable fileTable, SymbolTable variableTable) {
+        this.file = file;
+        programIO = new ProgramIO(referenceCache, symbolTable, fileTable, variableTable);
+    }
+
+    @Override
+    public Program get(MethodReference method, CacheStatus cacheStatus) {
+        if (cache.containsKey(method)) {
+            return cache.get(method);
+        }
+        Program program = null;
+        byte[] data = file.get(KEY_PREFIX + method);
+        if (data != null) {
+            try {
+                VarDataInput input = new VarDataInput(new ByteArrayInputStream(data));
+                if (!PackedCacheFile.dependenciesChanged(input, cacheStatus)) {
+                    program = programIO.read(input);
+                }
+            } catch (IOException e) {
+                // we could not read program, just leave it empty
+            }
+        }
+        cache.put(method, program);
+        return program;
+    }
+
+    @Override
+    public void store(MethodReference method, Program program, Supplier<String[]> dependencies) {
+        cache.put(method, program);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            VarDataOutput data = new VarDataOutput(output);
+            PackedCacheFile.writeDependencies(data, dependencies.get());
+            programIO.write(program, data);
+            file.put(KEY_PREFIX + method, output.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
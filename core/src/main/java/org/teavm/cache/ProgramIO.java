@@ -210,6 +210,7 @@ public class ProgramIO {
 
             InliningInfo inliningInfo = null;
             TextLocation location = TextLocation.EMPTY;
+            boolean noLocation = true;
             insnLoop: while (true) {
                 int insnType = data.readUnsigned();
                 switch (insnType) {
@@ -217,16 +218,25 @@ public class ProgramIO {
                         break insnLoop;
                     case 1:
                         location = new TextLocation(null, -1, inliningInfo);
+                        noLocation = false;
                         break;
                     case 2: {
                         String file = fileTable.at(data.readUnsigned());
                         int line = data.readUnsigned();
                         location = new TextLocation(file, line, inliningInfo);
+                        noLocation = false;
                         break;
                     }
+                    case 123:
+                        noLocation = false;
+                        break;
+                    case 124:
+                        noLocation = true;
+                        break;
                     case 127: {
                         int line = location.getLine() + data.readSigned();
                         location = new TextLocation(location.getFileName(), line, inliningInfo);
+                        noLocation = false;
                         break;
                     }
                     case 125: {
@@ -235,15 +245,17 @@ public class ProgramIO {
                         inliningInfo = new InliningInfo(createMethodReference(className, methodDescriptor),
                                 location.getFileName(), location.getLine(), inliningInfo);
                         location = new TextLocation(null, -1, inliningInfo);
+                        noLocation = false;
                         break;
                     }
                     case 126:
                         location = new TextLocation(inliningInfo.getFileName(), inliningInfo.getLine());
                         inliningInfo = inliningInfo.getParent();
+                        noLocation = false;
                         break;
                     default: {
                         Instruction insn = readInstruction(insnType, program, data);
-                        insn.setLocation(location);
+                        insn.setLocation(noLocation ? null : location);
                         block.add(insn);
                         break;
                     }
@@ -257,6 +269,7 @@ public class ProgramIO {
     private class InstructionWriter implements InstructionReader {
         private VarDataOutput output;
         TextLocation location = TextLocation.EMPTY;
+        boolean noLocation = true;
 
         InstructionWriter(VarDataOutput output) {
             this.output = output;
@@ -265,7 +278,9 @@ public class ProgramIO {
         @Override
         public void location(TextLocation newLocation) {
             try {
-                if (newLocation == null) {
+                // Decompiler treats missing location differently from empty one, so keep them distinct
+                boolean newNoLocation = newLocation == null;
+                if (newNoLocation) {
                     newLocation = TextLocation.EMPTY;
                 }
 
@@ -305,6 +320,10 @@ public class ProgramIO {
 
                 writeSimpleLocation(fileName, lineNumber, newLocation.getFileName(), newLocation.getLine());
                 location = newLocation;
+                if (newNoLocation != noLocation) {
+                    output.writeUnsigned(newNoLocation ? 124 : 123);
+                    noLocation = newNoLocation;
+                }
             } catch (IOException e) {
                 throw new IOExceptionWrapper(e);
             }
@@ -0,0 +1,158 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.teavm.common.HashUtils;
+import org.teavm.model.MethodReference;
+import org.teavm.parsing.ClassHashProvider;
+
+/**
+ * Encodes entries of content-addressed caches. Entry key is derived from compiler configuration, method
+ * and hash of the declaring class. Entry itself records hashes of all classes it depends on and carries its own
+ * symbol tables, so that it can be read by any build regardless of its local cache directory.
+ */
+class SharedCacheEntries {
+    private SharedCacheStore store;
+    private ClassHashProvider classHashProvider;
+    private String configurationHash;
+    private Map<String, byte[]> newEntries = new LinkedHashMap<>();
+
+    SharedCacheEntries(SharedCacheStore store, ClassHashProvider classHashProvider, String configurationHash) {
+        this.store = store;
+        this.classHashProvider = classHashProvider;
+        this.configurationHash = configurationHash;
+    }
+
+    String getKey(String kind, MethodReference method) {
+        String classHash = classHashProvider.getContentHash(method.getClassName());
+        if (classHash == null) {
+            return null;
+        }
+        MessageDigest digest = HashUtils.createSha256Digest();
+        digest.update((configurationHash + ";" + kind + ";" + method + ";" + classHash)
+                .getBytes(StandardCharsets.UTF_8));
+        return HashUtils.toHex(digest.digest());
+    }
+
+    <T> T read(String key, CacheStatus cacheStatus, Reader<T> reader) {
+        if (key == null) {
+            return null;
+        }
+        try {
+            byte[] data = newEntries.get(key);
+            if (data == null) {
+                data = store.get(key);
+                if (data == null) {
+                    return null;
+                }
+            }
+
+            VarDataInput input = new VarDataInput(new ByteArrayInputStream(data));
+            int depCount = input.readUnsigned();
+            for (int i = 0; i < depCount; ++i) {
+                String dependency = input.read();
+                String hash = input.read();
+                if (!hash.equals(classHashProvider.getContentHash(dependency))
+                        || cacheStatus.isStaleClass(dependency)) {
+                    return null;
+                }
+            }
+            InMemorySymbolTable symbolTable = readSymbolTable(input);
+            InMemorySymbolTable fileTable = readSymbolTable(input);
+            InMemorySymbolTable variableTable = readSymbolTable(input);
+            return reader.read(input, symbolTable, fileTable, variableTable);
+        } catch (IOException e) {
+            // we could not read entry, just leave it empty
+            return null;
+        }
+    }
+
+    void write(String key, String[] dependencies, Writer writer) {
+        if (key == null) {
+            return;
+        }
+        String[] hashes = new String[dependencies.length];
+        for (int i = 0; i < dependencies.length; ++i) {
+            hashes[i] = classHashProvider.getContentHash(dependencies[i]);
+            if (hashes[i] == null) {
+                return;
+            }
+        }
+
+        try {
+            InMemorySymbolTable symbolTable = new InMemorySymbolTable();
+            InMemorySymbolTable fileTable = new InMemorySymbolTable();
+            InMemorySymbolTable variableTable = new InMemorySymbolTable();
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            writer.write(new VarDataOutput(body), symbolTable, fileTable, variableTable);
+
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            VarDataOutput output = new VarDataOutput(result);
+            output.writeUnsigned(dependencies.length);
+            for (int i = 0; i < dependencies.length; ++i) {
+                output.write(dependencies[i]);
+                output.write(hashes[i]);
+            }
+            writeSymbolTable(output, symbolTable);
+            writeSymbolTable(output, fileTable);
+            writeSymbolTable(output, variableTable);
+            body.writeTo(result);
+            newEntries.put(key, result.toByteArray());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    void flush() throws IOException {
+        for (Map.Entry<String, byte[]> entry : newEntries.entrySet()) {
+            store.put(entry.getKey(), entry.getValue());
+        }
+        newEntries.clear();
+    }
+
+    private static InMemorySymbolTable readSymbolTable(VarDataInput input) throws IOException {
+        InMemorySymbolTable table = new InMemorySymbolTable();
+        int size = input.readUnsigned();
+        for (int i = 0; i < size; ++i) {
+            table.lookup(input.read());
+        }
+        return table;
+    }
+
+    private static void writeSymbolTable(VarDataOutput output, InMemorySymbolTable table) throws IOException {
+        output.writeUnsigned(table.size());
+        for (int i = 0; i < table.size(); ++i) {
+            output.write(table.at(i));
+        }
+    }
+
+    interface Reader<T> {
+        T read(VarDataInput input, SymbolTable symbolTable, SymbolTable fileTable, SymbolTable variableTable)
+                throws IOException;
+    }
+
+    interface Writer {
+        void write(VarDataOutput output, SymbolTable symbolTable, SymbolTable fileTable, SymbolTable variableTable)
+                throws IOException;
+    }
+}
@@ -0,0 +1,31 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.IOException;
+
+/**
+ * Storage of cache entries that can be shared between builds, possibly running on different machines.
+ * Keys are content hashes, so an entry stored under some key never needs to be updated.
+ */
+public interface SharedCacheStore {
+    /**
+     * Returns data stored under given key, or {@code null} if there's no such entry.
+     */
+    byte[] get(String key) throws IOException;
+
+    void put(String key, byte[] data) throws IOException;
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.teavm.ast.AsyncMethodNode;
+import org.teavm.ast.ControlFlowEntry;
+import org.teavm.ast.RegularMethodNode;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ReferenceCache;
+import org.teavm.parsing.ClassHashProvider;
+
+public class SharedMethodNodeCache implements MethodNodeCache {
+    private static final String KIND = "ast";
+    private static final String ASYNC_KIND = "ast-async";
+    private final ReferenceCache referenceCache;
+    private final SharedCacheEntries entries;
+    private final Map<MethodReference, AstCacheEntry> cache = new HashMap<>();
+    private final Map<MethodReference, AsyncMethodNode> asyncCache = new HashMap<>();
+
+    public SharedMethodNodeCache(SharedCacheStore store, ReferenceCache referenceCache,
+            ClassHashProvider classHashProvider, String configurationHash) {
+        this.referenceCache = referenceCache;
+        entries = new SharedCacheEntries(store, classHashProvider, configurationHash);
+    }
+
+    @Override
+    public AstCacheEntry get(MethodReference methodReference, CacheStatus cacheStatus) {
+        if (cache.containsKey(methodReference)) {
+            return cache.get(methodReference);
+        }
+        AstCacheEntry entry = entries.read(entries.getKey(KIND, methodReference), cacheStatus,
+                (input, symbolTable, fileTable, variableTable) -> {
+                    AstIO astIO = new AstIO(referenceCache, symbolTable, fileTable, variableTable);
+                    ControlFlowEntry[] cfg = astIO.readControlFlow(input);
+                    RegularMethodNode node = astIO.read(input, methodReference);
+                    return new AstCacheEntry(node, cfg);
+                });
+        cache.put(methodReference, entry);
+        return entry;
+    }
+
+    @Override
+    public void store(MethodReference methodReference, AstCacheEntry entry, Supplier<String[]> dependencies) {
+        cache.put(methodReference, entry);
+        entries.write(entries.getKey(KIND, methodReference), dependencies.get(),
+                (output, symbolTable, fileTable, variableTable) -> {
+                    AstIO astIO = new AstIO(referenceCache, symbolTable, fileTable, variableTable);
+                    astIO.write(output, entry.cfg);
+                    astIO.write(output, entry.method);
+                });
+    }
+
+    @Override
+    public AsyncMethodNode getAsync(MethodReference methodReference, CacheStatus cacheStatus) {
+        if (asyncCache.containsKey(methodReference)) {
+            return asyncCache.get(methodReference);
+        }
+        AsyncMethodNode node = entries.read(entries.getKey(ASYNC_KIND, methodReference), cacheStatus,
+                (input, symbolTable, fileTable, variableTable) ->
+                        new AstIO(referenceCache, symbolTable, fileTable, variableTable)
+                                .readAsync(input, methodReference));
+        asyncCache.put(methodReference, node);
+        return node;
+    }
+
+    @Override
+    public void storeAsync(MethodReference methodReference, AsyncMethodNode node, Supplier<String[]> dependencies) {
+        asyncCache.put(methodReference, node);
+        entries.write(entries.getKey(ASYNC_KIND, methodReference), dependencies.get(),
+                (output, symbolTable, fileTable, variableTable) ->
+                        new AstIO(referenceCache, symbolTable, fileTable, variableTable).writeAsync(output, node));
+    }
+
+    public void flush() throws IOException {
+        entries.flush();
+    }
+}
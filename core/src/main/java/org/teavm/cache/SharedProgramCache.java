@@ -0,0 +1,63 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ProgramCache;
+import org.teavm.model.ReferenceCache;
+import org.teavm.parsing.ClassHashProvider;
+
+public class SharedProgramCache implements ProgramCache {
+    private static final String KIND = "program";
+    private ReferenceCache referenceCache;
+    private SharedCacheEntries entries;
+    private Map<MethodReference, Program> cache = new HashMap<>();
+
+    public SharedProgramCache(SharedCacheStore store, ReferenceCache referenceCache,
+            ClassHashProvider classHashProvider, String configurationHash) {
+        this.referenceCache = referenceCache;
+        entries = new SharedCacheEntries(store, classHashProvider, configurationHash);
+    }
+
+    @Override
+    public Program get(MethodReference method, CacheStatus cacheStatus) {
+        if (cache.containsKey(method)) {
+            return cache.get(method);
+        }
+        Program program = entries.read(entries.getKey(KIND, method), cacheStatus,
+                (input, symbolTable, fileTable, variableTable) ->
+                        new ProgramIO(referenceCache, symbolTable, fileTable, variableTable).read(input));
+        cache.put(method, program);
+        return program;
+    }
+
+    @Override
+    public void store(MethodReference method, Program program, Supplier<String[]> dependencies) {
+        cache.put(method, program);
+        entries.write(entries.getKey(KIND, method), dependencies.get(),
+                (output, symbolTable, fileTable, variableTable) ->
+                        new ProgramIO(referenceCache, symbolTable, fileTable, variableTable).write(program, output));
+    }
+
+    public void flush() throws IOException {
+        entries.flush();
+    }
+}
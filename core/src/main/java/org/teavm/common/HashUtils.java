@@ -15,6 +15,9 @@
  */
 package org.teavm.common;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
 public final class HashUtils {
     private HashUtils() {
     }
@@ -52,4 +55,20 @@ public final class HashUtils {
 
         return bestTable;
     }
+
+    public static MessageDigest createSha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >>> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
 }
@@ -154,7 +154,7 @@ abstract class AbstractInstructionAnalyzer extends AbstractInstructionReader {
     @Override
     public void getField(VariableReader receiver, VariableReader instance, FieldReference field,
             ValueType fieldType) {
-        FieldDependency fieldDep = getAnalyzer().linkField(field);
+        FieldDependency fieldDep = getAnalyzer().linkFieldFromProgram(field);
         fieldDep.addLocation(getCallLocation());
         if (!(fieldType instanceof ValueType.Primitive)) {
             DependencyNode receiverNode = getNode(receiver);
@@ -168,7 +168,7 @@ abstract class AbstractInstructionAnalyzer extends AbstractInstructionReader {
     @Override
     public void putField(VariableReader instance, FieldReference field, VariableReader value,
             ValueType fieldType) {
-        FieldDependency fieldDep = getAnalyzer().linkField(field);
+        FieldDependency fieldDep = getAnalyzer().linkFieldFromProgram(field);
         fieldDep.addLocation(getCallLocation());
         if (!(fieldType instanceof ValueType.Primitive)) {
             DependencyNode valueNode = getNode(value);
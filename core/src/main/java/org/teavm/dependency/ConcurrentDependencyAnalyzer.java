@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.teavm.common.ServiceRepository;
+import org.teavm.diagnostics.Diagnostics;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.Instruction;
+import org.teavm.model.InvokeDynamicInstruction;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ReferenceCache;
+
+/**
+ * <p>Precise dependency analyzer that prepares method data flow graphs in background threads.</p>
+ *
+ * <p>Type propagation, dependency listeners and plugins still run on the thread that calls
+ * {@link #processDependencies()}, so this analyzer produces exactly the same results as
+ * {@link PreciseDependencyAnalyzer}. As soon as a method is used, its program is handed over
+ * to a worker that computes the mapping of variables to dependency nodes, which otherwise
+ * takes noticeable amount of time when the method is finally processed.</p>
+ */
+public class ConcurrentDependencyAnalyzer extends PreciseDependencyAnalyzer {
+    private ExecutorService executor;
+    private Map<MethodReference, PendingMapping> pendingMappings = new HashMap<>();
+
+    public ConcurrentDependencyAnalyzer(ClassReaderSource classSource, ClassLoader classLoader,
+            ServiceRepository services, Diagnostics diagnostics, ReferenceCache referenceCache, int threads) {
+        super(classSource, classLoader, services, diagnostics, referenceCache);
+        executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TeaVM dependency analyzer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static DependencyAnalyzerFactory factory(int threads) {
+        return (classSource, classLoader, services, diagnostics, referenceCache) -> new ConcurrentDependencyAnalyzer(
+                classSource, classLoader, services, diagnostics, referenceCache, threads);
+    }
+
+    @Override
+    void scheduleMethodAnalysis(MethodDependency dep) {
+        super.scheduleMethodAnalysis(dep);
+        if (executor == null) {
+            return;
+        }
+        MethodHolder method = dep.method;
+        Program program = method.getProgram();
+        if (program == null || program.basicBlockCount() == 0 || hasInvokeDynamic(program)) {
+            return;
+        }
+        Future<int[]> mapping = executor.submit(() -> DependencyGraphBuilder.buildNodeMapping(method, program));
+        pendingMappings.put(dep.getReference(), new PendingMapping(program, mapping));
+    }
+
+    // Invokedynamic instructions are substituted right before method is processed,
+    // so we can't read such programs concurrently
+    private static boolean hasInvokeDynamic(Program program) {
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction instruction : block) {
+                if (instruction instanceof InvokeDynamicInstruction) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    protected void processMethod(MethodDependency methodDep) {
+        int[] nodeMapping = null;
+        PendingMapping pendingMapping = pendingMappings.remove(methodDep.getReference());
+        if (pendingMapping != null && methodDep.method != null
+                && methodDep.method.getProgram() == pendingMapping.program) {
+            nodeMapping = pendingMapping.get();
+        }
+        new DependencyGraphBuilder(this).buildGraph(methodDep, nodeMapping);
+    }
+
+    @Override
+    public void processDependencies() {
+        try {
+            super.processDependencies();
+        } finally {
+            executor.shutdownNow();
+            executor = null;
+            pendingMappings.clear();
+        }
+    }
+
+    static class PendingMapping {
+        final Program program;
+        final Future<int[]> mapping;
+
+        PendingMapping(Program program, Future<int[]> mapping) {
+            this.program = program;
+            this.mapping = mapping;
+        }
+
+        int[] get() {
+            try {
+                return mapping.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            }
+        }
+    }
+}
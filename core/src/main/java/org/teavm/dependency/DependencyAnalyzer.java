@@ -515,6 +515,12 @@ public abstract class DependencyAnalyzer implements DependencyInfo {
     }
 
     public FieldDependency linkField(FieldReference fieldRef) {
+        FieldDependency dep = linkFieldFromProgram(fieldRef);
+        dep.accessedExternally = true;
+        return dep;
+    }
+
+    FieldDependency linkFieldFromProgram(FieldReference fieldRef) {
         FieldDependency dep = fieldCache.apply(fieldRef);
         if (!dep.activated) {
             dep.activated = true;
@@ -31,9 +31,11 @@ import org.teavm.model.ElementModifier;
 import org.teavm.model.IncomingReader;
 import org.teavm.model.MethodDescriptor;
 import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReader;
 import org.teavm.model.MethodReference;
 import org.teavm.model.PhiReader;
 import org.teavm.model.Program;
+import org.teavm.model.ProgramReader;
 import org.teavm.model.TryCatchBlockReader;
 import org.teavm.model.ValueType;
 import org.teavm.model.VariableReader;
@@ -54,6 +56,10 @@ class DependencyGraphBuilder {
     }
 
     public void buildGraph(MethodDependency dep) {
+        buildGraph(dep, null);
+    }
+
+    void buildGraph(MethodDependency dep, int[] nodeMapping) {
         caller = dependencyAnalyzer.callGraph.getNode(dep.getReference());
         MethodHolder method = dep.method;
         if (method.getProgram() == null || method.getProgram().basicBlockCount() == 0) {
@@ -62,17 +68,9 @@ class DependencyGraphBuilder {
         program = method.getProgram();
         resultNode = dep.getResult();
 
-        DataFlowGraphBuilder dfgBuilder = new DataFlowGraphBuilder();
-        boolean[] significantParams = new boolean[dep.getParameterCount()];
-        significantParams[0] = true;
-        for (int i = 1; i < dep.getParameterCount(); ++i) {
-            ValueType arg = method.parameterType(i - 1);
-            if (!(arg instanceof ValueType.Primitive)) {
-                significantParams[i] = true;
-            }
+        if (nodeMapping == null) {
+            nodeMapping = buildNodeMapping(method, program);
         }
-        int[] nodeMapping = dfgBuilder.buildMapping(program, significantParams,
-                !(method.getResultType() instanceof ValueType.Primitive) && method.getResultType() != ValueType.VOID);
 
         if (DependencyAnalyzer.shouldLog) {
             System.out.println("Method reached: " + method.getReference());
@@ -163,6 +161,20 @@ class DependencyGraphBuilder {
         }
     }
 
+    static int[] buildNodeMapping(MethodReader method, ProgramReader program) {
+        DataFlowGraphBuilder dfgBuilder = new DataFlowGraphBuilder();
+        boolean[] significantParams = new boolean[method.parameterCount() + 1];
+        significantParams[0] = true;
+        for (int i = 1; i < significantParams.length; ++i) {
+            ValueType arg = method.parameterType(i - 1);
+            if (!(arg instanceof ValueType.Primitive)) {
+                significantParams[i] = true;
+            }
+        }
+        return dfgBuilder.buildMapping(program, significantParams,
+                !(method.getResultType() instanceof ValueType.Primitive) && method.getResultType() != ValueType.VOID);
+    }
+
     private ExceptionConsumer createExceptionConsumer(MethodDependency methodDep, BasicBlockReader block) {
         List<? extends TryCatchBlockReader> tryCatchBlocks = block.readTryCatchBlocks();
         ClassReader[] exceptions = new ClassReader[tryCatchBlocks.size()];
@@ -31,6 +31,7 @@ public class FieldDependency implements FieldDependencyInfo {
     List<LocationListener> locationListeners;
     Set<CallLocation> locations;
     boolean activated;
+    boolean accessedExternally;
 
     FieldDependency(DependencyNode value, FieldReader field, FieldReference reference) {
         this.value = value;
@@ -57,6 +58,11 @@ public class FieldDependency implements FieldDependencyInfo {
         return field == null && !present;
     }
 
+    @Override
+    public boolean isAccessedExternally() {
+        return accessedExternally;
+    }
+
     public FieldDependency addLocation(CallLocation location) {
         DefaultCallGraphNode node = value.dependencyAnalyzer.callGraph.getNode(location.getMethod());
         if (locations == null) {
@@ -23,4 +23,10 @@ public interface FieldDependencyInfo {
     FieldReference getReference();
 
     boolean isMissing();
+
+    /**
+     * Tells whether the field is accessed by something other than field instructions of analyzed methods,
+     * for example by dependency plugins, native generators or target backend.
+     */
+    boolean isAccessedExternally();
 }
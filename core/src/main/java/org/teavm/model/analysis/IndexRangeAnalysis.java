@@ -0,0 +1,523 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.teavm.common.DominatorTree;
+import org.teavm.common.Graph;
+import org.teavm.common.GraphUtils;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AbstractInstructionVisitor;
+import org.teavm.model.instructions.ArrayLengthInstruction;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.BinaryInstruction;
+import org.teavm.model.instructions.BinaryOperation;
+import org.teavm.model.instructions.BranchingInstruction;
+import org.teavm.model.instructions.ConstructArrayInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.instructions.NumericOperandType;
+import org.teavm.model.instructions.UnwrapArrayInstruction;
+import org.teavm.model.util.ProgramUtils;
+
+/**
+ * <p>Finds out which integer variables are known to be non-negative and which are known to be less than
+ * length of some array. Facts are computed as the greatest fixed point over SSA definitions, so
+ * induction variables of loops like {@code for (int i = 0; i < a.length; ++i)} or
+ * {@code for (int i = a.length - 1; i >= 0; --i)} are handled. Conditional branches provide facts
+ * that hold in blocks dominated by the branch target, these are also used to prove that increments and
+ * decrements of induction variables never overflow.</p>
+ */
+public class IndexRangeAnalysis {
+    private static final int UNKNOWN = -1;
+    private static final int UNDEFINED = -2;
+
+    private Program program;
+    private DominatorTree dom;
+    private int[] canonical;
+    private boolean[] constant;
+    private int[] constantValue;
+    private int[] comparisonLeft;
+    private int[] comparisonRight;
+    private int[] lengthOf;
+    private List<List<Guard>> guards;
+    private boolean[] nonNegative;
+    private int[] lessThanLength;
+    private boolean changed;
+
+    public IndexRangeAnalysis(Program program) {
+        this.program = program;
+        int count = program.variableCount();
+        canonical = new int[count];
+        constant = new boolean[count];
+        constantValue = new int[count];
+        comparisonLeft = new int[count];
+        Arrays.fill(comparisonLeft, -1);
+        comparisonRight = new int[count];
+        lengthOf = new int[count];
+        Arrays.fill(lengthOf, UNKNOWN);
+        nonNegative = new boolean[count];
+        lessThanLength = new int[count];
+        Arrays.fill(lessThanLength, UNKNOWN);
+        guards = new ArrayList<>(count);
+        for (int i = 0; i < count; ++i) {
+            guards.add(null);
+        }
+
+        if (program.basicBlockCount() > 0) {
+            Graph cfg = ProgramUtils.buildControlFlowGraph(program);
+            dom = GraphUtils.buildDominatorTree(cfg);
+            buildCanonicalVariables();
+            collectFacts();
+            collectGuards(cfg);
+            solve();
+        }
+    }
+
+    public boolean isNonNegative(Variable variable, BasicBlock block) {
+        return isNonNegativeAt(canonical[variable.getIndex()], block.getIndex());
+    }
+
+    public boolean isLessThanLength(Variable index, Variable array, BasicBlock block) {
+        int var = canonical[index.getIndex()];
+        int arrayVar = canonical[array.getIndex()];
+        if (lessThanLength[var] == arrayVar) {
+            return true;
+        }
+        List<Guard> variableGuards = guards.get(var);
+        if (variableGuards != null) {
+            for (Guard guard : variableGuards) {
+                if (guard.kind == GuardKind.LESS && lengthOf[guard.bound] == arrayVar
+                        && dom.dominates(guard.block, block.getIndex())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void buildCanonicalVariables() {
+        for (int i = 0; i < canonical.length; ++i) {
+            canonical[i] = i;
+        }
+        AbstractInstructionVisitor visitor = new AbstractInstructionVisitor() {
+            @Override
+            public void visit(AssignInstruction insn) {
+                canonical[insn.getReceiver().getIndex()] = insn.getAssignee().getIndex();
+            }
+
+            @Override
+            public void visit(NullCheckInstruction insn) {
+                canonical[insn.getReceiver().getIndex()] = insn.getValue().getIndex();
+            }
+
+            @Override
+            public void visit(UnwrapArrayInstruction insn) {
+                canonical[insn.getReceiver().getIndex()] = insn.getArray().getIndex();
+            }
+        };
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                insn.acceptVisitor(visitor);
+            }
+        }
+
+        for (int i = 0; i < canonical.length; ++i) {
+            int var = i;
+            int steps = 0;
+            while (canonical[var] != var && steps++ < canonical.length) {
+                var = canonical[var];
+            }
+            canonical[i] = var;
+        }
+    }
+
+    private void collectFacts() {
+        AbstractInstructionVisitor visitor = new AbstractInstructionVisitor() {
+            @Override
+            public void visit(IntegerConstantInstruction insn) {
+                int receiver = canonical[insn.getReceiver().getIndex()];
+                constant[receiver] = true;
+                constantValue[receiver] = insn.getConstant();
+                nonNegative[receiver] = insn.getConstant() >= 0;
+            }
+
+            @Override
+            public void visit(BinaryInstruction insn) {
+                if (insn.getOperandType() != NumericOperandType.INT) {
+                    return;
+                }
+                int receiver = canonical[insn.getReceiver().getIndex()];
+                if (insn.getOperation() == BinaryOperation.COMPARE) {
+                    comparisonLeft[receiver] = canonical[insn.getFirstOperand().getIndex()];
+                    comparisonRight[receiver] = canonical[insn.getSecondOperand().getIndex()];
+                } else {
+                    nonNegative[receiver] = true;
+                    lessThanLength[receiver] = UNDEFINED;
+                }
+            }
+
+            @Override
+            public void visit(ArrayLengthInstruction insn) {
+                int receiver = canonical[insn.getReceiver().getIndex()];
+                nonNegative[receiver] = true;
+                lengthOf[receiver] = canonical[insn.getArray().getIndex()];
+            }
+
+            @Override
+            public void visit(ConstructArrayInstruction insn) {
+                int size = canonical[insn.getSize().getIndex()];
+                if (lengthOf[size] == UNKNOWN) {
+                    lengthOf[size] = canonical[insn.getReceiver().getIndex()];
+                }
+            }
+        };
+
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Phi phi : block.getPhis()) {
+                int receiver = canonical[phi.getReceiver().getIndex()];
+                nonNegative[receiver] = true;
+                lessThanLength[receiver] = UNDEFINED;
+            }
+            for (Instruction insn : block) {
+                insn.acceptVisitor(visitor);
+            }
+        }
+    }
+
+    private void collectGuards(Graph cfg) {
+        for (BasicBlock block : program.getBasicBlocks()) {
+            if (!(block.getLastInstruction() instanceof BranchingInstruction)) {
+                continue;
+            }
+            BranchingInstruction branching = (BranchingInstruction) block.getLastInstruction();
+            int consequent = branching.getConsequent().getIndex();
+            int alternative = branching.getAlternative().getIndex();
+            if (consequent == alternative) {
+                continue;
+            }
+            if (cfg.incomingEdgesCount(consequent) != 1) {
+                consequent = -1;
+            }
+            if (cfg.incomingEdgesCount(alternative) != 1) {
+                alternative = -1;
+            }
+
+            int operand = canonical[branching.getOperand().getIndex()];
+            int left = comparisonLeft[operand];
+            int right = comparisonRight[operand];
+            if (left >= 0) {
+                switch (branching.getCondition()) {
+                    case LESS:
+                        addLessGuard(consequent, left, right);
+                        addGreaterOrEqualGuard(alternative, left, right);
+                        break;
+                    case GREATER_OR_EQUAL:
+                        addGreaterOrEqualGuard(consequent, left, right);
+                        addLessGuard(alternative, left, right);
+                        break;
+                    case GREATER:
+                        addLessGuard(consequent, right, left);
+                        addGreaterOrEqualGuard(alternative, right, left);
+                        break;
+                    case LESS_OR_EQUAL:
+                        addGreaterOrEqualGuard(consequent, right, left);
+                        addLessGuard(alternative, right, left);
+                        break;
+                    default:
+                        break;
+                }
+            } else {
+                switch (branching.getCondition()) {
+                    case GREATER_OR_EQUAL:
+                    case GREATER:
+                        addGuard(consequent, operand, GuardKind.NON_NEGATIVE, -1);
+                        break;
+                    case LESS:
+                    case LESS_OR_EQUAL:
+                        addGuard(alternative, operand, GuardKind.NON_NEGATIVE, -1);
+                        break;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    private void addLessGuard(int block, int left, int right) {
+        addGuard(block, left, GuardKind.LESS, right);
+        if (constant[left] && constantValue[left] >= -1) {
+            addGuard(block, right, GuardKind.NON_NEGATIVE, -1);
+        }
+    }
+
+    private void addGreaterOrEqualGuard(int block, int left, int right) {
+        addGuard(block, left, GuardKind.GREATER_OR_EQUAL, right);
+    }
+
+    private void addGuard(int block, int variable, GuardKind kind, int bound) {
+        if (block <= 0) {
+            return;
+        }
+        List<Guard> variableGuards = guards.get(variable);
+        if (variableGuards == null) {
+            variableGuards = new ArrayList<>(2);
+            guards.set(variable, variableGuards);
+        }
+        variableGuards.add(new Guard(block, kind, bound));
+    }
+
+    private void solve() {
+        Evaluator evaluator = new Evaluator();
+        do {
+            changed = false;
+            for (BasicBlock block : program.getBasicBlocks()) {
+                for (Phi phi : block.getPhis()) {
+                    evaluatePhi(phi);
+                }
+                evaluator.block = block.getIndex();
+                for (Instruction insn : block) {
+                    insn.acceptVisitor(evaluator);
+                }
+            }
+        } while (changed);
+
+        for (int i = 0; i < lessThanLength.length; ++i) {
+            if (lessThanLength[i] == UNDEFINED) {
+                lessThanLength[i] = UNKNOWN;
+            }
+        }
+    }
+
+    private void evaluatePhi(Phi phi) {
+        boolean phiNonNegative = true;
+        int phiLessThanLength = UNDEFINED;
+        for (Incoming incoming : phi.getIncomings()) {
+            int value = canonical[incoming.getValue().getIndex()];
+            int source = incoming.getSource().getIndex();
+            phiNonNegative &= isNonNegativeAt(value, source);
+            phiLessThanLength = meet(phiLessThanLength, lessThanLengthAt(value, source));
+        }
+        update(canonical[phi.getReceiver().getIndex()], phiNonNegative, phiLessThanLength);
+    }
+
+    private void update(int variable, boolean variableNonNegative, int variableLessThanLength) {
+        if (nonNegative[variable] && !variableNonNegative) {
+            nonNegative[variable] = false;
+            changed = true;
+        }
+        int newLessThanLength = meet(lessThanLength[variable], variableLessThanLength);
+        if (newLessThanLength != lessThanLength[variable]) {
+            lessThanLength[variable] = newLessThanLength;
+            changed = true;
+        }
+    }
+
+    private static int meet(int a, int b) {
+        if (a == UNDEFINED) {
+            return b;
+        }
+        if (b == UNDEFINED || a == b) {
+            return a;
+        }
+        return UNKNOWN;
+    }
+
+    private boolean isNonNegativeAt(int variable, int block) {
+        if (nonNegative[variable]) {
+            return true;
+        }
+        List<Guard> variableGuards = guards.get(variable);
+        if (variableGuards != null) {
+            for (Guard guard : variableGuards) {
+                switch (guard.kind) {
+                    case NON_NEGATIVE:
+                        break;
+                    case GREATER_OR_EQUAL:
+                        if (!nonNegative[guard.bound]) {
+                            continue;
+                        }
+                        break;
+                    default:
+                        continue;
+                }
+                if (dom.dominates(guard.block, block)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private int lessThanLengthAt(int variable, int block) {
+        int result = lessThanLength[variable];
+        if (result != UNKNOWN) {
+            return result;
+        }
+        List<Guard> variableGuards = guards.get(variable);
+        if (variableGuards != null) {
+            for (Guard guard : variableGuards) {
+                if (guard.kind == GuardKind.LESS && lengthOf[guard.bound] >= 0
+                        && dom.dominates(guard.block, block)) {
+                    return lengthOf[guard.bound];
+                }
+            }
+        }
+        return UNKNOWN;
+    }
+
+    // Whether variable + 1 can't overflow
+    private boolean isLessThanSomething(int variable, int block) {
+        if (lessThanLengthAt(variable, block) != UNKNOWN) {
+            return true;
+        }
+        List<Guard> variableGuards = guards.get(variable);
+        if (variableGuards != null) {
+            for (Guard guard : variableGuards) {
+                if (guard.kind == GuardKind.LESS && dom.dominates(guard.block, block)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    class Evaluator extends AbstractInstructionVisitor {
+        int block;
+
+        @Override
+        public void visit(BinaryInstruction insn) {
+            if (insn.getOperandType() != NumericOperandType.INT
+                    || insn.getOperation() == BinaryOperation.COMPARE) {
+                return;
+            }
+            int receiver = canonical[insn.getReceiver().getIndex()];
+            int first = canonical[insn.getFirstOperand().getIndex()];
+            int second = canonical[insn.getSecondOperand().getIndex()];
+            switch (insn.getOperation()) {
+                case ADD:
+                    if (constant[second]) {
+                        evaluateAddition(receiver, first, constantValue[second]);
+                    } else if (constant[first]) {
+                        evaluateAddition(receiver, second, constantValue[first]);
+                    } else {
+                        update(receiver, false, UNKNOWN);
+                    }
+                    break;
+                case SUBTRACT:
+                    if (constant[second] && constantValue[second] != Integer.MIN_VALUE) {
+                        evaluateAddition(receiver, first, -constantValue[second]);
+                    } else {
+                        update(receiver, false, UNKNOWN);
+                    }
+                    break;
+                case AND: {
+                    boolean firstNonNegative = isNonNegativeAt(first, block);
+                    boolean secondNonNegative = isNonNegativeAt(second, block);
+                    int result = UNKNOWN;
+                    if (firstNonNegative) {
+                        result = lessThanLengthAt(first, block);
+                    }
+                    if (result == UNKNOWN && secondNonNegative) {
+                        result = lessThanLengthAt(second, block);
+                    }
+                    update(receiver, firstNonNegative || secondNonNegative, result);
+                    break;
+                }
+                case DIVIDE:
+                case SHIFT_RIGHT:
+                    if (insn.getOperation() == BinaryOperation.DIVIDE
+                            && (!constant[second] || constantValue[second] <= 0)) {
+                        update(receiver, false, UNKNOWN);
+                    } else {
+                        evaluateDecreasing(receiver, first);
+                    }
+                    break;
+                case SHIFT_RIGHT_UNSIGNED:
+                    if (constant[second] && (constantValue[second] & 31) != 0) {
+                        boolean firstNonNegative = isNonNegativeAt(first, block);
+                        update(receiver, true, firstNonNegative ? lessThanLengthAt(first, block) : UNKNOWN);
+                    } else {
+                        update(receiver, false, UNKNOWN);
+                    }
+                    break;
+                case MODULO:
+                    if (isNonNegativeAt(first, block)) {
+                        int result = lengthOf[second] >= 0 ? lengthOf[second] : lessThanLengthAt(first, block);
+                        update(receiver, true, result);
+                    } else {
+                        update(receiver, false, UNKNOWN);
+                    }
+                    break;
+                default:
+                    update(receiver, false, UNKNOWN);
+                    break;
+            }
+        }
+
+        private void evaluateAddition(int receiver, int operand, int value) {
+            boolean operandNonNegative = isNonNegativeAt(operand, block);
+            if (value == 0) {
+                update(receiver, operandNonNegative, lessThanLengthAt(operand, block));
+            } else if (value > 0) {
+                boolean resultNonNegative = operandNonNegative && value == 1 && isLessThanSomething(operand, block);
+                update(receiver, resultNonNegative, UNKNOWN);
+            } else {
+                int result = UNKNOWN;
+                if (lengthOf[operand] >= 0) {
+                    result = lengthOf[operand];
+                } else if (operandNonNegative) {
+                    result = lessThanLengthAt(operand, block);
+                }
+                update(receiver, false, result);
+            }
+        }
+
+        // Receiver is within [0; operand] for non-negative operand
+        private void evaluateDecreasing(int receiver, int operand) {
+            if (isNonNegativeAt(operand, block)) {
+                update(receiver, true, lessThanLengthAt(operand, block));
+            } else {
+                update(receiver, false, UNKNOWN);
+            }
+        }
+    }
+
+    enum GuardKind {
+        LESS,
+        GREATER_OR_EQUAL,
+        NON_NEGATIVE
+    }
+
+    static class Guard {
+        final int block;
+        final GuardKind kind;
+        final int bound;
+
+        Guard(int block, GuardKind kind, int bound) {
+            this.block = block;
+            this.kind = kind;
+            this.bound = bound;
+        }
+    }
+}
@@ -0,0 +1,696 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import com.carrotsearch.hppc.LongHashSet;
+import com.carrotsearch.hppc.LongSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.common.IntegerStack;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.TryCatchBlock;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AbstractInstructionVisitor;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.BinaryBranchingInstruction;
+import org.teavm.model.instructions.BinaryInstruction;
+import org.teavm.model.instructions.BinaryOperation;
+import org.teavm.model.instructions.BranchingCondition;
+import org.teavm.model.instructions.BranchingInstruction;
+import org.teavm.model.instructions.CastIntegerInstruction;
+import org.teavm.model.instructions.CastNumberInstruction;
+import org.teavm.model.instructions.DoubleConstantInstruction;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.FloatConstantInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.JumpInstruction;
+import org.teavm.model.instructions.LongConstantInstruction;
+import org.teavm.model.instructions.NegateInstruction;
+import org.teavm.model.instructions.NullConstantInstruction;
+import org.teavm.model.instructions.NumericOperandType;
+import org.teavm.model.instructions.RaiseInstruction;
+import org.teavm.model.instructions.SwitchInstruction;
+import org.teavm.model.instructions.SwitchTableEntry;
+import org.teavm.model.util.DefinitionExtractor;
+import org.teavm.model.util.TransitionExtractor;
+import org.teavm.model.util.UsageExtractor;
+
+/**
+ * <p>Sparse conditional constant propagation (Wegman and Zadeck) over a program in SSA form.
+ * Each variable gets a lattice value, which is either undefined, a constant or {@link #OVERDEFINED}.
+ * Constants are represented by boxed {@link Integer}, {@link Long}, {@link Float}, {@link Double} values
+ * or by {@link #NULL} for the {@code null} reference. Only blocks reachable through executable edges
+ * are taken into account, so constants flowing through branches that are never taken do not spoil
+ * the result.</p>
+ *
+ * <p>Variables that are not defined inside program (i.e. {@code this} and parameters) are
+ * considered overdefined.</p>
+ */
+class ConstantPropagationAnalysis {
+    static final Object NULL = new Object();
+    static final Object OVERDEFINED = new Object();
+
+    private Program program;
+    private Object[] values;
+    private boolean[] executable;
+    private LongSet executableEdges = new LongHashSet();
+    private List<List<Instruction>> instructionUsages;
+    private List<List<Phi>> phiUsages;
+    private IntegerStack blockStack;
+    private IntegerStack variableStack;
+    private BasicBlock currentBlock;
+    private DefinitionExtractor definitionExtractor = new DefinitionExtractor();
+    private TransitionExtractor transitionExtractor = new TransitionExtractor();
+    private Evaluator evaluator = new Evaluator();
+
+    ConstantPropagationAnalysis(Program program) {
+        this.program = program;
+        values = new Object[program.variableCount()];
+        executable = new boolean[program.basicBlockCount()];
+        blockStack = new IntegerStack(program.basicBlockCount());
+        variableStack = new IntegerStack(program.variableCount());
+        if (program.basicBlockCount() > 0) {
+            buildUsages();
+            analyze();
+        }
+        instructionUsages = null;
+        phiUsages = null;
+        blockStack = null;
+        variableStack = null;
+    }
+
+    static Object meet(Object a, Object b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null || a.equals(b)) {
+            return a;
+        }
+        return OVERDEFINED;
+    }
+
+    Object getValue(Variable variable) {
+        return values[variable.getIndex()];
+    }
+
+    Object getConstant(Variable variable) {
+        Object value = values[variable.getIndex()];
+        return value != OVERDEFINED ? value : null;
+    }
+
+    boolean isExecutable(BasicBlock block) {
+        return executable[block.getIndex()];
+    }
+
+    boolean isExecutable(BasicBlock from, BasicBlock to) {
+        return executableEdges.contains(edgeKey(from.getIndex(), to.getIndex()));
+    }
+
+    /**
+     * Returns the only block the given terminator can jump to, according to values of its operands, or
+     * {@code null} when the jump target can't be determined statically.
+     */
+    BasicBlock getConstantTarget(Instruction instruction) {
+        if (instruction instanceof BranchingInstruction) {
+            BranchingInstruction branching = (BranchingInstruction) instruction;
+            Object value = getConstant(branching.getOperand());
+            if (value == null) {
+                return null;
+            }
+            Boolean result;
+            switch (branching.getCondition()) {
+                case NULL:
+                    result = value == NULL;
+                    break;
+                case NOT_NULL:
+                    result = value != NULL;
+                    break;
+                default:
+                    result = value instanceof Integer
+                            ? checkCondition(branching.getCondition(), (Integer) value)
+                            : null;
+                    break;
+            }
+            if (result == null) {
+                return null;
+            }
+            return result ? branching.getConsequent() : branching.getAlternative();
+        } else if (instruction instanceof BinaryBranchingInstruction) {
+            BinaryBranchingInstruction branching = (BinaryBranchingInstruction) instruction;
+            Object first = getConstant(branching.getFirstOperand());
+            Object second = getConstant(branching.getSecondOperand());
+            if (first == null || second == null) {
+                return null;
+            }
+            boolean result;
+            switch (branching.getCondition()) {
+                case EQUAL:
+                case NOT_EQUAL:
+                    if (!(first instanceof Integer) || !(second instanceof Integer)) {
+                        return null;
+                    }
+                    result = first.equals(second);
+                    break;
+                default:
+                    if (first != NULL || second != NULL) {
+                        return null;
+                    }
+                    result = true;
+                    break;
+            }
+            switch (branching.getCondition()) {
+                case NOT_EQUAL:
+                case REFERENCE_NOT_EQUAL:
+                    result = !result;
+                    break;
+                default:
+                    break;
+            }
+            return result ? branching.getConsequent() : branching.getAlternative();
+        } else if (instruction instanceof SwitchInstruction) {
+            SwitchInstruction switchInsn = (SwitchInstruction) instruction;
+            Object value = getConstant(switchInsn.getCondition());
+            if (!(value instanceof Integer)) {
+                return null;
+            }
+            int condition = (Integer) value;
+            for (SwitchTableEntry entry : switchInsn.getEntries()) {
+                if (entry.getCondition() == condition) {
+                    return entry.getTarget();
+                }
+            }
+            return switchInsn.getDefaultTarget();
+        }
+        return null;
+    }
+
+    static Instruction createConstantInstruction(Variable receiver, Object value) {
+        if (value instanceof Integer) {
+            IntegerConstantInstruction insn = new IntegerConstantInstruction();
+            insn.setConstant((Integer) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Long) {
+            LongConstantInstruction insn = new LongConstantInstruction();
+            insn.setConstant((Long) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Float) {
+            FloatConstantInstruction insn = new FloatConstantInstruction();
+            insn.setConstant((Float) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Double) {
+            DoubleConstantInstruction insn = new DoubleConstantInstruction();
+            insn.setConstant((Double) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value == NULL) {
+            NullConstantInstruction insn = new NullConstantInstruction();
+            insn.setReceiver(receiver);
+            return insn;
+        }
+        throw new IllegalArgumentException("Not a constant: " + value);
+    }
+
+    private void buildUsages() {
+        instructionUsages = new ArrayList<>(program.variableCount());
+        phiUsages = new ArrayList<>(program.variableCount());
+        boolean[] defined = new boolean[program.variableCount()];
+        for (int i = 0; i < program.variableCount(); ++i) {
+            instructionUsages.add(new ArrayList<>());
+            phiUsages.add(new ArrayList<>());
+        }
+
+        UsageExtractor usageExtractor = new UsageExtractor();
+        for (BasicBlock block : program.getBasicBlocks()) {
+            if (block.getExceptionVariable() != null) {
+                defined[block.getExceptionVariable().getIndex()] = true;
+            }
+            for (Phi phi : block.getPhis()) {
+                defined[phi.getReceiver().getIndex()] = true;
+                for (Incoming incoming : phi.getIncomings()) {
+                    phiUsages.get(incoming.getValue().getIndex()).add(phi);
+                }
+            }
+            for (Instruction insn : block) {
+                insn.acceptVisitor(definitionExtractor);
+                for (Variable var : definitionExtractor.getDefinedVariables()) {
+                    defined[var.getIndex()] = true;
+                }
+                insn.acceptVisitor(usageExtractor);
+                for (Variable var : usageExtractor.getUsedVariables()) {
+                    instructionUsages.get(var.getIndex()).add(insn);
+                }
+            }
+        }
+
+        for (int i = 0; i < defined.length; ++i) {
+            if (!defined[i]) {
+                values[i] = OVERDEFINED;
+            }
+        }
+    }
+
+    private void analyze() {
+        executable[0] = true;
+        blockStack.push(0);
+        while (!blockStack.isEmpty() || !variableStack.isEmpty()) {
+            while (!variableStack.isEmpty()) {
+                int variable = variableStack.pop();
+                for (Phi phi : phiUsages.get(variable)) {
+                    if (executable[phi.getBasicBlock().getIndex()]) {
+                        evaluatePhi(phi);
+                    }
+                }
+                for (Instruction insn : instructionUsages.get(variable)) {
+                    if (executable[insn.getBasicBlock().getIndex()]) {
+                        evaluate(insn);
+                    }
+                }
+            }
+
+            if (!blockStack.isEmpty()) {
+                BasicBlock block = program.basicBlockAt(blockStack.pop());
+                if (block.getExceptionVariable() != null) {
+                    update(block.getExceptionVariable(), OVERDEFINED);
+                }
+                for (Phi phi : block.getPhis()) {
+                    evaluatePhi(phi);
+                }
+                for (Instruction insn : block) {
+                    evaluate(insn);
+                }
+                for (TryCatchBlock tryCatch : block.getTryCatchBlocks()) {
+                    markEdge(block, tryCatch.getHandler());
+                }
+            }
+        }
+    }
+
+    private void markEdge(BasicBlock from, BasicBlock to) {
+        if (!executableEdges.add(edgeKey(from.getIndex(), to.getIndex()))) {
+            return;
+        }
+        if (!executable[to.getIndex()]) {
+            executable[to.getIndex()] = true;
+            blockStack.push(to.getIndex());
+        } else {
+            for (Phi phi : to.getPhis()) {
+                evaluatePhi(phi);
+            }
+        }
+    }
+
+    private static long edgeKey(int from, int to) {
+        return ((long) from << 32) | to;
+    }
+
+    private void evaluatePhi(Phi phi) {
+        Object result = null;
+        for (Incoming incoming : phi.getIncomings()) {
+            if (isExecutable(incoming.getSource(), phi.getBasicBlock())) {
+                result = meet(result, values[incoming.getValue().getIndex()]);
+                if (result == OVERDEFINED) {
+                    break;
+                }
+            }
+        }
+        update(phi.getReceiver(), result);
+    }
+
+    private void evaluate(Instruction insn) {
+        currentBlock = insn.getBasicBlock();
+        evaluator.handled = false;
+        insn.acceptVisitor(evaluator);
+        if (!evaluator.handled) {
+            insn.acceptVisitor(definitionExtractor);
+            for (Variable var : definitionExtractor.getDefinedVariables()) {
+                update(var, OVERDEFINED);
+            }
+        }
+    }
+
+    private void update(Variable variable, Object value) {
+        int index = variable.getIndex();
+        Object current = values[index];
+        if (value == null || current == OVERDEFINED) {
+            return;
+        }
+        value = meet(current, value);
+        if (value == current) {
+            return;
+        }
+        values[index] = value;
+        variableStack.push(index);
+    }
+
+    private void markTransitions(Instruction insn) {
+        BasicBlock target = getConstantTarget(insn);
+        if (target != null) {
+            markEdge(currentBlock, target);
+        } else {
+            insn.acceptVisitor(transitionExtractor);
+            for (BasicBlock successor : transitionExtractor.getTargets()) {
+                markEdge(currentBlock, successor);
+            }
+        }
+    }
+
+    private static Boolean checkCondition(BranchingCondition condition, int constant) {
+        switch (condition) {
+            case EQUAL:
+                return constant == 0;
+            case NOT_EQUAL:
+                return constant != 0;
+            case GREATER:
+                return constant > 0;
+            case GREATER_OR_EQUAL:
+                return constant >= 0;
+            case LESS:
+                return constant < 0;
+            case LESS_OR_EQUAL:
+                return constant <= 0;
+            default:
+                return null;
+        }
+    }
+
+    private static Number evaluateBinary(BinaryOperation operation, NumericOperandType type,
+            Number first, Number second) {
+        switch (type) {
+            case INT: {
+                int p = first.intValue();
+                int q = second.intValue();
+                switch (operation) {
+                    case ADD:
+                        return p + q;
+                    case SUBTRACT:
+                        return p - q;
+                    case MULTIPLY:
+                        return p * q;
+                    case DIVIDE:
+                        return q != 0 ? p / q : null;
+                    case MODULO:
+                        return q != 0 ? p % q : null;
+                    case COMPARE:
+                        return Integer.compare(p, q);
+                    case AND:
+                        return p & q;
+                    case OR:
+                        return p | q;
+                    case XOR:
+                        return p ^ q;
+                    case SHIFT_LEFT:
+                        return p << q;
+                    case SHIFT_RIGHT:
+                        return p >> q;
+                    case SHIFT_RIGHT_UNSIGNED:
+                        return p >>> q;
+                }
+                break;
+            }
+            case LONG: {
+                long p = first.longValue();
+                long q = second.longValue();
+                switch (operation) {
+                    case ADD:
+                        return p + q;
+                    case SUBTRACT:
+                        return p - q;
+                    case MULTIPLY:
+                        return p * q;
+                    case DIVIDE:
+                        return q != 0 ? p / q : null;
+                    case MODULO:
+                        return q != 0 ? p % q : null;
+                    case COMPARE:
+                        return Long.compare(p, q);
+                    case AND:
+                        return p & q;
+                    case OR:
+                        return p | q;
+                    case XOR:
+                        return p ^ q;
+                    case SHIFT_LEFT:
+                        return p << q;
+                    case SHIFT_RIGHT:
+                        return p >> q;
+                    case SHIFT_RIGHT_UNSIGNED:
+                        return p >>> q;
+                }
+                break;
+            }
+            case FLOAT: {
+                float p = first.floatValue();
+                float q = second.floatValue();
+                switch (operation) {
+                    case ADD:
+                        return p + q;
+                    case SUBTRACT:
+                        return p - q;
+                    case MULTIPLY:
+                        return p * q;
+                    case DIVIDE:
+                        return q != 0 ? p / q : null;
+                    case MODULO:
+                        return q != 0 ? p % q : null;
+                    case COMPARE:
+                        return compare(p, q);
+                    default:
+                        break;
+                }
+                break;
+            }
+            case DOUBLE: {
+                double p = first.doubleValue();
+                double q = second.doubleValue();
+                switch (operation) {
+                    case ADD:
+                        return p + q;
+                    case SUBTRACT:
+                        return p - q;
+                    case MULTIPLY:
+                        return p * q;
+                    case DIVIDE:
+                        return q != 0 ? p / q : null;
+                    case MODULO:
+                        return q != 0 ? p % q : null;
+                    case COMPARE:
+                        return compare(p, q);
+                    default:
+                        break;
+                }
+                break;
+            }
+        }
+        return null;
+    }
+
+    // Unlike Double.compare, follows JVM semantics for zeros. Result for NaN depends on bytecode
+    // instruction that is lost at this point, so it's never folded
+    private static Integer compare(double p, double q) {
+        if (p < q) {
+            return -1;
+        } else if (p > q) {
+            return 1;
+        } else if (p == q) {
+            return 0;
+        }
+        return null;
+    }
+
+    private class Evaluator extends AbstractInstructionVisitor {
+        boolean handled;
+
+        @Override
+        public void visit(NullConstantInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), NULL);
+        }
+
+        @Override
+        public void visit(IntegerConstantInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(LongConstantInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(FloatConstantInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(DoubleConstantInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(AssignInstruction insn) {
+            handled = true;
+            update(insn.getReceiver(), getValue(insn.getAssignee()));
+        }
+
+        @Override
+        public void visit(BinaryInstruction insn) {
+            handled = true;
+            Object first = getValue(insn.getFirstOperand());
+            Object second = getValue(insn.getSecondOperand());
+            if (first == OVERDEFINED || second == OVERDEFINED) {
+                update(insn.getReceiver(), OVERDEFINED);
+            } else if (first instanceof Number && second instanceof Number) {
+                Number result = evaluateBinary(insn.getOperation(), insn.getOperandType(),
+                        (Number) first, (Number) second);
+                update(insn.getReceiver(), result != null ? result : OVERDEFINED);
+            } else if (first != null && second != null) {
+                update(insn.getReceiver(), OVERDEFINED);
+            }
+        }
+
+        @Override
+        public void visit(NegateInstruction insn) {
+            handled = true;
+            Object value = getValue(insn.getOperand());
+            if (value instanceof Number) {
+                Number number = (Number) value;
+                switch (insn.getOperandType()) {
+                    case INT:
+                        value = -number.intValue();
+                        break;
+                    case LONG:
+                        value = -number.longValue();
+                        break;
+                    case FLOAT:
+                        value = -number.floatValue();
+                        break;
+                    case DOUBLE:
+                        value = -number.doubleValue();
+                        break;
+                }
+            } else if (value != null) {
+                value = OVERDEFINED;
+            }
+            update(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(CastNumberInstruction insn) {
+            handled = true;
+            Object value = getValue(insn.getValue());
+            if (value instanceof Number) {
+                Number number = (Number) value;
+                switch (insn.getTargetType()) {
+                    case INT:
+                        value = number.intValue();
+                        break;
+                    case LONG:
+                        value = number.longValue();
+                        break;
+                    case FLOAT:
+                        value = number.floatValue();
+                        break;
+                    case DOUBLE:
+                        value = number.doubleValue();
+                        break;
+                }
+            } else if (value != null) {
+                value = OVERDEFINED;
+            }
+            update(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(CastIntegerInstruction insn) {
+            handled = true;
+            Object value = getValue(insn.getValue());
+            if (value instanceof Integer) {
+                int number = (Integer) value;
+                switch (insn.getDirection()) {
+                    case TO_INTEGER:
+                        break;
+                    case FROM_INTEGER:
+                        switch (insn.getTargetType()) {
+                            case BYTE:
+                                value = number << 24 >> 24;
+                                break;
+                            case SHORT:
+                                value = number << 16 >> 16;
+                                break;
+                            case CHAR:
+                                value = number & 0xFFFF;
+                                break;
+                        }
+                        break;
+                }
+            } else if (value != null) {
+                value = OVERDEFINED;
+            }
+            update(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(JumpInstruction insn) {
+            handled = true;
+            markEdge(currentBlock, insn.getTarget());
+        }
+
+        @Override
+        public void visit(BranchingInstruction insn) {
+            handled = true;
+            if (getValue(insn.getOperand()) != null) {
+                markTransitions(insn);
+            }
+        }
+
+        @Override
+        public void visit(BinaryBranchingInstruction insn) {
+            handled = true;
+            if (getValue(insn.getFirstOperand()) != null && getValue(insn.getSecondOperand()) != null) {
+                markTransitions(insn);
+            }
+        }
+
+        @Override
+        public void visit(SwitchInstruction insn) {
+            handled = true;
+            if (getValue(insn.getCondition()) != null) {
+                markTransitions(insn);
+            }
+        }
+
+        @Override
+        public void visit(ExitInstruction insn) {
+            handled = true;
+        }
+
+        @Override
+        public void visit(RaiseInstruction insn) {
+            handled = true;
+        }
+    }
+}
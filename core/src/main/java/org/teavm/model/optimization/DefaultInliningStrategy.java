@@ -44,15 +44,39 @@ public class DefaultInliningStrategy implements InliningStrategy {
     @Override
     public InliningStep start(MethodReference method, ProgramReader program) {
         Complexity complexity = getComplexity(program, null);
-        if (complexity.score > totalComplexityThreshold) {
+        int totalThreshold = getTotalComplexityThreshold(method);
+        if (complexity.score > totalThreshold) {
             return null;
         }
 
         ComplexityHolder complexityHolder = new ComplexityHolder();
         complexityHolder.complexity = complexity.score;
+        complexityHolder.threshold = totalThreshold;
         return new InliningStepImpl(complexityHolder);
     }
 
+    /**
+     * Returns maximum complexity of a single method to inline at the call site described by context.
+     */
+    protected int getComplexityThreshold(MethodReference method, InliningContext context) {
+        return complexityThreshold;
+    }
+
+    /**
+     * Returns maximum complexity of the given method after inlining into it.
+     */
+    protected int getTotalComplexityThreshold(MethodReference method) {
+        return totalComplexityThreshold;
+    }
+
+    /**
+     * Returns whether only methods used once (or trivial ones) can be inlined at the call site described
+     * by context.
+     */
+    protected boolean isOnceUsedOnly(MethodReference method, InliningContext context) {
+        return onceUsedOnly;
+    }
+
     private Complexity getComplexity(ProgramReader program, InliningContext context) {
         int complexity = 0;
         ComplexityCounter counter = new ComplexityCounter(context);
@@ -82,14 +106,14 @@ public class DefaultInliningStrategy implements InliningStrategy {
             }
 
             Complexity complexity = getComplexity(program, context);
-            if (onceUsedOnly && !context.isUsedOnce(method)) {
+            if (isOnceUsedOnly(method, context) && !context.isUsedOnce(method)) {
                 if (complexity.callsToUsedOnceMethods || complexity.score > 1) {
                     return null;
                 }
             }
 
-            if (complexity.score > complexityThreshold
-                    || complexityHolder.complexity + complexity.score > totalComplexityThreshold) {
+            if (complexity.score > getComplexityThreshold(method, context)
+                    || complexityHolder.complexity + complexity.score > complexityHolder.threshold) {
                 return null;
             }
 
@@ -100,6 +124,7 @@ public class DefaultInliningStrategy implements InliningStrategy {
 
     static class ComplexityHolder {
         int complexity;
+        int threshold;
     }
 
     class ComplexityCounter extends AbstractInstructionReader {
@@ -15,9 +15,11 @@
  */
 package org.teavm.model.optimization;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 import org.teavm.common.OptionalPredicate;
 import org.teavm.dependency.DependencyInfo;
@@ -26,15 +28,24 @@ import org.teavm.dependency.ValueDependencyInfo;
 import org.teavm.model.BasicBlock;
 import org.teavm.model.ClassHierarchy;
 import org.teavm.model.ClassReader;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.Incoming;
 import org.teavm.model.Instruction;
 import org.teavm.model.MethodHolder;
 import org.teavm.model.MethodReference;
+import org.teavm.model.Phi;
 import org.teavm.model.Program;
 import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
 import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.BranchingCondition;
+import org.teavm.model.instructions.BranchingInstruction;
 import org.teavm.model.instructions.CastInstruction;
 import org.teavm.model.instructions.InvocationType;
 import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.IsInstanceInstruction;
+import org.teavm.model.instructions.JumpInstruction;
+import org.teavm.model.util.TransitionExtractor;
 
 public class Devirtualization {
     static final boolean shouldLog = System.getProperty("org.teavm.logDevirtualization", "false").equals("true");
@@ -42,8 +53,10 @@ public class Devirtualization {
     private ClassHierarchy hierarchy;
     private Set<MethodReference> virtualMethods = new HashSet<>();
     private Set<? extends MethodReference> readonlyVirtualMethods = Collections.unmodifiableSet(virtualMethods);
+    private int maxGuardedImplementations;
     private int virtualCallSites;
     private int directCallSites;
+    private int guardedCallSites;
     private int remainingCasts;
     private int eliminatedCasts;
 
@@ -52,6 +65,19 @@ public class Devirtualization {
         this.hierarchy = hierarchy;
     }
 
+    public int getMaxGuardedImplementations() {
+        return maxGuardedImplementations;
+    }
+
+    /**
+     * Sets maximum number of implementations a virtual call site can have to be replaced by a chain of
+     * type checks, each followed by a direct call to the corresponding implementation, with the virtual call
+     * as a fallback. Direct calls can later be inlined. Zero or one disable this transformation.
+     */
+    public void setMaxGuardedImplementations(int maxGuardedImplementations) {
+        this.maxGuardedImplementations = maxGuardedImplementations;
+    }
+
     public int getVirtualCallSites() {
         return virtualCallSites;
     }
@@ -60,6 +86,10 @@ public class Devirtualization {
         return directCallSites;
     }
 
+    public int getGuardedCallSites() {
+        return guardedCallSites;
+    }
+
     public int getRemainingCasts() {
         return remainingCasts;
     }
@@ -79,23 +109,28 @@ public class Devirtualization {
             System.out.println("DEVIRTUALIZATION running at " + method.getReference());
         }
 
+        List<GuardedCall> guardedCalls = new ArrayList<>();
         for (int i = 0; i < program.basicBlockCount(); ++i) {
             BasicBlock block = program.basicBlockAt(i);
             for (Instruction insn : block) {
                 if (insn instanceof InvokeInstruction) {
-                    applyToInvoke(methodDep, (InvokeInstruction) insn);
+                    applyToInvoke(methodDep, (InvokeInstruction) insn, guardedCalls);
                 } else if (insn instanceof CastInstruction) {
                     applyToCast(methodDep, (CastInstruction) insn);
                 }
             }
         }
+        for (GuardedCall guardedCall : guardedCalls) {
+            emitGuards(program, guardedCall.invoke, guardedCall.guards);
+        }
 
         if (shouldLog) {
             System.out.println("DEVIRTUALIZATION complete for " + method.getReference());
         }
     }
 
-    private void applyToInvoke(MethodDependencyInfo methodDep, InvokeInstruction invoke) {
+    private void applyToInvoke(MethodDependencyInfo methodDep, InvokeInstruction invoke,
+            List<GuardedCall> guardedCalls) {
         if (invoke.getType() != InvocationType.VIRTUAL) {
             return;
         }
@@ -118,6 +153,20 @@ public class Devirtualization {
             directCallSites++;
         } else {
             virtualMethods.addAll(implementations);
+            List<MethodReference> guards = getGuards(invoke, implementations);
+            if (guards != null) {
+                if (shouldLog) {
+                    System.out.print("GUARDED CALL " + invoke.getMethod() + " resolved to " + guards);
+                    if (invoke.getLocation() != null) {
+                        System.out.print(" at " + invoke.getLocation().getFileName() + ":"
+                                + invoke.getLocation().getLine());
+                    }
+                    System.out.println();
+                }
+                guardedCalls.add(new GuardedCall(invoke, guards));
+                guardedCallSites++;
+                return;
+            }
             if (shouldLog) {
                 System.out.print("VIRTUAL CALL " + invoke.getMethod() + " resolved to [");
                 boolean first = true;
@@ -139,6 +188,115 @@ public class Devirtualization {
         }
     }
 
+    private List<MethodReference> getGuards(InvokeInstruction invoke, Set<MethodReference> implementations) {
+        if (implementations.size() < 2 || implementations.size() > maxGuardedImplementations
+                || !invoke.getBasicBlock().getTryCatchBlocks().isEmpty()) {
+            return null;
+        }
+        for (MethodReference implementation : implementations) {
+            ClassReader cls = hierarchy.getClassSource().get(implementation.getClassName());
+            if (cls == null || cls.hasModifier(ElementModifier.INTERFACE)) {
+                return null;
+            }
+        }
+
+        // Implementation declared in a subclass must be checked before implementation it overrides,
+        // since instances of subclass pass type check against superclass as well
+        List<MethodReference> remaining = new ArrayList<>(implementations);
+        List<MethodReference> guards = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            int index = 0;
+            for (int i = 1; i < remaining.size(); ++i) {
+                if (hierarchy.isSuperType(remaining.get(index).getClassName(), remaining.get(i).getClassName(),
+                        false)) {
+                    index = i;
+                }
+            }
+            guards.add(remaining.remove(index));
+        }
+        return guards;
+    }
+
+    private void emitGuards(Program program, InvokeInstruction invoke, List<MethodReference> guards) {
+        BasicBlock block = invoke.getBasicBlock();
+        BasicBlock jointBlock = program.createBasicBlock();
+        while (invoke.getNext() != null) {
+            Instruction insn = invoke.getNext();
+            insn.delete();
+            jointBlock.add(insn);
+        }
+        TransitionExtractor transitionExtractor = new TransitionExtractor();
+        jointBlock.getLastInstruction().acceptVisitor(transitionExtractor);
+        if (transitionExtractor.getTargets() != null) {
+            for (BasicBlock successor : transitionExtractor.getTargets()) {
+                for (Phi phi : successor.getPhis()) {
+                    for (Incoming incoming : phi.getIncomings()) {
+                        if (incoming.getSource() == block) {
+                            incoming.setSource(jointBlock);
+                        }
+                    }
+                }
+            }
+        }
+
+        Phi resultPhi = null;
+        if (invoke.getReceiver() != null) {
+            resultPhi = new Phi();
+            resultPhi.setReceiver(invoke.getReceiver());
+            jointBlock.getPhis().add(resultPhi);
+        }
+
+        BasicBlock checkBlock = block;
+        invoke.delete();
+        for (MethodReference implementation : guards) {
+            BasicBlock callBlock = program.createBasicBlock();
+            BasicBlock nextBlock = program.createBasicBlock();
+
+            IsInstanceInstruction isInstance = new IsInstanceInstruction();
+            isInstance.setValue(invoke.getInstance());
+            isInstance.setType(ValueType.object(implementation.getClassName()));
+            isInstance.setReceiver(program.createVariable());
+            isInstance.setLocation(invoke.getLocation());
+            checkBlock.add(isInstance);
+
+            BranchingInstruction branching = new BranchingInstruction(BranchingCondition.NOT_EQUAL);
+            branching.setOperand(isInstance.getReceiver());
+            branching.setConsequent(callBlock);
+            branching.setAlternative(nextBlock);
+            branching.setLocation(invoke.getLocation());
+            checkBlock.add(branching);
+
+            InvokeInstruction directCall = new InvokeInstruction();
+            directCall.setType(InvocationType.SPECIAL);
+            directCall.setMethod(implementation);
+            directCall.setInstance(invoke.getInstance());
+            directCall.setArguments(invoke.getArguments().toArray(new Variable[0]));
+            directCall.setLocation(invoke.getLocation());
+            addCall(program, callBlock, directCall, jointBlock, resultPhi);
+
+            checkBlock = nextBlock;
+        }
+
+        addCall(program, checkBlock, invoke, jointBlock, resultPhi);
+    }
+
+    private void addCall(Program program, BasicBlock block, InvokeInstruction call, BasicBlock jointBlock,
+            Phi resultPhi) {
+        if (resultPhi != null) {
+            call.setReceiver(program.createVariable());
+            Incoming incoming = new Incoming();
+            incoming.setSource(block);
+            incoming.setValue(call.getReceiver());
+            resultPhi.getIncomings().add(incoming);
+        }
+        block.add(call);
+
+        JumpInstruction jump = new JumpInstruction();
+        jump.setTarget(jointBlock);
+        jump.setLocation(call.getLocation());
+        block.add(jump);
+    }
+
     private void applyToCast(MethodDependencyInfo methodDep, CastInstruction cast) {
         ValueDependencyInfo var = methodDep.getVariable(cast.getValue().getIndex());
         if (var == null) {
@@ -224,4 +382,14 @@ public class Devirtualization {
     public Set<? extends MethodReference> getVirtualMethods() {
         return readonlyVirtualMethods;
     }
+
+    static class GuardedCall {
+        InvokeInstruction invoke;
+        List<MethodReference> guards;
+
+        GuardedCall(InvokeInstruction invoke, List<MethodReference> guards) {
+            this.invoke = invoke;
+            this.guards = guards;
+        }
+    }
 }
@@ -0,0 +1,136 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.dependency.FieldDependencyInfo;
+import org.teavm.dependency.MethodDependencyInfo;
+import org.teavm.interop.Structure;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassReader;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.instructions.GetFieldInstruction;
+import org.teavm.model.instructions.PutFieldInstruction;
+
+/**
+ * <p>Collects all reads and writes of fields in the program, grouped by actual fields they refer to.
+ * Used by whole-program optimizations that change layout of classes.</p>
+ */
+class FieldAccesses {
+    private static final String[] EXCLUDED_PACKAGES = { "org.teavm.runtime.", "org.teavm.interop.",
+            "org.teavm.platform.", "org.teavm.jso." };
+    private static final Set<String> EXCLUDED_CLASSES = new HashSet<>(Arrays.asList(
+            "java.lang.Object", "java.lang.Class"));
+    private static final MethodReference GET_DECLARED_FIELDS_METHOD = new MethodReference(Class.class,
+            "getDeclaredFields", Field[].class);
+    private DependencyInfo dependencyInfo;
+    private ClassHierarchy hierarchy;
+    private Set<String> classesWithReflectableFields = new HashSet<>();
+    private Map<FieldReference, List<GetFieldInstruction>> reads = new HashMap<>();
+    private Map<FieldReference, List<PutFieldInstruction>> writes = new HashMap<>();
+
+    FieldAccesses(ListableClassHolderSource classes, DependencyInfo dependencyInfo, ClassHierarchy hierarchy) {
+        this.dependencyInfo = dependencyInfo;
+        this.hierarchy = hierarchy;
+        MethodDependencyInfo getDeclaredFieldsMethod = dependencyInfo.getMethod(GET_DECLARED_FIELDS_METHOD);
+        if (getDeclaredFieldsMethod != null) {
+            classesWithReflectableFields.addAll(Arrays.asList(
+                    getDeclaredFieldsMethod.getVariable(0).getClassValueNode().getTypes()));
+        }
+        collect(classes);
+    }
+
+    private void collect(ListableClassHolderSource classes) {
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                Program program = method.getProgram();
+                if (program == null) {
+                    continue;
+                }
+                for (BasicBlock block : program.getBasicBlocks()) {
+                    for (Instruction instruction : block) {
+                        if (instruction instanceof GetFieldInstruction) {
+                            GetFieldInstruction getField = (GetFieldInstruction) instruction;
+                            FieldReference field = resolve(getField.getField());
+                            if (field != null) {
+                                reads.computeIfAbsent(field, f -> new ArrayList<>()).add(getField);
+                            }
+                        } else if (instruction instanceof PutFieldInstruction) {
+                            PutFieldInstruction putField = (PutFieldInstruction) instruction;
+                            FieldReference field = resolve(putField.getField());
+                            if (field != null) {
+                                writes.computeIfAbsent(field, f -> new ArrayList<>()).add(putField);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    FieldReference resolve(FieldReference field) {
+        FieldDependencyInfo fieldDep = dependencyInfo.getField(field);
+        return fieldDep != null ? fieldDep.getReference() : null;
+    }
+
+    /**
+     * Tells whether all accesses to the field are known, i.e. field is reachable and is only accessed
+     * by field instructions.
+     */
+    boolean isTracked(FieldReference field) {
+        FieldDependencyInfo fieldDep = dependencyInfo.getField(field);
+        return fieldDep != null && !fieldDep.isAccessedExternally();
+    }
+
+    /**
+     * Tells whether layout of the class must be preserved, i.e. it is a runtime class known to backends
+     * or a class which fields are enumerated via reflection.
+     */
+    boolean isExcluded(ClassReader cls) {
+        if (EXCLUDED_CLASSES.contains(cls.getName()) || classesWithReflectableFields.contains(cls.getName())) {
+            return true;
+        }
+        for (String excludedPackage : EXCLUDED_PACKAGES) {
+            if (cls.getName().startsWith(excludedPackage)) {
+                return true;
+            }
+        }
+        return hierarchy.isSuperType(Structure.class.getName(), cls.getName(), false);
+    }
+
+    List<GetFieldInstruction> getReads(FieldReference field) {
+        return reads.getOrDefault(field, Collections.emptyList());
+    }
+
+    List<PutFieldInstruction> getWrites(FieldReference field) {
+        return writes.getOrDefault(field, Collections.emptyList());
+    }
+}
@@ -0,0 +1,346 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.dependency.FieldDependencyInfo;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.DoubleConstantInstruction;
+import org.teavm.model.instructions.EmptyInstruction;
+import org.teavm.model.instructions.FloatConstantInstruction;
+import org.teavm.model.instructions.GetFieldInstruction;
+import org.teavm.model.instructions.InitClassInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.LongConstantInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.instructions.NullConstantInstruction;
+import org.teavm.model.instructions.PutFieldInstruction;
+import org.teavm.model.instructions.StringConstantInstruction;
+
+/**
+ * <p>Analyzes field accesses across the whole program. Reads of fields that always hold the same constant
+ * are replaced by this constant. Such fields, as well as fields that are never read, are removed from their
+ * classes together with all writes to them, which reduces size of objects and number of field accesses.</p>
+ *
+ * <p>Field is considered constant when it's never written, when it's static and written once with a constant
+ * at the beginning of the static initializer of its class, or when it's an instance field of a direct subclass
+ * of {@link Object} written with the same constant at the beginning of every constructor. Fields accessed
+ * by anything except field instructions (see {@link FieldDependencyInfo#isAccessedExternally()}) are left
+ * untouched, as well as fields of runtime classes, whose layout is known to backends, and fields of classes
+ * enumerated via reflection.</p>
+ *
+ * <p>Removed accesses to instance fields are replaced by null checks of the instance, so that
+ * <code>NullPointerException</code> is still thrown where it was.</p>
+ */
+public class GlobalFieldOptimization {
+    private static final Object NOT_CONSTANT = new Object();
+    private ListableClassHolderSource classes;
+    private DependencyInfo dependencyInfo;
+    private ClassHierarchy hierarchy;
+    private FieldAccesses accesses;
+    private Set<Program> instanceMethodPrograms = new HashSet<>();
+    private int foldedFields;
+    private int removedFields;
+
+    public GlobalFieldOptimization(ListableClassHolderSource classes, DependencyInfo dependencyInfo,
+            ClassHierarchy hierarchy) {
+        this.classes = classes;
+        this.dependencyInfo = dependencyInfo;
+        this.hierarchy = hierarchy;
+    }
+
+    public int getFoldedFields() {
+        return foldedFields;
+    }
+
+    public int getRemovedFields() {
+        return removedFields;
+    }
+
+    public void apply() {
+        accesses = new FieldAccesses(classes, dependencyInfo, hierarchy);
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getProgram() != null && !method.hasModifier(ElementModifier.STATIC)) {
+                    instanceMethodPrograms.add(method.getProgram());
+                }
+            }
+        }
+        for (String className : classes.getClassNames()) {
+            ClassHolder cls = classes.get(className);
+            if (accesses.isExcluded(cls)) {
+                continue;
+            }
+            for (FieldHolder field : cls.getFields().toArray(new FieldHolder[0])) {
+                if (accesses.isTracked(field.getReference())) {
+                    optimizeField(cls, field);
+                }
+            }
+        }
+        accesses = null;
+        instanceMethodPrograms.clear();
+    }
+
+    private void optimizeField(ClassHolder cls, FieldHolder field) {
+        List<GetFieldInstruction> fieldReads = accesses.getReads(field.getReference());
+        List<PutFieldInstruction> fieldWrites = accesses.getWrites(field.getReference());
+        if (!fieldReads.isEmpty()) {
+            Object value = getConstantValue(cls, field, fieldWrites);
+            if (value == NOT_CONSTANT) {
+                return;
+            }
+            for (GetFieldInstruction read : fieldReads) {
+                Instruction constant = read.getReceiver() != null ? createConstant(value, read.getReceiver()) : null;
+                removeAccess(read, read.getInstance(), constant);
+            }
+            foldedFields++;
+        }
+
+        for (PutFieldInstruction write : fieldWrites) {
+            removeAccess(write, write.getInstance(), null);
+        }
+        cls.removeField(field);
+        removedFields++;
+    }
+
+    private void removeAccess(Instruction access, Variable instance, Instruction replacement) {
+        if (instance != null && !isThis(instance)) {
+            NullCheckInstruction nullCheck = new NullCheckInstruction();
+            nullCheck.setValue(instance);
+            nullCheck.setReceiver(instance.getProgram().createVariable());
+            nullCheck.setLocation(access.getLocation());
+            access.insertPrevious(nullCheck);
+        }
+        if (replacement != null) {
+            replacement.setLocation(access.getLocation());
+            access.replace(replacement);
+        } else {
+            access.delete();
+        }
+    }
+
+    private boolean isThis(Variable variable) {
+        return variable.getIndex() == 0 && instanceMethodPrograms.contains(variable.getProgram());
+    }
+
+    private Object getConstantValue(ClassHolder cls, FieldHolder field, List<PutFieldInstruction> fieldWrites) {
+        if (fieldWrites.isEmpty()) {
+            Object initialValue = field.getInitialValue();
+            if (initialValue == null) {
+                return getDefaultValue(field.getType());
+            }
+            return isSupportedConstant(initialValue) ? initialValue : NOT_CONSTANT;
+        }
+        if (field.hasModifier(ElementModifier.STATIC)) {
+            return getStaticInitializerValue(cls, field, fieldWrites);
+        } else {
+            return getConstructorValue(cls, field, fieldWrites);
+        }
+    }
+
+    private Object getStaticInitializerValue(ClassHolder cls, FieldHolder field,
+            List<PutFieldInstruction> fieldWrites) {
+        MethodHolder initializer = cls.getMethod(new MethodDescriptor("<clinit>", ValueType.VOID));
+        if (fieldWrites.size() != 1 || initializer == null || initializer.getProgram() == null) {
+            return NOT_CONSTANT;
+        }
+        PutFieldInstruction write = fieldWrites.get(0);
+        if (write.getBasicBlock() != initializer.getProgram().basicBlockAt(0)) {
+            return NOT_CONSTANT;
+        }
+        return getValueWrittenAtStart(write, field, null);
+    }
+
+    private Object getConstructorValue(ClassHolder cls, FieldHolder field, List<PutFieldInstruction> fieldWrites) {
+        if (!Objects.equals(cls.getParent(), "java.lang.Object")) {
+            return NOT_CONSTANT;
+        }
+
+        Object value = NOT_CONSTANT;
+        int constructorWrites = 0;
+        for (MethodHolder method : cls.getMethods()) {
+            if (!method.getName().equals("<init>") || method.getProgram() == null) {
+                continue;
+            }
+            Program program = method.getProgram();
+            PutFieldInstruction constructorWrite = null;
+            for (PutFieldInstruction write : fieldWrites) {
+                if (write.getBasicBlock().getProgram() == program) {
+                    if (constructorWrite != null) {
+                        return NOT_CONSTANT;
+                    }
+                    constructorWrite = write;
+                }
+            }
+            if (constructorWrite == null || constructorWrite.getBasicBlock() != program.basicBlockAt(0)
+                    || constructorWrite.getInstance() != program.variableAt(0)) {
+                return NOT_CONSTANT;
+            }
+            Object constructorValue = getValueWrittenAtStart(constructorWrite, field, program.variableAt(0));
+            if (constructorValue == NOT_CONSTANT
+                    || (value != NOT_CONSTANT && !Objects.equals(value, constructorValue))) {
+                return NOT_CONSTANT;
+            }
+            value = constructorValue;
+            constructorWrites++;
+        }
+
+        return constructorWrites == fieldWrites.size() ? value : NOT_CONSTANT;
+    }
+
+    // Makes sure that no code that can observe the field before the write is executed,
+    // i.e. there are no calls (except for Object.<init> on the instance being constructed),
+    // no reads of the field itself and nothing that can trigger initialization of another class,
+    // which in case of initialization cycle can read the field while it still holds default value
+    private Object getValueWrittenAtStart(PutFieldInstruction write, FieldHolder field, Variable instance) {
+        Object value = NOT_CONSTANT;
+        for (Instruction insn = write.getBasicBlock().getFirstInstruction(); insn != write; insn = insn.getNext()) {
+            Variable receiver = null;
+            Object constant;
+            if (insn instanceof IntegerConstantInstruction) {
+                receiver = ((IntegerConstantInstruction) insn).getReceiver();
+                constant = ((IntegerConstantInstruction) insn).getConstant();
+            } else if (insn instanceof LongConstantInstruction) {
+                receiver = ((LongConstantInstruction) insn).getReceiver();
+                constant = ((LongConstantInstruction) insn).getConstant();
+            } else if (insn instanceof FloatConstantInstruction) {
+                receiver = ((FloatConstantInstruction) insn).getReceiver();
+                constant = ((FloatConstantInstruction) insn).getConstant();
+            } else if (insn instanceof DoubleConstantInstruction) {
+                receiver = ((DoubleConstantInstruction) insn).getReceiver();
+                constant = ((DoubleConstantInstruction) insn).getConstant();
+            } else if (insn instanceof StringConstantInstruction) {
+                receiver = ((StringConstantInstruction) insn).getReceiver();
+                constant = ((StringConstantInstruction) insn).getConstant();
+            } else if (insn instanceof NullConstantInstruction) {
+                receiver = ((NullConstantInstruction) insn).getReceiver();
+                constant = null;
+            } else if (insn instanceof GetFieldInstruction) {
+                GetFieldInstruction getField = (GetFieldInstruction) insn;
+                if (field.getReference().equals(accesses.resolve(getField.getField()))
+                        || isForeignStaticAccess(getField.getInstance(), getField.getField(), field)) {
+                    return NOT_CONSTANT;
+                }
+                continue;
+            } else if (insn instanceof PutFieldInstruction) {
+                PutFieldInstruction putField = (PutFieldInstruction) insn;
+                if (isForeignStaticAccess(putField.getInstance(), putField.getField(), field)) {
+                    return NOT_CONSTANT;
+                }
+                continue;
+            } else if (insn instanceof InitClassInstruction) {
+                return NOT_CONSTANT;
+            } else if (insn instanceof InvokeInstruction) {
+                InvokeInstruction invoke = (InvokeInstruction) insn;
+                if (instance == null || invoke.getType() != InvocationType.SPECIAL
+                        || invoke.getInstance() != instance
+                        || !invoke.getMethod().getClassName().equals("java.lang.Object")
+                        || !invoke.getMethod().getName().equals("<init>")) {
+                    return NOT_CONSTANT;
+                }
+                continue;
+            } else if (insn instanceof AssignInstruction || insn instanceof EmptyInstruction) {
+                continue;
+            } else {
+                return NOT_CONSTANT;
+            }
+            if (receiver == write.getValue()) {
+                value = constant;
+            }
+        }
+        return value;
+    }
+
+    private boolean isForeignStaticAccess(Variable instance, FieldReference accessedField, FieldHolder field) {
+        if (instance != null) {
+            return false;
+        }
+        FieldReference resolvedField = accesses.resolve(accessedField);
+        return resolvedField == null || !resolvedField.getClassName().equals(field.getOwnerName());
+    }
+
+    private static Object getDefaultValue(ValueType type) {
+        if (type instanceof ValueType.Primitive) {
+            switch (((ValueType.Primitive) type).getKind()) {
+                case LONG:
+                    return 0L;
+                case FLOAT:
+                    return 0F;
+                case DOUBLE:
+                    return 0.0;
+                default:
+                    return 0;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isSupportedConstant(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Float
+                || value instanceof Double || value instanceof String;
+    }
+
+    private static Instruction createConstant(Object value, Variable receiver) {
+        if (value instanceof Integer) {
+            IntegerConstantInstruction insn = new IntegerConstantInstruction();
+            insn.setConstant((Integer) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Long) {
+            LongConstantInstruction insn = new LongConstantInstruction();
+            insn.setConstant((Long) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Float) {
+            FloatConstantInstruction insn = new FloatConstantInstruction();
+            insn.setConstant((Float) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Double) {
+            DoubleConstantInstruction insn = new DoubleConstantInstruction();
+            insn.setConstant((Double) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof String) {
+            StringConstantInstruction insn = new StringConstantInstruction();
+            insn.setConstant((String) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else {
+            NullConstantInstruction insn = new NullConstantInstruction();
+            insn.setReceiver(receiver);
+            return insn;
+        }
+    }
+}
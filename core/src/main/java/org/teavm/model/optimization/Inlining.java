@@ -384,6 +384,8 @@ public class Inlining {
                 }
 
                 context.depth = depth;
+                context.caller = method;
+                context.callSiteBlock = block.getIndex();
                 InliningStep innerStep = step.tryInline(invokedMethod.getReference(), invokedMethod.getProgram(),
                         context);
                 if (innerStep == null) {
@@ -494,6 +496,8 @@ public class Inlining {
 
     class ContextImpl implements InliningContext {
         int depth;
+        MethodReference caller;
+        int callSiteBlock;
 
         @Override
         public boolean isUsedOnce(MethodReference method) {
@@ -514,5 +518,15 @@ public class Inlining {
         public int getDepth() {
             return depth;
         }
+
+        @Override
+        public MethodReference getCaller() {
+            return caller;
+        }
+
+        @Override
+        public int getCallSiteBlock() {
+            return callSiteBlock;
+        }
     }
 }
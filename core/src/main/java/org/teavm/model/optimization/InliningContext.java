@@ -24,4 +24,15 @@ public interface InliningContext {
     ProgramReader getProgram(MethodReference method);
 
     int getDepth();
+
+    /**
+     * Returns method which contains call site being considered. When considering calls inside method which is
+     * going to be inlined itself, returns that method.
+     */
+    MethodReference getCaller();
+
+    /**
+     * Returns index of basic block of {@link #getCaller()} that contains call site being considered.
+     */
+    int getCallSiteBlock();
 }
@@ -0,0 +1,234 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.util.InstructionVariableMapper;
+
+/**
+ * <p>Propagates constants across method boundaries. Non-external methods (i.e. ones that are reachable
+ * only via direct calls from other methods of the program) get their parameters replaced by constants
+ * when the same constant is passed at every call site that can be executed. After that, calls
+ * to methods that always return the same constant get their result replaced by this constant.
+ * The invocations themselves are preserved, since callee may have side effects.</p>
+ *
+ * <p>The transformation is supposed to be followed by per-method optimizations, like
+ * {@link SparseConditionalConstantPropagation}, that take advantage of the introduced constants.</p>
+ */
+public class InterproceduralConstantPropagation {
+    private ListableClassHolderSource classes;
+    private Predicate<MethodReference> externalMethods;
+    private InliningFilterFactory filterFactory;
+    private Map<MethodReference, Object[]> arguments = new HashMap<>();
+    private Set<MethodReference> excludedMethods = new HashSet<>();
+    private Map<MethodReference, Object> returnValues = new HashMap<>();
+    private int specializedParameters;
+    private int constantCallSites;
+
+    public InterproceduralConstantPropagation(ListableClassHolderSource classes,
+            Predicate<MethodReference> externalMethods, InliningFilterFactory filterFactory) {
+        this.classes = classes;
+        this.externalMethods = externalMethods;
+        this.filterFactory = filterFactory;
+    }
+
+    public int getSpecializedParameters() {
+        return specializedParameters;
+    }
+
+    public int getConstantCallSites() {
+        return constantCallSites;
+    }
+
+    public void apply() {
+        for (MethodHolder method : getMethods()) {
+            ConstantPropagationAnalysis analysis = new ConstantPropagationAnalysis(method.getProgram());
+            collectArguments(method, analysis);
+            computeReturnValue(method, analysis);
+        }
+
+        for (Map.Entry<MethodReference, Object[]> entry : arguments.entrySet()) {
+            if (excludedMethods.contains(entry.getKey())) {
+                continue;
+            }
+            MethodHolder method = getMethod(entry.getKey());
+            if (method != null && specializeParameters(method.getProgram(), entry.getValue())) {
+                computeReturnValue(method, new ConstantPropagationAnalysis(method.getProgram()));
+            }
+        }
+
+        for (MethodHolder method : getMethods()) {
+            replaceReturnValues(method);
+        }
+
+        arguments.clear();
+        excludedMethods.clear();
+        returnValues.clear();
+    }
+
+    private List<MethodHolder> getMethods() {
+        List<MethodHolder> methods = new ArrayList<>();
+        for (String className : classes.getClassNames()) {
+            ClassHolder cls = classes.get(className);
+            for (MethodHolder method : cls.getMethods()) {
+                if (method.getProgram() != null && method.getProgram().basicBlockCount() > 0) {
+                    methods.add(method);
+                }
+            }
+        }
+        return methods;
+    }
+
+    private MethodHolder getMethod(MethodReference reference) {
+        ClassHolder cls = classes.get(reference.getClassName());
+        if (cls == null) {
+            return null;
+        }
+        MethodHolder method = cls.getMethod(reference.getDescriptor());
+        if (method == null || method.getProgram() == null || method.getProgram().basicBlockCount() == 0) {
+            return null;
+        }
+        return method;
+    }
+
+    private void collectArguments(MethodHolder method, ConstantPropagationAnalysis analysis) {
+        InliningFilter filter = filterFactory.createFilter(method.getReference());
+        Program program = method.getProgram();
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                if (!(insn instanceof InvokeInstruction)) {
+                    continue;
+                }
+                InvokeInstruction invoke = (InvokeInstruction) insn;
+                MethodReference callee = invoke.getMethod();
+                if (invoke.getType() != InvocationType.SPECIAL || !filter.apply(callee)) {
+                    excludedMethods.add(callee);
+                    continue;
+                }
+                if (!analysis.isExecutable(block) || externalMethods.test(callee)) {
+                    continue;
+                }
+
+                Object[] values = arguments.computeIfAbsent(callee, k -> new Object[k.parameterCount()]);
+                for (int i = 0; i < values.length; ++i) {
+                    Object value = analysis.getValue(invoke.getArguments().get(i));
+                    values[i] = ConstantPropagationAnalysis.meet(values[i],
+                            value != null ? value : ConstantPropagationAnalysis.OVERDEFINED);
+                }
+            }
+        }
+    }
+
+    private boolean specializeParameters(Program program, Object[] values) {
+        Variable[] replacements = new Variable[program.variableCount()];
+        List<Instruction> constants = new ArrayList<>();
+        for (int i = 0; i < values.length; ++i) {
+            Object value = values[i];
+            int index = i + 1;
+            if (value == null || value == ConstantPropagationAnalysis.OVERDEFINED
+                    || index >= program.variableCount()) {
+                continue;
+            }
+            Variable parameter = program.variableAt(index);
+            Variable replacement = program.createVariable();
+            replacement.setDebugName(parameter.getDebugName());
+            replacement.setLabel(parameter.getLabel());
+            replacements[index] = replacement;
+            constants.add(ConstantPropagationAnalysis.createConstantInstruction(replacement, value));
+        }
+        if (constants.isEmpty()) {
+            return false;
+        }
+
+        InstructionVariableMapper mapper = new InstructionVariableMapper(var -> {
+            Variable replacement = var.getIndex() < replacements.length ? replacements[var.getIndex()] : null;
+            return replacement != null ? replacement : var;
+        });
+        for (BasicBlock block : program.getBasicBlocks()) {
+            mapper.apply(block);
+        }
+        program.basicBlockAt(0).addFirstAll(constants);
+        specializedParameters += constants.size();
+        return true;
+    }
+
+    private void computeReturnValue(MethodHolder method, ConstantPropagationAnalysis analysis) {
+        if (method.getResultType() == ValueType.VOID) {
+            return;
+        }
+        Object result = null;
+        for (BasicBlock block : method.getProgram().getBasicBlocks()) {
+            if (analysis.isExecutable(block) && block.getLastInstruction() instanceof ExitInstruction) {
+                ExitInstruction exit = (ExitInstruction) block.getLastInstruction();
+                if (exit.getValueToReturn() == null) {
+                    result = ConstantPropagationAnalysis.OVERDEFINED;
+                    break;
+                }
+                result = ConstantPropagationAnalysis.meet(result, analysis.getValue(exit.getValueToReturn()));
+            }
+        }
+        if (result != null && result != ConstantPropagationAnalysis.OVERDEFINED) {
+            returnValues.put(method.getReference(), result);
+        } else {
+            returnValues.remove(method.getReference());
+        }
+    }
+
+    private void replaceReturnValues(MethodHolder method) {
+        InliningFilter filter = filterFactory.createFilter(method.getReference());
+        for (BasicBlock block : method.getProgram().getBasicBlocks()) {
+            for (Instruction insn : block) {
+                if (!(insn instanceof InvokeInstruction)) {
+                    continue;
+                }
+                InvokeInstruction invoke = (InvokeInstruction) insn;
+                if (invoke.getType() != InvocationType.SPECIAL || invoke.getReceiver() == null
+                        || !filter.apply(invoke.getMethod())) {
+                    continue;
+                }
+                Object value = returnValues.get(invoke.getMethod());
+                if (value == null) {
+                    continue;
+                }
+
+                Variable receiver = invoke.getReceiver();
+                invoke.setReceiver(null);
+                Instruction constant = ConstantPropagationAnalysis.createConstantInstruction(receiver, value);
+                constant.setLocation(invoke.getLocation());
+                invoke.insertNext(constant);
+                ++constantCallSites;
+            }
+        }
+    }
+}
@@ -22,8 +22,8 @@ import com.carrotsearch.hppc.IntSet;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -87,26 +87,40 @@ class LoopInversionImpl {
     private boolean postponed;
     private boolean changed;
     private BasicBlock[] definitionPlaces;
+    private NullnessInformation nullness;
     private boolean affected;
 
     LoopInversionImpl(Program program, MethodReference method, int parameterCount) {
         this.program = program;
         this.method = method;
         this.parameterCount = parameterCount;
-        definitionPlaces = ProgramUtils.getVariableDefinitionPlaces(program);
     }
 
     boolean apply() {
         do {
             cfg = ProgramUtils.buildControlFlowGraph(program);
+            if (GraphUtils.isIrreducible(cfg)) {
+                break;
+            }
             LoopGraph loopGraph = new LoopGraph(cfg);
             dom = GraphUtils.buildDominatorTree(cfg);
+            definitionPlaces = ProgramUtils.getVariableDefinitionPlaces(program);
             List<LoopWithExits> loops = getLoopsWithExits(loopGraph);
 
             postponed = false;
+            changed = false;
             if (!loops.isEmpty()) {
                 for (LoopWithExits loop : loops) {
-                    loop.invert();
+                    if (loop.invert()) {
+                        // Program is not in SSA form until phis are updated, so analyses used by
+                        // remaining loops would see garbage. Proceed with them on the next round.
+                        postponed = true;
+                        break;
+                    }
+                }
+                if (nullness != null) {
+                    nullness.dispose();
+                    nullness = null;
                 }
                 if (changed) {
                     affected = true;
@@ -122,7 +136,7 @@ class LoopInversionImpl {
     }
 
     private List<LoopWithExits> getLoopsWithExits(LoopGraph cfg) {
-        Map<Loop, LoopWithExits> loops = new HashMap<>();
+        Map<Loop, LoopWithExits> loops = new LinkedHashMap<>();
 
         for (int node = 0; node < cfg.size(); ++node) {
             Loop loop = cfg.loopAt(node);
@@ -151,10 +165,14 @@ class LoopInversionImpl {
     }
 
     private LoopWithExits getLoopWithExits(Map<Loop, LoopWithExits> cache, Loop loop) {
-        return cache.computeIfAbsent(loop, k -> {
+        // Don't use computeIfAbsent, since it's called recursively and would modify the map while computing
+        LoopWithExits result = cache.get(loop);
+        if (result == null) {
             LoopWithExits parent = loop.getParent() != null ? getLoopWithExits(cache, loop.getParent()) : null;
-            return new LoopWithExits(loop.getHead(), parent);
-        });
+            result = new LoopWithExits(loop.getHead(), parent);
+            cache.put(loop, result);
+        }
+        return result;
     }
 
     private void sortLoops(LoopWithExits loop, Set<LoopWithExits> visited, List<LoopWithExits> target) {
@@ -176,40 +194,30 @@ class LoopInversionImpl {
         int bodyStart;
         int headCopy;
         final IntIntMap copiedNodes = new IntIntHashMap();
-        boolean shouldSkip;
 
         LoopWithExits(int head, LoopWithExits parent) {
             this.head = head;
             this.parent = parent;
         }
 
-        void invert() {
-            if (tryInvert()) {
-                LoopWithExits ancestor = parent;
-                while (ancestor != null) {
-                    ancestor.shouldSkip = true;
-                    ancestor = ancestor.parent;
-                }
-            }
-        }
-
-        private boolean tryInvert() {
-            if (shouldSkip) {
-                postponed = true;
-                return false;
-            }
-
+        boolean invert() {
             if (!findCondition() || bodyStart < 0) {
                 return false;
             }
 
             IntSet nodesToCopy = nodesToCopy();
-            NullnessInformation nullness = NullnessInformation.build(program, method.getDescriptor());
-            boolean profitable = isInversionProfitable(nodesToCopy, nullness);
-            nullness.dispose();
-            if (!profitable) {
+            if (!canCopy(nodesToCopy)) {
                 return false;
             }
+            if (nullness == null) {
+                nullness = NullnessInformation.build(program, method.getDescriptor());
+            }
+            if (!isInversionProfitable(nodesToCopy)) {
+                return false;
+            }
+            nullness.dispose();
+            nullness = null;
+
             copyBasicBlocks(nodesToCopy);
 
             copyCondition();
@@ -221,7 +229,29 @@ class LoopInversionImpl {
             return true;
         }
 
-        private boolean isInversionProfitable(IntSet nodesToCopy, NullnessInformation nullness) {
+        /**
+         * Exception handlers can't be targets of jumps, so a condition that contains handler can't be copied.
+         * Also, there's no sense to invert loops that are only entered via exception.
+         */
+        private boolean canCopy(IntSet nodesToCopy) {
+            for (int node : nodesToCopy.toArray()) {
+                if (program.basicBlockAt(node).getExceptionVariable() != null) {
+                    return false;
+                }
+            }
+            for (int node : cfg.incomingEdges(head)) {
+                if (!nodes.contains(node)) {
+                    for (TryCatchBlock tryCatch : program.basicBlockAt(node).getTryCatchBlocks()) {
+                        if (tryCatch.getHandler().getIndex() == head) {
+                            return false;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        private boolean isInversionProfitable(IntSet nodesToCopy) {
             UsageExtractor useExtractor = new UsageExtractor();
             DefinitionExtractor defExtractor = new DefinitionExtractor();
             LoopInvariantAnalyzer invariantAnalyzer = new LoopInvariantAnalyzer(nullness);
@@ -349,7 +379,7 @@ class LoopInversionImpl {
 
             for (int node = 0; node < cfg.size(); ++node) {
                 BasicBlock block = program.basicBlockAt(node);
-                if (copiedNodes.containsKey(block.getIndex())) {
+                if (block == null || copiedNodes.containsKey(block.getIndex())) {
                     continue;
                 }
                 for (Phi phi : block.getPhis()) {
@@ -0,0 +1,406 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import com.carrotsearch.hppc.IntArrayList;
+import com.carrotsearch.hppc.IntHashSet;
+import com.carrotsearch.hppc.IntSet;
+import java.util.Arrays;
+import java.util.List;
+import org.teavm.common.Graph;
+import org.teavm.common.GraphUtils;
+import org.teavm.common.Loop;
+import org.teavm.common.LoopGraph;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.BinaryInstruction;
+import org.teavm.model.instructions.BinaryOperation;
+import org.teavm.model.instructions.BranchingCondition;
+import org.teavm.model.instructions.BranchingInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.NumericOperandType;
+import org.teavm.model.util.BasicBlockMapper;
+import org.teavm.model.util.DefinitionExtractor;
+import org.teavm.model.util.PhiUpdater;
+import org.teavm.model.util.ProgramUtils;
+
+/**
+ * Fully unrolls small innermost loops with trip count known at compile time, like
+ *
+ * ```
+ * for (int i = 0; i < 4; ++i) {
+ *     body(i);
+ * }
+ * ```
+ *
+ * Unrolling is done by peeling iterations of loop one by one, i.e. by copying loop before itself, so that
+ * copy is executed once and then passes control to the original loop. Peeling preserves semantics
+ * regardless of actual trip count, so the only goal of trip count computation is to find how many times
+ * to peel. After all iterations are peeled, condition of the remaining loop is constant and
+ * {@link SparseConditionalConstantPropagation} removes the loop completely, while conditions
+ * and arithmetic in the peeled copies get folded as well.
+ *
+ * Only loops of the following form are recognized: loop has a single back edge, its header
+ * contains exit condition `i compareTo bound` or `i` compared to zero, where `bound` is constant and
+ * `i := phi(init, next)`, `init` is constant and `next := i + constant` (or `i - constant`).
+ */
+public class LoopUnrolling implements MethodOptimization {
+    static final int MAX_TRIP_COUNT = 16;
+    static final int MAX_UNROLLED_SIZE = 200;
+
+    private Program program;
+    private Instruction[] definitions;
+
+    @Override
+    public boolean optimize(MethodOptimizationContext context, Program program) {
+        return optimize(program, context.getMethod().parameterCount() + 1);
+    }
+
+    public boolean optimize(Program program, int parameterCount) {
+        this.program = program;
+        Graph cfg = ProgramUtils.buildControlFlowGraph(program);
+        if (GraphUtils.isIrreducible(cfg)) {
+            return false;
+        }
+        LoopGraph loopGraph = new LoopGraph(cfg);
+        findDefinitions();
+
+        boolean changed = false;
+        for (Loop loop : loopGraph.knownLoops()) {
+            IntSet nodes = getInnermostLoopNodes(loopGraph, loop);
+            if (nodes != null && tryUnroll(cfg, loop.getHead(), nodes)) {
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            Variable[] inputs = new Variable[parameterCount];
+            for (int i = 0; i < inputs.length; ++i) {
+                inputs[i] = program.variableAt(i);
+            }
+            new PhiUpdater().updatePhis(program, inputs);
+        }
+        definitions = null;
+        this.program = null;
+        return changed;
+    }
+
+    private void findDefinitions() {
+        definitions = new Instruction[program.variableCount()];
+        DefinitionExtractor defExtractor = new DefinitionExtractor();
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                insn.acceptVisitor(defExtractor);
+                for (Variable var : defExtractor.getDefinedVariables()) {
+                    definitions[var.getIndex()] = insn;
+                }
+            }
+        }
+    }
+
+    private IntSet getInnermostLoopNodes(LoopGraph loopGraph, Loop loop) {
+        IntSet nodes = new IntHashSet();
+        for (int node = 0; node < loopGraph.size(); ++node) {
+            Loop nodeLoop = loopGraph.loopAt(node);
+            if (nodeLoop == null || !nodeLoop.isChildOf(loop)) {
+                continue;
+            }
+            if (nodeLoop != loop) {
+                return null;
+            }
+            nodes.add(node);
+        }
+        return nodes;
+    }
+
+    private boolean tryUnroll(Graph cfg, int head, IntSet nodes) {
+        int latch = -1;
+        for (int source : cfg.incomingEdges(head)) {
+            if (nodes.contains(source)) {
+                if (latch >= 0) {
+                    return false;
+                }
+                latch = source;
+            }
+        }
+
+        int size = 0;
+        for (int node : nodes.toArray()) {
+            BasicBlock block = program.basicBlockAt(node);
+            if (block.getExceptionVariable() != null || !block.getTryCatchBlocks().isEmpty()) {
+                return false;
+            }
+            size += block.instructionCount() + block.getPhis().size();
+        }
+
+        int tripCount = computeTripCount(program.basicBlockAt(head), program.basicBlockAt(latch), nodes);
+        if (tripCount <= 0 || tripCount * size > MAX_UNROLLED_SIZE) {
+            return false;
+        }
+
+        for (int i = 0; i < tripCount; ++i) {
+            peel(head, latch, nodes);
+        }
+        return true;
+    }
+
+    private int computeTripCount(BasicBlock head, BasicBlock latch, IntSet nodes) {
+        Instruction last = head.getLastInstruction();
+        if (!(last instanceof BranchingInstruction)) {
+            return -1;
+        }
+        BranchingInstruction branching = (BranchingInstruction) last;
+        if (branching.getCondition() == BranchingCondition.NULL
+                || branching.getCondition() == BranchingCondition.NOT_NULL) {
+            return -1;
+        }
+        boolean exitOnTrue;
+        if (nodes.contains(branching.getAlternative().getIndex())
+                && !nodes.contains(branching.getConsequent().getIndex())) {
+            exitOnTrue = true;
+        } else if (nodes.contains(branching.getConsequent().getIndex())
+                && !nodes.contains(branching.getAlternative().getIndex())) {
+            exitOnTrue = false;
+        } else {
+            return -1;
+        }
+
+        Variable counter;
+        int bound;
+        boolean swapped = false;
+        Instruction comparison = definitions[branching.getOperand().getIndex()];
+        if (comparison instanceof BinaryInstruction) {
+            BinaryInstruction binary = (BinaryInstruction) comparison;
+            if (binary.getOperation() != BinaryOperation.COMPARE || binary.getOperandType() != NumericOperandType.INT
+                    || binary.getBasicBlock() != head) {
+                return -1;
+            }
+            Integer secondConstant = getConstant(binary.getSecondOperand());
+            Integer firstConstant = getConstant(binary.getFirstOperand());
+            if (secondConstant != null) {
+                counter = binary.getFirstOperand();
+                bound = secondConstant;
+            } else if (firstConstant != null) {
+                counter = binary.getSecondOperand();
+                bound = firstConstant;
+                swapped = true;
+            } else {
+                return -1;
+            }
+        } else {
+            counter = branching.getOperand();
+            bound = 0;
+        }
+
+        Phi counterPhi = null;
+        for (Phi phi : head.getPhis()) {
+            if (phi.getReceiver() == counter) {
+                counterPhi = phi;
+                break;
+            }
+        }
+        if (counterPhi == null) {
+            return -1;
+        }
+
+        Integer initialValue = null;
+        Variable next = null;
+        for (Incoming incoming : counterPhi.getIncomings()) {
+            if (incoming.getSource() == latch) {
+                next = incoming.getValue();
+            } else {
+                Integer value = getConstant(incoming.getValue());
+                if (value == null || (initialValue != null && !initialValue.equals(value))) {
+                    return -1;
+                }
+                initialValue = value;
+            }
+        }
+        if (initialValue == null || next == null) {
+            return -1;
+        }
+
+        Integer step = getStep(counter, next);
+        if (step == null) {
+            return -1;
+        }
+
+        int value = initialValue;
+        for (int tripCount = 0; tripCount <= MAX_TRIP_COUNT; ++tripCount) {
+            int comparisonResult = swapped ? Integer.compare(bound, value) : Integer.compare(value, bound);
+            if (evaluate(branching.getCondition(), comparisonResult) == exitOnTrue) {
+                return tripCount;
+            }
+            value += step;
+        }
+        return -1;
+    }
+
+    private Integer getStep(Variable counter, Variable next) {
+        Instruction insn = definitions[next.getIndex()];
+        if (!(insn instanceof BinaryInstruction)) {
+            return null;
+        }
+        BinaryInstruction binary = (BinaryInstruction) insn;
+        if (binary.getOperandType() != NumericOperandType.INT) {
+            return null;
+        }
+        switch (binary.getOperation()) {
+            case ADD:
+                if (binary.getFirstOperand() == counter) {
+                    return getConstant(binary.getSecondOperand());
+                } else if (binary.getSecondOperand() == counter) {
+                    return getConstant(binary.getFirstOperand());
+                }
+                return null;
+            case SUBTRACT:
+                if (binary.getFirstOperand() == counter) {
+                    Integer value = getConstant(binary.getSecondOperand());
+                    return value != null ? -value : null;
+                }
+                return null;
+            default:
+                return null;
+        }
+    }
+
+    private Integer getConstant(Variable var) {
+        Instruction insn = definitions[var.getIndex()];
+        return insn instanceof IntegerConstantInstruction ? ((IntegerConstantInstruction) insn).getConstant() : null;
+    }
+
+    private static boolean evaluate(BranchingCondition condition, int value) {
+        switch (condition) {
+            case EQUAL:
+                return value == 0;
+            case NOT_EQUAL:
+                return value != 0;
+            case LESS:
+                return value < 0;
+            case LESS_OR_EQUAL:
+                return value <= 0;
+            case GREATER:
+                return value > 0;
+            case GREATER_OR_EQUAL:
+                return value >= 0;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    /**
+     * Inserts a copy of loop's body before the loop. Copy reuses variables of the original loop, so phis
+     * should be updated afterwards.
+     */
+    private void peel(int head, int latch, IntSet nodes) {
+        int[] nodeArray = nodes.toArray();
+        Arrays.sort(nodeArray);
+        int[] copies = new int[program.basicBlockCount()];
+        for (int node : nodeArray) {
+            copies[node] = program.createBasicBlock().getIndex();
+        }
+
+        IntArrayList entries = new IntArrayList();
+        Graph cfg = ProgramUtils.buildControlFlowGraph(program);
+        for (int source : cfg.incomingEdges(head)) {
+            if (!nodes.contains(source)) {
+                entries.add(source);
+            }
+        }
+
+        for (int node = 0; node < copies.length; ++node) {
+            if (nodes.contains(node)) {
+                continue;
+            }
+            BasicBlock block = program.basicBlockAt(node);
+            if (block == null) {
+                continue;
+            }
+            for (Phi phi : block.getPhis()) {
+                List<Incoming> incomings = phi.getIncomings();
+                int count = incomings.size();
+                for (int i = 0; i < count; ++i) {
+                    Incoming incoming = incomings.get(i);
+                    int source = incoming.getSource().getIndex();
+                    if (nodes.contains(source)) {
+                        Incoming incomingCopy = new Incoming();
+                        incomingCopy.setSource(program.basicBlockAt(copies[source]));
+                        incomingCopy.setValue(incoming.getValue());
+                        incomings.add(incomingCopy);
+                    }
+                }
+            }
+        }
+
+        BasicBlockMapper copyMapper = new BasicBlockMapper((int block) -> block != head && nodes.contains(block)
+                ? copies[block]
+                : block);
+        for (int node : nodeArray) {
+            BasicBlock block = program.basicBlockAt(node);
+            BasicBlock copy = program.basicBlockAt(copies[node]);
+            for (Instruction insn : ProgramUtils.copyInstructions(block.getFirstInstruction(), null, program)) {
+                insn.acceptVisitor(copyMapper);
+                copy.add(insn);
+            }
+            for (Phi phi : block.getPhis()) {
+                Phi phiCopy = new Phi();
+                phiCopy.setReceiver(phi.getReceiver());
+                for (Incoming incoming : phi.getIncomings()) {
+                    int source = incoming.getSource().getIndex();
+                    if (node == head) {
+                        if (nodes.contains(source)) {
+                            continue;
+                        }
+                    } else {
+                        source = copies[source];
+                    }
+                    Incoming incomingCopy = new Incoming();
+                    incomingCopy.setSource(program.basicBlockAt(source));
+                    incomingCopy.setValue(incoming.getValue());
+                    phiCopy.getIncomings().add(incomingCopy);
+                }
+                copy.getPhis().add(phiCopy);
+            }
+        }
+
+        BasicBlock latchCopy = program.basicBlockAt(copies[latch]);
+        for (Phi phi : program.basicBlockAt(head).getPhis()) {
+            Variable value = null;
+            List<Incoming> incomings = phi.getIncomings();
+            for (int i = 0; i < incomings.size(); ++i) {
+                Incoming incoming = incomings.get(i);
+                if (incoming.getSource().getIndex() == latch) {
+                    value = incoming.getValue();
+                } else {
+                    incomings.remove(i--);
+                }
+            }
+            Incoming incoming = new Incoming();
+            incoming.setSource(latchCopy);
+            incoming.setValue(value);
+            incomings.add(incoming);
+        }
+
+        BasicBlockMapper entryMapper = new BasicBlockMapper((int block) -> block == head ? copies[head] : block);
+        for (int entry : entries.toArray()) {
+            entryMapper.transformWithoutPhis(program.basicBlockAt(entry));
+        }
+    }
+}
@@ -0,0 +1,609 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.callgraph.CallGraph;
+import org.teavm.dependency.ClassDependencyInfo;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.dependency.FieldDependencyInfo;
+import org.teavm.dependency.MethodDependencyInfo;
+import org.teavm.dependency.ValueDependencyInfo;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.CastInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.IsInstanceInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.util.AsyncMethodFinder;
+import org.teavm.model.util.ModelUtils;
+import org.teavm.model.util.ProgramUtils;
+
+/**
+ * <p>Creates copies of small methods specialized for types of arguments passed at particular call sites.
+ * Dependency analysis computes set of types for each variable of each method, so a method called from
+ * many places gets union of types passed by all callers, and virtual calls on its parameters remain
+ * virtual. However, a single caller often passes values of exactly one type.</p>
+ *
+ * <p>For each direct call this optimization takes instructions of the callee that depend on types of
+ * its parameters, i.e. virtual calls, <code>instanceof</code> checks and casts, and tries to resolve them
+ * using types of arguments in the caller. When something gets resolved, the call is redirected to a copy
+ * of the callee where virtual calls are replaced by direct ones, failing <code>instanceof</code> checks by
+ * <code>false</code> and casts that can't fail by assignments. Call sites that resolve the same way
+ * share one copy. Further, inlining and devirtualization can do more with copies than with originals.</p>
+ *
+ * <p>Dependency analysis knows nothing about copies, so this optimization should run after all analyses
+ * that require it for each method, but before types are cleaned up. Later passes should take dependency
+ * information from {@link #getDependencyInfo()}, which describes copies as well, with parameter types
+ * narrowed to types passed by call sites redirected to each copy.</p>
+ */
+public class MethodSpecialization {
+    private ListableClassHolderSource classes;
+    private DependencyInfo dependency;
+    private ClassHierarchy hierarchy;
+    private int maxMethodSize = 100;
+    private int maxSpecializations = 3;
+    private Set<MethodReference> asyncMethods = new HashSet<>();
+    private Map<MethodReference, Map<List<Object>, MethodReference>> specializations = new HashMap<>();
+    private Map<MethodReference, SpecializedMethodDependencyInfo> specializedDependencies = new HashMap<>();
+    private int specializedCallSites;
+    private int specializedMethods;
+
+    public MethodSpecialization(ListableClassHolderSource classes, DependencyInfo dependency,
+            ClassHierarchy hierarchy) {
+        this.classes = classes;
+        this.dependency = dependency;
+        this.hierarchy = hierarchy;
+    }
+
+    public int getMaxMethodSize() {
+        return maxMethodSize;
+    }
+
+    /**
+     * Sets maximum number of instructions in a method to be specialized.
+     */
+    public void setMaxMethodSize(int maxMethodSize) {
+        this.maxMethodSize = maxMethodSize;
+    }
+
+    public int getMaxSpecializations() {
+        return maxSpecializations;
+    }
+
+    /**
+     * Sets maximum number of specialized copies created for each method.
+     */
+    public void setMaxSpecializations(int maxSpecializations) {
+        this.maxSpecializations = maxSpecializations;
+    }
+
+    public int getSpecializedCallSites() {
+        return specializedCallSites;
+    }
+
+    public int getSpecializedMethods() {
+        return specializedMethods;
+    }
+
+    /**
+     * Returns dependency information that includes specialized copies created by {@link #apply()}.
+     */
+    public DependencyInfo getDependencyInfo() {
+        return new SpecializedDependencyInfo();
+    }
+
+    public void apply() {
+        // Copies are not in call graph, so async backends won't know they should be split
+        AsyncMethodFinder asyncFinder = new AsyncMethodFinder(dependency.getCallGraph(), dependency);
+        asyncFinder.find(classes);
+        asyncMethods.addAll(asyncFinder.getAsyncMethods());
+        asyncMethods.addAll(asyncFinder.getAsyncFamilyMethods());
+
+        List<MethodHolder> methods = new ArrayList<>();
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getProgram() != null) {
+                    methods.add(method);
+                }
+            }
+        }
+
+        for (MethodHolder method : methods) {
+            MethodDependencyInfo methodDep = dependency.getMethod(method.getReference());
+            if (methodDep == null) {
+                continue;
+            }
+            Program program = method.getProgram();
+            for (BasicBlock block : program.getBasicBlocks()) {
+                for (Instruction insn : block) {
+                    if (insn instanceof InvokeInstruction) {
+                        applyToInvoke(methodDep, (InvokeInstruction) insn);
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyToInvoke(MethodDependencyInfo callerDep, InvokeInstruction invoke) {
+        if (invoke.getType() != InvocationType.SPECIAL) {
+            return;
+        }
+        MethodReference calleeRef = invoke.getMethod();
+        ClassHolder cls = classes.get(calleeRef.getClassName());
+        if (cls == null) {
+            return;
+        }
+        MethodHolder callee = cls.getMethod(calleeRef.getDescriptor());
+        if (callee == null || callee.getProgram() == null || callee.getName().equals("<init>")
+                || callee.getName().equals("<clinit>") || asyncMethods.contains(calleeRef)
+                || programSize(callee.getProgram()) > maxMethodSize) {
+            return;
+        }
+        MethodDependencyInfo calleeDep = dependency.getMethod(calleeRef);
+        if (calleeDep == null) {
+            return;
+        }
+
+        String[][] argumentTypes = new String[calleeRef.parameterCount() + 1][];
+        boolean hasTypes = false;
+        if (invoke.getInstance() != null) {
+            argumentTypes[0] = getTypes(callerDep, invoke.getInstance());
+            hasTypes |= argumentTypes[0] != null;
+        }
+        for (int i = 0; i < invoke.getArguments().size(); ++i) {
+            argumentTypes[i + 1] = getTypes(callerDep, invoke.getArguments().get(i));
+            hasTypes |= argumentTypes[i + 1] != null;
+        }
+        if (!hasTypes) {
+            return;
+        }
+
+        List<Object> decisions = getDecisions(callee.getProgram(), calleeDep,
+                propagateTypes(callee.getProgram(), argumentTypes));
+        if (decisions == null) {
+            return;
+        }
+
+        MethodReference specialization = getSpecialization(cls, callee, calleeDep, decisions);
+        if (specialization != null) {
+            invoke.setMethod(specialization);
+            specializedDependencies.get(specialization).addArgumentTypes(argumentTypes);
+            specializedCallSites++;
+        }
+    }
+
+    private String[] getTypes(MethodDependencyInfo methodDep, Variable variable) {
+        if (variable.getIndex() >= methodDep.getVariableCount()) {
+            return null;
+        }
+        ValueDependencyInfo valueDep = methodDep.getVariable(variable.getIndex());
+        return valueDep != null ? valueDep.getTypes() : null;
+    }
+
+    /**
+     * Spreads types of arguments over variables that hold the same values, so that, for example,
+     * calls on result of a cast are resolved as well.
+     */
+    private String[][] propagateTypes(Program program, String[][] argumentTypes) {
+        String[][] types = Arrays.copyOf(argumentTypes, program.variableCount());
+        boolean changed;
+        do {
+            changed = false;
+            for (BasicBlock block : program.getBasicBlocks()) {
+                for (Instruction insn : block) {
+                    Variable value;
+                    Variable receiver;
+                    if (insn instanceof AssignInstruction) {
+                        value = ((AssignInstruction) insn).getAssignee();
+                        receiver = ((AssignInstruction) insn).getReceiver();
+                    } else if (insn instanceof CastInstruction) {
+                        value = ((CastInstruction) insn).getValue();
+                        receiver = ((CastInstruction) insn).getReceiver();
+                    } else if (insn instanceof NullCheckInstruction) {
+                        value = ((NullCheckInstruction) insn).getValue();
+                        receiver = ((NullCheckInstruction) insn).getReceiver();
+                    } else {
+                        continue;
+                    }
+                    if (types[value.getIndex()] != null && types[receiver.getIndex()] == null) {
+                        types[receiver.getIndex()] = types[value.getIndex()];
+                        changed = true;
+                    }
+                }
+            }
+        } while (changed);
+        return types;
+    }
+
+    /**
+     * Computes how each type-dependent instruction of callee resolves with given types of variables.
+     * Instructions are visited in the same order by {@link #specialize(Program, List)}. Returns
+     * <code>null</code> when nothing is resolved beyond what types of callee's own parameters allow.
+     */
+    private List<Object> getDecisions(Program program, MethodDependencyInfo calleeDep, String[][] variableTypes) {
+        List<Object> decisions = new ArrayList<>();
+        boolean resolved = false;
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                Object decision = null;
+                if (insn instanceof InvokeInstruction) {
+                    InvokeInstruction invoke = (InvokeInstruction) insn;
+                    if (invoke.getType() != InvocationType.VIRTUAL) {
+                        continue;
+                    }
+                    String[] types = getVariableTypes(variableTypes, invoke.getInstance());
+                    if (types != null) {
+                        Set<MethodReference> implementations = Devirtualization.implementations(hierarchy,
+                                dependency, types, invoke.getMethod());
+                        if (implementations.size() == 1) {
+                            decision = implementations.iterator().next();
+                        }
+                    }
+                } else if (insn instanceof IsInstanceInstruction) {
+                    IsInstanceInstruction isInstance = (IsInstanceInstruction) insn;
+                    String[] types = getVariableTypes(variableTypes, isInstance.getValue());
+                    if (types != null && !mayBeInstance(types, isInstance.getType())) {
+                        String[] ownTypes = getTypes(calleeDep, isInstance.getValue());
+                        if (ownTypes == null || mayBeInstance(ownTypes, isInstance.getType())) {
+                            decision = Boolean.FALSE;
+                        }
+                    }
+                } else if (insn instanceof CastInstruction) {
+                    CastInstruction cast = (CastInstruction) insn;
+                    String[] types = getVariableTypes(variableTypes, cast.getValue());
+                    if (types != null && isAlwaysInstance(types, cast.getTargetType())) {
+                        decision = Boolean.TRUE;
+                    }
+                } else {
+                    continue;
+                }
+                resolved |= decision != null;
+                decisions.add(decision);
+            }
+        }
+        return resolved ? decisions : null;
+    }
+
+    private String[] getVariableTypes(String[][] variableTypes, Variable variable) {
+        return variable != null ? variableTypes[variable.getIndex()] : null;
+    }
+
+    private boolean mayBeInstance(String[] types, ValueType target) {
+        for (String type : types) {
+            if (type.startsWith("[")) {
+                // Arrays are instances of some interfaces, besides Object
+                if (!(target instanceof ValueType.Array)
+                        || hierarchy.isSuperType(target, ValueType.parse(type), true)) {
+                    return true;
+                }
+            } else if (target instanceof ValueType.Object
+                    && hierarchy.isSuperType(((ValueType.Object) target).getClassName(), type, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isAlwaysInstance(String[] types, ValueType target) {
+        for (String type : types) {
+            if (type.startsWith("[")) {
+                if (!hierarchy.isSuperType(target, ValueType.parse(type), false)) {
+                    return false;
+                }
+            } else if (!(target instanceof ValueType.Object)
+                    || !hierarchy.isSuperType(((ValueType.Object) target).getClassName(), type, false)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private MethodReference getSpecialization(ClassHolder cls, MethodHolder method, MethodDependencyInfo methodDep,
+            List<Object> decisions) {
+        Map<List<Object>, MethodReference> methodSpecializations = specializations.computeIfAbsent(
+                method.getReference(), k -> new HashMap<>());
+        MethodReference result = methodSpecializations.get(decisions);
+        if (result == null) {
+            if (methodSpecializations.size() >= maxSpecializations) {
+                return null;
+            }
+
+            String name;
+            int index = 0;
+            do {
+                name = method.getName() + "$spec" + index++;
+            } while (cls.getMethod(new MethodDescriptor(name, method.getSignature())) != null);
+
+            MethodHolder copy = new MethodHolder(name, method.getSignature());
+            copy.setLevel(method.getLevel());
+            copy.getModifiers().addAll(method.getModifiers());
+            ModelUtils.copyAnnotations(method.getAnnotations(), copy.getAnnotations());
+            Program program = ProgramUtils.copy(method.getProgram());
+            specialize(program, decisions);
+            copy.setProgram(program);
+            cls.addMethod(copy);
+
+            result = copy.getReference();
+            methodSpecializations.put(decisions, result);
+            specializedDependencies.put(result, new SpecializedMethodDependencyInfo(result, methodDep));
+            specializedMethods++;
+        }
+        return result;
+    }
+
+    private void specialize(Program program, List<Object> decisions) {
+        int index = 0;
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                Object decision;
+                if (insn instanceof InvokeInstruction) {
+                    if (((InvokeInstruction) insn).getType() != InvocationType.VIRTUAL) {
+                        continue;
+                    }
+                    decision = decisions.get(index++);
+                    if (decision != null) {
+                        InvokeInstruction invoke = (InvokeInstruction) insn;
+                        invoke.setType(InvocationType.SPECIAL);
+                        invoke.setMethod((MethodReference) decision);
+                    }
+                } else if (insn instanceof IsInstanceInstruction) {
+                    decision = decisions.get(index++);
+                    if (decision != null) {
+                        IntegerConstantInstruction constant = new IntegerConstantInstruction();
+                        constant.setConstant(0);
+                        constant.setReceiver(((IsInstanceInstruction) insn).getReceiver());
+                        constant.setLocation(insn.getLocation());
+                        insn.replace(constant);
+                    }
+                } else if (insn instanceof CastInstruction) {
+                    decision = decisions.get(index++);
+                    if (decision != null) {
+                        CastInstruction cast = (CastInstruction) insn;
+                        AssignInstruction assign = new AssignInstruction();
+                        assign.setAssignee(cast.getValue());
+                        assign.setReceiver(cast.getReceiver());
+                        assign.setLocation(cast.getLocation());
+                        cast.replace(assign);
+                    }
+                }
+            }
+        }
+    }
+
+    private static int programSize(Program program) {
+        int size = 0;
+        for (BasicBlock block : program.getBasicBlocks()) {
+            size += block.instructionCount();
+        }
+        return size;
+    }
+
+    private class SpecializedDependencyInfo implements DependencyInfo {
+        @Override
+        public ClassReaderSource getClassSource() {
+            return dependency.getClassSource();
+        }
+
+        @Override
+        public ClassLoader getClassLoader() {
+            return dependency.getClassLoader();
+        }
+
+        @Override
+        public Collection<MethodReference> getReachableMethods() {
+            List<MethodReference> result = new ArrayList<>(dependency.getReachableMethods());
+            result.addAll(specializedDependencies.keySet());
+            return result;
+        }
+
+        @Override
+        public Collection<FieldReference> getReachableFields() {
+            return dependency.getReachableFields();
+        }
+
+        @Override
+        public Collection<String> getReachableClasses() {
+            return dependency.getReachableClasses();
+        }
+
+        @Override
+        public FieldDependencyInfo getField(FieldReference fieldRef) {
+            return dependency.getField(fieldRef);
+        }
+
+        @Override
+        public MethodDependencyInfo getMethod(MethodReference methodRef) {
+            MethodDependencyInfo result = specializedDependencies.get(methodRef);
+            return result != null ? result : dependency.getMethod(methodRef);
+        }
+
+        @Override
+        public MethodDependencyInfo getMethodImplementation(MethodReference methodRef) {
+            MethodDependencyInfo result = specializedDependencies.get(methodRef);
+            return result != null ? result : dependency.getMethodImplementation(methodRef);
+        }
+
+        @Override
+        public ClassDependencyInfo getClass(String className) {
+            return dependency.getClass(className);
+        }
+
+        @Override
+        public CallGraph getCallGraph() {
+            return dependency.getCallGraph();
+        }
+    }
+
+    /**
+     * Describes a copy by information about original method, except for parameters, which get union of
+     * types passed by call sites of the copy.
+     */
+    static class SpecializedMethodDependencyInfo implements MethodDependencyInfo {
+        private MethodReference reference;
+        private MethodDependencyInfo original;
+        private Set<String>[] parameterTypes;
+        private boolean[] unknownParameters;
+
+        @SuppressWarnings("unchecked")
+        SpecializedMethodDependencyInfo(MethodReference reference, MethodDependencyInfo original) {
+            this.reference = reference;
+            this.original = original;
+            parameterTypes = new Set[reference.parameterCount() + 1];
+            unknownParameters = new boolean[parameterTypes.length];
+        }
+
+        void addArgumentTypes(String[][] argumentTypes) {
+            for (int i = 0; i < parameterTypes.length; ++i) {
+                if (argumentTypes[i] == null) {
+                    unknownParameters[i] = true;
+                } else {
+                    if (parameterTypes[i] == null) {
+                        parameterTypes[i] = new LinkedHashSet<>();
+                    }
+                    parameterTypes[i].addAll(Arrays.asList(argumentTypes[i]));
+                }
+            }
+        }
+
+        @Override
+        public ValueDependencyInfo[] getVariables() {
+            ValueDependencyInfo[] variables = new ValueDependencyInfo[getVariableCount()];
+            for (int i = 0; i < variables.length; ++i) {
+                variables[i] = getVariable(i);
+            }
+            return variables;
+        }
+
+        @Override
+        public int getVariableCount() {
+            return original.getVariableCount();
+        }
+
+        @Override
+        public ValueDependencyInfo getVariable(int index) {
+            ValueDependencyInfo originalVariable = original.getVariable(index);
+            if (index >= parameterTypes.length || unknownParameters[index] || parameterTypes[index] == null
+                    || originalVariable == null) {
+                return originalVariable;
+            }
+            return new ParameterDependencyInfo(parameterTypes[index].toArray(new String[0]), originalVariable);
+        }
+
+        @Override
+        public int getParameterCount() {
+            return original.getParameterCount();
+        }
+
+        @Override
+        public ValueDependencyInfo getResult() {
+            return original.getResult();
+        }
+
+        @Override
+        public ValueDependencyInfo getThrown() {
+            return original.getThrown();
+        }
+
+        @Override
+        public MethodReference getReference() {
+            return reference;
+        }
+
+        @Override
+        public boolean isUsed() {
+            return original.isUsed();
+        }
+
+        @Override
+        public boolean isCalled() {
+            return original.isCalled();
+        }
+
+        @Override
+        public boolean isMissing() {
+            return original.isMissing();
+        }
+    }
+
+    static class ParameterDependencyInfo implements ValueDependencyInfo {
+        private String[] types;
+        private ValueDependencyInfo original;
+
+        ParameterDependencyInfo(String[] types, ValueDependencyInfo original) {
+            this.types = types;
+            this.original = original;
+        }
+
+        @Override
+        public String[] getTypes() {
+            return types.clone();
+        }
+
+        @Override
+        public boolean hasType(String type) {
+            return Arrays.asList(types).contains(type);
+        }
+
+        @Override
+        public boolean hasMoreTypesThan(int limit) {
+            return types.length > limit;
+        }
+
+        @Override
+        public boolean hasArrayType() {
+            for (String type : types) {
+                if (type.startsWith("[")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // Item and class value nodes are not narrowed, types of original method are still valid for them
+        @Override
+        public ValueDependencyInfo getArrayItem() {
+            return original.getArrayItem();
+        }
+
+        @Override
+        public ValueDependencyInfo getClassValueNode() {
+            return original.getClassValueNode();
+        }
+    }
+}
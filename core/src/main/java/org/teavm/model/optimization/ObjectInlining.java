@@ -0,0 +1,580 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.teavm.common.DominatorTree;
+import org.teavm.common.Graph;
+import org.teavm.common.GraphUtils;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.ConstructInstruction;
+import org.teavm.model.instructions.GetFieldInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.instructions.PutFieldInstruction;
+import org.teavm.model.util.DefinitionExtractor;
+import org.teavm.model.util.ProgramUtils;
+import org.teavm.model.util.UsageExtractor;
+
+/**
+ * <p>Flattens objects owned by a single field into the object that holds this field. For final field
+ * <code>f</code> of class <code>O</code> that holds an object of class <code>C</code>, instance fields
+ * of <code>C</code> are copied into <code>O</code>, and every <code>o.f.x</code> becomes
+ * <code>o.f$x</code>, so that backends lay out these fields right inside <code>O</code>, without extra
+ * object header and indirection.</p>
+ *
+ * <p>Field is flattened when each write to it stores a freshly created instance of <code>C</code>, which is
+ * used for nothing else than accessing its own fields, into an object being constructed, and each read
+ * of the field is used for nothing else than accessing fields of <code>C</code>, so that identity of
+ * the sub-object is never observed. Since field is final, it's written once per object. The only
+ * difference in behaviour is with code that dereferences the field before it's initialized, which would
+ * throw <code>NullPointerException</code> otherwise.</p>
+ *
+ * <p>Classes that implement {@link Cloneable} or have such subclasses are never flattened, since
+ * <code>clone()</code> of the owner would no longer share the sub-object with the original.</p>
+ *
+ * <p>Usually these conditions only hold after constructor of <code>C</code> is inlined, so this
+ * optimization should run after inlining.</p>
+ */
+public class ObjectInlining {
+    private ListableClassHolderSource classes;
+    private DependencyInfo dependencyInfo;
+    private ClassHierarchy hierarchy;
+    private FieldAccesses accesses;
+    private Map<Program, MethodHolder> programMethods = new HashMap<>();
+    private Map<Program, ProgramInfo> programInfoCache = new HashMap<>();
+    private Set<String> ownerClasses = new HashSet<>();
+    private Set<String> inlinedClasses = new HashSet<>();
+    private List<String> cloneableClasses = new ArrayList<>();
+    private int inlinedFields;
+
+    public ObjectInlining(ListableClassHolderSource classes, DependencyInfo dependencyInfo,
+            ClassHierarchy hierarchy) {
+        this.classes = classes;
+        this.dependencyInfo = dependencyInfo;
+        this.hierarchy = hierarchy;
+    }
+
+    public int getInlinedFields() {
+        return inlinedFields;
+    }
+
+    public void apply() {
+        accesses = new FieldAccesses(classes, dependencyInfo, hierarchy);
+        for (String className : classes.getClassNames()) {
+            for (MethodHolder method : classes.get(className).getMethods()) {
+                if (method.getProgram() != null) {
+                    programMethods.put(method.getProgram(), method);
+                }
+            }
+            if (hierarchy.isSuperType(Cloneable.class.getName(), className, false)) {
+                cloneableClasses.add(className);
+            }
+        }
+
+        for (String className : classes.getClassNames()) {
+            ClassHolder cls = classes.get(className);
+            if (cls.hasModifier(ElementModifier.INTERFACE) || accesses.isExcluded(cls) || isCloneable(cls)) {
+                continue;
+            }
+            for (FieldHolder field : cls.getFields().toArray(new FieldHolder[0])) {
+                if (!field.hasModifier(ElementModifier.STATIC) && field.hasModifier(ElementModifier.FINAL)
+                        && field.getType() instanceof ValueType.Object
+                        && accesses.isTracked(field.getReference())) {
+                    inlineField(cls, field);
+                }
+            }
+        }
+
+        accesses = null;
+        programMethods.clear();
+        programInfoCache.clear();
+        ownerClasses.clear();
+        inlinedClasses.clear();
+        cloneableClasses.clear();
+    }
+
+    // Shallow copy of the owner shares the sub-object with the original, while copy of the flattened
+    // owner gets its own copy of the sub-object's fields
+    private boolean isCloneable(ClassHolder cls) {
+        for (String cloneableClass : cloneableClasses) {
+            if (hierarchy.isSuperType(cls.getName(), cloneableClass, false)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void inlineField(ClassHolder cls, FieldHolder field) {
+        // Accesses to fields of inlined classes and to fields created by this optimization
+        // are no longer tracked by FieldAccesses
+        if (inlinedClasses.contains(cls.getName())) {
+            return;
+        }
+        String componentName = ((ValueType.Object) field.getType()).getClassName();
+        ClassHolder component = classes.get(componentName);
+        if (component == null || component == cls || ownerClasses.contains(componentName)
+                || component.hasModifier(ElementModifier.INTERFACE) || component.hasModifier(ElementModifier.ABSTRACT)
+                || !Objects.equals(component.getParent(), "java.lang.Object") || accesses.isExcluded(component)) {
+            return;
+        }
+
+        Plan plan = new Plan(field, component);
+        if (!analyzeWrites(plan) || !analyzeReads(plan)) {
+            return;
+        }
+        transform(cls, plan);
+    }
+
+    private boolean analyzeWrites(Plan plan) {
+        List<PutFieldInstruction> writes = accesses.getWrites(plan.field.getReference());
+        if (writes.isEmpty()) {
+            return false;
+        }
+        for (PutFieldInstruction write : writes) {
+            if (write.getBasicBlock() == null || !analyzeWrite(write, plan)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean analyzeWrite(PutFieldInstruction write, Plan plan) {
+        Program program = write.getBasicBlock().getProgram();
+        ProgramInfo info = getProgramInfo(program);
+
+        // Owner must be either `this` or a freshly created object, otherwise we can't be sure that
+        // it's the owner that is being constructed
+        Variable owner = getOriginal(info, write.getInstance());
+        Instruction ownerDefinition = info.definitions[owner.getIndex()];
+        if (ownerDefinition == null) {
+            MethodHolder method = programMethods.get(program);
+            if (owner.getIndex() != 0 || method == null
+                    || method.hasModifier(ElementModifier.STATIC)) {
+                return false;
+            }
+        } else if (!(ownerDefinition instanceof ConstructInstruction)) {
+            return false;
+        }
+
+        Instruction valueDefinition = info.definitions[getOriginal(info, write.getValue()).getIndex()];
+        if (!(valueDefinition instanceof ConstructInstruction)) {
+            return false;
+        }
+        ConstructInstruction construct = (ConstructInstruction) valueDefinition;
+        if (!construct.getType().equals(plan.component.getName())) {
+            return false;
+        }
+
+        // Each owner must get its own instance, so that instance can't be created several times
+        // for a single owner
+        if (isInLoop(info, construct.getBasicBlock(), ownerDefinition != null
+                ? ownerDefinition.getBasicBlock() : null)) {
+            return false;
+        }
+
+        Set<Variable> aliases = collectAliases(info, construct.getReceiver());
+        if (aliases == null) {
+            return false;
+        }
+        for (Variable alias : aliases) {
+            for (Instruction usage : info.getUsages(alias)) {
+                if (usage == write || isAlias(usage)) {
+                    continue;
+                }
+                if (usage instanceof InvokeInstruction) {
+                    InvokeInstruction invoke = (InvokeInstruction) usage;
+                    if (!isObjectConstructor(invoke) || invoke.getInstance() != alias) {
+                        return false;
+                    }
+                    plan.removedInstructions.add(usage);
+                    continue;
+                }
+                if (!dominates(info, owner, usage) || !addComponentAccess(plan, usage, aliases, owner, null)) {
+                    return false;
+                }
+            }
+        }
+
+        plan.removedInstructions.add(construct);
+        plan.removedInstructions.add(write);
+        addAliasInstructions(plan, info, aliases);
+        plan.programs.add(program);
+        return true;
+    }
+
+    private boolean isObjectConstructor(InvokeInstruction invoke) {
+        return invoke.getType() == InvocationType.SPECIAL
+                && invoke.getMethod().getClassName().equals("java.lang.Object")
+                && invoke.getMethod().getName().equals("<init>");
+    }
+
+    // Tells whether block can be executed again without passing through the given barrier block
+    private boolean isInLoop(ProgramInfo info, BasicBlock block, BasicBlock barrier) {
+        Graph cfg = info.getCfg();
+        int barrierIndex = barrier != null ? barrier.getIndex() : -1;
+        boolean[] visited = new boolean[cfg.size()];
+        List<Integer> queue = new ArrayList<>();
+        for (int successor : cfg.outgoingEdges(block.getIndex())) {
+            queue.add(successor);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove(queue.size() - 1);
+            if (node == barrierIndex) {
+                continue;
+            }
+            if (node == block.getIndex()) {
+                return true;
+            }
+            if (visited[node]) {
+                continue;
+            }
+            visited[node] = true;
+            for (int successor : cfg.outgoingEdges(node)) {
+                queue.add(successor);
+            }
+        }
+        return false;
+    }
+
+    private boolean dominates(ProgramInfo info, Variable variable, Instruction usage) {
+        Instruction definition = info.definitions[variable.getIndex()];
+        if (definition == null) {
+            return true;
+        }
+        BasicBlock definitionBlock = definition.getBasicBlock();
+        if (definitionBlock != usage.getBasicBlock()) {
+            return info.getDomTree().dominates(definitionBlock.getIndex(), usage.getBasicBlock().getIndex());
+        }
+        for (Instruction insn = definition.getNext(); insn != null; insn = insn.getNext()) {
+            if (insn == usage) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean analyzeReads(Plan plan) {
+        for (GetFieldInstruction read : accesses.getReads(plan.field.getReference())) {
+            if (read.getBasicBlock() == null) {
+                return false;
+            }
+            Program program = read.getBasicBlock().getProgram();
+            plan.programs.add(program);
+            if (read.getReceiver() == null) {
+                plan.removedInstructions.add(read);
+                continue;
+            }
+
+            ProgramInfo info = getProgramInfo(program);
+            Set<Variable> aliases = collectAliases(info, read.getReceiver());
+            if (aliases == null) {
+                return false;
+            }
+            for (Variable alias : aliases) {
+                for (Instruction usage : info.getUsages(alias)) {
+                    if (!isAlias(usage) && !addComponentAccess(plan, usage, aliases, null, read)) {
+                        return false;
+                    }
+                }
+            }
+            plan.reads.add(read);
+            addAliasInstructions(plan, info, aliases);
+        }
+        return true;
+    }
+
+    private boolean addComponentAccess(Plan plan, Instruction usage, Set<Variable> aliases, Variable owner,
+            GetFieldInstruction read) {
+        FieldReference field;
+        if (usage instanceof GetFieldInstruction) {
+            GetFieldInstruction getField = (GetFieldInstruction) usage;
+            if (!aliases.contains(getField.getInstance())) {
+                return false;
+            }
+            field = getField.getField();
+        } else if (usage instanceof PutFieldInstruction) {
+            PutFieldInstruction putField = (PutFieldInstruction) usage;
+            if (!aliases.contains(putField.getInstance()) || aliases.contains(putField.getValue())) {
+                return false;
+            }
+            field = putField.getField();
+        } else {
+            return false;
+        }
+
+        FieldReference resolvedField = accesses.resolve(field);
+        if (resolvedField == null || !resolvedField.getClassName().equals(plan.component.getName())) {
+            return false;
+        }
+        FieldHolder componentField = plan.component.getField(resolvedField.getFieldName());
+        if (componentField == null || componentField.hasModifier(ElementModifier.STATIC)) {
+            return false;
+        }
+        plan.componentAccesses.put(usage, new ComponentAccess(componentField.getName(), owner, read));
+        return true;
+    }
+
+    private Variable getOriginal(ProgramInfo info, Variable variable) {
+        while (true) {
+            Instruction definition = info.definitions[variable.getIndex()];
+            if (definition instanceof AssignInstruction) {
+                variable = ((AssignInstruction) definition).getAssignee();
+            } else if (definition instanceof NullCheckInstruction) {
+                variable = ((NullCheckInstruction) definition).getValue();
+            } else {
+                return variable;
+            }
+        }
+    }
+
+    private Set<Variable> collectAliases(ProgramInfo info, Variable variable) {
+        Set<Variable> aliases = new HashSet<>();
+        List<Variable> queue = new ArrayList<>();
+        aliases.add(variable);
+        queue.add(variable);
+        for (int i = 0; i < queue.size(); ++i) {
+            Variable var = queue.get(i);
+            if (info.phiVariables.contains(var)) {
+                return null;
+            }
+            for (Instruction usage : info.getUsages(var)) {
+                Variable alias = getAlias(usage);
+                if (alias != null && aliases.add(alias)) {
+                    queue.add(alias);
+                }
+            }
+        }
+        return aliases;
+    }
+
+    private void addAliasInstructions(Plan plan, ProgramInfo info, Set<Variable> aliases) {
+        for (Variable alias : aliases) {
+            for (Instruction usage : info.getUsages(alias)) {
+                if (isAlias(usage)) {
+                    plan.removedInstructions.add(usage);
+                }
+            }
+        }
+    }
+
+    private boolean isAlias(Instruction instruction) {
+        return getAlias(instruction) != null;
+    }
+
+    private Variable getAlias(Instruction instruction) {
+        if (instruction instanceof AssignInstruction) {
+            return ((AssignInstruction) instruction).getReceiver();
+        } else if (instruction instanceof NullCheckInstruction) {
+            return ((NullCheckInstruction) instruction).getReceiver();
+        }
+        return null;
+    }
+
+    private ProgramInfo getProgramInfo(Program program) {
+        return programInfoCache.computeIfAbsent(program, ProgramInfo::new);
+    }
+
+    private void transform(ClassHolder cls, Plan plan) {
+        Map<String, FieldReference> flattenedFields = new HashMap<>();
+        for (FieldHolder componentField : plan.component.getFields()) {
+            if (componentField.hasModifier(ElementModifier.STATIC)) {
+                continue;
+            }
+            FieldHolder flattenedField = new FieldHolder(createFieldName(cls,
+                    plan.field.getName() + "$" + componentField.getName()));
+            flattenedField.setType(componentField.getType());
+            flattenedField.setLevel(plan.field.getLevel());
+            flattenedField.getModifiers().addAll(componentField.getModifiers());
+            flattenedField.getModifiers().remove(ElementModifier.FINAL);
+            cls.addField(flattenedField);
+            flattenedFields.put(componentField.getName(), flattenedField.getReference());
+        }
+
+        // Reading the field throws NPE when owner is null, make sure it's still thrown at the same point
+        Map<GetFieldInstruction, Variable> readOwners = new HashMap<>();
+        for (GetFieldInstruction read : plan.reads) {
+            Variable owner = read.getInstance();
+            if (!isKnownNonNull(read)) {
+                NullCheckInstruction nullCheck = new NullCheckInstruction();
+                nullCheck.setValue(owner);
+                nullCheck.setReceiver(read.getBasicBlock().getProgram().createVariable());
+                nullCheck.setLocation(read.getLocation());
+                read.insertPrevious(nullCheck);
+                owner = nullCheck.getReceiver();
+            }
+            readOwners.put(read, owner);
+        }
+
+        for (Map.Entry<Instruction, ComponentAccess> entry : plan.componentAccesses.entrySet()) {
+            ComponentAccess access = entry.getValue();
+            FieldReference flattenedField = flattenedFields.get(access.fieldName);
+            Variable owner = access.read != null ? readOwners.get(access.read) : access.owner;
+            if (entry.getKey() instanceof GetFieldInstruction) {
+                GetFieldInstruction getField = (GetFieldInstruction) entry.getKey();
+                getField.setInstance(owner);
+                getField.setField(flattenedField);
+            } else {
+                PutFieldInstruction putField = (PutFieldInstruction) entry.getKey();
+                putField.setInstance(owner);
+                putField.setField(flattenedField);
+            }
+        }
+
+        for (Instruction instruction : plan.removedInstructions) {
+            instruction.delete();
+        }
+        for (GetFieldInstruction read : plan.reads) {
+            read.delete();
+        }
+        cls.removeField(plan.field);
+
+        for (Program program : plan.programs) {
+            programInfoCache.remove(program);
+        }
+        ownerClasses.add(cls.getName());
+        inlinedClasses.add(plan.component.getName());
+        inlinedFields++;
+    }
+
+    private boolean isKnownNonNull(GetFieldInstruction read) {
+        Variable owner = read.getInstance();
+        MethodHolder method = programMethods.get(owner.getProgram());
+        if (owner.getIndex() == 0 && method != null && !method.hasModifier(ElementModifier.STATIC)) {
+            return true;
+        }
+        Instruction definition = getProgramInfo(owner.getProgram()).definitions[owner.getIndex()];
+        return definition instanceof NullCheckInstruction || definition instanceof ConstructInstruction;
+    }
+
+    private String createFieldName(ClassHolder cls, String name) {
+        String result = name;
+        int suffix = 0;
+        while (cls.getField(result) != null) {
+            result = name + "$" + suffix++;
+        }
+        return result;
+    }
+
+    static class ProgramInfo {
+        Program program;
+        List<List<Instruction>> usages;
+        Instruction[] definitions;
+        Set<Variable> phiVariables = new HashSet<>();
+        Graph cfg;
+        DominatorTree domTree;
+
+        ProgramInfo(Program program) {
+            this.program = program;
+            usages = new ArrayList<>(Collections.nCopies(program.variableCount(), null));
+            definitions = new Instruction[program.variableCount()];
+            UsageExtractor usageExtractor = new UsageExtractor();
+            DefinitionExtractor definitionExtractor = new DefinitionExtractor();
+            for (BasicBlock block : program.getBasicBlocks()) {
+                for (Phi phi : block.getPhis()) {
+                    phiVariables.add(phi.getReceiver());
+                    for (Incoming incoming : phi.getIncomings()) {
+                        phiVariables.add(incoming.getValue());
+                    }
+                }
+                for (Instruction instruction : block) {
+                    instruction.acceptVisitor(usageExtractor);
+                    for (Variable var : usageExtractor.getUsedVariables()) {
+                        List<Instruction> varUsages = usages.get(var.getIndex());
+                        if (varUsages == null) {
+                            varUsages = new ArrayList<>();
+                            usages.set(var.getIndex(), varUsages);
+                        }
+                        varUsages.add(instruction);
+                    }
+                    instruction.acceptVisitor(definitionExtractor);
+                    for (Variable var : definitionExtractor.getDefinedVariables()) {
+                        definitions[var.getIndex()] = instruction;
+                    }
+                }
+            }
+        }
+
+        List<Instruction> getUsages(Variable variable) {
+            List<Instruction> result = usages.get(variable.getIndex());
+            return result != null ? result : Collections.emptyList();
+        }
+
+        Graph getCfg() {
+            if (cfg == null) {
+                cfg = ProgramUtils.buildControlFlowGraph(program);
+            }
+            return cfg;
+        }
+
+        DominatorTree getDomTree() {
+            if (domTree == null) {
+                domTree = GraphUtils.buildDominatorTree(getCfg());
+            }
+            return domTree;
+        }
+    }
+
+    static class Plan {
+        FieldHolder field;
+        ClassHolder component;
+        Set<Program> programs = new HashSet<>();
+        List<GetFieldInstruction> reads = new ArrayList<>();
+        Map<Instruction, ComponentAccess> componentAccesses = new LinkedHashMap<>();
+        Set<Instruction> removedInstructions = new HashSet<>();
+
+        Plan(FieldHolder field, ClassHolder component) {
+            this.field = field;
+            this.component = component;
+        }
+    }
+
+    static class ComponentAccess {
+        String fieldName;
+        Variable owner;
+        GetFieldInstruction read;
+
+        ComponentAccess(String fieldName, Variable owner, GetFieldInstruction read) {
+            this.fieldName = fieldName;
+            this.owner = owner;
+            this.read = read;
+        }
+    }
+}
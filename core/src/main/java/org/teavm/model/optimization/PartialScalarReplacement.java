@@ -0,0 +1,355 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import com.carrotsearch.hppc.IntArrayDeque;
+import com.carrotsearch.hppc.IntDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.common.Graph;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.ConstructInstruction;
+import org.teavm.model.instructions.GetFieldInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.instructions.PutFieldInstruction;
+import org.teavm.model.util.InstructionVariableMapper;
+import org.teavm.model.util.PhiUpdater;
+import org.teavm.model.util.ProgramUtils;
+import org.teavm.model.util.UsageExtractor;
+
+/**
+ * <p>Replaces fields of objects that escape only on some paths with local variables. Unlike
+ * {@link ScalarReplacement}, which gives up on any escaping use, this optimization keeps the object
+ * virtual on non-escaping paths and materializes it (allocates and stores current field values)
+ * right before each escaping instruction.</p>
+ *
+ * <p>Object is only considered when no use of it is reachable from an escaping instruction, so that
+ * the materialized copy and the local variables can't diverge, and when there's a path from the
+ * allocation to an exit that does not pass through an escaping instruction.</p>
+ */
+public class PartialScalarReplacement implements MethodOptimization {
+    private static final int MAX_MATERIALIZATIONS = 4;
+    private Program program;
+    private Graph cfg;
+    private List<List<Instruction>> usages;
+    private Set<Variable> phiVariables;
+
+    @Override
+    public boolean optimize(MethodOptimizationContext context, Program program) {
+        this.program = program;
+        boolean changed = false;
+        while (performOnce(context.getMethod().parameterCount() + 1)) {
+            changed = true;
+        }
+        this.program = null;
+        cfg = null;
+        usages = null;
+        phiVariables = null;
+        return changed;
+    }
+
+    private boolean performOnce(int parameterCount) {
+        cfg = ProgramUtils.buildControlFlowGraph(program);
+        collectUsages();
+
+        List<Candidate> candidates = new ArrayList<>();
+        Set<Instruction> claimedInstructions = new HashSet<>();
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction instruction : block) {
+                if (!(instruction instanceof ConstructInstruction)) {
+                    continue;
+                }
+                Candidate candidate = analyze((ConstructInstruction) instruction);
+                if (candidate != null && !Collections.disjoint(claimedInstructions, candidate.instructions)) {
+                    candidate = null;
+                }
+                if (candidate != null) {
+                    claimedInstructions.addAll(candidate.instructions);
+                    candidates.add(candidate);
+                }
+            }
+        }
+        if (candidates.isEmpty()) {
+            return false;
+        }
+
+        for (Candidate candidate : candidates) {
+            transform(candidate);
+        }
+        new PhiUpdater().updatePhis(program, parameterCount);
+        return true;
+    }
+
+    private void collectUsages() {
+        usages = new ArrayList<>(Collections.nCopies(program.variableCount(), null));
+        phiVariables = new HashSet<>();
+        UsageExtractor usageExtractor = new UsageExtractor();
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Phi phi : block.getPhis()) {
+                phiVariables.add(phi.getReceiver());
+                for (Incoming incoming : phi.getIncomings()) {
+                    phiVariables.add(incoming.getValue());
+                }
+            }
+            for (Instruction instruction : block) {
+                instruction.acceptVisitor(usageExtractor);
+                for (Variable var : usageExtractor.getUsedVariables()) {
+                    List<Instruction> varUsages = usages.get(var.getIndex());
+                    if (varUsages == null) {
+                        varUsages = new ArrayList<>();
+                        usages.set(var.getIndex(), varUsages);
+                    }
+                    varUsages.add(instruction);
+                }
+            }
+        }
+    }
+
+    private Candidate analyze(ConstructInstruction construct) {
+        Candidate candidate = new Candidate(construct);
+        List<Variable> queue = new ArrayList<>();
+        queue.add(construct.getReceiver());
+        candidate.aliases.add(construct.getReceiver());
+        for (int i = 0; i < queue.size(); ++i) {
+            Variable var = queue.get(i);
+            if (phiVariables.contains(var)) {
+                return null;
+            }
+            List<Instruction> varUsages = usages.get(var.getIndex());
+            if (varUsages == null) {
+                continue;
+            }
+            for (Instruction usage : varUsages) {
+                candidate.instructions.add(usage);
+                Variable alias = getAlias(usage);
+                if (alias != null && candidate.aliases.add(alias)) {
+                    queue.add(alias);
+                }
+            }
+        }
+
+        for (Instruction usage : candidate.instructions) {
+            if (getAlias(usage) != null) {
+                continue;
+            }
+            if (usage instanceof GetFieldInstruction) {
+                GetFieldInstruction getField = (GetFieldInstruction) usage;
+                if (candidate.aliases.contains(getField.getInstance())) {
+                    candidate.fields.putIfAbsent(getField.getField(), getField.getFieldType());
+                    continue;
+                }
+            } else if (usage instanceof PutFieldInstruction) {
+                PutFieldInstruction putField = (PutFieldInstruction) usage;
+                if (candidate.aliases.contains(putField.getInstance())
+                        && !candidate.aliases.contains(putField.getValue())) {
+                    candidate.fields.putIfAbsent(putField.getField(), putField.getFieldType());
+                    continue;
+                }
+            }
+            candidate.escapes.add(usage);
+        }
+
+        if (candidate.escapes.isEmpty() || candidate.escapes.size() > MAX_MATERIALIZATIONS) {
+            return null;
+        }
+        for (Instruction escape : candidate.escapes) {
+            if (isUsedAfter(candidate, escape)) {
+                return null;
+            }
+        }
+        if (!hasNonEscapingExit(candidate)) {
+            return null;
+        }
+        return candidate;
+    }
+
+    private Variable getAlias(Instruction instruction) {
+        if (instruction instanceof AssignInstruction) {
+            return ((AssignInstruction) instruction).getReceiver();
+        } else if (instruction instanceof NullCheckInstruction) {
+            return ((NullCheckInstruction) instruction).getReceiver();
+        }
+        return null;
+    }
+
+    private boolean isUsedAfter(Candidate candidate, Instruction escape) {
+        for (Instruction insn = escape.getNext(); insn != null; insn = insn.getNext()) {
+            if (candidate.instructions.contains(insn)) {
+                return true;
+            }
+        }
+
+        boolean[] visited = new boolean[program.basicBlockCount()];
+        IntDeque queue = new IntArrayDeque();
+        for (int successor : cfg.outgoingEdges(escape.getBasicBlock().getIndex())) {
+            queue.addLast(successor);
+        }
+        while (!queue.isEmpty()) {
+            int blockIndex = queue.removeFirst();
+            if (visited[blockIndex]) {
+                continue;
+            }
+            visited[blockIndex] = true;
+            boolean reallocated = false;
+            for (Instruction insn : program.basicBlockAt(blockIndex)) {
+                if (insn == candidate.construct) {
+                    reallocated = true;
+                    break;
+                }
+                if (candidate.instructions.contains(insn)) {
+                    return true;
+                }
+            }
+            if (!reallocated) {
+                for (int successor : cfg.outgoingEdges(blockIndex)) {
+                    queue.addLast(successor);
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean hasNonEscapingExit(Candidate candidate) {
+        BasicBlock constructBlock = candidate.construct.getBasicBlock();
+        for (Instruction insn = candidate.construct.getNext(); insn != null; insn = insn.getNext()) {
+            if (candidate.escapes.contains(insn)) {
+                return false;
+            }
+        }
+
+        boolean[] visited = new boolean[program.basicBlockCount()];
+        visited[constructBlock.getIndex()] = true;
+        IntDeque queue = new IntArrayDeque();
+        queue.addLast(constructBlock.getIndex());
+        while (!queue.isEmpty()) {
+            int blockIndex = queue.removeFirst();
+            if (cfg.outgoingEdgesCount(blockIndex) == 0) {
+                return true;
+            }
+            for (int successor : cfg.outgoingEdges(blockIndex)) {
+                if (visited[successor]) {
+                    continue;
+                }
+                visited[successor] = true;
+                boolean blocked = false;
+                for (Instruction insn : program.basicBlockAt(successor)) {
+                    if (insn == candidate.construct || candidate.escapes.contains(insn)) {
+                        blocked = true;
+                        break;
+                    }
+                }
+                if (!blocked) {
+                    queue.addLast(successor);
+                }
+            }
+        }
+        return false;
+    }
+
+    private void transform(Candidate candidate) {
+        ConstructInstruction construct = candidate.construct;
+        Variable instanceVar = construct.getReceiver();
+        Map<FieldReference, Variable> fieldMapping = new LinkedHashMap<>();
+        for (Map.Entry<FieldReference, ValueType> field : candidate.fields.entrySet()) {
+            Variable var = program.createVariable();
+            if (instanceVar.getDebugName() != null) {
+                var.setDebugName(instanceVar.getDebugName() + "$" + field.getKey().getFieldName());
+            }
+            if (instanceVar.getLabel() != null) {
+                var.setLabel(instanceVar.getLabel() + "$" + field.getKey().getFieldName());
+            }
+            fieldMapping.put(field.getKey(), var);
+
+            Instruction initializer = ScalarReplacement.generateDefaultValue(field.getValue(), var);
+            initializer.setLocation(construct.getLocation());
+            construct.insertPrevious(initializer);
+        }
+
+        for (Instruction escape : candidate.escapes) {
+            Variable materialized = program.createVariable();
+            materialized.setDebugName(instanceVar.getDebugName());
+            materialized.setLabel(instanceVar.getLabel());
+
+            ConstructInstruction materialization = new ConstructInstruction();
+            materialization.setType(construct.getType());
+            materialization.setReceiver(materialized);
+            materialization.setLocation(escape.getLocation());
+            escape.insertPrevious(materialization);
+            for (Map.Entry<FieldReference, ValueType> field : candidate.fields.entrySet()) {
+                PutFieldInstruction putField = new PutFieldInstruction();
+                putField.setInstance(materialized);
+                putField.setField(field.getKey());
+                putField.setFieldType(field.getValue());
+                putField.setValue(fieldMapping.get(field.getKey()));
+                putField.setLocation(escape.getLocation());
+                escape.insertPrevious(putField);
+            }
+
+            escape.acceptVisitor(new InstructionVariableMapper(
+                    var -> candidate.aliases.contains(var) ? materialized : var));
+        }
+
+        for (Instruction usage : candidate.instructions) {
+            if (candidate.escapes.contains(usage)) {
+                continue;
+            }
+            if (usage instanceof GetFieldInstruction) {
+                GetFieldInstruction getField = (GetFieldInstruction) usage;
+                AssignInstruction assignment = new AssignInstruction();
+                assignment.setReceiver(getField.getReceiver());
+                assignment.setAssignee(fieldMapping.get(getField.getField()));
+                assignment.setLocation(usage.getLocation());
+                usage.replace(assignment);
+            } else if (usage instanceof PutFieldInstruction) {
+                PutFieldInstruction putField = (PutFieldInstruction) usage;
+                AssignInstruction assignment = new AssignInstruction();
+                assignment.setReceiver(fieldMapping.get(putField.getField()));
+                assignment.setAssignee(putField.getValue());
+                assignment.setLocation(usage.getLocation());
+                usage.replace(assignment);
+            } else {
+                usage.delete();
+            }
+        }
+        construct.delete();
+    }
+
+    static class Candidate {
+        ConstructInstruction construct;
+        Set<Variable> aliases = new HashSet<>();
+        Set<Instruction> instructions = new LinkedHashSet<>();
+        Set<Instruction> escapes = new LinkedHashSet<>();
+        Map<FieldReference, ValueType> fields = new LinkedHashMap<>();
+
+        Candidate(ConstructInstruction construct) {
+            this.construct = construct;
+        }
+    }
+}
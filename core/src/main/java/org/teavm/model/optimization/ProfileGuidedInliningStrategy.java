@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import org.teavm.model.MethodReference;
+import org.teavm.model.profile.ExecutionProfile;
+
+/**
+ * Inlining strategy that takes execution counts into account. Call sites executed at least
+ * 1/{@link #HOT_FRACTION} times as often as the hottest block of the program are considered hot,
+ * call sites that were never executed are considered cold. Hot call sites get thresholds
+ * {@link #HOT_FACTOR} times greater than usual, cold call sites only get trivial methods inlined,
+ * so that cold code stays out of line. Call sites the profile knows nothing about
+ * (for example, ones introduced by previous inlining steps) are treated as usual.
+ */
+public class ProfileGuidedInliningStrategy extends DefaultInliningStrategy {
+    static final int HOT_FRACTION = 100;
+    static final int HOT_FACTOR = 2;
+    private final ExecutionProfile profile;
+    private final long hotCount;
+
+    public ProfileGuidedInliningStrategy(ExecutionProfile profile, int complexityThreshold, int depthThreshold,
+            int totalComplexityThreshold, boolean onceUsedOnly) {
+        super(complexityThreshold, depthThreshold, totalComplexityThreshold, onceUsedOnly);
+        this.profile = profile;
+        hotCount = Math.max(1, profile.getMaxCount() / HOT_FRACTION);
+    }
+
+    @Override
+    protected int getComplexityThreshold(MethodReference method, InliningContext context) {
+        long count = getCallSiteCount(context);
+        if (count == 0) {
+            return 1;
+        } else if (count >= hotCount) {
+            return super.getComplexityThreshold(method, context) * HOT_FACTOR;
+        } else {
+            return super.getComplexityThreshold(method, context);
+        }
+    }
+
+    @Override
+    protected int getTotalComplexityThreshold(MethodReference method) {
+        int threshold = super.getTotalComplexityThreshold(method);
+        return profile.getBlockCount(method, 0) >= hotCount ? threshold * HOT_FACTOR : threshold;
+    }
+
+    @Override
+    protected boolean isOnceUsedOnly(MethodReference method, InliningContext context) {
+        return getCallSiteCount(context) < hotCount && super.isOnceUsedOnly(method, context);
+    }
+
+    private long getCallSiteCount(InliningContext context) {
+        return profile.getBlockCount(context.getCaller(), context.getCallSiteBlock());
+    }
+}
@@ -214,39 +214,39 @@ public class ScalarReplacement implements MethodOptimization {
             }
             insn.delete();
         }
+    }
 
-        private Instruction generateDefaultValue(ValueType type, Variable receiver) {
-            if (type instanceof ValueType.Primitive) {
-                switch (((ValueType.Primitive) type).getKind()) {
-                    case BOOLEAN:
-                    case BYTE:
-                    case SHORT:
-                    case CHARACTER:
-                    case INTEGER: {
-                        IntegerConstantInstruction insn = new IntegerConstantInstruction();
-                        insn.setReceiver(receiver);
-                        return insn;
-                    }
-                    case LONG: {
-                        LongConstantInstruction insn = new LongConstantInstruction();
-                        insn.setReceiver(receiver);
-                        return insn;
-                    }
-                    case FLOAT: {
-                        FloatConstantInstruction insn = new FloatConstantInstruction();
-                        insn.setReceiver(receiver);
-                        return insn;
-                    }
-                    case DOUBLE: {
-                        DoubleConstantInstruction insn = new DoubleConstantInstruction();
-                        insn.setReceiver(receiver);
-                        return insn;
-                    }
+    static Instruction generateDefaultValue(ValueType type, Variable receiver) {
+        if (type instanceof ValueType.Primitive) {
+            switch (((ValueType.Primitive) type).getKind()) {
+                case BOOLEAN:
+                case BYTE:
+                case SHORT:
+                case CHARACTER:
+                case INTEGER: {
+                    IntegerConstantInstruction insn = new IntegerConstantInstruction();
+                    insn.setReceiver(receiver);
+                    return insn;
+                }
+                case LONG: {
+                    LongConstantInstruction insn = new LongConstantInstruction();
+                    insn.setReceiver(receiver);
+                    return insn;
+                }
+                case FLOAT: {
+                    FloatConstantInstruction insn = new FloatConstantInstruction();
+                    insn.setReceiver(receiver);
+                    return insn;
+                }
+                case DOUBLE: {
+                    DoubleConstantInstruction insn = new DoubleConstantInstruction();
+                    insn.setReceiver(receiver);
+                    return insn;
                 }
             }
-            NullConstantInstruction insn = new NullConstantInstruction();
-            insn.setReceiver(receiver);
-            return insn;
         }
+        NullConstantInstruction insn = new NullConstantInstruction();
+        insn.setReceiver(receiver);
+        return insn;
     }
 }
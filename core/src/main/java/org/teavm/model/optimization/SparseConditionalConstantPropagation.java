@@ -0,0 +1,128 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.Instruction;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.BinaryInstruction;
+import org.teavm.model.instructions.CastIntegerInstruction;
+import org.teavm.model.instructions.CastNumberInstruction;
+import org.teavm.model.instructions.JumpInstruction;
+import org.teavm.model.instructions.NegateInstruction;
+import org.teavm.model.util.TransitionExtractor;
+
+/**
+ * <p>Replaces variables that are proven to be constant by constant instructions, replaces branches with
+ * statically known outcome by jumps and removes code that never gets executed. Unlike
+ * {@link GlobalValueNumbering} and {@link ConstantConditionElimination} it propagates constants through phis,
+ * taking into account only incomings along edges that can actually be taken.</p>
+ */
+public class SparseConditionalConstantPropagation implements MethodOptimization {
+    @Override
+    public boolean optimize(MethodOptimizationContext context, Program program) {
+        return optimize(program);
+    }
+
+    public boolean optimize(Program program) {
+        if (program.basicBlockCount() == 0) {
+            return false;
+        }
+
+        ConstantPropagationAnalysis analysis = new ConstantPropagationAnalysis(program);
+        TransitionExtractor transitionExtractor = new TransitionExtractor();
+        boolean changed = false;
+        for (int i = 0; i < program.basicBlockCount(); ++i) {
+            BasicBlock block = program.basicBlockAt(i);
+            if (!analysis.isExecutable(block)) {
+                changed = true;
+                continue;
+            }
+
+            List<Instruction> phiReplacements = new ArrayList<>();
+            List<Phi> phis = block.getPhis();
+            for (int j = 0; j < phis.size(); ++j) {
+                Phi phi = phis.get(j);
+                Object value = analysis.getConstant(phi.getReceiver());
+                if (value != null) {
+                    phiReplacements.add(ConstantPropagationAnalysis.createConstantInstruction(
+                            phi.getReceiver(), value));
+                    phis.remove(j--);
+                }
+            }
+            if (!phiReplacements.isEmpty()) {
+                block.addFirstAll(phiReplacements);
+                changed = true;
+            }
+
+            for (Instruction insn : block) {
+                Variable receiver = getFoldableReceiver(insn);
+                if (receiver == null) {
+                    continue;
+                }
+                Object value = analysis.getConstant(receiver);
+                if (value != null) {
+                    Instruction constant = ConstantPropagationAnalysis.createConstantInstruction(receiver, value);
+                    constant.setLocation(insn.getLocation());
+                    insn.replace(constant);
+                    changed = true;
+                }
+            }
+
+            Instruction last = block.getLastInstruction();
+            BasicBlock target = analysis.getConstantTarget(last);
+            if (target != null) {
+                last.acceptVisitor(transitionExtractor);
+                for (BasicBlock successor : transitionExtractor.getTargets()) {
+                    if (successor != target) {
+                        successor.removeIncomingsFrom(block);
+                    }
+                }
+
+                JumpInstruction jump = new JumpInstruction();
+                jump.setTarget(target);
+                jump.setLocation(last.getLocation());
+                last.replace(jump);
+                changed = true;
+            }
+        }
+
+        if (changed) {
+            new UnreachableBasicBlockEliminator().optimize(program);
+        }
+        return changed;
+    }
+
+    private static Variable getFoldableReceiver(Instruction insn) {
+        if (insn instanceof BinaryInstruction) {
+            return ((BinaryInstruction) insn).getReceiver();
+        } else if (insn instanceof NegateInstruction) {
+            return ((NegateInstruction) insn).getReceiver();
+        } else if (insn instanceof AssignInstruction) {
+            return ((AssignInstruction) insn).getReceiver();
+        } else if (insn instanceof CastNumberInstruction) {
+            return ((CastNumberInstruction) insn).getReceiver();
+        } else if (insn instanceof CastIntegerInstruction) {
+            return ((CastIntegerInstruction) insn).getReceiver();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,879 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.FieldReference;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AbstractInstructionVisitor;
+import org.teavm.model.instructions.ArrayElementType;
+import org.teavm.model.instructions.ArrayLengthInstruction;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.BinaryBranchingCondition;
+import org.teavm.model.instructions.BinaryBranchingInstruction;
+import org.teavm.model.instructions.BinaryInstruction;
+import org.teavm.model.instructions.BranchingInstruction;
+import org.teavm.model.instructions.CastIntegerInstruction;
+import org.teavm.model.instructions.CastNumberInstruction;
+import org.teavm.model.instructions.CloneArrayInstruction;
+import org.teavm.model.instructions.ConstructArrayInstruction;
+import org.teavm.model.instructions.DoubleConstantInstruction;
+import org.teavm.model.instructions.EmptyInstruction;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.FloatConstantInstruction;
+import org.teavm.model.instructions.GetElementInstruction;
+import org.teavm.model.instructions.GetFieldInstruction;
+import org.teavm.model.instructions.InitClassInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.JumpInstruction;
+import org.teavm.model.instructions.LongConstantInstruction;
+import org.teavm.model.instructions.NegateInstruction;
+import org.teavm.model.instructions.NullCheckInstruction;
+import org.teavm.model.instructions.NullConstantInstruction;
+import org.teavm.model.instructions.NumericOperandType;
+import org.teavm.model.instructions.PutElementInstruction;
+import org.teavm.model.instructions.PutFieldInstruction;
+import org.teavm.model.instructions.StringConstantInstruction;
+import org.teavm.model.instructions.SwitchInstruction;
+import org.teavm.model.instructions.SwitchTableEntry;
+import org.teavm.model.instructions.UnwrapArrayInstruction;
+
+/**
+ * <p>Runs static initializers at build time. Initializer can be evaluated when it only computes
+ * values of static fields of its own class from constants, using arithmetic, control flow and
+ * arrays of primitives, and does not call any methods, allocate objects or throw exceptions.</p>
+ *
+ * <p>Primitive and string values computed by such initializer become initial values of fields.
+ * If no arrays are left in fields, initializer is removed, so that class does not require initialization
+ * at all. Otherwise, initializer is replaced by code that fills arrays with computed constants, unless
+ * this code is larger than the number of instructions executed by original initializer.</p>
+ *
+ * <p>Arithmetic on <code>float</code> values, as well as conversion of out-of-range floating point
+ * values to integers, is not evaluated, since backends don't always reproduce JVM semantics for them.</p>
+ */
+public class StaticInitializerEvaluation {
+    private static final MethodDescriptor CLINIT = new MethodDescriptor("<clinit>", void.class);
+    private static final int MAX_STEPS = 100000;
+    private static final int MAX_ARRAY_ELEMENTS = 4096;
+    private ListableClassHolderSource classes;
+    private int evaluatedInitializers;
+    private int removedInitializers;
+
+    public StaticInitializerEvaluation(ListableClassHolderSource classes) {
+        this.classes = classes;
+    }
+
+    public int getEvaluatedInitializers() {
+        return evaluatedInitializers;
+    }
+
+    public int getRemovedInitializers() {
+        return removedInitializers;
+    }
+
+    public void apply() {
+        for (String className : classes.getClassNames()) {
+            ClassHolder cls = classes.get(className);
+            MethodHolder initializer = cls.getMethod(CLINIT);
+            if (initializer == null || initializer.getProgram() == null) {
+                continue;
+            }
+            Evaluator evaluator = new Evaluator(cls);
+            if (evaluator.evaluate(initializer.getProgram())) {
+                applyResult(cls, initializer, evaluator);
+            }
+        }
+    }
+
+    private void applyResult(ClassHolder cls, MethodHolder initializer, Evaluator evaluator) {
+        Map<String, Object> fieldValues = evaluator.fieldValues;
+
+        int arrayCodeSize = 0;
+        IdentityHashMap<ArrayValue, Object> arrays = new IdentityHashMap<>();
+        for (Object value : fieldValues.values()) {
+            if (value instanceof ArrayValue && arrays.put((ArrayValue) value, value) == null) {
+                arrayCodeSize += 3 + 3 * ((ArrayValue) value).data.length;
+            }
+        }
+        if (arrayCodeSize > evaluator.steps) {
+            return;
+        }
+
+        for (Map.Entry<String, Object> entry : fieldValues.entrySet()) {
+            FieldHolder field = cls.getField(entry.getKey());
+            Object value = entry.getValue();
+            field.setInitialValue(value instanceof ArrayValue ? null : value);
+        }
+
+        evaluatedInitializers++;
+        if (arrays.isEmpty()) {
+            cls.removeMethod(initializer);
+            removedInitializers++;
+        } else {
+            initializer.setProgram(createArrayInitializer(cls, fieldValues));
+        }
+    }
+
+    private Program createArrayInitializer(ClassHolder cls, Map<String, Object> fieldValues) {
+        Program program = new Program();
+        program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+
+        Map<ArrayValue, Variable> arrayVariables = new IdentityHashMap<>();
+        for (Map.Entry<String, Object> entry : fieldValues.entrySet()) {
+            if (!(entry.getValue() instanceof ArrayValue)) {
+                continue;
+            }
+            ArrayValue array = (ArrayValue) entry.getValue();
+            Variable arrayVar = arrayVariables.get(array);
+            if (arrayVar == null) {
+                arrayVar = createArray(program, block, array);
+                arrayVariables.put(array, arrayVar);
+            }
+
+            FieldHolder field = cls.getField(entry.getKey());
+            PutFieldInstruction putField = new PutFieldInstruction();
+            putField.setField(field.getReference());
+            putField.setFieldType(field.getType());
+            putField.setValue(arrayVar);
+            block.add(putField);
+        }
+
+        block.add(new ExitInstruction());
+        return program;
+    }
+
+    private Variable createArray(Program program, BasicBlock block, ArrayValue array) {
+        ArrayElementType elementType = getElementType(array.itemType);
+
+        // All elements are written in order, so that decompiler is able to represent array as constant data
+        IntegerConstantInstruction size = new IntegerConstantInstruction();
+        size.setConstant(array.data.length);
+        size.setReceiver(program.createVariable());
+        block.add(size);
+
+        ConstructArrayInstruction construct = new ConstructArrayInstruction();
+        construct.setItemType(array.itemType);
+        construct.setSize(size.getReceiver());
+        construct.setReceiver(program.createVariable());
+        block.add(construct);
+
+        UnwrapArrayInstruction unwrap = new UnwrapArrayInstruction(elementType);
+        unwrap.setArray(construct.getReceiver());
+        unwrap.setReceiver(program.createVariable());
+        block.add(unwrap);
+
+        for (int i = 0; i < array.data.length; ++i) {
+            IntegerConstantInstruction index = new IntegerConstantInstruction();
+            index.setConstant(i);
+            index.setReceiver(program.createVariable());
+            block.add(index);
+
+            Instruction value = createConstant(array.data[i], program.createVariable());
+            block.add(value);
+
+            PutElementInstruction putElement = new PutElementInstruction(elementType);
+            putElement.setArray(unwrap.getReceiver());
+            putElement.setIndex(index.getReceiver());
+            putElement.setValue(value instanceof IntegerConstantInstruction
+                    ? ((IntegerConstantInstruction) value).getReceiver()
+                    : value instanceof LongConstantInstruction
+                    ? ((LongConstantInstruction) value).getReceiver()
+                    : value instanceof FloatConstantInstruction
+                    ? ((FloatConstantInstruction) value).getReceiver()
+                    : ((DoubleConstantInstruction) value).getReceiver());
+            block.add(putElement);
+        }
+
+        return construct.getReceiver();
+    }
+
+    private static Instruction createConstant(Object value, Variable receiver) {
+        if (value instanceof Integer) {
+            IntegerConstantInstruction insn = new IntegerConstantInstruction();
+            insn.setConstant((Integer) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Long) {
+            LongConstantInstruction insn = new LongConstantInstruction();
+            insn.setConstant((Long) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else if (value instanceof Float) {
+            FloatConstantInstruction insn = new FloatConstantInstruction();
+            insn.setConstant((Float) value);
+            insn.setReceiver(receiver);
+            return insn;
+        } else {
+            DoubleConstantInstruction insn = new DoubleConstantInstruction();
+            insn.setConstant((Double) value);
+            insn.setReceiver(receiver);
+            return insn;
+        }
+    }
+
+    private static ArrayElementType getElementType(ValueType itemType) {
+        switch (((ValueType.Primitive) itemType).getKind()) {
+            case BOOLEAN:
+            case BYTE:
+                return ArrayElementType.BYTE;
+            case SHORT:
+                return ArrayElementType.SHORT;
+            case CHARACTER:
+                return ArrayElementType.CHAR;
+            case INTEGER:
+                return ArrayElementType.INT;
+            case LONG:
+                return ArrayElementType.LONG;
+            case FLOAT:
+                return ArrayElementType.FLOAT;
+            case DOUBLE:
+                return ArrayElementType.DOUBLE;
+            default:
+                throw new IllegalArgumentException();
+        }
+    }
+
+    private static Object getDefaultValue(ValueType type) {
+        if (!(type instanceof ValueType.Primitive)) {
+            return null;
+        }
+        switch (((ValueType.Primitive) type).getKind()) {
+            case LONG:
+                return 0L;
+            case FLOAT:
+                return 0F;
+            case DOUBLE:
+                return 0.0;
+            default:
+                return 0;
+        }
+    }
+
+    private static class ArrayValue {
+        final ValueType itemType;
+        final Object[] data;
+
+        ArrayValue(ValueType itemType, Object[] data) {
+            this.itemType = itemType;
+            this.data = data;
+        }
+    }
+
+    private static class EvaluationFailedException extends RuntimeException {
+        EvaluationFailedException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private class Evaluator extends AbstractInstructionVisitor {
+        private ClassHolder cls;
+        Map<String, Object> fieldValues = new LinkedHashMap<>();
+        int steps;
+        private int arrayElements;
+        private Object[] values;
+        private BasicBlock nextBlock;
+        private boolean exited;
+        private boolean supported;
+
+        Evaluator(ClassHolder cls) {
+            this.cls = cls;
+        }
+
+        boolean evaluate(Program program) {
+            values = new Object[program.variableCount()];
+            BasicBlock block = program.basicBlockAt(0);
+            try {
+                while (true) {
+                    nextBlock = null;
+                    for (Instruction instruction : block) {
+                        if (++steps > MAX_STEPS) {
+                            return false;
+                        }
+                        supported = false;
+                        instruction.acceptVisitor(this);
+                        if (!supported) {
+                            return false;
+                        }
+                    }
+                    if (exited) {
+                        return true;
+                    }
+                    if (nextBlock == null) {
+                        return false;
+                    }
+                    jump(block, nextBlock);
+                    block = nextBlock;
+                }
+            } catch (EvaluationFailedException | ClassCastException | NullPointerException e) {
+                // Null or unexpected type of operand means that initializer would fail at run time
+                return false;
+            }
+        }
+
+        private void jump(BasicBlock source, BasicBlock target) {
+            List<Phi> phis = target.getPhis();
+            if (phis.isEmpty()) {
+                return;
+            }
+            List<Object> phiValues = new ArrayList<>(phis.size());
+            for (Phi phi : phis) {
+                Variable value = null;
+                for (Incoming incoming : phi.getIncomings()) {
+                    if (incoming.getSource() == source) {
+                        value = incoming.getValue();
+                        break;
+                    }
+                }
+                if (value == null) {
+                    throw new EvaluationFailedException();
+                }
+                phiValues.add(values[value.getIndex()]);
+            }
+            for (int i = 0; i < phis.size(); ++i) {
+                values[phis.get(i).getReceiver().getIndex()] = phiValues.get(i);
+            }
+        }
+
+        private void set(Variable receiver, Object value) {
+            supported = true;
+            if (receiver != null) {
+                values[receiver.getIndex()] = value;
+            }
+        }
+
+        private Object get(Variable variable) {
+            return values[variable.getIndex()];
+        }
+
+        private int getInt(Variable variable) {
+            Object value = get(variable);
+            if (!(value instanceof Integer)) {
+                throw new EvaluationFailedException();
+            }
+            return (Integer) value;
+        }
+
+        private ArrayValue getArray(Variable variable) {
+            Object value = get(variable);
+            if (!(value instanceof ArrayValue)) {
+                throw new EvaluationFailedException();
+            }
+            return (ArrayValue) value;
+        }
+
+        private FieldHolder getOwnStaticField(Variable instance, FieldReference reference) {
+            if (instance != null || !reference.getClassName().equals(cls.getName())) {
+                throw new EvaluationFailedException();
+            }
+            FieldHolder field = cls.getField(reference.getFieldName());
+            if (field == null || !field.hasModifier(ElementModifier.STATIC)) {
+                throw new EvaluationFailedException();
+            }
+            return field;
+        }
+
+        @Override
+        public void visit(EmptyInstruction insn) {
+            supported = true;
+        }
+
+        @Override
+        public void visit(NullConstantInstruction insn) {
+            set(insn.getReceiver(), null);
+        }
+
+        @Override
+        public void visit(IntegerConstantInstruction insn) {
+            set(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(LongConstantInstruction insn) {
+            set(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(FloatConstantInstruction insn) {
+            set(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(DoubleConstantInstruction insn) {
+            set(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(StringConstantInstruction insn) {
+            set(insn.getReceiver(), insn.getConstant());
+        }
+
+        @Override
+        public void visit(AssignInstruction insn) {
+            set(insn.getReceiver(), get(insn.getAssignee()));
+        }
+
+        @Override
+        public void visit(NullCheckInstruction insn) {
+            Object value = get(insn.getValue());
+            if (value == null) {
+                throw new EvaluationFailedException();
+            }
+            set(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(BinaryInstruction insn) {
+            Object a = get(insn.getFirstOperand());
+            Object b = get(insn.getSecondOperand());
+            switch (insn.getOperandType()) {
+                case INT:
+                    set(insn.getReceiver(), evaluateInt(insn, (Integer) a, (Integer) b));
+                    break;
+                case LONG:
+                    switch (insn.getOperation()) {
+                        case SHIFT_LEFT:
+                        case SHIFT_RIGHT:
+                        case SHIFT_RIGHT_UNSIGNED:
+                            set(insn.getReceiver(), evaluateLongShift(insn, (Long) a, (Integer) b));
+                            break;
+                        default:
+                            set(insn.getReceiver(), evaluateLong(insn, (Long) a, (Long) b));
+                            break;
+                    }
+                    break;
+                case DOUBLE:
+                    set(insn.getReceiver(), evaluateDouble(insn, (Double) a, (Double) b));
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private Object evaluateInt(BinaryInstruction insn, int a, int b) {
+            switch (insn.getOperation()) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    if (b == 0) {
+                        throw new EvaluationFailedException();
+                    }
+                    return a / b;
+                case MODULO:
+                    if (b == 0) {
+                        throw new EvaluationFailedException();
+                    }
+                    return a % b;
+                case COMPARE:
+                    return Integer.compare(a, b);
+                case AND:
+                    return a & b;
+                case OR:
+                    return a | b;
+                case XOR:
+                    return a ^ b;
+                case SHIFT_LEFT:
+                    return a << b;
+                case SHIFT_RIGHT:
+                    return a >> b;
+                case SHIFT_RIGHT_UNSIGNED:
+                    return a >>> b;
+                default:
+                    throw new EvaluationFailedException();
+            }
+        }
+
+        private Object evaluateLong(BinaryInstruction insn, long a, long b) {
+            switch (insn.getOperation()) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    if (b == 0) {
+                        throw new EvaluationFailedException();
+                    }
+                    return a / b;
+                case MODULO:
+                    if (b == 0) {
+                        throw new EvaluationFailedException();
+                    }
+                    return a % b;
+                case COMPARE:
+                    return Long.compare(a, b);
+                case AND:
+                    return a & b;
+                case OR:
+                    return a | b;
+                case XOR:
+                    return a ^ b;
+                default:
+                    throw new EvaluationFailedException();
+            }
+        }
+
+        private Object evaluateLongShift(BinaryInstruction insn, long a, int b) {
+            switch (insn.getOperation()) {
+                case SHIFT_LEFT:
+                    return a << b;
+                case SHIFT_RIGHT:
+                    return a >> b;
+                case SHIFT_RIGHT_UNSIGNED:
+                    return a >>> b;
+                default:
+                    throw new EvaluationFailedException();
+            }
+        }
+
+        private Object evaluateDouble(BinaryInstruction insn, double a, double b) {
+            switch (insn.getOperation()) {
+                case ADD:
+                    return a + b;
+                case SUBTRACT:
+                    return a - b;
+                case MULTIPLY:
+                    return a * b;
+                case DIVIDE:
+                    return a / b;
+                case MODULO:
+                    return a % b;
+                case COMPARE:
+                    if (Double.isNaN(a) || Double.isNaN(b)) {
+                        throw new EvaluationFailedException();
+                    }
+                    return Double.compare(a, b);
+                default:
+                    throw new EvaluationFailedException();
+            }
+        }
+
+        @Override
+        public void visit(NegateInstruction insn) {
+            Object value = get(insn.getOperand());
+            switch (insn.getOperandType()) {
+                case INT:
+                    set(insn.getReceiver(), -(Integer) value);
+                    break;
+                case LONG:
+                    set(insn.getReceiver(), -(Long) value);
+                    break;
+                case DOUBLE:
+                    set(insn.getReceiver(), -(Double) value);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void visit(CastNumberInstruction insn) {
+            if (insn.getTargetType() == NumericOperandType.FLOAT) {
+                return;
+            }
+            Object value = get(insn.getValue());
+            double asDouble = ((Number) value).doubleValue();
+            switch (insn.getTargetType()) {
+                case INT:
+                    if (!(value instanceof Long) && !(asDouble >= Integer.MIN_VALUE && asDouble <= Integer.MAX_VALUE)) {
+                        return;
+                    }
+                    set(insn.getReceiver(), ((Number) value).intValue());
+                    break;
+                case LONG:
+                    if (!(value instanceof Integer) && !(asDouble >= Long.MIN_VALUE && asDouble <= Long.MAX_VALUE)) {
+                        return;
+                    }
+                    set(insn.getReceiver(), ((Number) value).longValue());
+                    break;
+                case DOUBLE:
+                    set(insn.getReceiver(), asDouble);
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        @Override
+        public void visit(CastIntegerInstruction insn) {
+            int value = getInt(insn.getValue());
+            switch (insn.getDirection()) {
+                case FROM_INTEGER:
+                    switch (insn.getTargetType()) {
+                        case BYTE:
+                            value = (byte) value;
+                            break;
+                        case SHORT:
+                            value = (short) value;
+                            break;
+                        case CHAR:
+                            value = (char) value;
+                            break;
+                    }
+                    break;
+                case TO_INTEGER:
+                    break;
+            }
+            set(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(BranchingInstruction insn) {
+            boolean result;
+            switch (insn.getCondition()) {
+                case NULL:
+                    result = get(insn.getOperand()) == null;
+                    break;
+                case NOT_NULL:
+                    result = get(insn.getOperand()) != null;
+                    break;
+                default: {
+                    int value = getInt(insn.getOperand());
+                    switch (insn.getCondition()) {
+                        case EQUAL:
+                            result = value == 0;
+                            break;
+                        case NOT_EQUAL:
+                            result = value != 0;
+                            break;
+                        case LESS:
+                            result = value < 0;
+                            break;
+                        case LESS_OR_EQUAL:
+                            result = value <= 0;
+                            break;
+                        case GREATER:
+                            result = value > 0;
+                            break;
+                        default:
+                            result = value >= 0;
+                            break;
+                    }
+                    break;
+                }
+            }
+            branch(result, insn.getConsequent(), insn.getAlternative());
+        }
+
+        @Override
+        public void visit(BinaryBranchingInstruction insn) {
+            Object a = get(insn.getFirstOperand());
+            Object b = get(insn.getSecondOperand());
+            switch (insn.getCondition()) {
+                case EQUAL:
+                    branch(getInt(insn.getFirstOperand()) == getInt(insn.getSecondOperand()),
+                            insn.getConsequent(), insn.getAlternative());
+                    break;
+                case NOT_EQUAL:
+                    branch(getInt(insn.getFirstOperand()) != getInt(insn.getSecondOperand()),
+                            insn.getConsequent(), insn.getAlternative());
+                    break;
+                case REFERENCE_EQUAL:
+                case REFERENCE_NOT_EQUAL:
+                    // Identity of strings depends on interning, which is not modelled here
+                    if (a instanceof String || b instanceof String) {
+                        return;
+                    }
+                    branch((a == b) == (insn.getCondition() == BinaryBranchingCondition.REFERENCE_EQUAL),
+                            insn.getConsequent(), insn.getAlternative());
+                    break;
+            }
+        }
+
+        private void branch(boolean condition, BasicBlock consequent, BasicBlock alternative) {
+            nextBlock = condition ? consequent : alternative;
+            supported = true;
+        }
+
+        @Override
+        public void visit(JumpInstruction insn) {
+            nextBlock = insn.getTarget();
+            supported = true;
+        }
+
+        @Override
+        public void visit(SwitchInstruction insn) {
+            int value = getInt(insn.getCondition());
+            nextBlock = insn.getDefaultTarget();
+            for (SwitchTableEntry entry : insn.getEntries()) {
+                if (entry.getCondition() == value) {
+                    nextBlock = entry.getTarget();
+                    break;
+                }
+            }
+            supported = true;
+        }
+
+        @Override
+        public void visit(ExitInstruction insn) {
+            exited = true;
+            supported = true;
+        }
+
+        @Override
+        public void visit(ConstructArrayInstruction insn) {
+            if (!(insn.getItemType() instanceof ValueType.Primitive)) {
+                return;
+            }
+            int size = getInt(insn.getSize());
+            if (size < 0 || size > MAX_ARRAY_ELEMENTS - arrayElements) {
+                return;
+            }
+            arrayElements += size;
+            Object[] data = new Object[size];
+            Arrays.fill(data, getDefaultValue(insn.getItemType()));
+            set(insn.getReceiver(), new ArrayValue(insn.getItemType(), data));
+        }
+
+        @Override
+        public void visit(CloneArrayInstruction insn) {
+            ArrayValue array = getArray(insn.getArray());
+            if (array.data.length > MAX_ARRAY_ELEMENTS - arrayElements) {
+                return;
+            }
+            arrayElements += array.data.length;
+            set(insn.getReceiver(), new ArrayValue(array.itemType, array.data.clone()));
+        }
+
+        @Override
+        public void visit(UnwrapArrayInstruction insn) {
+            set(insn.getReceiver(), getArray(insn.getArray()));
+        }
+
+        @Override
+        public void visit(ArrayLengthInstruction insn) {
+            set(insn.getReceiver(), getArray(insn.getArray()).data.length);
+        }
+
+        @Override
+        public void visit(GetElementInstruction insn) {
+            ArrayValue array = getArray(insn.getArray());
+            int index = getInt(insn.getIndex());
+            if (index < 0 || index >= array.data.length) {
+                return;
+            }
+            set(insn.getReceiver(), array.data[index]);
+        }
+
+        @Override
+        public void visit(PutElementInstruction insn) {
+            ArrayValue array = getArray(insn.getArray());
+            int index = getInt(insn.getIndex());
+            if (index < 0 || index >= array.data.length) {
+                return;
+            }
+            Object value = get(insn.getValue());
+            switch (((ValueType.Primitive) array.itemType).getKind()) {
+                case BOOLEAN:
+                    value = getIntValue(value) & 1;
+                    break;
+                case BYTE:
+                    value = (int) (byte) getIntValue(value);
+                    break;
+                case SHORT:
+                    value = (int) (short) getIntValue(value);
+                    break;
+                case CHARACTER:
+                    value = (int) (char) getIntValue(value);
+                    break;
+                case INTEGER:
+                    value = getIntValue(value);
+                    break;
+                case LONG:
+                    if (!(value instanceof Long)) {
+                        return;
+                    }
+                    break;
+                case FLOAT:
+                    if (!(value instanceof Float)) {
+                        return;
+                    }
+                    break;
+                case DOUBLE:
+                    if (!(value instanceof Double)) {
+                        return;
+                    }
+                    break;
+                default:
+                    return;
+            }
+            array.data[index] = value;
+            supported = true;
+        }
+
+        private int getIntValue(Object value) {
+            if (!(value instanceof Integer)) {
+                throw new EvaluationFailedException();
+            }
+            return (Integer) value;
+        }
+
+        @Override
+        public void visit(GetFieldInstruction insn) {
+            FieldHolder field = getOwnStaticField(insn.getInstance(), insn.getField());
+            Object value;
+            if (fieldValues.containsKey(field.getName())) {
+                value = fieldValues.get(field.getName());
+            } else {
+                value = field.getInitialValue();
+                if (value == null) {
+                    value = getDefaultValue(field.getType());
+                } else if (value instanceof Boolean) {
+                    value = (Boolean) value ? 1 : 0;
+                } else if (value instanceof Character) {
+                    value = (int) (Character) value;
+                } else if (value instanceof Byte || value instanceof Short) {
+                    value = ((Number) value).intValue();
+                }
+            }
+            set(insn.getReceiver(), value);
+        }
+
+        @Override
+        public void visit(PutFieldInstruction insn) {
+            FieldHolder field = getOwnStaticField(insn.getInstance(), insn.getField());
+            fieldValues.put(field.getName(), get(insn.getValue()));
+            supported = true;
+        }
+
+        @Override
+        public void visit(InitClassInstruction insn) {
+            supported = insn.getClassName().equals(cls.getName());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.teavm.common.Graph;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.Incoming;
+import org.teavm.model.Instruction;
+import org.teavm.model.MethodReader;
+import org.teavm.model.Phi;
+import org.teavm.model.Program;
+import org.teavm.model.Variable;
+import org.teavm.model.instructions.AssignInstruction;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.JumpInstruction;
+import org.teavm.model.util.PhiUpdater;
+import org.teavm.model.util.ProgramUtils;
+
+/**
+ * <p>Replaces self-recursive tail calls with jumps to the beginning of the method, so that recursion
+ * does not consume stack and does not pay for frame setup. Tail call is a call of the method itself
+ * (on the same <code>this</code> for instance methods) immediately followed by return of its result,
+ * either directly or through blocks that only pass it via phis.</p>
+ *
+ * <p>Calls within try/catch blocks are not considered, since exception thrown by such call must be
+ * caught by the handler, as well as calls in synchronized methods, which must hold monitor until
+ * callee returns. Mutual recursion is covered when one of the methods is inlined into another.</p>
+ */
+public class TailCallElimination implements MethodOptimization {
+    @Override
+    public boolean optimize(MethodOptimizationContext context, Program program) {
+        MethodReader method = context.getMethod();
+        if (method.hasModifier(ElementModifier.SYNCHRONIZED) || program.basicBlockCount() == 0) {
+            return false;
+        }
+
+        List<InvokeInstruction> tailCalls = findTailCalls(method, program);
+        if (tailCalls.isEmpty()) {
+            return false;
+        }
+        BasicBlock loopHeader = getLoopHeader(program);
+        if (loopHeader == null) {
+            return false;
+        }
+
+        for (InvokeInstruction tailCall : tailCalls) {
+            replaceWithJump(tailCall, loopHeader);
+        }
+        new PhiUpdater().updatePhis(program, method.parameterCount() + 1);
+        return true;
+    }
+
+    private List<InvokeInstruction> findTailCalls(MethodReader method, Program program) {
+        List<InvokeInstruction> tailCalls = new ArrayList<>();
+        boolean isStatic = method.hasModifier(ElementModifier.STATIC);
+        for (BasicBlock block : program.getBasicBlocks()) {
+            if (!block.getTryCatchBlocks().isEmpty()
+                    || !(block.getLastInstruction() instanceof ExitInstruction
+                    || block.getLastInstruction() instanceof JumpInstruction)) {
+                continue;
+            }
+            if (!(block.getLastInstruction().getPrevious() instanceof InvokeInstruction)) {
+                continue;
+            }
+            InvokeInstruction invoke = (InvokeInstruction) block.getLastInstruction().getPrevious();
+            if (invoke.getType() != InvocationType.SPECIAL || !invoke.getMethod().equals(method.getReference())
+                    || !isResultReturned(invoke)) {
+                continue;
+            }
+            if (isStatic ? invoke.getInstance() != null : invoke.getInstance() != program.variableAt(0)) {
+                continue;
+            }
+            tailCalls.add(invoke);
+        }
+        return tailCalls;
+    }
+
+    // Result is either returned immediately or passed through blocks that do nothing except for
+    // passing it further via phis and finally returning it
+    private boolean isResultReturned(InvokeInstruction invoke) {
+        Variable value = invoke.getReceiver();
+        BasicBlock source = invoke.getBasicBlock();
+        Instruction next = invoke.getNext();
+        Set<BasicBlock> visited = new HashSet<>();
+        while (next instanceof JumpInstruction) {
+            BasicBlock target = ((JumpInstruction) next).getTarget();
+            if (!visited.add(target) || target.getFirstInstruction() != target.getLastInstruction()) {
+                return false;
+            }
+            if (value != null) {
+                value = getPhiValue(target, source, value);
+            }
+            source = target;
+            next = target.getFirstInstruction();
+        }
+        return next instanceof ExitInstruction && ((ExitInstruction) next).getValueToReturn() == value;
+    }
+
+    private Variable getPhiValue(BasicBlock block, BasicBlock source, Variable value) {
+        for (Phi phi : block.getPhis()) {
+            for (Incoming incoming : phi.getIncomings()) {
+                if (incoming.getSource() == source && incoming.getValue() == value) {
+                    return phi.getReceiver();
+                }
+            }
+        }
+        return value;
+    }
+
+    // Entry block can't be a loop header, since parameters are defined before it. Usually nothing
+    // jumps to the entry block, in this case it can be split into empty entry and loop header.
+    private BasicBlock getLoopHeader(Program program) {
+        BasicBlock entry = program.basicBlockAt(0);
+        if (!entry.getPhis().isEmpty() || !entry.getTryCatchBlocks().isEmpty()) {
+            return null;
+        }
+        Graph cfg = ProgramUtils.buildControlFlowGraph(program);
+        if (cfg.incomingEdgesCount(0) > 0) {
+            return null;
+        }
+
+        if (entry.getFirstInstruction() == entry.getLastInstruction()
+                && entry.getLastInstruction() instanceof JumpInstruction) {
+            BasicBlock target = ((JumpInstruction) entry.getLastInstruction()).getTarget();
+            if (cfg.incomingEdgesCount(target.getIndex()) == 1 && target.getTryCatchBlocks().isEmpty()) {
+                return target;
+            }
+        }
+        return splitEntry(program);
+    }
+
+    private BasicBlock splitEntry(Program program) {
+        BasicBlock entry = program.basicBlockAt(0);
+        BasicBlock loopHeader = program.createBasicBlock();
+        while (entry.getFirstInstruction() != null) {
+            Instruction instruction = entry.getFirstInstruction();
+            instruction.delete();
+            loopHeader.add(instruction);
+        }
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Phi phi : block.getPhis()) {
+                for (Incoming incoming : phi.getIncomings()) {
+                    if (incoming.getSource() == entry) {
+                        incoming.setSource(loopHeader);
+                    }
+                }
+            }
+        }
+
+        JumpInstruction jump = new JumpInstruction();
+        jump.setTarget(loopHeader);
+        entry.add(jump);
+        return loopHeader;
+    }
+
+    private void replaceWithJump(InvokeInstruction tailCall, BasicBlock loopHeader) {
+        Program program = tailCall.getProgram();
+        Instruction exit = tailCall.getNext();
+        if (exit instanceof JumpInstruction) {
+            BasicBlock source = tailCall.getBasicBlock();
+            for (Phi phi : ((JumpInstruction) exit).getTarget().getPhis()) {
+                phi.getIncomings().removeIf(incoming -> incoming.getSource() == source);
+            }
+        }
+
+        // Arguments may refer to parameters, so they must be read before any parameter is reassigned
+        List<? extends Variable> arguments = tailCall.getArguments();
+        Variable[] temporaries = new Variable[arguments.size()];
+        for (int i = 0; i < arguments.size(); ++i) {
+            AssignInstruction copy = new AssignInstruction();
+            copy.setAssignee(arguments.get(i));
+            copy.setReceiver(program.createVariable());
+            copy.setLocation(tailCall.getLocation());
+            tailCall.insertPrevious(copy);
+            temporaries[i] = copy.getReceiver();
+        }
+        for (int i = 0; i < arguments.size(); ++i) {
+            AssignInstruction assign = new AssignInstruction();
+            assign.setAssignee(temporaries[i]);
+            assign.setReceiver(program.variableAt(i + 1));
+            assign.setLocation(tailCall.getLocation());
+            tailCall.insertPrevious(assign);
+        }
+
+        JumpInstruction jump = new JumpInstruction();
+        jump.setTarget(loopHeader);
+        jump.setLocation(exit.getLocation());
+        exit.replace(jump);
+        tailCall.delete();
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.profile;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Execution counts of basic blocks collected by a program built with profile instrumentation
+ * (see {@link ProfileInstrumentation}). Block indexes refer to programs as they are right before inlining,
+ * so profile only makes sense for the same code compiled with the same options.</p>
+ *
+ * <p>Profile is stored as text, one line per instrumented method:</p>
+ *
+ * <pre>
+ * teavm-profile: java.lang.Object.hashCode()I 10 0 10
+ * </pre>
+ *
+ * <p>where numbers are counts of method's blocks. Lines without {@code teavm-profile:} prefix are ignored,
+ * so the whole error output of instrumented program can be used as a profile.
+ * When several lines describe the same method, their counts are summed.</p>
+ */
+public class ExecutionProfile {
+    public static final String LINE_PREFIX = "teavm-profile:";
+    private Map<MethodReference, long[]> blockCounts = new LinkedHashMap<>();
+    private long maxCount;
+
+    public Set<MethodReference> getMethods() {
+        return Collections.unmodifiableSet(blockCounts.keySet());
+    }
+
+    public boolean isEmpty() {
+        return blockCounts.isEmpty();
+    }
+
+    /**
+     * Returns execution counts of blocks of the given method or {@code null} if method is not in the profile.
+     */
+    public long[] getBlockCounts(MethodReference method) {
+        long[] counts = blockCounts.get(method);
+        return counts != null ? counts.clone() : null;
+    }
+
+    /**
+     * Returns execution count of the given block or -1 if profile knows nothing about the block.
+     */
+    public long getBlockCount(MethodReference method, int block) {
+        long[] counts = blockCounts.get(method);
+        if (counts == null) {
+            return -1;
+        }
+        return block < counts.length ? counts[block] : -1;
+    }
+
+    public long getMaxCount() {
+        return maxCount;
+    }
+
+    public void add(MethodReference method, long[] counts) {
+        long[] existing = blockCounts.get(method);
+        if (existing == null) {
+            existing = new long[counts.length];
+            blockCounts.put(method, existing);
+        } else if (existing.length != counts.length) {
+            throw new IllegalArgumentException("Method " + method + " has " + existing.length
+                    + " blocks in profile, but " + counts.length + " blocks given");
+        }
+        for (int i = 0; i < counts.length; ++i) {
+            existing[i] += counts[i];
+            maxCount = Math.max(maxCount, existing[i]);
+        }
+    }
+
+    public void write(Writer writer) throws IOException {
+        for (Map.Entry<MethodReference, long[]> entry : blockCounts.entrySet()) {
+            writer.append(LINE_PREFIX).append(' ').append(entry.getKey().toString());
+            for (long count : entry.getValue()) {
+                writer.append(' ').append(String.valueOf(count));
+            }
+            writer.append('\n');
+        }
+    }
+
+    public static ExecutionProfile read(Reader reader) throws IOException {
+        ExecutionProfile profile = new ExecutionProfile();
+        BufferedReader lineReader = new BufferedReader(reader);
+        int lineNumber = 0;
+        while (true) {
+            String line = lineReader.readLine();
+            if (line == null) {
+                break;
+            }
+            ++lineNumber;
+            int start = line.indexOf(LINE_PREFIX);
+            if (start < 0) {
+                continue;
+            }
+            String[] parts = line.substring(start + LINE_PREFIX.length()).trim().split(" +");
+            MethodReference method = MethodReference.parseIfPossible(parts[0]);
+            if (method == null) {
+                throw new IOException("Invalid method reference at line " + lineNumber + ": " + parts[0]);
+            }
+            long[] counts = new long[parts.length - 1];
+            try {
+                for (int i = 0; i < counts.length; ++i) {
+                    counts[i] = Long.parseLong(parts[i + 1]);
+                }
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid block count at line " + lineNumber, e);
+            }
+            try {
+                profile.add(method, counts);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Inconsistent profile at line " + lineNumber, e);
+            }
+        }
+        return profile;
+    }
+}
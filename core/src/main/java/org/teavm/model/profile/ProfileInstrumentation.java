@@ -0,0 +1,123 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.profile;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.teavm.interop.StaticInit;
+import org.teavm.interop.Unmanaged;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.Instruction;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.instructions.ExitInstruction;
+import org.teavm.model.instructions.IntegerConstantInstruction;
+import org.teavm.model.instructions.InvocationType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.instructions.StringConstantInstruction;
+import org.teavm.runtime.ProfileCounters;
+
+/**
+ * Inserts counter of executions into every basic block and dumps counters when entry point exits.
+ * Collected counters can be read by {@link ExecutionProfile#read(java.io.Reader)}.
+ */
+public class ProfileInstrumentation {
+    public static final MethodReference HIT_METHOD = new MethodReference(ProfileCounters.class, "hit",
+            int.class, void.class);
+    public static final MethodReference DUMP_METHOD = new MethodReference(ProfileCounters.class, "dump",
+            String.class, void.class);
+    private int lastId;
+    private StringBuilder layout = new StringBuilder();
+
+    public void apply(ListableClassHolderSource classes, Collection<MethodReference> entryPoints) {
+        List<String> classNames = new ArrayList<>(classes.getClassNames());
+        Collections.sort(classNames);
+        for (String className : classNames) {
+            ClassHolder cls = classes.get(className);
+            if (!shouldInstrument(cls)) {
+                continue;
+            }
+            for (MethodHolder method : cls.getMethods()) {
+                Program program = method.getProgram();
+                if (program != null && method.getAnnotations().get(Unmanaged.class.getName()) == null) {
+                    instrument(method.getReference(), program);
+                }
+            }
+        }
+
+        for (MethodReference entryPoint : entryPoints) {
+            ClassHolder cls = classes.get(entryPoint.getClassName());
+            MethodHolder method = cls != null ? cls.getMethod(entryPoint.getDescriptor()) : null;
+            if (method != null && method.getProgram() != null) {
+                insertDump(method.getProgram());
+            }
+        }
+    }
+
+    private boolean shouldInstrument(ClassHolder cls) {
+        if (cls.getName().startsWith("org.teavm.runtime.") || cls.getName().startsWith("org.teavm.interop.")) {
+            return false;
+        }
+        return cls.getAnnotations().get(Unmanaged.class.getName()) == null
+                && cls.getAnnotations().get(StaticInit.class.getName()) == null;
+    }
+
+    private void instrument(MethodReference method, Program program) {
+        for (int i = 0; i < program.basicBlockCount(); ++i) {
+            BasicBlock block = program.basicBlockAt(i);
+            if (block == null) {
+                continue;
+            }
+            IntegerConstantInstruction id = new IntegerConstantInstruction();
+            id.setConstant(lastId + i);
+            id.setReceiver(program.createVariable());
+
+            InvokeInstruction hit = new InvokeInstruction();
+            hit.setType(InvocationType.SPECIAL);
+            hit.setMethod(HIT_METHOD);
+            hit.setArguments(id.getReceiver());
+
+            block.addFirst(hit);
+            block.addFirst(id);
+        }
+        lastId += program.basicBlockCount();
+        layout.append(method).append(' ').append(program.basicBlockCount()).append('\n');
+    }
+
+    private void insertDump(Program program) {
+        for (BasicBlock block : program.getBasicBlocks()) {
+            Instruction last = block.getLastInstruction();
+            if (!(last instanceof ExitInstruction)) {
+                continue;
+            }
+            StringConstantInstruction layoutConstant = new StringConstantInstruction();
+            layoutConstant.setConstant(layout.toString());
+            layoutConstant.setReceiver(program.createVariable());
+            last.insertPrevious(layoutConstant);
+
+            InvokeInstruction dump = new InvokeInstruction();
+            dump.setType(InvocationType.SPECIAL);
+            dump.setMethod(DUMP_METHOD);
+            dump.setArguments(layoutConstant.getReceiver());
+            last.insertPrevious(dump);
+        }
+    }
+}
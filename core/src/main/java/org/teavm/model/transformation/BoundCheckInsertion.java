@@ -25,6 +25,7 @@ import org.teavm.model.Instruction;
 import org.teavm.model.MethodReference;
 import org.teavm.model.Program;
 import org.teavm.model.Variable;
+import org.teavm.model.analysis.IndexRangeAnalysis;
 import org.teavm.model.instructions.AbstractInstructionVisitor;
 import org.teavm.model.instructions.ArrayLengthInstruction;
 import org.teavm.model.instructions.AssignInstruction;
@@ -50,7 +51,7 @@ public class BoundCheckInsertion {
             return;
         }
 
-        InsertionVisitor visitor = new InsertionVisitor(program.variableCount());
+        InsertionVisitor visitor = new InsertionVisitor(program.variableCount(), new IndexRangeAnalysis(program));
         new DominatorWalker(program).walk(visitor);
         if (visitor.changed) {
             new PhiUpdater().updatePhis(program, methodReference.parameterCount() + 1);
@@ -61,6 +62,8 @@ public class BoundCheckInsertion {
             implements DominatorWalkerCallback<BlockBounds> {
         BlockBounds bounds;
         boolean changed;
+        private IndexRangeAnalysis ranges;
+        private BasicBlock currentBlock;
         private boolean[] isConstant;
         private boolean[] isConstantSizedArray;
         private int[] constantValue;
@@ -76,7 +79,8 @@ public class BoundCheckInsertion {
         private int comparisonVariable;
         private ComparisonMode comparisonMode;
 
-        InsertionVisitor(int variableCount) {
+        InsertionVisitor(int variableCount, IndexRangeAnalysis ranges) {
+            this.ranges = ranges;
             isConstant = new boolean[variableCount];
             isConstantSizedArray = new boolean[variableCount];
             constantValue = new int[variableCount];
@@ -97,6 +101,7 @@ public class BoundCheckInsertion {
         @Override
         public BlockBounds visit(BasicBlock block) {
             bounds = new BlockBounds();
+            currentBlock = block;
 
             if (comparisonMode != null && conditionBlock == block.getIndex()) {
                 switch (comparisonMode) {
@@ -375,7 +380,12 @@ public class BoundCheckInsertion {
                 }
             }
 
-            if ((isConstant[index] && constantValue[index] >= 0) || nonNegative[index]) {
+            if (upper && ranges.isLessThanLength(indexVar, arrayVar, currentBlock)) {
+                upper = false;
+            }
+
+            if ((isConstant[index] && constantValue[index] >= 0) || nonNegative[index]
+                    || ranges.isNonNegative(indexVar, currentBlock)) {
                 lower = false;
             }
 
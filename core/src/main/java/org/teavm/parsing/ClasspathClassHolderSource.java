@@ -16,21 +16,63 @@
 package org.teavm.parsing;
 
 import java.util.Date;
+import java.util.List;
+import java.util.function.Function;
+import org.teavm.cache.ClassSnapshot;
 import org.teavm.model.ClassHolder;
 import org.teavm.model.ClassHolderSource;
 import org.teavm.model.ReferenceCache;
 import org.teavm.parsing.resource.ClasspathResourceReader;
 import org.teavm.parsing.resource.MapperClassHolderSource;
+import org.teavm.parsing.resource.PrefetchingClassHolderMapper;
 import org.teavm.parsing.resource.ResourceClassHolderMapper;
+import org.teavm.parsing.resource.SnapshotClassHolderMapper;
 
-public class ClasspathClassHolderSource implements ClassHolderSource, ClassDateProvider {
+public class ClasspathClassHolderSource implements ClassHolderSource, ClassDateProvider, ClassHashProvider {
     private MapperClassHolderSource innerClassSource;
     private ClasspathResourceMapper classPathMapper;
 
     public ClasspathClassHolderSource(ClassLoader classLoader, ReferenceCache referenceCache) {
+        this(classLoader, referenceCache, 0);
+    }
+
+    /**
+     * Creates class source that parses classes ahead of time on a background thread pool.
+     *
+     * @param prefetchThreads number of background threads, 0 to parse classes only when they are requested.
+     */
+    public ClasspathClassHolderSource(ClassLoader classLoader, ReferenceCache referenceCache, int prefetchThreads) {
+        this(classLoader, referenceCache, prefetchThreads, false);
+    }
+
+    /**
+     * Creates class source that parses classes ahead of time on a background thread pool and optionally takes
+     * parsed classes from snapshots shipped on the class path (see {@link ClassSnapshot}).
+     *
+     * @param prefetchThreads number of background threads, 0 to parse classes only when they are requested.
+     * @param useSnapshots whether to look for class snapshots.
+     */
+    public ClasspathClassHolderSource(ClassLoader classLoader, ReferenceCache referenceCache, int prefetchThreads,
+            boolean useSnapshots) {
         ClasspathResourceReader reader = new ClasspathResourceReader(classLoader);
-        ResourceClassHolderMapper rawMapper = new ResourceClassHolderMapper(reader, referenceCache);
+        PrefetchingClassHolderMapper prefetchingMapper = null;
+        Function<String, ClassHolder> rawMapper;
+        if (prefetchThreads > 0) {
+            prefetchingMapper = new PrefetchingClassHolderMapper(reader, referenceCache, prefetchThreads);
+            rawMapper = prefetchingMapper;
+        } else {
+            rawMapper = new ResourceClassHolderMapper(reader, referenceCache);
+        }
+        if (useSnapshots) {
+            List<ClassSnapshot> snapshots = ClassSnapshot.load(classLoader, referenceCache);
+            if (!snapshots.isEmpty()) {
+                rawMapper = new SnapshotClassHolderMapper(classLoader, snapshots, rawMapper);
+            }
+        }
         classPathMapper = new ClasspathResourceMapper(classLoader, referenceCache, rawMapper);
+        if (prefetchingMapper != null) {
+            prefetchingMapper.setNameMapper(classPathMapper::getMappedClassNames);
+        }
         innerClassSource = new MapperClassHolderSource(classPathMapper);
     }
 
@@ -47,4 +89,9 @@ public class ClasspathClassHolderSource implements ClassHolderSource, ClassDateP
     public Date getModificationDate(String className) {
         return classPathMapper.getModificationDate(className);
     }
+
+    @Override
+    public String getContentHash(String className) {
+        return classPathMapper.getContentHash(className);
+    }
 }
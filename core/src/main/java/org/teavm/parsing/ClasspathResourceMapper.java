@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
@@ -30,6 +31,7 @@ import java.util.Properties;
 import java.util.ServiceLoader;
 import java.util.function.Function;
 import org.teavm.common.CachedFunction;
+import org.teavm.common.HashUtils;
 import org.teavm.model.ClassHolder;
 import org.teavm.model.FieldHolder;
 import org.teavm.model.MethodHolder;
@@ -40,7 +42,8 @@ import org.teavm.parsing.substitution.OrderedProperties;
 import org.teavm.parsing.substitution.PrefixMapping;
 import org.teavm.vm.spi.ElementFilter;
 
-public class ClasspathResourceMapper implements Function<String, ClassHolder>, ClassDateProvider {
+public class ClasspathResourceMapper implements Function<String, ClassHolder>, ClassDateProvider,
+        ClassHashProvider {
     private static final String STRIP_PREFIX_FROM_PREFIX = "stripPrefixFrom";
     private static final String STRIP_PREFIX_FROM_PACKAGE_HIERARCHY_PREFIX =
             STRIP_PREFIX_FROM_PREFIX + "PackageHierarchyClasses";
@@ -54,10 +57,12 @@ public class ClasspathResourceMapper implements Function<String, ClassHolder>, C
     private static final String INCLUDE_PACKAGE_PREFIX = INCLUDE_PREFIX + "Package";
     private static final String INCLUDE_CLASS_PREFIX = INCLUDE_PREFIX + "Class";
     private static final Date VOID_DATE = new Date(0);
+    private static final String VOID_HASH = "";
     private Function<String, ClassHolder> innerMapper;
     private ClassRefsRenamer renamer;
     private ClassLoader classLoader;
     private Map<String, Date> modificationDates = new HashMap<>();
+    private Map<String, String> contentHashes = new HashMap<>();
     private List<ElementFilter> elementFilters = new ArrayList<>();
     private ClassMappings classMappings = new ClassMappings();
     private PrefixMapping prefixMapping = new PrefixMapping();
@@ -157,6 +162,29 @@ public class ClasspathResourceMapper implements Function<String, ClassHolder>, C
         return cls;
     }
 
+    /**
+     * Returns names of class files that {@link #apply(String)} may read for the given class name,
+     * in the same order.
+     */
+    public List<String> getMappedClassNames(String name) {
+        List<String> result = new ArrayList<>();
+        for (String mappedClassName : classMappings.apply(name)) {
+            if (!classExclusions.apply(mappedClassName)) {
+                result.add(mappedClassName);
+            }
+        }
+        for (String mappedClassName : packageMappings.apply(name)) {
+            mappedClassName = prefixMapping.apply(mappedClassName);
+            if (!classExclusions.apply(mappedClassName)) {
+                result.add(mappedClassName);
+            }
+        }
+        if (!classExclusions.apply(name)) {
+            result.add(name);
+        }
+        return result;
+    }
+
     @Override
     public Date getModificationDate(String className) {
         Date mdate = modificationDates.get(className);
@@ -167,6 +195,19 @@ public class ClasspathResourceMapper implements Function<String, ClassHolder>, C
         return mdate == VOID_DATE ? null : mdate;
     }
 
+    @Override
+    public String getContentHash(String className) {
+        String hash = contentHashes.get(className);
+        if (hash == null) {
+            hash = getOriginalContentHash(toUnmappedClassName(className));
+            if (hash == null) {
+                hash = VOID_HASH;
+            }
+            contentHashes.put(className, hash);
+        }
+        return hash.isEmpty() ? null : hash;
+    }
+
     private String toUnmappedClassName(String name) {
         if (classExclusions.apply(name)) {
             return name;
@@ -207,6 +248,30 @@ public class ClasspathResourceMapper implements Function<String, ClassHolder>, C
         }
     }
 
+    private String getOriginalContentHash(String className) {
+        if (classLoader == null) {
+            return null;
+        }
+        MessageDigest digest = HashUtils.createSha256Digest();
+        try (InputStream input = classLoader.getResourceAsStream(className.replace('.', '/') + ".class")) {
+            if (input == null) {
+                return null;
+            }
+            byte[] buffer = new byte[4096];
+            while (true) {
+                int bytesRead = input.read(buffer);
+                if (bytesRead < 0) {
+                    break;
+                }
+                digest.update(buffer, 0, bytesRead);
+            }
+        } catch (IOException e) {
+            // If class file can't be read, we just report that class should be reparsed
+            return null;
+        }
+        return HashUtils.toHex(digest.digest());
+    }
+
     private void loadProperties(Properties properties) {
         for (String propertyName : properties.stringPropertyNames()) {
             final String[] instruction = propertyName.split("\\|", 2);
@@ -0,0 +1,182 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.parsing.resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ReferenceCache;
+import org.teavm.parsing.Parser;
+
+/**
+ * <p>Parses classes like {@link ResourceClassHolderMapper}, but also speculatively parses classes
+ * referenced from constant pools of requested classes on a background thread pool, so that when
+ * a class is requested, it's likely to be parsed already.</p>
+ *
+ * <p>Each parsed class is returned only once, since callers are allowed to modify it.
+ * Only direct references of requested classes are prefetched. Referenced classes are not necessarily
+ * requested later, so the number of prefetched classes waiting to be requested is limited; references
+ * found while the limit is reached are parsed on request, like in {@link ResourceClassHolderMapper}.</p>
+ *
+ * <p>Errors of background parsing are reported when the class is requested, classes that are never
+ * requested don't cause errors.</p>
+ */
+public class PrefetchingClassHolderMapper implements Function<String, ClassHolder> {
+    private static final int CONSTANT_CLASS = 7;
+    static final int PREFETCHED_CLASSES_PER_THREAD = 64;
+    private ResourceReader resourceReader;
+    private Parser parser;
+    private ThreadPoolExecutor executor;
+    private int maxPrefetchedClasses;
+    private ConcurrentMap<String, Future<ParsedClass>> prefetchedClasses = new ConcurrentHashMap<>();
+    private Set<String> scheduledClasses = ConcurrentHashMap.newKeySet();
+    private Function<String, List<String>> nameMapper = Collections::singletonList;
+
+    public PrefetchingClassHolderMapper(ResourceReader resourceReader, ReferenceCache referenceCache, int threads) {
+        this.resourceReader = resourceReader;
+        parser = new Parser(referenceCache);
+        maxPrefetchedClasses = threads * PREFETCHED_CLASSES_PER_THREAD;
+        executor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "TeaVM class parser");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Specifies how class names found in constant pools should be mapped to names of class files.
+     * The first name that corresponds to an existing class file is prefetched.
+     */
+    public void setNameMapper(Function<String, List<String>> nameMapper) {
+        this.nameMapper = nameMapper;
+    }
+
+    @Override
+    public ClassHolder apply(String name) {
+        ParsedClass parsedClass;
+        Future<ParsedClass> future = prefetchedClasses.remove(name);
+        if (future != null) {
+            parsedClass = waitFor(future);
+        } else {
+            parsedClass = parse(name);
+        }
+        if (parsedClass == null) {
+            return null;
+        }
+
+        scheduledClasses.add(name);
+        for (String reference : parsedClass.references) {
+            prefetch(reference);
+        }
+        return parsedClass.cls;
+    }
+
+    private void prefetch(String reference) {
+        for (String name : nameMapper.apply(reference)) {
+            if (prefetchedClasses.size() >= maxPrefetchedClasses) {
+                // Not marked as scheduled, so that it can be prefetched when referenced again
+                return;
+            }
+            if (!scheduledClasses.add(name)) {
+                return;
+            }
+            if (resourceReader.hasResource(toResourceName(name))) {
+                prefetchedClasses.put(name, executor.submit(() -> parse(name)));
+                return;
+            }
+        }
+    }
+
+    int getPrefetchedClassCount() {
+        return prefetchedClasses.size();
+    }
+
+    private ParsedClass parse(String name) {
+        String resourceName = toResourceName(name);
+        if (!resourceReader.hasResource(resourceName)) {
+            return null;
+        }
+        ClassNode clsNode = new ClassNode();
+        ClassReader reader;
+        try (InputStream input = resourceReader.openResource(resourceName)) {
+            reader = new ClassReader(input);
+            reader.accept(clsNode, 0);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return new ParsedClass(parser.parseClass(clsNode), extractReferences(reader));
+    }
+
+    private static List<String> extractReferences(ClassReader reader) {
+        List<String> references = new ArrayList<>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); ++i) {
+            int offset = reader.getItem(i);
+            if (offset == 0 || reader.readByte(offset - 1) != CONSTANT_CLASS) {
+                continue;
+            }
+            String name = reader.readUTF8(offset, buffer);
+            if (name != null && !name.startsWith("[")) {
+                references.add(name.replace('/', '.'));
+            }
+        }
+        return references;
+    }
+
+    private static String toResourceName(String className) {
+        return className.replace('.', '/') + ".class";
+    }
+
+    private static ParsedClass waitFor(Future<ParsedClass> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    static class ParsedClass {
+        final ClassHolder cls;
+        final List<String> references;
+
+        ParsedClass(ClassHolder cls, List<String> references) {
+            this.cls = cls;
+            this.references = references;
+        }
+    }
+}
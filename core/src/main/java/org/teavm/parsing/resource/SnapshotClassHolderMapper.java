@@ -0,0 +1,54 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.parsing.resource;
+
+import java.net.URL;
+import java.util.List;
+import java.util.function.Function;
+import org.teavm.cache.ClassSnapshot;
+import org.teavm.model.ClassHolder;
+
+/**
+ * Takes classes from {@link ClassSnapshot}s shipped in the same class path entries as class files,
+ * and falls back to parsing class files otherwise.
+ */
+public class SnapshotClassHolderMapper implements Function<String, ClassHolder> {
+    private ClassLoader classLoader;
+    private List<ClassSnapshot> snapshots;
+    private Function<String, ClassHolder> innerMapper;
+
+    public SnapshotClassHolderMapper(ClassLoader classLoader, List<ClassSnapshot> snapshots,
+            Function<String, ClassHolder> innerMapper) {
+        this.classLoader = classLoader;
+        this.snapshots = snapshots;
+        this.innerMapper = innerMapper;
+    }
+
+    @Override
+    public ClassHolder apply(String name) {
+        URL classFile = classLoader.getResource(name.replace('.', '/') + ".class");
+        if (classFile == null) {
+            return null;
+        }
+        for (ClassSnapshot snapshot : snapshots) {
+            ClassHolder cls = snapshot.get(name, classFile);
+            if (cls != null) {
+                return cls;
+            }
+        }
+        return innerMapper.apply(name);
+    }
+}
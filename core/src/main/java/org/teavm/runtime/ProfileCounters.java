@@ -0,0 +1,83 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.runtime;
+
+import java.io.PrintStream;
+
+/**
+ * Counters of basic blocks used by programs built with profile instrumentation.
+ * Must not call any instrumented code from {@link #hit(int)}, so that there's no infinite recursion.
+ */
+public final class ProfileCounters {
+    private static int[] counters;
+
+    private ProfileCounters() {
+    }
+
+    public static void hit(int id) {
+        int[] counters = ProfileCounters.counters;
+        if (counters == null || id >= counters.length) {
+            int newSize = counters != null ? counters.length * 2 : 1024;
+            if (newSize <= id) {
+                newSize = id + 1;
+            }
+            int[] newCounters = new int[newSize];
+            if (counters != null) {
+                for (int i = 0; i < counters.length; ++i) {
+                    newCounters[i] = counters[i];
+                }
+            }
+            counters = newCounters;
+            ProfileCounters.counters = newCounters;
+        }
+        int value = counters[id];
+        if (value != Integer.MAX_VALUE) {
+            counters[id] = value + 1;
+        }
+    }
+
+    /**
+     * Prints counters in format of {@code ExecutionProfile} to error stream. String formatting and printing
+     * are instrumented as well, so counters are copied first to report their values at the moment of call.
+     *
+     * @param layout lines of form {@code method blockCount}, describing methods in order of their counter ids.
+     */
+    public static void dump(String layout) {
+        int[] counters = ProfileCounters.counters;
+        counters = counters != null ? counters.clone() : new int[0];
+        PrintStream out = System.err;
+        int id = 0;
+        int lineStart = 0;
+        while (lineStart < layout.length()) {
+            int lineEnd = layout.indexOf('\n', lineStart);
+            if (lineEnd < 0) {
+                lineEnd = layout.length();
+            }
+            int separator = layout.lastIndexOf(' ', lineEnd);
+            String method = layout.substring(lineStart, separator);
+            int blockCount = Integer.parseInt(layout.substring(separator + 1, lineEnd));
+
+            StringBuilder sb = new StringBuilder("teavm-profile: ").append(method);
+            for (int i = 0; i < blockCount; ++i) {
+                sb.append(' ').append(id + i < counters.length ? counters[id + i] : 0);
+            }
+            out.println(sb);
+
+            id += blockCount;
+            lineStart = lineEnd + 1;
+        }
+    }
+}
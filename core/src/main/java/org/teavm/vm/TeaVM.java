@@ -30,6 +30,10 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -81,18 +85,31 @@ import org.teavm.model.optimization.ClassInitElimination;
 import org.teavm.model.optimization.ConstantConditionElimination;
 import org.teavm.model.optimization.DefaultInliningStrategy;
 import org.teavm.model.optimization.Devirtualization;
+import org.teavm.model.optimization.GlobalFieldOptimization;
 import org.teavm.model.optimization.GlobalValueNumbering;
 import org.teavm.model.optimization.Inlining;
 import org.teavm.model.optimization.InliningStrategy;
+import org.teavm.model.optimization.InterproceduralConstantPropagation;
 import org.teavm.model.optimization.LoopInvariantMotion;
+import org.teavm.model.optimization.LoopInversion;
+import org.teavm.model.optimization.LoopUnrolling;
 import org.teavm.model.optimization.MethodOptimization;
 import org.teavm.model.optimization.MethodOptimizationContext;
+import org.teavm.model.optimization.MethodSpecialization;
+import org.teavm.model.optimization.ObjectInlining;
+import org.teavm.model.optimization.PartialScalarReplacement;
+import org.teavm.model.optimization.ProfileGuidedInliningStrategy;
 import org.teavm.model.optimization.RedundantJumpElimination;
 import org.teavm.model.optimization.RedundantNullCheckElimination;
 import org.teavm.model.optimization.RepeatedFieldReadElimination;
 import org.teavm.model.optimization.ScalarReplacement;
+import org.teavm.model.optimization.SparseConditionalConstantPropagation;
+import org.teavm.model.optimization.StaticInitializerEvaluation;
+import org.teavm.model.optimization.TailCallElimination;
 import org.teavm.model.optimization.UnreachableBasicBlockElimination;
 import org.teavm.model.optimization.UnusedVariableElimination;
+import org.teavm.model.profile.ExecutionProfile;
+import org.teavm.model.profile.ProfileInstrumentation;
 import org.teavm.model.text.ListingBuilder;
 import org.teavm.model.transformation.ClassInitializerInsertionTransformer;
 import org.teavm.model.util.MissingItemsProcessor;
@@ -135,6 +152,7 @@ import org.teavm.vm.spi.TeaVMPlugin;
 public class TeaVM implements TeaVMHost, ServiceRepository {
     private static final MethodDescriptor MAIN_METHOD_DESC = new MethodDescriptor("main",
             ValueType.arrayOf(ValueType.object("java.lang.String")), ValueType.VOID);
+    public static final String THREADS_PROPERTY = "teavm.compiler.threads";
 
     private final DependencyAnalyzer dependencyAnalyzer;
     private final AccumulationDiagnostics diagnostics = new AccumulationDiagnostics();
@@ -164,6 +182,12 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
     private int compileProgressValue;
     private ClassSourcePacker classSourcePacker;
     private ClassInitializerInfo classInitializerInfo;
+    private int parallelism;
+    private TeaVMMetrics metrics;
+    private boolean profileInstrumented;
+    private ExecutionProfile executionProfile;
+    private int maxGuardedImplementations = 2;
+    private final Object targetLock = new Object();
 
     TeaVM(TeaVMBuilder builder) {
         target = builder.target;
@@ -264,6 +288,95 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         this.optimizationLevel = optimizationLevel;
     }
 
+    /**
+     * Gets number of threads used to optimize and decompile methods. Zero means that the value is taken from
+     * {@link #THREADS_PROPERTY} property, or that methods are optimized sequentially if the property
+     * is not set.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets number of threads used to optimize and decompile methods. Results don't depend on this value,
+     * so it only affects build time.
+     *
+     * @param parallelism number of threads, 1 to optimize sequentially, 0 to use {@link #THREADS_PROPERTY}.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 0) {
+            throw new IllegalArgumentException("Parallelism must be non-negative: " + parallelism);
+        }
+        this.parallelism = parallelism;
+    }
+
+    private int getEffectiveParallelism() {
+        if (parallelism > 0) {
+            return parallelism;
+        }
+        String value = properties.getProperty(THREADS_PROPERTY);
+        if (value == null) {
+            return 1;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            diagnostics.warning(null, "Wrong value of " + THREADS_PROPERTY + " property: " + value);
+            return 1;
+        }
+    }
+
+    public TeaVMMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Makes compiler report time and memory spent on each phase and optimization pass to given metrics.
+     * Metrics are not collected by default.
+     */
+    public void setMetrics(TeaVMMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public boolean isProfileInstrumented() {
+        return profileInstrumented;
+    }
+
+    /**
+     * Makes compiler insert counters into generated code. Program dumps counters to error stream when
+     * entry point exits, the output can be read by {@link ExecutionProfile#read(java.io.Reader)} and
+     * passed to {@link #setExecutionProfile(ExecutionProfile)} to build the same program with the same options.
+     * Has no effect with {@link TeaVMOptimizationLevel#SIMPLE}.
+     */
+    public void setProfileInstrumented(boolean profileInstrumented) {
+        this.profileInstrumented = profileInstrumented;
+    }
+
+    public ExecutionProfile getExecutionProfile() {
+        return executionProfile;
+    }
+
+    /**
+     * Sets execution profile used to make inlining decisions.
+     * Has no effect with {@link TeaVMOptimizationLevel#SIMPLE}.
+     */
+    public void setExecutionProfile(ExecutionProfile executionProfile) {
+        this.executionProfile = executionProfile;
+    }
+
+    public int getMaxGuardedImplementations() {
+        return maxGuardedImplementations;
+    }
+
+    /**
+     * Sets maximum number of implementations a virtual call site can have to be replaced by type checks
+     * followed by direct calls, which can be inlined afterwards. Zero disables this transformation.
+     * Has effect only with {@link TeaVMOptimizationLevel#ADVANCED} and {@link TeaVMOptimizationLevel#FULL}.
+     */
+    public void setMaxGuardedImplementations(int maxGuardedImplementations) {
+        this.maxGuardedImplementations = maxGuardedImplementations;
+    }
+
     public TeaVMProgressListener getProgressListener() {
         return progressListener;
     }
@@ -375,8 +488,16 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
             cancelled |= progressListener.progressReached(progress) != TeaVMProgressFeedback.CONTINUE;
             return !cancelled;
         });
+        TeaVMMetrics.Measurement measurement = startMeasurement("dependency analysis");
         target.contributeDependencies(dependencyAnalyzer);
+        if (isProfileInstrumentationApplied()) {
+            dependencyAnalyzer.linkMethod(ProfileInstrumentation.HIT_METHOD).use();
+            dependencyAnalyzer.linkMethod(ProfileInstrumentation.DUMP_METHOD)
+                    .propagate(1, "java.lang.String")
+                    .use();
+        }
         dependencyAnalyzer.processDependencies();
+        endMeasurement(measurement);
         if (wasCancelled() || !diagnostics.getSevereProblems().isEmpty()) {
             return;
         }
@@ -419,7 +540,9 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                 compileProgressReportStart = 500;
                 compileProgressReportLimit = 1000;
             }
+            measurement = startMeasurement("emit");
             target.emit(classSet, buildTarget, outputName);
+            endMeasurement(measurement);
         } catch (IOException e) {
             throw new RuntimeException("Error generating output files", e);
         }
@@ -440,24 +563,39 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
             compileProgressLimit *= 2;
         }
 
+        TeaVMMetrics.Measurement measurement = startMeasurement("linking");
         ListableClassHolderSource classSet = link(dependencyAnalyzer);
+        endMeasurement(measurement);
         writtenClasses = classSet;
         if (wasCancelled()) {
             return null;
         }
 
+        DependencyInfo dependencyInfo = dependencyAnalyzer;
         if (optimizationLevel != TeaVMOptimizationLevel.SIMPLE) {
+            measurement = startMeasurement("devirtualization");
             devirtualize(classSet);
+            endMeasurement(measurement);
             if (wasCancelled()) {
                 return null;
             }
 
+            measurement = startMeasurement("static initializer evaluation");
+            evaluateStaticInitializers(classSet);
+            endMeasurement(measurement);
+
+            measurement = startMeasurement("class initializer analysis");
             ClassInitializerAnalysis classInitializerAnalysis = new ClassInitializerAnalysis(classSet,
                     dependencyAnalyzer.getClassHierarchy());
             classInitializerAnalysis.analyze(dependencyAnalyzer);
             classInitializerInfo = classInitializerAnalysis;
             insertClassInit(classSet);
             eliminateClassInit(classSet);
+            endMeasurement(measurement);
+
+            measurement = startMeasurement("method specialization");
+            dependencyInfo = specializeMethods(classSet);
+            endMeasurement(measurement);
         } else {
             insertClassInit(classSet);
             classInitializerInfo = ClassInitializerInfo.EMPTY;
@@ -475,17 +613,41 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                 }
             }
         }
-        inline(classSet);
+        if (isProfileInstrumentationApplied()) {
+            measurement = startMeasurement("profile instrumentation");
+            new ProfileInstrumentation().apply(classSet, entryPoints.values().stream()
+                    .map(TeaVMEntryPoint::getMethod)
+                    .collect(Collectors.toList()));
+            endMeasurement(measurement);
+        }
+
+        measurement = startMeasurement("field optimization");
+        optimizeFields(classSet);
+        endMeasurement(measurement);
+
+        measurement = startMeasurement("inlining");
+        inline(classSet, dependencyInfo);
+        endMeasurement(measurement);
         if (wasCancelled()) {
             return null;
         }
 
+        measurement = startMeasurement("object inlining");
+        inlineObjects(classSet);
+        endMeasurement(measurement);
+
+        measurement = startMeasurement("interprocedural constant propagation");
+        propagateConstants(classSet);
+        endMeasurement(measurement);
+
         target.analyzeBeforeOptimizations(new ListableClassReaderSourceAdapter(
                 dependencyAnalyzer.getClassSource(),
                 new LinkedHashSet<>(dependencyAnalyzer.getReachableClasses())));
 
         // Optimize and allocate registers
+        measurement = startMeasurement("optimization");
         optimize(classSet);
+        endMeasurement(measurement);
         if (wasCancelled()) {
             return null;
         }
@@ -590,6 +752,26 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         return cutClasses;
     }
 
+    // Counters are linked and inserted only when both conditions hold, otherwise
+    // instrumented code would call methods that were never linked
+    private boolean isProfileInstrumentationApplied() {
+        return profileInstrumented && optimizationLevel != TeaVMOptimizationLevel.SIMPLE;
+    }
+
+    private TeaVMMetrics.Measurement startMeasurement(String phase) {
+        return metrics != null ? metrics.start(phase) : null;
+    }
+
+    private TeaVMMetrics.Measurement startMeasurement(String phase, MethodReference method) {
+        return metrics != null ? metrics.start(phase, method) : null;
+    }
+
+    private static void endMeasurement(TeaVMMetrics.Measurement measurement) {
+        if (measurement != null) {
+            measurement.end();
+        }
+    }
+
     private void reportPhase(TeaVMPhase phase, int progressLimit) {
         if (progressListener.phaseStarted(phase, progressLimit) == TeaVMProgressFeedback.CANCEL) {
             cancelled = true;
@@ -619,6 +801,9 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
 
         Devirtualization devirtualization = new Devirtualization(dependencyAnalyzer,
                 dependencyAnalyzer.getClassHierarchy());
+        if (optimizationLevel.ordinal() >= TeaVMOptimizationLevel.ADVANCED.ordinal()) {
+            devirtualization.setMaxGuardedImplementations(maxGuardedImplementations);
+        }
         for (String className : classes.getClassNames()) {
             ClassHolder cls = classes.get(className);
             for (MethodHolder method : cls.getMethods()) {
@@ -637,22 +822,57 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
             System.out.println("Devirtualization complete");
             System.out.println("Virtual calls: " + devirtualization.getVirtualCallSites());
             System.out.println("Direct calls: " + devirtualization.getDirectCallSites());
+            System.out.println("Guarded calls: " + devirtualization.getGuardedCallSites());
+        }
+    }
+
+    private void evaluateStaticInitializers(ListableClassHolderSource classes) {
+        // Removing initializer of a class affects all methods that initialize it, which program cache
+        // is unable to track
+        if (programCache != EmptyProgramCache.INSTANCE) {
+            return;
+        }
+
+        new StaticInitializerEvaluation(classes).apply();
+    }
+
+    private DependencyInfo specializeMethods(ListableClassHolderSource classes) {
+        // Results depend on callers of each method, which program cache is unable to track
+        if (optimizationLevel.ordinal() < TeaVMOptimizationLevel.ADVANCED.ordinal()
+                || programCache != EmptyProgramCache.INSTANCE || wasCancelled()) {
+            return dependencyAnalyzer;
         }
+
+        MethodSpecialization specialization = new MethodSpecialization(classes, dependencyAnalyzer,
+                dependencyAnalyzer.getClassHierarchy());
+        specialization.apply();
+
+        if (System.getProperty("org.teavm.logDevirtualization", "false").equals("true")) {
+            System.out.println("Specialized call sites: " + specialization.getSpecializedCallSites());
+            System.out.println("Specialized methods: " + specialization.getSpecializedMethods());
+        }
+        return specialization.getDependencyInfo();
     }
 
-    private void inline(ListableClassHolderSource classes) {
+    private void inline(ListableClassHolderSource classes, DependencyInfo dependencyInfo) {
         if (optimizationLevel == TeaVMOptimizationLevel.SIMPLE) {
             return;
         }
 
         InliningStrategy inliningStrategy;
-        if (optimizationLevel == TeaVMOptimizationLevel.FULL) {
+        if (executionProfile != null) {
+            if (optimizationLevel == TeaVMOptimizationLevel.FULL) {
+                inliningStrategy = new ProfileGuidedInliningStrategy(executionProfile, 20, 7, 300, false);
+            } else {
+                inliningStrategy = new ProfileGuidedInliningStrategy(executionProfile, 100, 7, 300, true);
+            }
+        } else if (optimizationLevel == TeaVMOptimizationLevel.FULL) {
             inliningStrategy = new DefaultInliningStrategy(20, 7, 300, false);
         } else {
             inliningStrategy = new DefaultInliningStrategy(100, 7, 300, true);
         }
 
-        Inlining inlining = new Inlining(new ClassHierarchy(classes), dependencyAnalyzer, inliningStrategy,
+        Inlining inlining = new Inlining(new ClassHierarchy(classes), dependencyInfo, inliningStrategy,
                 classes, this::isExternal, optimizationLevel == TeaVMOptimizationLevel.FULL,
                 target.getInliningFilter());
         List<MethodReference> methodReferences = inlining.getOrder();
@@ -692,7 +912,41 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         }
     }
 
+    private void optimizeFields(ListableClassHolderSource classes) {
+        // Results depend on all methods of the program, which program cache is unable to track
+        if (optimizationLevel == TeaVMOptimizationLevel.SIMPLE || programCache != EmptyProgramCache.INSTANCE) {
+            return;
+        }
+
+        new GlobalFieldOptimization(classes, dependencyAnalyzer, dependencyAnalyzer.getClassHierarchy()).apply();
+    }
+
+    private void inlineObjects(ListableClassHolderSource classes) {
+        // Results depend on all methods of the program, which program cache is unable to track
+        if (optimizationLevel == TeaVMOptimizationLevel.SIMPLE || programCache != EmptyProgramCache.INSTANCE) {
+            return;
+        }
+
+        new ObjectInlining(classes, dependencyAnalyzer, dependencyAnalyzer.getClassHierarchy()).apply();
+    }
+
+    private void propagateConstants(ListableClassHolderSource classes) {
+        // Results depend on callers of each method, which program cache is unable to track
+        if (optimizationLevel != TeaVMOptimizationLevel.FULL || programCache != EmptyProgramCache.INSTANCE) {
+            return;
+        }
+
+        InterproceduralConstantPropagation propagation = new InterproceduralConstantPropagation(classes,
+                this::isExternal, target.getInliningFilter());
+        propagation.apply();
+    }
+
     private void optimize(ListableClassHolderSource classSource) {
+        int threads = getEffectiveParallelism();
+        if (threads > 1) {
+            optimizeInParallel(classSource, threads);
+            return;
+        }
         for (String className : classSource.getClassNames()) {
             ClassHolder cls = classSource.get(className);
             for (MethodHolder method : cls.getMethods()) {
@@ -710,29 +964,122 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
             return;
         }
 
-        Program optimizedProgram = !cacheStatus.isStaleMethod(method.getReference())
-                ? programCache.get(method.getReference(), cacheStatus)
-                : null;
+        Program optimizedProgram = getCachedProgram(method);
         if (optimizedProgram == null) {
             optimizedProgram = optimizeMethodCacheMiss(method, ProgramUtils.copy(method.getProgram()));
-            Program finalProgram = optimizedProgram;
-            programCache.store(method.getReference(), finalProgram,
-                    () -> programDependencyExtractor.extractDependencies(finalProgram));
+            storeCachedProgram(method, optimizedProgram);
         }
         method.setProgram(optimizedProgram);
     }
 
+    /*
+     * Only optimization passes themselves run in worker threads. Cache is queried and updated
+     * from the calling thread, and results are applied in class order, so that output
+     * does not depend on scheduling.
+     */
+    private void optimizeInParallel(ListableClassHolderSource classSource, int threads) {
+        ClassReaderSource sharedClassSource = new SynchronizedClassReaderSource(dependencyAnalyzer.getClassSource());
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "TeaVM optimizer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<List<Future<Program>>> futuresByClass = new ArrayList<>();
+            List<ClassHolder> classes = new ArrayList<>();
+            for (String className : classSource.getClassNames()) {
+                ClassHolder cls = classSource.get(className);
+                List<Future<Program>> futures = new ArrayList<>();
+                for (MethodHolder method : cls.getMethods()) {
+                    if (method.getProgram() == null) {
+                        futures.add(null);
+                        continue;
+                    }
+                    Program cachedProgram = getCachedProgram(method);
+                    if (cachedProgram != null) {
+                        method.setProgram(cachedProgram);
+                        futures.add(null);
+                    } else {
+                        Program program = ProgramUtils.copy(method.getProgram());
+                        futures.add(executor.submit(() -> optimizeMethodCacheMiss(method, program,
+                                sharedClassSource)));
+                    }
+                }
+                classes.add(cls);
+                futuresByClass.add(futures);
+            }
+
+            for (int i = 0; i < classes.size(); ++i) {
+                List<Future<Program>> futures = futuresByClass.get(i);
+                int index = 0;
+                for (MethodHolder method : classes.get(i).getMethods()) {
+                    Future<Program> future = futures.get(index++);
+                    if (future == null) {
+                        continue;
+                    }
+                    Program optimizedProgram = waitForOptimization(future);
+                    storeCachedProgram(method, optimizedProgram);
+                    method.setProgram(optimizedProgram);
+                }
+                reportCompileProgress(++compileProgressValue);
+                if (wasCancelled()) {
+                    break;
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Program waitForOptimization(Future<Program> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Optimization was interrupted", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    private Program getCachedProgram(MethodHolder method) {
+        return !cacheStatus.isStaleMethod(method.getReference())
+                ? programCache.get(method.getReference(), cacheStatus)
+                : null;
+    }
+
+    private void storeCachedProgram(MethodHolder method, Program program) {
+        programCache.store(method.getReference(), program,
+                () -> programDependencyExtractor.extractDependencies(program));
+    }
+
     private Program optimizeMethodCacheMiss(MethodHolder method, Program optimizedProgram) {
-        target.beforeOptimizations(optimizedProgram, method);
+        return optimizeMethodCacheMiss(method, optimizedProgram, dependencyAnalyzer.getClassSource());
+    }
+
+    private Program optimizeMethodCacheMiss(MethodHolder method, Program optimizedProgram,
+            ClassReaderSource classSource) {
+        synchronized (targetLock) {
+            target.beforeOptimizations(optimizedProgram, method);
+        }
 
         if (optimizedProgram.basicBlockCount() > 0) {
-            MethodOptimizationContextImpl context = new MethodOptimizationContextImpl(method);
+            MethodOptimizationContextImpl context = new MethodOptimizationContextImpl(method, classSource);
             boolean changed;
             do {
                 changed = false;
                 for (MethodOptimization optimization : getOptimizations()) {
+                    TeaVMMetrics.Measurement measurement = startMeasurement("optimization: "
+                            + optimization.getClass().getSimpleName(), method.getReference());
                     try {
                         changed |= optimization.optimize(context, optimizedProgram);
+                        endMeasurement(measurement);
                     } catch (Exception | AssertionError e) {
                         ListingBuilder listingBuilder = new ListingBuilder();
                         try {
@@ -748,11 +1095,16 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                 }
             } while (changed);
 
-            target.afterOptimizations(optimizedProgram, method);
+            synchronized (targetLock) {
+                target.afterOptimizations(optimizedProgram, method);
+            }
             if (target.requiresRegisterAllocation()) {
+                TeaVMMetrics.Measurement measurement = startMeasurement("register allocation",
+                        method.getReference());
                 RegisterAllocator allocator = new RegisterAllocator();
                 allocator.allocateRegisters(method.getReference(), optimizedProgram,
                         optimizationLevel == TeaVMOptimizationLevel.SIMPLE);
+                endMeasurement(measurement);
             }
         }
 
@@ -761,9 +1113,15 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
 
     class MethodOptimizationContextImpl implements MethodOptimizationContext {
         private MethodReader method;
+        private ClassReaderSource classSource;
 
         MethodOptimizationContextImpl(MethodReader method) {
+            this(method, dependencyAnalyzer.getClassSource());
+        }
+
+        MethodOptimizationContextImpl(MethodReader method, ClassReaderSource classSource) {
             this.method = method;
+            this.classSource = classSource;
         }
 
         @Override
@@ -778,7 +1136,7 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
 
         @Override
         public ClassReaderSource getClassSource() {
-            return dependencyAnalyzer.getClassSource();
+            return classSource;
         }
     }
 
@@ -788,7 +1146,10 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         optimizations.add(new ArrayUnwrapMotion());
         if (optimizationLevel.ordinal() >= TeaVMOptimizationLevel.ADVANCED.ordinal()) {
             optimizations.add(new ScalarReplacement());
-            //optimizations.add(new LoopInversion());
+            optimizations.add(new PartialScalarReplacement());
+            optimizations.add(new TailCallElimination());
+            optimizations.add(new LoopUnrolling());
+            optimizations.add(new LoopInversion());
             optimizations.add(new LoopInvariantMotion());
         }
         if (optimizationLevel.ordinal() >= TeaVMOptimizationLevel.ADVANCED.ordinal()) {
@@ -797,6 +1158,7 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         optimizations.add(new GlobalValueNumbering(optimizationLevel == TeaVMOptimizationLevel.SIMPLE));
         optimizations.add(new RedundantNullCheckElimination());
         if (optimizationLevel.ordinal() >= TeaVMOptimizationLevel.ADVANCED.ordinal()) {
+            optimizations.add(new SparseConditionalConstantPropagation());
             optimizations.add(new ConstantConditionElimination());
             optimizations.add(new RedundantJumpElimination());
             optimizations.add(new UnusedVariableElimination());
@@ -948,6 +1310,16 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         public TeaVMOptimizationLevel getOptimizationLevel() {
             return optimizationLevel;
         }
+
+        @Override
+        public int getParallelism() {
+            return getEffectiveParallelism();
+        }
+
+        @Override
+        public TeaVMMetrics getMetrics() {
+            return metrics;
+        }
     };
 
     class PostProcessingClassHolderSource implements ListableClassHolderSource {
@@ -979,9 +1351,7 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                 }
 
                 Function<MethodHolder, Program> programSupplier = method -> {
-                    Program program = !cacheStatus.isStaleMethod(method.getReference())
-                            ? programCache.get(method.getReference(), cacheStatus)
-                            : null;
+                    Program program = getCachedProgram(method);
                     if (program == null) {
                         program = ProgramUtils.copy(classReader.getMethod(method.getDescriptor()).getProgram());
                         missingItemsProcessor.processMethod(method.getReference(), program);
@@ -989,9 +1359,7 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
                         clinitInsertion.apply(method, program);
                         target.beforeInlining(program, method);
                         program = optimizeMethodCacheMiss(method, program);
-                        Program finalProgram = program;
-                        programCache.store(method.getReference(), finalProgram,
-                                () -> programDependencyExtractor.extractDependencies(finalProgram));
+                        storeCachedProgram(method, program);
                     }
                     return program;
                 };
@@ -1023,6 +1391,19 @@ public class TeaVM implements TeaVMHost, ServiceRepository {
         }
     }
 
+    static class SynchronizedClassReaderSource implements ClassReaderSource {
+        private final ClassReaderSource classSource;
+
+        SynchronizedClassReaderSource(ClassReaderSource classSource) {
+            this.classSource = classSource;
+        }
+
+        @Override
+        public synchronized ClassReader get(String name) {
+            return classSource.get(name);
+        }
+    }
+
     static class ListableClassReaderSourceAdapter implements ListableClassReaderSource {
         private ClassReaderSource classSource;
         private Set<String> classes;
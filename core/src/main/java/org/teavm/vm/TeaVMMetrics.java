@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.teavm.model.MethodReference;
+
+/**
+ * <p>Collects wall time, CPU time and allocated bytes of compiler phases. Phases are identified by name
+ * and may nest, for example, parsing usually happens during dependency analysis. Every measurement
+ * reports CPU time and allocations of the thread that took it, so work of a phase that runs in worker
+ * threads is only accounted if the phase is measured in these threads.</p>
+ *
+ * <p>For measurements bound to a method, the slowest methods are tracked per phase.
+ * CPU time and allocated bytes are reported as -1 if JVM does not support them.</p>
+ */
+public class TeaVMMetrics {
+    public static final int DEFAULT_SLOWEST_METHOD_COUNT = 10;
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME_SUPPORTED;
+    private static final boolean ALLOCATION_SUPPORTED;
+    private final Map<String, Phase> phases = new LinkedHashMap<>();
+    private int slowestMethodCount = DEFAULT_SLOWEST_METHOD_COUNT;
+
+    static {
+        boolean cpuTimeSupported;
+        try {
+            cpuTimeSupported = THREAD_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_BEAN.isThreadCpuTimeEnabled();
+        } catch (UnsupportedOperationException e) {
+            cpuTimeSupported = false;
+        }
+        CPU_TIME_SUPPORTED = cpuTimeSupported;
+
+        boolean allocationSupported;
+        try {
+            allocationSupported = THREAD_BEAN instanceof com.sun.management.ThreadMXBean
+                    && ((com.sun.management.ThreadMXBean) THREAD_BEAN).isThreadAllocatedMemorySupported()
+                    && ((com.sun.management.ThreadMXBean) THREAD_BEAN).isThreadAllocatedMemoryEnabled();
+        } catch (LinkageError | UnsupportedOperationException e) {
+            allocationSupported = false;
+        }
+        ALLOCATION_SUPPORTED = allocationSupported;
+    }
+
+    public int getSlowestMethodCount() {
+        return slowestMethodCount;
+    }
+
+    public void setSlowestMethodCount(int slowestMethodCount) {
+        this.slowestMethodCount = slowestMethodCount;
+    }
+
+    public Measurement start(String phase) {
+        return new Measurement(phase, null);
+    }
+
+    public Measurement start(String phase, MethodReference method) {
+        return new Measurement(phase, method);
+    }
+
+    public synchronized List<PhaseMetrics> getPhases() {
+        List<PhaseMetrics> result = new ArrayList<>();
+        for (Phase phase : phases.values()) {
+            result.add(phase.toMetrics(slowestMethodCount));
+        }
+        return result;
+    }
+
+    public synchronized PhaseMetrics getPhase(String name) {
+        Phase phase = phases.get(name);
+        return phase != null ? phase.toMetrics(slowestMethodCount) : null;
+    }
+
+    public synchronized void clear() {
+        phases.clear();
+    }
+
+    public void writeJson(Writer writer) throws IOException {
+        writer.append("{\n  \"phases\": [");
+        boolean first = true;
+        for (PhaseMetrics phase : getPhases()) {
+            writer.append(first ? "\n" : ",\n");
+            first = false;
+            writer.append("    {\"name\": ");
+            writeJsonString(writer, phase.getName());
+            writer.append(", \"count\": ").append(String.valueOf(phase.getCount()));
+            writer.append(", \"wallTimeNanos\": ").append(String.valueOf(phase.getWallTime()));
+            writer.append(", \"cpuTimeNanos\": ").append(String.valueOf(phase.getCpuTime()));
+            writer.append(", \"allocatedBytes\": ").append(String.valueOf(phase.getAllocatedBytes()));
+            writer.append(", \"slowestMethods\": [");
+            boolean firstMethod = true;
+            for (MethodMetrics method : phase.getSlowestMethods()) {
+                writer.append(firstMethod ? "\n" : ",\n");
+                firstMethod = false;
+                writer.append("      {\"method\": ");
+                writeJsonString(writer, method.getMethod().toString());
+                writer.append(", \"wallTimeNanos\": ").append(String.valueOf(method.getWallTime())).append("}");
+            }
+            writer.append(firstMethod ? "]}" : "\n    ]}");
+        }
+        writer.append(first ? "]\n}\n" : "\n  ]\n}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        writer.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.append("\\\"");
+                    break;
+                case '\\':
+                    writer.append("\\\\");
+                    break;
+                default:
+                    if (c < ' ') {
+                        writer.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.append(c);
+                    }
+                    break;
+            }
+        }
+        writer.append('"');
+    }
+
+    synchronized void record(String name, MethodReference method, long wallTime, long cpuTime,
+            long allocatedBytes) {
+        Phase phase = phases.computeIfAbsent(name, Phase::new);
+        phase.count++;
+        phase.wallTime += wallTime;
+        if (phase.cpuTime >= 0) {
+            phase.cpuTime = cpuTime >= 0 ? phase.cpuTime + cpuTime : -1;
+        }
+        if (phase.allocatedBytes >= 0) {
+            phase.allocatedBytes = allocatedBytes >= 0 ? phase.allocatedBytes + allocatedBytes : -1;
+        }
+        if (method != null) {
+            phase.methodTimes.merge(method, wallTime, Long::sum);
+        }
+    }
+
+    private static long currentThreadCpuTime() {
+        return CPU_TIME_SUPPORTED ? THREAD_BEAN.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long currentThreadAllocatedBytes() {
+        return ALLOCATION_SUPPORTED
+                ? ((com.sun.management.ThreadMXBean) THREAD_BEAN).getThreadAllocatedBytes(
+                        Thread.currentThread().getId())
+                : -1;
+    }
+
+    /**
+     * A running measurement. Must be ended in the same thread it was started.
+     */
+    public final class Measurement {
+        private final String phase;
+        private final MethodReference method;
+        private final long startWallTime;
+        private final long startCpuTime;
+        private final long startAllocatedBytes;
+
+        Measurement(String phase, MethodReference method) {
+            this.phase = phase;
+            this.method = method;
+            startAllocatedBytes = currentThreadAllocatedBytes();
+            startCpuTime = currentThreadCpuTime();
+            startWallTime = System.nanoTime();
+        }
+
+        public void end() {
+            long wallTime = System.nanoTime() - startWallTime;
+            long cpuTime = startCpuTime >= 0 ? currentThreadCpuTime() - startCpuTime : -1;
+            long allocatedBytes = startAllocatedBytes >= 0 ? currentThreadAllocatedBytes() - startAllocatedBytes : -1;
+            record(phase, method, wallTime, cpuTime, allocatedBytes);
+        }
+    }
+
+    static class Phase {
+        final String name;
+        int count;
+        long wallTime;
+        long cpuTime;
+        long allocatedBytes;
+        Map<MethodReference, Long> methodTimes = new HashMap<>();
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        PhaseMetrics toMetrics(int slowestMethodCount) {
+            List<MethodMetrics> slowestMethods = new ArrayList<>();
+            for (Map.Entry<MethodReference, Long> entry : methodTimes.entrySet()) {
+                slowestMethods.add(new MethodMetrics(entry.getKey(), entry.getValue()));
+            }
+            slowestMethods.sort(Comparator.comparingLong(MethodMetrics::getWallTime).reversed()
+                    .thenComparing(m -> m.getMethod().toString()));
+            if (slowestMethods.size() > slowestMethodCount) {
+                slowestMethods = new ArrayList<>(slowestMethods.subList(0, slowestMethodCount));
+            }
+            return new PhaseMetrics(name, count, wallTime, cpuTime, allocatedBytes,
+                    Collections.unmodifiableList(slowestMethods));
+        }
+    }
+
+    public static class PhaseMetrics {
+        private final String name;
+        private final int count;
+        private final long wallTime;
+        private final long cpuTime;
+        private final long allocatedBytes;
+        private final List<MethodMetrics> slowestMethods;
+
+        PhaseMetrics(String name, int count, long wallTime, long cpuTime, long allocatedBytes,
+                List<MethodMetrics> slowestMethods) {
+            this.name = name;
+            this.count = count;
+            this.wallTime = wallTime;
+            this.cpuTime = cpuTime;
+            this.allocatedBytes = allocatedBytes;
+            this.slowestMethods = slowestMethods;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * Number of measurements taken for this phase.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * Total wall time of all measurements, in nanoseconds.
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Total CPU time of all measurements, in nanoseconds, or -1 if not available.
+         */
+        public long getCpuTime() {
+            return cpuTime;
+        }
+
+        /**
+         * Total number of bytes allocated during measurements, or -1 if not available.
+         */
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public List<MethodMetrics> getSlowestMethods() {
+            return slowestMethods;
+        }
+    }
+
+    public static class MethodMetrics {
+        private final MethodReference method;
+        private final long wallTime;
+
+        MethodMetrics(MethodReference method, long wallTime) {
+            this.method = method;
+            this.wallTime = wallTime;
+        }
+
+        public MethodReference getMethod() {
+            return method;
+        }
+
+        /**
+         * Total wall time spent on the method in the phase, in nanoseconds.
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+    }
+}
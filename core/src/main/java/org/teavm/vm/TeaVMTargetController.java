@@ -59,4 +59,11 @@ public interface TeaVMTargetController {
     void addVirtualMethods(Predicate<MethodReference> methods);
 
     ClassInitializerInfo getClassInitializerInfo();
+
+    int getParallelism();
+
+    /**
+     * Returns metrics that target should report its phases to, or {@code null} if metrics are not collected.
+     */
+    TeaVMMetrics getMetrics();
 }
@@ -0,0 +1,45 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+"use strict";
+
+var $rt_chunkBase = typeof document !== 'undefined' && document.currentScript
+        ? document.currentScript.src.substring(0, document.currentScript.src.lastIndexOf('/') + 1)
+        : "";
+var $rt_loadedChunks = [];
+function $rt_loadChunk(index) {
+    if ($rt_loadedChunks[index]) {
+        return;
+    }
+    $rt_loadedChunks[index] = true;
+    $rt_evalChunk($rt_fetchChunk($rt_chunkBase + $rt_chunkNames[index]));
+}
+function $rt_fetchChunk(url) {
+    if (typeof XMLHttpRequest !== 'undefined') {
+        var xhr = new XMLHttpRequest();
+        xhr.open("GET", url, false);
+        xhr.send();
+        if (xhr.status !== 200 && xhr.status !== 0) {
+            throw new Error("Could not load " + url + ": " + xhr.status);
+        }
+        return xhr.responseText;
+    }
+    var fs = typeof require === 'function' ? require("fs") : process.getBuiltinModule("fs");
+    return fs.readFileSync(url, "utf8");
+}
+function $rt_evalChunk() {
+    // Direct eval makes chunk see functions of main script, so no local variables here to not shadow them
+    eval(arguments[0]);
+}
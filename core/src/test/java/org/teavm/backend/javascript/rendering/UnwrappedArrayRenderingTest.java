@@ -0,0 +1,107 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript.rendering;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.util.Properties;
+import org.junit.Test;
+import org.teavm.ast.ArrayFromDataExpr;
+import org.teavm.ast.ArrayType;
+import org.teavm.ast.Expr;
+import org.teavm.ast.UnwrapArrayExpr;
+import org.teavm.backend.javascript.codegen.DefaultAliasProvider;
+import org.teavm.backend.javascript.codegen.DefaultNamingStrategy;
+import org.teavm.backend.javascript.codegen.SourceWriterBuilder;
+import org.teavm.debugging.information.DummyDebugInformationEmitter;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.ValueType;
+
+public class UnwrappedArrayRenderingTest {
+    @Test
+    public void newArray() {
+        assertThat(render(unwrap(ArrayType.BYTE, newArray(ValueType.BOOLEAN))), is("new Int8Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.BYTE, newArray(ValueType.BYTE))), is("new Int8Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.SHORT, newArray(ValueType.SHORT))), is("new Int16Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.CHAR, newArray(ValueType.CHARACTER))), is("new Uint16Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.INT, newArray(ValueType.INTEGER))), is("new Int32Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.FLOAT, newArray(ValueType.FLOAT))), is("new Float32Array(var$0)"));
+        assertThat(render(unwrap(ArrayType.DOUBLE, newArray(ValueType.DOUBLE))), is("new Float64Array(var$0)"));
+    }
+
+    @Test
+    public void arrayFromData() {
+        assertThat(render(unwrap(ArrayType.BYTE, arrayFromData(ValueType.BOOLEAN, 1, 0))),
+                is("new Int8Array([1, 0])"));
+        assertThat(render(unwrap(ArrayType.BYTE, arrayFromData(ValueType.BYTE, 1, -2))),
+                is("new Int8Array([1, (-2)])"));
+        assertThat(render(unwrap(ArrayType.SHORT, arrayFromData(ValueType.SHORT, 1, 2))),
+                is("new Int16Array([1, 2])"));
+        assertThat(render(unwrap(ArrayType.CHAR, arrayFromData(ValueType.CHARACTER, 65, 66))),
+                is("new Uint16Array([65, 66])"));
+        assertThat(render(unwrap(ArrayType.INT, arrayFromData(ValueType.INTEGER, 1, 2, 3))),
+                is("new Int32Array([1, 2, 3])"));
+        assertThat(render(unwrap(ArrayType.FLOAT, arrayFromData(ValueType.FLOAT, 0.5f))),
+                is("new Float32Array([0.5])"));
+        assertThat(render(unwrap(ArrayType.DOUBLE, arrayFromData(ValueType.DOUBLE, 0.25))),
+                is("new Float64Array([0.25])"));
+    }
+
+    @Test
+    public void longArrayKeepsRuntimeFunction() {
+        assertThat(render(unwrap(ArrayType.LONG, newArray(ValueType.LONG))), is("$rt_createLongArray(var$0).data"));
+        assertThat(render(unwrap(ArrayType.LONG, arrayFromData(ValueType.LONG, 1L))),
+                is("$rt_createLongArrayFromData([Long_fromInt(1)]).data"));
+    }
+
+    @Test
+    public void arrayNotUnwrappedKeepsWrapper() {
+        assertThat(render(newArray(ValueType.INTEGER)), is("$rt_createIntArray(var$0)"));
+        assertThat(render(arrayFromData(ValueType.INTEGER, 1)), is("$rt_createIntArrayFromData([1])"));
+    }
+
+    private static Expr newArray(ValueType type) {
+        return Expr.createArray(type, Expr.var(0));
+    }
+
+    private static Expr arrayFromData(ValueType type, Object... data) {
+        ArrayFromDataExpr expr = new ArrayFromDataExpr();
+        expr.setType(type);
+        for (Object item : data) {
+            expr.getData().add(Expr.constant(item));
+        }
+        return expr;
+    }
+
+    private static Expr unwrap(ArrayType elementType, Expr array) {
+        UnwrapArrayExpr expr = new UnwrapArrayExpr(elementType);
+        expr.setArray(array);
+        return expr;
+    }
+
+    private String render(Expr expr) {
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+        DefaultNamingStrategy naming = new DefaultNamingStrategy(new DefaultAliasProvider(10000), classSource);
+        StringBuilder sb = new StringBuilder();
+        RenderingContext context = new RenderingContext(new DummyDebugInformationEmitter(), classSource,
+                classSource, UnwrappedArrayRenderingTest.class.getClassLoader(), null, new Properties(), naming,
+                null, m -> false, null, false);
+        StatementRenderer renderer = new StatementRenderer(context, new SourceWriterBuilder(naming).build(sb));
+        renderer.setCurrentMethod(null);
+        expr.acceptVisitor(renderer);
+        return sb.toString();
+    }
+}
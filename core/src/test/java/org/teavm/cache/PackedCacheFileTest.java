@@ -0,0 +1,135 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PackedCacheFileTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void readsFlushedEntries() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "cache.teavm-pack");
+        PackedCacheFile cache = new PackedCacheFile(file);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.flush();
+
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("first"), cache.get("a"));
+        assertArrayEquals(bytes("second"), cache.get("b"));
+        assertNull(cache.get("c"));
+    }
+
+    @Test
+    public void appendsNewEntries() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "cache.teavm-pack");
+        PackedCacheFile cache = new PackedCacheFile(file);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.flush();
+        long length = file.length();
+
+        cache = new PackedCacheFile(file);
+        cache.put("c", bytes("third"));
+        cache.flush();
+        assertTrue(file.length() > length);
+
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("first"), cache.get("a"));
+        assertArrayEquals(bytes("third"), cache.get("c"));
+    }
+
+    @Test
+    public void compactsReplacedEntries() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "cache.teavm-pack");
+        PackedCacheFile cache = new PackedCacheFile(file);
+        cache.put("a", bytes("first"));
+        cache.flush();
+        long length = file.length();
+
+        for (int i = 0; i < 10; ++i) {
+            cache.put("a", bytes("value"));
+            cache.flush();
+        }
+
+        assertEquals(length, file.length());
+        assertArrayEquals(bytes("value"), new PackedCacheFile(file).get("a"));
+    }
+
+    @Test
+    public void rewritesAfterOpen() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "cache.teavm-pack");
+        PackedCacheFile cache = new PackedCacheFile(file);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.flush();
+
+        PackedCacheFile reader = new PackedCacheFile(file);
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("first"), cache.get("a"));
+        cache.put("a", bytes("replaced"));
+        cache.put("b", bytes("replaced"));
+        cache.flush();
+        cache.put("c", bytes("third"));
+        cache.flush();
+
+        assertArrayEquals(bytes("first"), reader.get("a"));
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("replaced"), cache.get("a"));
+        assertArrayEquals(bytes("replaced"), cache.get("b"));
+        assertArrayEquals(bytes("third"), cache.get("c"));
+        assertTrue(file.delete());
+    }
+
+    @Test
+    public void ignoresTruncatedEntry() throws IOException {
+        File file = new File(temporaryFolder.getRoot(), "cache.teavm-pack");
+        PackedCacheFile cache = new PackedCacheFile(file);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.flush();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("first"), cache.get("a"));
+        assertNull(cache.get("b"));
+
+        cache.put("c", bytes("third"));
+        cache.flush();
+        cache = new PackedCacheFile(file);
+        assertArrayEquals(bytes("first"), cache.get("a"));
+        assertArrayEquals(bytes("third"), cache.get("c"));
+        assertNull(cache.get("b"));
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
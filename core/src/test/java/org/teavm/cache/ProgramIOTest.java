@@ -17,15 +17,25 @@ package org.teavm.cache;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertThat;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.Collections;
 import org.junit.Test;
+import org.teavm.ast.decompilation.Decompiler;
 import org.teavm.model.BasicBlock;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
 import org.teavm.model.Instruction;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MutableClassHolderSource;
 import org.teavm.model.Program;
 import org.teavm.model.ReferenceCache;
+import org.teavm.model.TextLocation;
 import org.teavm.model.ValueType;
 import org.teavm.model.instructions.*;
 
@@ -155,6 +165,88 @@ public class ProgramIOTest {
         assertThat(block.instructionCount(), is(4));
     }
 
+    @Test
+    public void locations() {
+        Program program = new Program();
+        BasicBlock block = program.createBasicBlock();
+        TextLocation location = new TextLocation("Test.java", 5);
+        block.add(new EmptyInstruction());
+        addEmptyInstruction(block, TextLocation.EMPTY);
+        addEmptyInstruction(block, null);
+        addEmptyInstruction(block, location);
+        addEmptyInstruction(block, null);
+        addEmptyInstruction(block, location);
+
+        program = inputOutput(program);
+        block = program.basicBlockAt(0);
+
+        assertThat(block.instructionCount(), is(6));
+        Instruction insn = block.getFirstInstruction();
+        assertThat(insn.getLocation(), nullValue());
+        insn = insn.getNext();
+        assertThat(insn.getLocation(), is(TextLocation.EMPTY));
+        insn = insn.getNext();
+        assertThat(insn.getLocation(), nullValue());
+        insn = insn.getNext();
+        assertThat(insn.getLocation(), is(location));
+        insn = insn.getNext();
+        assertThat(insn.getLocation(), nullValue());
+        insn = insn.getNext();
+        assertThat(insn.getLocation(), is(location));
+    }
+
+    @Test
+    public void decompiledSameAsBeforeCaching() throws IOException {
+        Program program = createProgramWithoutLocations();
+        byte[] cold = decompile(program);
+        byte[] warm = decompile(inputOutput(program));
+        assertArrayEquals(cold, warm);
+    }
+
+    private Program createProgramWithoutLocations() {
+        Program program = new Program();
+        program.createVariable();
+        BasicBlock block = program.createBasicBlock();
+        IntegerConstantInstruction constInsn = new IntegerConstantInstruction();
+        constInsn.setConstant(2);
+        constInsn.setReceiver(program.createVariable());
+        constInsn.setLocation(new TextLocation("Test.java", 5));
+        block.add(constInsn);
+        NegateInstruction negateInsn = new NegateInstruction(NumericOperandType.INT);
+        negateInsn.setOperand(constInsn.getReceiver());
+        negateInsn.setReceiver(program.createVariable());
+        block.add(negateInsn);
+        ExitInstruction exitInsn = new ExitInstruction();
+        exitInsn.setValueToReturn(negateInsn.getReceiver());
+        block.add(exitInsn);
+        for (int i = 0; i < program.variableCount(); ++i) {
+            program.variableAt(i).setRegister(i);
+        }
+        return program;
+    }
+
+    private byte[] decompile(Program program) throws IOException {
+        MethodHolder method = new MethodHolder(MethodDescriptor.parse("foo()I"));
+        method.getModifiers().add(ElementModifier.STATIC);
+        method.setProgram(program);
+        ClassHolder cls = new ClassHolder("Test");
+        cls.addMethod(method);
+        MutableClassHolderSource classSource = new MutableClassHolderSource();
+        classSource.putClassHolder(cls);
+        Decompiler decompiler = new Decompiler(classSource, Collections.emptySet(), true);
+        AstIO astIO = new AstIO(new ReferenceCache(), new InMemorySymbolTable(), new InMemorySymbolTable(),
+                new InMemorySymbolTable());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        astIO.write(new VarDataOutput(output), decompiler.decompileRegular(method));
+        return output.toByteArray();
+    }
+
+    private void addEmptyInstruction(BasicBlock block, TextLocation location) {
+        EmptyInstruction insn = new EmptyInstruction();
+        insn.setLocation(location);
+        block.add(insn);
+    }
+
     private Program inputOutput(Program program) {
         InMemorySymbolTable symbolTable = new InMemorySymbolTable();
         InMemorySymbolTable fileTable = new InMemorySymbolTable();
@@ -0,0 +1,163 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.teavm.model.AnnotationHolder;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.ListingParseUtils;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.text.ListingBuilder;
+
+/**
+ * Set of classes for testing whole-program optimizations. Programs of methods are read from
+ * <code>&lt;prefix&gt;&lt;class&gt;.&lt;method&gt;.original.txt</code> and, after optimization, are compared
+ * with <code>&lt;prefix&gt;&lt;class&gt;.&lt;method&gt;.expected.txt</code>, or with original listing when there's
+ * no expected one. Angle brackets are dropped from names of constructors and static initializers. Overloaded
+ * methods should be given distinct listing names instead of method names.
+ */
+class ClassesFixture {
+    private String prefix;
+    private MutableClassHolderSource classSource = new MutableClassHolderSource();
+    private ClassHierarchy hierarchy = new ClassHierarchy(classSource);
+    private TestDependencyInfo dependencyInfo = new TestDependencyInfo(classSource, hierarchy);
+    private Map<MethodReference, String> listingNames = new HashMap<>();
+
+    ClassesFixture(String prefix) {
+        this.prefix = prefix;
+        addClass("java.lang.Object", null);
+        addMethod("java.lang.Object", "<init>()V");
+    }
+
+    MutableClassHolderSource getClassSource() {
+        return classSource;
+    }
+
+    ClassHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    TestDependencyInfo getDependencyInfo() {
+        return dependencyInfo;
+    }
+
+    ClassHolder addClass(String name, String parent, String... interfaces) {
+        ClassHolder cls = new ClassHolder(name);
+        cls.setParent(parent);
+        for (String itf : interfaces) {
+            cls.getInterfaces().add(itf);
+        }
+        classSource.putClassHolder(cls);
+        return cls;
+    }
+
+    ClassHolder addInterface(String name, String... interfaces) {
+        ClassHolder cls = addClass(name, null, interfaces);
+        cls.getModifiers().add(ElementModifier.INTERFACE);
+        cls.getModifiers().add(ElementModifier.ABSTRACT);
+        return cls;
+    }
+
+    FieldHolder addField(String className, String name, ValueType type, ElementModifier... modifiers) {
+        FieldHolder field = new FieldHolder(name);
+        field.setType(type);
+        for (ElementModifier modifier : modifiers) {
+            field.getModifiers().add(modifier);
+        }
+        classSource.get(className).addField(field);
+        return field;
+    }
+
+    /**
+     * Adds method and reads its program, if there's a listing for it. Methods added this way
+     * are known to {@link TestDependencyInfo}.
+     */
+    MethodHolder addMethod(String className, String descriptor, ElementModifier... modifiers) {
+        MethodDescriptor methodDescriptor = MethodDescriptor.parse(descriptor);
+        return addMethod(className, descriptor, methodDescriptor.getName(), modifiers);
+    }
+
+    MethodHolder addMethod(String className, String descriptor, String listingName, ElementModifier... modifiers) {
+        MethodHolder method = new MethodHolder(MethodDescriptor.parse(descriptor));
+        for (ElementModifier modifier : modifiers) {
+            method.getModifiers().add(modifier);
+        }
+        String path = getPath(className, listingName, "original");
+        if (ListingParseUtils.class.getClassLoader().getResource(path) != null) {
+            method.setProgram(ListingParseUtils.parseFromResource(path));
+        }
+        classSource.get(className).addMethod(method);
+        listingNames.put(method.getReference(), listingName);
+        dependencyInfo.addMethod(method.getReference());
+        return method;
+    }
+
+    MethodHolder addAnnotatedMethod(String className, String descriptor, Class<?> annotation,
+            ElementModifier... modifiers) {
+        MethodHolder method = addMethod(className, descriptor, modifiers);
+        method.getAnnotations().add(new AnnotationHolder(annotation.getName()));
+        return method;
+    }
+
+    Program getProgram(String className, String descriptor) {
+        return classSource.get(className).getMethod(MethodDescriptor.parse(descriptor)).getProgram();
+    }
+
+    List<MethodHolder> getMethods() {
+        List<MethodHolder> methods = new ArrayList<>();
+        for (String className : classSource.getClassNames()) {
+            methods.addAll(classSource.get(className).getMethods());
+        }
+        return methods;
+    }
+
+    void assertPrograms() {
+        ClassLoader classLoader = ListingParseUtils.class.getClassLoader();
+        for (MethodHolder method : getMethods()) {
+            if (method.getProgram() == null) {
+                continue;
+            }
+            String className = method.getOwnerName();
+            String listingName = listingNames.getOrDefault(method.getReference(), method.getName());
+            String path = getPath(className, listingName, "expected");
+            if (classLoader.getResource(path) == null) {
+                path = getPath(className, listingName, "original");
+                Assert.assertNotNull("Unexpected method " + method.getReference(), classLoader.getResource(path));
+            }
+            Program expected = ListingParseUtils.parseFromResource(path);
+
+            String expectedText = new ListingBuilder().buildListing(expected, "");
+            String actualText = new ListingBuilder().buildListing(method.getProgram(), "");
+            Assert.assertEquals("Wrong program of " + method.getReference(), expectedText, actualText);
+        }
+    }
+
+    private String getPath(String className, String listingName, String suffix) {
+        return prefix + className + "." + listingName.replace("<", "").replace(">", "") + "." + suffix + ".txt";
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.optimization.Devirtualization;
+
+public class DevirtualizationTest {
+    private static final String PREFIX = "model/optimization/devirtualization/";
+    private static final MethodReference RUN = MethodReference.parse("Test.run(LShape;)I");
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void subclassFirst() {
+        ClassesFixture fixture = createFixture();
+        fixture.addClass("Cube", "Square");
+        fixture.addMethod("Cube", "area()I");
+        MethodHolder method = fixture.addMethod("Test", "run(LShape;)I", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(RUN, "shape", "Square", "Cube");
+
+        Devirtualization devirtualization = devirtualize(fixture, method, 3);
+        assertEquals(1, devirtualization.getGuardedCallSites());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void successorPhis() {
+        ClassesFixture fixture = createFixture();
+        MethodHolder method = fixture.addMethod("Test", "run(LShape;)I", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(RUN, "shape", "Square", "Circle");
+
+        // Phi in successor must take value from the block where the rest of the original block has moved
+        Devirtualization devirtualization = devirtualize(fixture, method, 3);
+        assertEquals(1, devirtualization.getGuardedCallSites());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void twoCallsInBlock() {
+        ClassesFixture fixture = createFixture();
+        MethodHolder method = fixture.addMethod("Test", "run(LShape;LShape;)I", ElementModifier.STATIC);
+        MethodReference run = method.getReference();
+        fixture.getDependencyInfo().setTypes(run, "shape", "Square", "Circle");
+        fixture.getDependencyInfo().setTypes(run, "other", "Square", "Circle");
+
+        Devirtualization devirtualization = devirtualize(fixture, method, 3);
+        assertEquals(2, devirtualization.getGuardedCallSites());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void defaultMethod() {
+        ClassesFixture fixture = createFixture();
+        fixture.addInterface("Measurable");
+        fixture.addMethod("Measurable", "area()I");
+        fixture.addClass("Plain", "java.lang.Object", "Measurable");
+        fixture.addClass("Custom", "java.lang.Object", "Measurable");
+        fixture.addMethod("Custom", "area()I");
+        MethodHolder method = fixture.addMethod("Test", "run(LMeasurable;)I", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(method.getReference(), "shape", "Plain", "Custom");
+
+        assertNotGuarded(fixture, method, 3);
+    }
+
+    @Test
+    public void tryCatch() {
+        ClassesFixture fixture = createFixture();
+        MethodHolder method = fixture.addMethod("Test", "run(LShape;)I", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(RUN, "shape", "Square", "Circle");
+
+        assertNotGuarded(fixture, method, 3);
+    }
+
+    @Test
+    public void maxGuardedImplementations() {
+        ClassesFixture fixture = createFixture();
+        fixture.addClass("Triangle", "Shape");
+        fixture.addMethod("Triangle", "area()I");
+        MethodHolder method = fixture.addMethod("Test", "run(LShape;)I", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(RUN, "shape", "Square", "Circle", "Triangle");
+
+        assertNotGuarded(fixture, method, 2);
+    }
+
+    private ClassesFixture createFixture() {
+        ClassesFixture fixture = new ClassesFixture(PREFIX + name.getMethodName() + "/");
+        ClassHolder shape = fixture.addClass("Shape", "java.lang.Object");
+        shape.getModifiers().add(ElementModifier.ABSTRACT);
+        fixture.addMethod("Shape", "area()I", ElementModifier.ABSTRACT);
+        fixture.addClass("Square", "Shape");
+        fixture.addMethod("Square", "area()I");
+        fixture.addClass("Circle", "Shape");
+        fixture.addMethod("Circle", "area()I");
+        fixture.addClass("Test", "java.lang.Object");
+        return fixture;
+    }
+
+    private void assertNotGuarded(ClassesFixture fixture, MethodHolder method, int maxGuardedImplementations) {
+        Devirtualization devirtualization = devirtualize(fixture, method, maxGuardedImplementations);
+        assertEquals(0, devirtualization.getGuardedCallSites());
+        assertEquals(1, devirtualization.getVirtualCallSites());
+        fixture.assertPrograms();
+    }
+
+    private Devirtualization devirtualize(ClassesFixture fixture, MethodHolder method,
+            int maxGuardedImplementations) {
+        Devirtualization devirtualization = new Devirtualization(fixture.getDependencyInfo(),
+                fixture.getHierarchy());
+        devirtualization.setMaxGuardedImplementations(maxGuardedImplementations);
+        devirtualization.apply(method);
+        return devirtualization;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.ValueType;
+import org.teavm.model.optimization.GlobalFieldOptimization;
+
+public class GlobalFieldOptimizationTest {
+    private static final String PREFIX = "model/optimization/global-field-optimization/";
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void neverWritten() {
+        ClassesFixture fixture = createFixture();
+        fixture.addField("A", "count", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addField("A", "size", ValueType.INTEGER);
+        fixture.addMethod("A", "size()I");
+        fixture.addMethod("Test", "run(LA;)I", ElementModifier.STATIC);
+
+        GlobalFieldOptimization optimization = optimize(fixture);
+        assertEquals(2, optimization.getFoldedFields());
+        assertEquals(2, optimization.getRemovedFields());
+        assertNull(fixture.getClassSource().get("A").getField("count"));
+        assertNull(fixture.getClassSource().get("A").getField("size"));
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void writtenInStaticInitializer() {
+        ClassesFixture fixture = createFixture();
+        fixture.addField("A", "value", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addField("A", "other", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addMethod("A", "<clinit>()V", ElementModifier.STATIC);
+        fixture.addMethod("Test", "run()I", ElementModifier.STATIC);
+
+        GlobalFieldOptimization optimization = optimize(fixture);
+        assertEquals(1, optimization.getFoldedFields());
+        ClassHolder cls = fixture.getClassSource().get("A");
+        assertNull(cls.getField("value"));
+        assertNotNull(cls.getField("other"));
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void writtenInEveryConstructor() {
+        ClassesFixture fixture = createFixture();
+        fixture.addField("A", "value", ValueType.INTEGER);
+        fixture.addField("A", "size", ValueType.INTEGER);
+        fixture.addMethod("A", "<init>()V");
+        fixture.addMethod("A", "<init>(I)V", "initWithSize");
+        fixture.addMethod("Test", "run(LA;)I", ElementModifier.STATIC);
+
+        GlobalFieldOptimization optimization = optimize(fixture);
+        assertEquals(1, optimization.getFoldedFields());
+        ClassHolder cls = fixture.getClassSource().get("A");
+        assertNull(cls.getField("value"));
+        assertNotNull(cls.getField("size"));
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void readBeforeWrite() {
+        ClassesFixture fixture = createFixture();
+        fixture.addField("A", "value", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addField("A", "old", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addMethod("A", "<clinit>()V", ElementModifier.STATIC);
+        fixture.addMethod("Test", "run()I", ElementModifier.STATIC);
+
+        assertUnchanged(fixture);
+    }
+
+    @Test
+    public void foreignStaticReadBeforeWrite() {
+        ClassesFixture fixture = createFixture();
+        fixture.addField("A", "value", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addMethod("A", "<clinit>()V", ElementModifier.STATIC);
+        fixture.addClass("B", "java.lang.Object");
+        fixture.addField("B", "other", ValueType.INTEGER, ElementModifier.STATIC);
+        fixture.addMethod("B", "<clinit>()V", ElementModifier.STATIC);
+        fixture.addMethod("Test", "run()I", ElementModifier.STATIC);
+
+        assertUnchanged(fixture);
+    }
+
+    private ClassesFixture createFixture() {
+        ClassesFixture fixture = new ClassesFixture(PREFIX + name.getMethodName() + "/");
+        fixture.addClass("A", "java.lang.Object");
+        fixture.addClass("Test", "java.lang.Object");
+        return fixture;
+    }
+
+    private void assertUnchanged(ClassesFixture fixture) {
+        GlobalFieldOptimization optimization = optimize(fixture);
+        assertEquals(0, optimization.getFoldedFields());
+        assertEquals(0, optimization.getRemovedFields());
+        fixture.assertPrograms();
+    }
+
+    private GlobalFieldOptimization optimize(ClassesFixture fixture) {
+        GlobalFieldOptimization optimization = new GlobalFieldOptimization(fixture.getClassSource(),
+                fixture.getDependencyInfo(), fixture.getHierarchy());
+        optimization.apply();
+        return optimization;
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertEquals;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.ListingParseUtils;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MutableClassHolderSource;
+import org.teavm.model.optimization.InliningFilterFactory;
+import org.teavm.model.optimization.InterproceduralConstantPropagation;
+import org.teavm.model.text.ListingBuilder;
+
+public class InterproceduralConstantPropagationTest {
+    private static final String PREFIX = "model/optimization/interprocedural-constant-propagation/";
+    @Rule
+    public TestName name = new TestName();
+    private MutableClassHolderSource classSource = new MutableClassHolderSource();
+
+    @Test
+    public void constantArgument() {
+        MethodHolder run = addMethod("Test", "run()I");
+        MethodHolder twice = addMethod("Util", "twice(I)I");
+
+        InterproceduralConstantPropagation propagation = propagate();
+        assertEquals(1, propagation.getSpecializedParameters());
+        assertEquals(1, propagation.getConstantCallSites());
+        assertProgram(run);
+        assertProgram(twice);
+    }
+
+    @Test
+    public void exitWithoutValue() {
+        MethodHolder run = addMethod("Test", "run(I)I");
+        addMethod("Util", "value(I)I");
+
+        // Some generated methods have return without value, their result must not be treated as constant
+        assertEquals(0, propagate().getConstantCallSites());
+        assertProgram(run);
+    }
+
+    private InterproceduralConstantPropagation propagate() {
+        InterproceduralConstantPropagation propagation = new InterproceduralConstantPropagation(classSource,
+                m -> false, InliningFilterFactory.DEFAULT);
+        propagation.apply();
+        return propagation;
+    }
+
+    private MethodHolder addMethod(String className, String descriptor) {
+        ClassHolder cls = classSource.get(className);
+        if (cls == null) {
+            cls = new ClassHolder(className);
+            cls.setParent("java.lang.Object");
+            classSource.putClassHolder(cls);
+        }
+        MethodHolder method = new MethodHolder(MethodDescriptor.parse(descriptor));
+        method.getModifiers().add(ElementModifier.STATIC);
+        method.setProgram(ListingParseUtils.parseFromResource(getPath(className, method.getName(), "original")));
+        cls.addMethod(method);
+        return method;
+    }
+
+    private void assertProgram(MethodHolder method) {
+        String path = getPath(method.getOwnerName(), method.getName(), "expected");
+        if (ListingParseUtils.class.getClassLoader().getResource(path) == null) {
+            path = getPath(method.getOwnerName(), method.getName(), "original");
+        }
+        String expectedText = new ListingBuilder().buildListing(ListingParseUtils.parseFromResource(path), "");
+        String actualText = new ListingBuilder().buildListing(method.getProgram(), "");
+        assertEquals("Wrong program of " + method.getReference(), expectedText, actualText);
+    }
+
+    private String getPath(String className, String methodName, String suffix) {
+        return PREFIX + name.getMethodName() + "/" + className + "." + methodName + "." + suffix + ".txt";
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.dependency.MethodDependencyInfo;
+import org.teavm.interop.Async;
+import org.teavm.model.BasicBlock;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.Instruction;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.instructions.InvokeInstruction;
+import org.teavm.model.optimization.DefaultInliningStrategy;
+import org.teavm.model.optimization.Inlining;
+import org.teavm.model.optimization.InliningFilterFactory;
+import org.teavm.model.optimization.MethodSpecialization;
+
+public class MethodSpecializationTest {
+    private static final String PREFIX = "model/optimization/method-specialization/";
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void virtualCall() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Util", "measure(LShape;)I", ElementModifier.STATIC);
+        addCaller(fixture, "run(LSquare;)I");
+
+        MethodSpecialization specialization = specialize(fixture);
+        assertEquals(1, specialization.getSpecializedCallSites());
+        assertEquals(1, specialization.getSpecializedMethods());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void instanceOfFolded() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Util", "isCircle(LShape;)Z", ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(MethodReference.parse("Util.isCircle(LShape;)Z"), "shape",
+                "Square", "Circle");
+        addCaller(fixture, "run(LSquare;)Z");
+
+        assertEquals(1, specialize(fixture).getSpecializedMethods());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void castToAssignment() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Util", "asSquare(LShape;)LSquare;", ElementModifier.STATIC);
+        addCaller(fixture, "run(LSquare;)LSquare;");
+
+        assertEquals(1, specialize(fixture).getSpecializedMethods());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void maxSpecializations() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Util", "measure(LShape;)I", ElementModifier.STATIC);
+        MethodReference caller = addCaller(fixture, "run(LSquare;LCircle;)I");
+        fixture.getDependencyInfo().setTypes(caller, "circle", "Circle");
+
+        MethodSpecialization specialization = new MethodSpecialization(fixture.getClassSource(),
+                fixture.getDependencyInfo(), fixture.getHierarchy());
+        specialization.setMaxSpecializations(1);
+        specialization.apply();
+        assertEquals(2, specialization.getSpecializedCallSites());
+        assertEquals(1, specialization.getSpecializedMethods());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void asyncCallee() {
+        ClassesFixture fixture = createFixture();
+        fixture.addAnnotatedMethod("Util", "measure(LShape;)I", Async.class, ElementModifier.STATIC);
+        addCaller(fixture, "run(LSquare;)I");
+
+        assertNotSpecialized(fixture);
+    }
+
+    @Test
+    public void constructorCallee() {
+        ClassesFixture fixture = createFixture();
+        fixture.addClass("Holder", "java.lang.Object");
+        fixture.addField("Holder", "area", ValueType.INTEGER);
+        fixture.addMethod("Holder", "<init>(LShape;)V");
+        addCaller(fixture, "run(LSquare;)LHolder;");
+
+        assertNotSpecialized(fixture);
+    }
+
+    @Test
+    public void devirtualizationOfCopy() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Util", "measure(LShape;)I", ElementModifier.STATIC);
+        addCaller(fixture, "run(LSquare;)I");
+        MethodSpecialization specialization = specialize(fixture);
+        assertEquals(1, specialization.getSpecializedMethods());
+        fixture.assertPrograms();
+
+        // Copy is unknown to original dependency info, but specialization describes it with types of arguments
+        MethodReference copy = MethodReference.parse("Util.measure$spec0(LShape;)I");
+        assertNull(fixture.getDependencyInfo().getMethod(copy));
+        DependencyInfo dependencyInfo = specialization.getDependencyInfo();
+        MethodDependencyInfo copyDep = dependencyInfo.getMethod(copy);
+        assertEquals(copy, copyDep.getReference());
+        assertArrayEquals(new String[] { "Square" }, copyDep.getVariable(1).getTypes());
+        assertTrue(dependencyInfo.getReachableMethods().contains(copy));
+
+        Inlining inlining = new Inlining(fixture.getHierarchy(), dependencyInfo,
+                new DefaultInliningStrategy(20, 7, 300, false), fixture.getClassSource(), m -> false, true,
+                InliningFilterFactory.DEFAULT);
+        Program program = fixture.getProgram("Util", "measure$spec0(LShape;)I");
+        inlining.apply(program, copy);
+        for (BasicBlock block : program.getBasicBlocks()) {
+            for (Instruction insn : block) {
+                assertFalse("Call to Square.area() should be inlined", insn instanceof InvokeInstruction);
+            }
+        }
+    }
+
+    @Test
+    public void parameterTypesOfSharedCopy() {
+        ClassesFixture fixture = createFixture();
+        fixture.addClass("Cube", "Square");
+        fixture.addMethod("Util", "measure(LShape;)I", ElementModifier.STATIC);
+        fixture.addMethod("Test", "run(LSquare;LCube;)I", ElementModifier.STATIC);
+        MethodReference caller = MethodReference.parse("Test.run(LSquare;LCube;)I");
+        fixture.getDependencyInfo().setTypes(caller, "square", "Square");
+        fixture.getDependencyInfo().setTypes(caller, "cube", "Cube");
+        MethodSpecialization specialization = specialize(fixture);
+        assertEquals(2, specialization.getSpecializedCallSites());
+        assertEquals(1, specialization.getSpecializedMethods());
+
+        // Both call sites resolve to Square.area(), so the copy gets types passed by each of them
+        MethodReference copy = MethodReference.parse("Util.measure$spec0(LShape;)I");
+        String[] types = specialization.getDependencyInfo().getMethod(copy).getVariable(1).getTypes();
+        Arrays.sort(types);
+        assertArrayEquals(new String[] { "Cube", "Square" }, types);
+    }
+
+    private ClassesFixture createFixture() {
+        ClassesFixture fixture = new ClassesFixture(PREFIX + name.getMethodName() + "/");
+        fixture.addClass("Shape", "java.lang.Object").getModifiers().add(ElementModifier.ABSTRACT);
+        fixture.addMethod("Shape", "area()I", ElementModifier.ABSTRACT);
+        fixture.addClass("Square", "Shape");
+        fixture.addMethod("Square", "area()I");
+        fixture.addClass("Circle", "Shape");
+        fixture.addMethod("Circle", "area()I");
+        fixture.addClass("Util", "java.lang.Object");
+        fixture.addClass("Test", "java.lang.Object");
+        return fixture;
+    }
+
+    private MethodReference addCaller(ClassesFixture fixture, String descriptor) {
+        MethodReference caller = new MethodReference("Test", MethodDescriptor.parse(descriptor));
+        fixture.addMethod("Test", descriptor, ElementModifier.STATIC);
+        fixture.getDependencyInfo().setTypes(caller, "square", "Square");
+        return caller;
+    }
+
+    private void assertNotSpecialized(ClassesFixture fixture) {
+        MethodSpecialization specialization = specialize(fixture);
+        assertEquals(0, specialization.getSpecializedCallSites());
+        assertEquals(0, specialization.getSpecializedMethods());
+        fixture.assertPrograms();
+    }
+
+    private MethodSpecialization specialize(ClassesFixture fixture) {
+        MethodSpecialization specialization = new MethodSpecialization(fixture.getClassSource(),
+                fixture.getDependencyInfo(), fixture.getHierarchy());
+        specialization.apply();
+        return specialization;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.ValueType;
+import org.teavm.model.optimization.ObjectInlining;
+
+public class ObjectInliningTest {
+    private static final String PREFIX = "model/optimization/object-inlining/";
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void simple() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Owner", "<init>()V");
+        fixture.addMethod("Owner", "sum()I");
+        fixture.addClass("Test", "java.lang.Object");
+        fixture.addMethod("Test", "run(LOwner;)I", ElementModifier.STATIC);
+
+        assertEquals(1, optimize(fixture));
+        ClassHolder owner = fixture.getClassSource().get("Owner");
+        assertNull(owner.getField("point"));
+        assertEquals(ValueType.INTEGER, owner.getField("point$x").getType());
+        assertEquals(ValueType.INTEGER, owner.getField("point$y").getType());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void writeThroughAlias() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Owner", "<init>()V");
+        fixture.addMethod("Owner", "move(I)V");
+
+        assertEquals(1, optimize(fixture));
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void escapingRead() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Owner", "<init>()V");
+        fixture.addMethod("Owner", "getPoint()LPoint;");
+
+        assertNotFlattened(fixture);
+    }
+
+    @Test
+    public void cloneableOwner() {
+        ClassesFixture fixture = createFixture();
+        fixture.getClassSource().get("Owner").getInterfaces().add("java.lang.Cloneable");
+        fixture.addMethod("Owner", "<init>()V");
+        fixture.addMethod("Owner", "sum()I");
+
+        assertNotFlattened(fixture);
+    }
+
+    @Test
+    public void cloneableSubclass() {
+        ClassesFixture fixture = createFixture();
+        fixture.addClass("Copy", "Owner", "java.lang.Cloneable");
+        fixture.addMethod("Owner", "<init>()V");
+        fixture.addMethod("Owner", "sum()I");
+
+        assertNotFlattened(fixture);
+    }
+
+    @Test
+    public void componentFromParameter() {
+        ClassesFixture fixture = createFixture();
+        fixture.addMethod("Owner", "<init>(LPoint;)V");
+        fixture.addMethod("Owner", "sum()I");
+
+        assertNotFlattened(fixture);
+    }
+
+    private ClassesFixture createFixture() {
+        ClassesFixture fixture = new ClassesFixture(PREFIX + name.getMethodName() + "/");
+        fixture.addInterface("java.lang.Cloneable");
+        fixture.addClass("Point", "java.lang.Object");
+        fixture.addField("Point", "x", ValueType.INTEGER);
+        fixture.addField("Point", "y", ValueType.INTEGER);
+        fixture.addClass("Owner", "java.lang.Object");
+        fixture.addField("Owner", "point", ValueType.object("Point"), ElementModifier.FINAL);
+        return fixture;
+    }
+
+    private void assertNotFlattened(ClassesFixture fixture) {
+        assertEquals(0, optimize(fixture));
+        assertNotNull(fixture.getClassSource().get("Owner").getField("point"));
+        fixture.assertPrograms();
+    }
+
+    private int optimize(ClassesFixture fixture) {
+        ObjectInlining objectInlining = new ObjectInlining(fixture.getClassSource(), fixture.getDependencyInfo(),
+                fixture.getHierarchy());
+        objectInlining.apply();
+        return objectInlining.getInlinedFields();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ElementModifier;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.MethodDescriptor;
+import org.teavm.model.ValueType;
+import org.teavm.model.optimization.StaticInitializerEvaluation;
+
+public class StaticInitializerEvaluationTest {
+    private static final String PREFIX = "model/optimization/static-initializer-evaluation/";
+    private static final MethodDescriptor CLINIT = new MethodDescriptor("<clinit>", ValueType.VOID);
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void intArithmetic() {
+        ClassesFixture fixture = createFixture("product", "quotient", "remainder", "shifted", "unsigned");
+
+        assertRemoved(fixture);
+        assertInitialValue(fixture, "product", 42);
+        assertInitialValue(fixture, "quotient", 14);
+        assertInitialValue(fixture, "remainder", 2);
+        assertInitialValue(fixture, "shifted", 336);
+        assertInitialValue(fixture, "unsigned", 65535);
+    }
+
+    @Test
+    public void longArithmetic() {
+        ClassesFixture fixture = createFixture();
+        addStaticField(fixture, "product", ValueType.LONG);
+        addStaticField(fixture, "shifted", ValueType.LONG);
+        addStaticField(fixture, "compared", ValueType.INTEGER);
+        addStaticField(fixture, "wide", ValueType.LONG);
+
+        assertRemoved(fixture);
+        assertInitialValue(fixture, "product", 9000000000L);
+        assertInitialValue(fixture, "shifted", 187500000L);
+        assertInitialValue(fixture, "compared", -1);
+        assertInitialValue(fixture, "wide", 4L);
+    }
+
+    @Test
+    public void doubleArithmetic() {
+        ClassesFixture fixture = createFixture("truncated");
+        addStaticField(fixture, "product", ValueType.DOUBLE);
+
+        assertRemoved(fixture);
+        assertInitialValue(fixture, "product", 3.375);
+        assertInitialValue(fixture, "truncated", 3);
+    }
+
+    @Test
+    public void divisionByZero() {
+        assertNotEvaluated(createFixture("quotient"));
+    }
+
+    @Test
+    public void outOfRangeCast() {
+        assertNotEvaluated(createFixture("truncated"));
+    }
+
+    @Test
+    public void arrayElementNarrowing() {
+        ClassesFixture fixture = createFixture("booleanValue", "byteValue", "charValue");
+
+        assertRemoved(fixture);
+        assertInitialValue(fixture, "booleanValue", 0);
+        assertInitialValue(fixture, "byteValue", -56);
+        assertInitialValue(fixture, "charValue", 65535);
+    }
+
+    @Test
+    public void aliasedArrays() {
+        ClassesFixture fixture = createFixture();
+        addStaticField(fixture, "first", ValueType.arrayOf(ValueType.INTEGER));
+        addStaticField(fixture, "second", ValueType.arrayOf(ValueType.INTEGER));
+
+        StaticInitializerEvaluation evaluation = evaluate(fixture);
+        assertEquals(1, evaluation.getEvaluatedInitializers());
+        assertEquals(0, evaluation.getRemovedInitializers());
+        assertNull(fixture.getClassSource().get("A").getField("first").getInitialValue());
+        assertNull(fixture.getClassSource().get("A").getField("second").getInitialValue());
+        fixture.assertPrograms();
+    }
+
+    @Test
+    public void largeArrayKept() {
+        ClassesFixture fixture = createFixture();
+        addStaticField(fixture, "array", ValueType.arrayOf(ValueType.INTEGER));
+        assertNotEvaluated(fixture);
+    }
+
+    @Test
+    public void invokeBails() {
+        assertNotEvaluated(createFixture("value"));
+    }
+
+    @Test
+    public void floatArithmeticBails() {
+        ClassesFixture fixture = createFixture();
+        addStaticField(fixture, "value", ValueType.FLOAT);
+        assertNotEvaluated(fixture);
+    }
+
+    @Test
+    public void foreignFieldBails() {
+        ClassesFixture fixture = createFixture("value");
+        fixture.addClass("B", "java.lang.Object");
+        addStaticField(fixture, "B", "value", ValueType.INTEGER).setInitialValue(23);
+        assertNotEvaluated(fixture);
+    }
+
+    private ClassesFixture createFixture(String... intFields) {
+        ClassesFixture fixture = new ClassesFixture(PREFIX + name.getMethodName() + "/");
+        fixture.addClass("A", "java.lang.Object");
+        for (String field : intFields) {
+            addStaticField(fixture, field, ValueType.INTEGER);
+        }
+        fixture.addMethod("A", "<clinit>()V", ElementModifier.STATIC);
+        return fixture;
+    }
+
+    private void addStaticField(ClassesFixture fixture, String name, ValueType type) {
+        addStaticField(fixture, "A", name, type);
+    }
+
+    private FieldHolder addStaticField(ClassesFixture fixture, String className, String name,
+            ValueType type) {
+        return fixture.addField(className, name, type, ElementModifier.STATIC);
+    }
+
+    private void assertRemoved(ClassesFixture fixture) {
+        StaticInitializerEvaluation evaluation = evaluate(fixture);
+        assertEquals(1, evaluation.getEvaluatedInitializers());
+        assertEquals(1, evaluation.getRemovedInitializers());
+        assertNull(fixture.getClassSource().get("A").getMethod(CLINIT));
+    }
+
+    private void assertNotEvaluated(ClassesFixture fixture) {
+        StaticInitializerEvaluation evaluation = evaluate(fixture);
+        assertEquals(0, evaluation.getEvaluatedInitializers());
+        ClassHolder cls = fixture.getClassSource().get("A");
+        assertNotNull(cls.getMethod(CLINIT));
+        cls.getFields().forEach(field -> assertNull(field.getInitialValue()));
+        fixture.assertPrograms();
+    }
+
+    private void assertInitialValue(ClassesFixture fixture, String field, Object value) {
+        assertEquals(value, fixture.getClassSource().get("A").getField(field).getInitialValue());
+    }
+
+    private StaticInitializerEvaluation evaluate(ClassesFixture fixture) {
+        StaticInitializerEvaluation evaluation = new StaticInitializerEvaluation(fixture.getClassSource());
+        evaluation.apply();
+        return evaluation;
+    }
+}
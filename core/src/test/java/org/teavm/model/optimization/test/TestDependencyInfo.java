@@ -0,0 +1,305 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.optimization.test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.teavm.callgraph.CallGraph;
+import org.teavm.callgraph.CallGraphNode;
+import org.teavm.callgraph.FieldAccessSite;
+import org.teavm.dependency.ClassDependencyInfo;
+import org.teavm.dependency.DependencyInfo;
+import org.teavm.dependency.FieldDependencyInfo;
+import org.teavm.dependency.MethodDependencyInfo;
+import org.teavm.dependency.ValueDependencyInfo;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ClassReaderSource;
+import org.teavm.model.FieldReader;
+import org.teavm.model.FieldReference;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReader;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+
+/**
+ * Dependency information about classes of {@link ClassesFixture}, without running dependency analysis.
+ * All classes and fields are reachable, as well as methods explicitly added to the fixture. Methods created
+ * by optimizations are unknown, as they are in real dependency information. Types of variables are given
+ * by tests, with variables identified by their labels in listings.
+ */
+class TestDependencyInfo implements DependencyInfo {
+    private static final ValueDependencyInfo EMPTY_VALUE = new TestValueDependencyInfo(new String[0]);
+    private ListableClassHolderSource classSource;
+    private ClassHierarchy hierarchy;
+    private Set<MethodReference> methods = new LinkedHashSet<>();
+    private Set<FieldReference> externalFields = new HashSet<>();
+    private Map<MethodReference, Map<String, String[]>> variableTypes = new HashMap<>();
+
+    TestDependencyInfo(ListableClassHolderSource classSource, ClassHierarchy hierarchy) {
+        this.classSource = classSource;
+        this.hierarchy = hierarchy;
+    }
+
+    void addMethod(MethodReference method) {
+        methods.add(method);
+    }
+
+    void setAccessedExternally(FieldReference field) {
+        externalFields.add(field);
+    }
+
+    void setTypes(MethodReference method, String variable, String... types) {
+        variableTypes.computeIfAbsent(method, k -> new HashMap<>()).put(variable, types);
+    }
+
+    @Override
+    public ClassReaderSource getClassSource() {
+        return classSource;
+    }
+
+    @Override
+    public ClassLoader getClassLoader() {
+        return TestDependencyInfo.class.getClassLoader();
+    }
+
+    @Override
+    public Collection<MethodReference> getReachableMethods() {
+        return methods;
+    }
+
+    @Override
+    public Collection<FieldReference> getReachableFields() {
+        List<FieldReference> fields = new ArrayList<>();
+        for (String className : classSource.getClassNames()) {
+            for (FieldReader field : classSource.get(className).getFields()) {
+                fields.add(field.getReference());
+            }
+        }
+        return fields;
+    }
+
+    @Override
+    public Collection<String> getReachableClasses() {
+        return classSource.getClassNames();
+    }
+
+    @Override
+    public FieldDependencyInfo getField(FieldReference fieldRef) {
+        FieldReader field = classSource.resolve(fieldRef);
+        if (field == null) {
+            return null;
+        }
+        FieldReference reference = field.getReference();
+        return new FieldDependencyInfo() {
+            @Override
+            public ValueDependencyInfo getValue() {
+                return EMPTY_VALUE;
+            }
+
+            @Override
+            public FieldReference getReference() {
+                return reference;
+            }
+
+            @Override
+            public boolean isMissing() {
+                return false;
+            }
+
+            @Override
+            public boolean isAccessedExternally() {
+                return externalFields.contains(reference);
+            }
+        };
+    }
+
+    @Override
+    public MethodDependencyInfo getMethod(MethodReference methodRef) {
+        if (!methods.contains(methodRef)) {
+            return null;
+        }
+        ClassHolder cls = classSource.get(methodRef.getClassName());
+        MethodHolder method = cls.getMethod(methodRef.getDescriptor());
+        return new TestMethodDependencyInfo(methodRef, method.getProgram(),
+                variableTypes.getOrDefault(methodRef, Collections.emptyMap()));
+    }
+
+    @Override
+    public MethodDependencyInfo getMethodImplementation(MethodReference methodRef) {
+        MethodReader method = hierarchy.resolve(methodRef);
+        return method != null ? getMethod(method.getReference()) : null;
+    }
+
+    @Override
+    public ClassDependencyInfo getClass(String className) {
+        if (classSource.get(className) == null) {
+            return null;
+        }
+        return new ClassDependencyInfo() {
+            @Override
+            public String getClassName() {
+                return className;
+            }
+
+            @Override
+            public boolean isMissing() {
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public CallGraph getCallGraph() {
+        return new CallGraph() {
+            @Override
+            public CallGraphNode getNode(MethodReference method) {
+                return null;
+            }
+
+            @Override
+            public Collection<? extends FieldAccessSite> getFieldAccess(FieldReference reference) {
+                return Collections.emptyList();
+            }
+        };
+    }
+
+    static class TestMethodDependencyInfo implements MethodDependencyInfo {
+        private MethodReference reference;
+        private Program program;
+        private Map<String, String[]> types;
+
+        TestMethodDependencyInfo(MethodReference reference, Program program, Map<String, String[]> types) {
+            this.reference = reference;
+            this.program = program;
+            this.types = types;
+        }
+
+        @Override
+        public ValueDependencyInfo[] getVariables() {
+            ValueDependencyInfo[] variables = new ValueDependencyInfo[getVariableCount()];
+            for (int i = 0; i < variables.length; ++i) {
+                variables[i] = getVariable(i);
+            }
+            return variables;
+        }
+
+        @Override
+        public int getVariableCount() {
+            return program != null ? program.variableCount() : 0;
+        }
+
+        @Override
+        public ValueDependencyInfo getVariable(int index) {
+            if (program == null || index >= program.variableCount()) {
+                return null;
+            }
+            String[] variableTypes = types.get(program.variableAt(index).getLabel());
+            return variableTypes != null ? new TestValueDependencyInfo(variableTypes) : EMPTY_VALUE;
+        }
+
+        @Override
+        public int getParameterCount() {
+            return reference.parameterCount() + 1;
+        }
+
+        @Override
+        public ValueDependencyInfo getResult() {
+            return EMPTY_VALUE;
+        }
+
+        @Override
+        public ValueDependencyInfo getThrown() {
+            return EMPTY_VALUE;
+        }
+
+        @Override
+        public MethodReference getReference() {
+            return reference;
+        }
+
+        @Override
+        public boolean isUsed() {
+            return true;
+        }
+
+        @Override
+        public boolean isCalled() {
+            return true;
+        }
+
+        @Override
+        public boolean isMissing() {
+            return false;
+        }
+    }
+
+    static class TestValueDependencyInfo implements ValueDependencyInfo {
+        private String[] types;
+
+        TestValueDependencyInfo(String[] types) {
+            this.types = types;
+        }
+
+        @Override
+        public String[] getTypes() {
+            return types.clone();
+        }
+
+        @Override
+        public boolean hasType(String type) {
+            for (String knownType : types) {
+                if (knownType.equals(type)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean hasMoreTypesThan(int limit) {
+            return types.length > limit;
+        }
+
+        @Override
+        public boolean hasArrayType() {
+            for (String type : types) {
+                if (type.startsWith("[")) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public ValueDependencyInfo getArrayItem() {
+            return EMPTY_VALUE;
+        }
+
+        @Override
+        public ValueDependencyInfo getClassValueNode() {
+            return EMPTY_VALUE;
+        }
+    }
+}
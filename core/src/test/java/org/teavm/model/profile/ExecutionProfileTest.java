@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.profile;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import org.junit.Test;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+
+public class ExecutionProfileTest {
+    private static final MethodReference FOO = new MethodReference("A", "foo", ValueType.VOID);
+    private static final MethodReference BAR = new MethodReference("A", "bar", ValueType.INTEGER);
+
+    @Test
+    public void readsProgramOutput() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.read(new StringReader(""
+                + "Hello, world\n"
+                + "teavm-profile: A.foo()V 1 0 3\n"
+                + "some other output\n"
+                + "teavm-profile: A.bar()I 5\n"));
+
+        assertThat(profile.getBlockCount(FOO, 0), is(1L));
+        assertThat(profile.getBlockCount(FOO, 1), is(0L));
+        assertThat(profile.getBlockCount(FOO, 2), is(3L));
+        assertThat(profile.getBlockCount(BAR, 0), is(5L));
+        assertThat(profile.getMaxCount(), is(5L));
+    }
+
+    @Test
+    public void unknownBlocksReported() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.read(new StringReader("teavm-profile: A.foo()V 1\n"));
+
+        assertThat(profile.getBlockCount(FOO, 1), is(-1L));
+        assertThat(profile.getBlockCount(BAR, 0), is(-1L));
+    }
+
+    @Test
+    public void sumsRuns() throws IOException {
+        ExecutionProfile profile = ExecutionProfile.read(new StringReader(""
+                + "teavm-profile: A.foo()V 1 2\n"
+                + "teavm-profile: A.foo()V 3 4\n"));
+
+        assertThat(profile.getBlockCount(FOO, 0), is(4L));
+        assertThat(profile.getBlockCount(FOO, 1), is(6L));
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsInconsistentRuns() throws IOException {
+        ExecutionProfile.read(new StringReader(""
+                + "teavm-profile: A.foo()V 1 2\n"
+                + "teavm-profile: A.foo()V 3\n"));
+    }
+
+    @Test
+    public void writesReadableProfile() throws IOException {
+        ExecutionProfile profile = new ExecutionProfile();
+        profile.add(FOO, new long[] { 1, 0, 3 });
+        profile.add(BAR, new long[] { 5 });
+
+        StringWriter writer = new StringWriter();
+        profile.write(writer);
+        assertThat(writer.toString(), is("teavm-profile: A.foo()V 1 0 3\nteavm-profile: A.bar()I 5\n"));
+
+        ExecutionProfile copy = ExecutionProfile.read(new StringReader(writer.toString()));
+        assertThat(copy.getBlockCount(FOO, 2), is(3L));
+        assertThat(copy.getBlockCount(BAR, 0), is(5L));
+    }
+}
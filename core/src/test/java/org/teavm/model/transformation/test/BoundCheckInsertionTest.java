@@ -0,0 +1,76 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.model.transformation.test;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestName;
+import org.teavm.model.ListingParseUtils;
+import org.teavm.model.MethodReference;
+import org.teavm.model.Program;
+import org.teavm.model.ValueType;
+import org.teavm.model.text.ListingBuilder;
+import org.teavm.model.transformation.BoundCheckInsertion;
+
+public class BoundCheckInsertionTest {
+    private static final String PREFIX = "model/transformation/bound-check-insertion/";
+    @Rule
+    public TestName name = new TestName();
+
+    @Test
+    public void countedLoop() {
+        doTest(1);
+    }
+
+    @Test
+    public void reverseLoop() {
+        doTest(1);
+    }
+
+    @Test
+    public void unknownLoopBound() {
+        doTest(2);
+    }
+
+    @Test
+    public void hashIndex() {
+        doTest(2);
+    }
+
+    @Test
+    public void unguardedIncrement() {
+        doTest(2);
+    }
+
+    private void doTest(int parameterCount) {
+        String originalPath = PREFIX + name.getMethodName() + ".original.txt";
+        String expectedPath = PREFIX + name.getMethodName() + ".expected.txt";
+        Program original = ListingParseUtils.parseFromResource(originalPath);
+        Program expected = ListingParseUtils.parseFromResource(expectedPath);
+
+        ValueType[] signature = new ValueType[parameterCount + 1];
+        for (int i = 0; i < parameterCount; ++i) {
+            signature[i] = ValueType.INTEGER;
+        }
+        signature[parameterCount] = ValueType.VOID;
+        new BoundCheckInsertion().transformProgram(original, new MethodReference("Test", "test", signature));
+
+        String originalText = new ListingBuilder().buildListing(original, "");
+        String expectedText = new ListingBuilder().buildListing(expected, "");
+        Assert.assertEquals(expectedText, originalText);
+    }
+}
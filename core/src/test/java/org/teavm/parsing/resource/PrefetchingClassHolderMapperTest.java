@@ -0,0 +1,160 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.parsing.resource;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+import org.junit.Test;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.FieldHolder;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.ReferenceCache;
+import org.teavm.model.text.ListingBuilder;
+
+public class PrefetchingClassHolderMapperTest {
+    private static final List<String> CLASSES = Arrays.asList(Root.class.getName(), Left.class.getName(),
+            Right.class.getName(), Shared.class.getName(), "java.util.ArrayList", "java.util.HashMap");
+    private ResourceReader reader = new ClasspathResourceReader(PrefetchingClassHolderMapperTest.class
+            .getClassLoader());
+
+    @Test
+    public void resultDoesNotDependOnRequestOrder() {
+        Map<String, String> expected = parseAll(new ResourceClassHolderMapper(reader, new ReferenceCache()),
+                CLASSES);
+
+        Random random = new Random(0);
+        for (int i = 0; i < 10; ++i) {
+            List<String> order = new ArrayList<>(CLASSES);
+            Collections.shuffle(order, random);
+            PrefetchingClassHolderMapper mapper = new PrefetchingClassHolderMapper(reader, new ReferenceCache(), 2);
+            assertEquals("Order " + order, expected, parseAll(mapper, order));
+        }
+    }
+
+    @Test
+    public void classFailingToParseReportedOnRequest() {
+        ResourceReader brokenReader = new ResourceReader() {
+            @Override
+            public boolean hasResource(String name) {
+                return reader.hasResource(name);
+            }
+
+            @Override
+            public InputStream openResource(String name) throws IOException {
+                if (name.equals(Broken.class.getName().replace('.', '/') + ".class")) {
+                    return new ByteArrayInputStream(new byte[] { (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE });
+                }
+                return reader.openResource(name);
+            }
+        };
+        RuntimeException expected = parseBroken(new ResourceClassHolderMapper(brokenReader, new ReferenceCache()));
+
+        PrefetchingClassHolderMapper mapper = new PrefetchingClassHolderMapper(brokenReader, new ReferenceCache(), 2);
+        // Broken is referenced by Right, so it is parsed in background before it's requested
+        for (String className : CLASSES) {
+            assertNotNull(mapper.apply(className));
+        }
+        assertEquals(expected.getClass(), parseBroken(mapper).getClass());
+    }
+
+    @Test
+    public void numberOfPrefetchedClassesLimited() {
+        PrefetchingClassHolderMapper mapper = new PrefetchingClassHolderMapper(reader, new ReferenceCache(), 1);
+        for (String className : Arrays.asList("java.util.HashMap", "java.util.concurrent.ConcurrentHashMap",
+                "java.util.stream.Collectors", "java.lang.String", "java.util.Arrays")) {
+            mapper.apply(className);
+        }
+        int count = mapper.getPrefetchedClassCount();
+        assertTrue("Prefetched " + count + " classes", count > 0
+                && count <= PrefetchingClassHolderMapper.PREFETCHED_CLASSES_PER_THREAD);
+    }
+
+    private static RuntimeException parseBroken(Function<String, ClassHolder> mapper) {
+        try {
+            mapper.apply(Broken.class.getName());
+        } catch (RuntimeException e) {
+            return e;
+        }
+        fail("Broken class should not be parsed");
+        return null;
+    }
+
+    private static Map<String, String> parseAll(Function<String, ClassHolder> mapper, List<String> classNames) {
+        Map<String, String> result = new HashMap<>();
+        for (String className : classNames) {
+            result.put(className, describe(mapper.apply(className)));
+        }
+        return result;
+    }
+
+    private static String describe(ClassHolder cls) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(cls.getName()).append(" extends ").append(cls.getParent()).append(' ').append(cls.getInterfaces())
+                .append(' ').append(cls.getModifiers()).append('\n');
+        for (FieldHolder field : cls.getFields()) {
+            sb.append("  ").append(field.getReference()).append(' ').append(field.getType()).append(' ')
+                    .append(field.getModifiers()).append(' ').append(field.getInitialValue()).append('\n');
+        }
+        for (MethodHolder method : cls.getMethods()) {
+            sb.append("  ").append(method.getReference()).append(' ').append(method.getModifiers()).append('\n');
+            if (method.getProgram() != null) {
+                sb.append(new ListingBuilder().buildListing(method.getProgram(), "    "));
+            }
+        }
+        return sb.toString();
+    }
+
+    static class Root {
+        int run() {
+            return new Left().value() + new Right().value();
+        }
+    }
+
+    static class Left {
+        int value() {
+            return Shared.value + 1;
+        }
+    }
+
+    static class Right {
+        int value() {
+            return Shared.value + Broken.compute();
+        }
+    }
+
+    static class Shared {
+        static int value = 23;
+    }
+
+    static class Broken {
+        static int compute() {
+            return 42;
+        }
+    }
+}
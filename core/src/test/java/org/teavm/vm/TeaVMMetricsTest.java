@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.vm;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+import org.teavm.model.MethodReference;
+import org.teavm.model.ValueType;
+
+public class TeaVMMetricsTest {
+    private static final MethodReference FOO = new MethodReference("A", "foo", ValueType.VOID);
+    private static final MethodReference BAR = new MethodReference("A", "bar", ValueType.VOID);
+    private static final MethodReference BAZ = new MethodReference("A", "baz", ValueType.VOID);
+
+    @Test
+    public void accumulatesPhases() {
+        TeaVMMetrics metrics = new TeaVMMetrics();
+        metrics.start("a").end();
+        metrics.start("b").end();
+        metrics.start("a").end();
+
+        List<TeaVMMetrics.PhaseMetrics> phases = metrics.getPhases();
+        assertThat(phases.size(), is(2));
+        assertThat(phases.get(0).getName(), is("a"));
+        assertThat(phases.get(0).getCount(), is(2));
+        assertThat(phases.get(1).getName(), is("b"));
+        assertThat(phases.get(1).getCount(), is(1));
+    }
+
+    @Test
+    public void keepsSlowestMethods() {
+        TeaVMMetrics metrics = new TeaVMMetrics();
+        metrics.setSlowestMethodCount(2);
+        measure(metrics, FOO, 1);
+        measure(metrics, BAR, 30);
+        measure(metrics, BAZ, 15);
+        measure(metrics, BAZ, 20);
+
+        List<TeaVMMetrics.MethodMetrics> methods = metrics.getPhase("pass").getSlowestMethods();
+        assertThat(methods.size(), is(2));
+        assertThat(methods.get(0).getMethod(), is(BAZ));
+        assertThat(methods.get(1).getMethod(), is(BAR));
+    }
+
+    @Test
+    public void writesJson() throws IOException {
+        TeaVMMetrics metrics = new TeaVMMetrics();
+        metrics.start("\"quoted\"", FOO).end();
+
+        StringWriter writer = new StringWriter();
+        metrics.writeJson(writer);
+        String json = writer.toString();
+        assertThat(json, containsString("\"name\": \"\\\"quoted\\\"\""));
+        assertThat(json, containsString("\"count\": 1"));
+        assertThat(json, containsString("\"method\": \"" + FOO + "\""));
+    }
+
+    private static void measure(TeaVMMetrics metrics, MethodReference method, long millis) {
+        metrics.record("pass", method, millis * 1000000, -1, -1);
+    }
+}
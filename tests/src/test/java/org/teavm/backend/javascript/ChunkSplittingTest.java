@@ -0,0 +1,68 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.Arrays;
+import java.util.HashSet;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.backend.javascript.data.chunks.Feature;
+import org.teavm.backend.javascript.data.chunks.Main;
+import org.teavm.backend.javascript.data.chunks.Plugin;
+
+public class ChunkSplittingTest {
+    private static final String EXPECTED_OUTPUT = "start\n[plugin]\n166299\n<feature>\n166300\n";
+
+    @Before
+    public void checkNode() {
+        Assume.assumeTrue("Node.js is required to run generated code", JavaScriptBuild.isNodeAvailable());
+    }
+
+    @Test
+    public void wrapped() throws Exception {
+        check(JSModuleType.NONE);
+    }
+
+    @Test
+    public void es2015() throws Exception {
+        check(JSModuleType.ES2015);
+    }
+
+    private void check(JSModuleType moduleType) throws Exception {
+        JavaScriptBuild build = new JavaScriptBuild(Main.class).setModuleType(moduleType);
+        build.getTarget().setSplitPoints(Arrays.asList(Feature.class.getName(), Plugin.class.getName()));
+        build.build();
+
+        assertEquals(new HashSet<>(Arrays.asList("classes.js", "classes-1.js", "classes-2.js")),
+                build.getFileNames());
+        String main = build.get("classes.js");
+        assertTrue("Stubs should load first chunk", main.contains("$rt_loadChunk(0)"));
+        assertTrue("Stubs should load second chunk", main.contains("$rt_loadChunk(1)"));
+
+        // Helper is used by Feature only, so its code goes to Feature's chunk
+        assertTrue(build.get("classes-1.js").contains("7919"));
+        assertFalse(main.contains("7919"));
+        assertFalse(build.get("classes-2.js").contains("7919"));
+
+        // Plugin's chunk is first loaded by constructor, then greet is called virtually through stub in vtable,
+        // Feature's chunk is first loaded by its class initializer
+        assertEquals(EXPECTED_OUTPUT, build.run());
+    }
+}
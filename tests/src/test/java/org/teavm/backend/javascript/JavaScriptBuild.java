@@ -0,0 +1,176 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Stream;
+import org.teavm.diagnostics.DefaultProblemTextConsumer;
+import org.teavm.diagnostics.Problem;
+import org.teavm.vm.BuildTarget;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMOptimizationLevel;
+
+/**
+ * Builds JavaScript for a main class into memory and runs it with Node.js. In {@link JSModuleType#NONE}
+ * mode output is evaluated as a classic script, in {@link JSModuleType#ES2015} mode it's imported as a module.
+ * Output is run in a temporary directory, so that chunks are loaded from there.
+ */
+class JavaScriptBuild implements BuildTarget {
+    static final String OUTPUT = "classes.js";
+    private final Class<?> mainClass;
+    private final JavaScriptTarget target = new JavaScriptTarget();
+    private JSModuleType moduleType = JSModuleType.NONE;
+    private TeaVMOptimizationLevel optimizationLevel = TeaVMOptimizationLevel.SIMPLE;
+    private boolean profileInstrumented;
+    private final Map<String, ByteArrayOutputStream> files = new LinkedHashMap<>();
+
+    JavaScriptBuild(Class<?> mainClass) {
+        this.mainClass = mainClass;
+        target.setObfuscated(false);
+        target.setStrict(true);
+    }
+
+    static boolean isNodeAvailable() {
+        try {
+            Process process = new ProcessBuilder("node", "--version").redirectErrorStream(true).start();
+            process.getInputStream().readAllBytes();
+            return process.waitFor() == 0;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    JavaScriptTarget getTarget() {
+        return target;
+    }
+
+    JavaScriptBuild setModuleType(JSModuleType moduleType) {
+        this.moduleType = moduleType;
+        target.setModuleType(moduleType);
+        return this;
+    }
+
+    JavaScriptBuild setMinified(boolean minified) {
+        target.setObfuscated(minified);
+        return this;
+    }
+
+    JavaScriptBuild setOptimizationLevel(TeaVMOptimizationLevel optimizationLevel) {
+        this.optimizationLevel = optimizationLevel;
+        return this;
+    }
+
+    JavaScriptBuild setProfileInstrumented(boolean profileInstrumented) {
+        this.profileInstrumented = profileInstrumented;
+        return this;
+    }
+
+    JavaScriptBuild build() {
+        TeaVM vm = new TeaVMBuilder(target)
+                .setClassLoader(JavaScriptBuild.class.getClassLoader())
+                .build();
+        vm.setOptimizationLevel(optimizationLevel);
+        vm.setProfileInstrumented(profileInstrumented);
+        vm.installPlugins();
+        vm.entryPoint(mainClass.getName());
+        vm.build(this, OUTPUT);
+        List<Problem> problems = vm.getProblemProvider().getSevereProblems();
+        if (!problems.isEmpty()) {
+            DefaultProblemTextConsumer consumer = new DefaultProblemTextConsumer();
+            StringBuilder sb = new StringBuilder();
+            for (Problem problem : problems) {
+                consumer.clear();
+                problem.render(consumer);
+                sb.append(consumer.getText()).append("\n");
+            }
+            fail("Compiler error generating " + mainClass.getName() + "\n" + sb);
+        }
+        return this;
+    }
+
+    Set<String> getFileNames() {
+        return files.keySet();
+    }
+
+    String get(String name) {
+        return new String(files.get(name).toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Runs main method of built output and returns what it has written to standard output and error streams.
+     */
+    String run() throws IOException, InterruptedException {
+        Path directory = Files.createTempDirectory("teavm-js");
+        try {
+            for (Map.Entry<String, ByteArrayOutputStream> entry : files.entrySet()) {
+                Files.write(directory.resolve(entry.getKey()), entry.getValue().toByteArray());
+            }
+            String runner;
+            if (moduleType == JSModuleType.ES2015) {
+                Files.write(directory.resolve("package.json"), "{ \"type\": \"module\" }".getBytes(
+                        StandardCharsets.UTF_8));
+                runner = "import { main } from \"./" + OUTPUT + "\";\n"
+                        + "main([]);\n";
+            } else {
+                // Evaluate as a classic script, like <script> tag does, so that declared entry points become global
+                runner = "globalThis.require = require;\n"
+                        + "require(\"vm\").runInThisContext(require(\"fs\").readFileSync(\"" + OUTPUT
+                        + "\", \"utf8\"));\n"
+                        + "main([]);\n";
+            }
+            Files.write(directory.resolve("run.js"), runner.getBytes(StandardCharsets.UTF_8));
+
+            Process process = new ProcessBuilder("node", "run.js")
+                    .directory(directory.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+            String output;
+            try (InputStream input = process.getInputStream()) {
+                output = new String(input.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertEquals("Script failed:\n" + output, 0, process.waitFor());
+            return output;
+        } finally {
+            try (Stream<Path> paths = Files.walk(directory)) {
+                paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    @Override
+    public OutputStream createResource(String fileName) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        files.put(fileName, out);
+        return out;
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.util.regex.Pattern;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.backend.javascript.data.module.Main;
+
+public class ModuleOutputTest {
+    private static final String EXPECTED_OUTPUT = "sum: 55000000385\n";
+    private static final Pattern EXPORT = Pattern.compile("export\\s*\\{\\s*\\$rt_export_main as main\\s*}");
+
+    @Before
+    public void checkNode() {
+        Assume.assumeTrue("Node.js is required to run generated code", JavaScriptBuild.isNodeAvailable());
+    }
+
+    @Test
+    public void notMinified() throws Exception {
+        check(false);
+    }
+
+    @Test
+    public void minified() throws Exception {
+        check(true);
+    }
+
+    private void check(boolean minified) throws Exception {
+        JavaScriptBuild script = new JavaScriptBuild(Main.class).setMinified(minified).build();
+        String scriptCode = script.get(JavaScriptBuild.OUTPUT);
+        assertTrue(hasFunction(scriptCode, "$rt_createMultiArray"));
+        assertEquals(EXPECTED_OUTPUT, script.run());
+
+        JavaScriptBuild module = new JavaScriptBuild(Main.class).setMinified(minified)
+                .setModuleType(JSModuleType.ES2015).build();
+        String moduleCode = module.get(JavaScriptBuild.OUTPUT);
+        assertTrue("Entry point should be exported", EXPORT.matcher(moduleCode).find());
+        assertTrue(hasFunction(moduleCode, "$rt_mainStarter"));
+        assertFalse("Unused runtime function should be left out", hasFunction(moduleCode, "$rt_createMultiArray"));
+        assertTrue(moduleCode.length() < scriptCode.length());
+        assertEquals(EXPECTED_OUTPUT, module.run());
+    }
+
+    private static boolean hasFunction(String code, String name) {
+        return Pattern.compile("function\\s+" + Pattern.quote(name) + "\\s*\\(").matcher(code).find();
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import java.io.StringReader;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.backend.javascript.data.module.Main;
+import org.teavm.model.MethodReference;
+import org.teavm.model.profile.ExecutionProfile;
+import org.teavm.vm.TeaVMOptimizationLevel;
+
+public class ProfileInstrumentationTest {
+    private static final String EXPECTED_OUTPUT = "sum: 55000000385\n";
+
+    @Before
+    public void checkNode() {
+        Assume.assumeTrue("Node.js is required to run generated code", JavaScriptBuild.isNodeAvailable());
+    }
+
+    @Test
+    public void ignoredAtSimpleLevel() throws Exception {
+        JavaScriptBuild build = new JavaScriptBuild(Main.class)
+                .setOptimizationLevel(TeaVMOptimizationLevel.SIMPLE)
+                .setProfileInstrumented(true)
+                .build();
+        assertFalse("Counters should not be linked", build.get(JavaScriptBuild.OUTPUT).contains("ProfileCounters"));
+        assertEquals(EXPECTED_OUTPUT, build.run());
+    }
+
+    @Test
+    public void countersDumped() throws Exception {
+        String output = new JavaScriptBuild(Main.class)
+                .setOptimizationLevel(TeaVMOptimizationLevel.ADVANCED)
+                .setProfileInstrumented(true)
+                .build()
+                .run();
+        assertTrue(output.contains(EXPECTED_OUTPUT));
+
+        ExecutionProfile profile = ExecutionProfile.read(new StringReader(output));
+        MethodReference main = new MethodReference(Main.class, "main", String[].class, void.class);
+        assertEquals("Entry point should be executed once", 1, profile.getBlockCount(main, 0));
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript;
+
+import static org.junit.Assert.assertTrue;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.teavm.backend.javascript.data.strings.Main;
+
+public class StringConversionTest {
+    private static String output;
+
+    @BeforeClass
+    public static void run() throws Exception {
+        Assume.assumeTrue("Node.js is required to run generated code", JavaScriptBuild.isNodeAvailable());
+        output = new JavaScriptBuild(Main.class).build().run();
+    }
+
+    @Test
+    public void longString() {
+        assertPassed("long to JS");
+        assertPassed("long from JS");
+        assertPassed("long round trip");
+    }
+
+    @Test
+    public void surrogatePairs() {
+        assertPassed("surrogates to JS");
+        assertPassed("surrogates from JS");
+        assertPassed("surrogates across chunks");
+    }
+
+    @Test
+    public void repeatedConversion() {
+        assertPassed("repeated conversion");
+    }
+
+    private static void assertPassed(String check) {
+        assertTrue("Check failed: " + check + "\n" + output, output.contains(check + ": true\n"));
+    }
+}
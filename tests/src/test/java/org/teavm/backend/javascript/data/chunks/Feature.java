@@ -0,0 +1,30 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript.data.chunks;
+
+public class Feature implements Greeter {
+    static int counter = Helper.compute(6);
+
+    static Greeter createGreeter() {
+        counter++;
+        return new Feature();
+    }
+
+    @Override
+    public String greet(String name) {
+        return Helper.decorate(name);
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript.data.chunks;
+
+final class Helper {
+    private Helper() {
+    }
+
+    static int compute(int n) {
+        int result = 0;
+        for (int i = 1; i <= n; ++i) {
+            result += i * 7919;
+        }
+        return result;
+    }
+
+    static String decorate(String name) {
+        return "<" + name + ">";
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript.data.module;
+
+public final class Main {
+    private Main() {
+    }
+
+    public static void main(String[] args) {
+        long sum = 0;
+        for (int i = 1; i <= 10; ++i) {
+            sum += (long) i * 1000000007L;
+        }
+        System.out.println("sum: " + sum);
+    }
+}
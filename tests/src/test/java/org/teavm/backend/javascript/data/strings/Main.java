@@ -0,0 +1,85 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.backend.javascript.data.strings;
+
+import org.teavm.jso.JSBody;
+
+public final class Main {
+    private static final int LONG_LENGTH = 3000;
+    private static final int SMILE = 0x1F600;
+
+    private Main() {
+    }
+
+    public static void main(String[] args) {
+        String javaLong = alphabet(LONG_LENGTH);
+        System.out.println("long to JS: " + isAlphabetJS(javaLong, LONG_LENGTH));
+        String jsLong = alphabetJS(LONG_LENGTH);
+        System.out.println("long from JS: " + (jsLong.length() == LONG_LENGTH && jsLong.equals(javaLong)));
+        System.out.println("long round trip: " + identityJS(javaLong).equals(javaLong));
+
+        String pair = new String(Character.toChars(SMILE));
+        String javaSurrogates = "x" + pair + "y";
+        System.out.println("surrogates to JS: " + (lengthJS(javaSurrogates) == 4
+                && codePointAtJS(javaSurrogates, 1) == SMILE));
+        String jsSurrogates = fromCodePointJS(SMILE);
+        System.out.println("surrogates from JS: " + (jsSurrogates.length() == 2
+                && jsSurrogates.codePointAt(0) == SMILE && jsSurrogates.equals(pair)));
+        // High surrogate is the last character of the first chunk, low surrogate is the first one of the second
+        String straddling = alphabet(1023) + pair + alphabet(10);
+        System.out.println("surrogates across chunks: " + (codePointAtJS(straddling, 1023) == SMILE
+                && identityJS(straddling).equals(straddling)));
+
+        boolean repeated = true;
+        for (int i = 0; i < 3; ++i) {
+            repeated &= isAlphabetJS(javaLong, LONG_LENGTH);
+            repeated &= identityJS(javaLong).equals(javaLong);
+            repeated &= isAlphabetJS(jsLong, LONG_LENGTH);
+            repeated &= identityJS(jsLong).equals(jsLong);
+        }
+        System.out.println("repeated conversion: " + repeated);
+    }
+
+    private static String alphabet(int length) {
+        char[] chars = new char[length];
+        for (int i = 0; i < length; ++i) {
+            chars[i] = (char) ('a' + i % 26);
+        }
+        return new String(chars);
+    }
+
+    @JSBody(params = { "s", "n" }, script = "if (s.length !== n) return false;"
+            + "for (var i = 0; i < n; ++i) { if (s.charCodeAt(i) !== 97 + i % 26) return false; }"
+            + "return true;")
+    private static native boolean isAlphabetJS(String s, int n);
+
+    @JSBody(params = "n", script = "var s = '';"
+            + "for (var i = 0; i < n; ++i) { s += String.fromCharCode(97 + i % 26); }"
+            + "return s;")
+    private static native String alphabetJS(int n);
+
+    @JSBody(params = "s", script = "return s;")
+    private static native String identityJS(String s);
+
+    @JSBody(params = "s", script = "return s.length;")
+    private static native int lengthJS(String s);
+
+    @JSBody(params = { "s", "index" }, script = "return s.codePointAt(index);")
+    private static native int codePointAtJS(String s, int index);
+
+    @JSBody(params = "codePoint", script = "return String.fromCodePoint(codePoint);")
+    private static native String fromCodePointJS(int codePoint);
+}
@@ -0,0 +1,94 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.Test;
+import org.teavm.backend.javascript.JavaScriptTarget;
+import org.teavm.model.MethodReference;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMPhase;
+import org.teavm.vm.TeaVMProgressFeedback;
+import org.teavm.vm.TeaVMProgressListener;
+
+public class ConcurrentDependencyAnalyzerTest {
+    @Test
+    public void sameResultAsPreciseAnalyzer() {
+        DependencyInfo expected = analyze(PreciseDependencyAnalyzer::new);
+        DependencyInfo actual = analyze(ConcurrentDependencyAnalyzer.factory(4));
+
+        assertTrue(expected.getReachableClasses().contains(ConcurrentDependencyTestData.Circle.class.getName()));
+        assertEquals(new HashSet<>(expected.getReachableClasses()), new HashSet<>(actual.getReachableClasses()));
+        assertEquals(new HashSet<>(expected.getReachableFields()), new HashSet<>(actual.getReachableFields()));
+
+        Set<MethodReference> methods = new HashSet<>(expected.getReachableMethods());
+        assertEquals(methods, new HashSet<>(actual.getReachableMethods()));
+        for (MethodReference method : methods) {
+            MethodDependencyInfo expectedMethod = expected.getMethod(method);
+            MethodDependencyInfo actualMethod = actual.getMethod(method);
+            assertEquals(method.toString(), expectedMethod.isUsed(), actualMethod.isUsed());
+            assertEquals(method.toString(), expectedMethod.getVariableCount(), actualMethod.getVariableCount());
+            for (int i = 0; i < expectedMethod.getVariableCount(); ++i) {
+                assertTypes(method + ", variable " + i, expectedMethod.getVariable(i), actualMethod.getVariable(i));
+            }
+            assertTypes(method + ", result", expectedMethod.getResult(), actualMethod.getResult());
+            assertTypes(method + ", thrown", expectedMethod.getThrown(), actualMethod.getThrown());
+        }
+    }
+
+    private static void assertTypes(String message, ValueDependencyInfo expected, ValueDependencyInfo actual) {
+        if (expected == null || actual == null) {
+            assertEquals(message, expected == null, actual == null);
+            return;
+        }
+        assertEquals(message, types(expected), types(actual));
+    }
+
+    private static Set<String> types(ValueDependencyInfo value) {
+        return new HashSet<>(Arrays.asList(value.getTypes()));
+    }
+
+    private DependencyInfo analyze(DependencyAnalyzerFactory analyzerFactory) {
+        TeaVM vm = new TeaVMBuilder(new JavaScriptTarget())
+                .setClassLoader(ConcurrentDependencyAnalyzerTest.class.getClassLoader())
+                .setDependencyAnalyzerFactory(analyzerFactory)
+                .build();
+        vm.setProgressListener(new TeaVMProgressListener() {
+            @Override
+            public TeaVMProgressFeedback phaseStarted(TeaVMPhase phase, int count) {
+                return phase == TeaVMPhase.DEPENDENCY_ANALYSIS
+                        ? TeaVMProgressFeedback.CONTINUE
+                        : TeaVMProgressFeedback.CANCEL;
+            }
+
+            @Override
+            public TeaVMProgressFeedback progressReached(int progress) {
+                return TeaVMProgressFeedback.CONTINUE;
+            }
+        });
+        vm.installPlugins();
+        vm.entryPoint(ConcurrentDependencyTestData.class.getName());
+        vm.build(fileName -> new ByteArrayOutputStream(), "out");
+        assertTrue(vm.getProblemProvider().getSevereProblems().isEmpty());
+        return vm.getDependencyInfo();
+    }
+}
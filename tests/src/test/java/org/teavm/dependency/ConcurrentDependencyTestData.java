@@ -0,0 +1,86 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.dependency;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+public class ConcurrentDependencyTestData {
+    private ConcurrentDependencyTestData() {
+    }
+
+    public static void main(String[] args) {
+        List<Shape> shapes = new ArrayList<>();
+        shapes.add(new Square(2));
+        shapes.add(new Circle(3));
+        Map<String, Integer> areas = new HashMap<>();
+        for (Shape shape : shapes) {
+            areas.put(shape.getClass().getName(), shape.area());
+        }
+
+        Function<Integer, String> format = value -> "[" + value + "]";
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Integer> entry : areas.entrySet()) {
+            sb.append(entry.getKey()).append(format.apply(entry.getValue()));
+        }
+
+        try {
+            check(shapes.get(args.length));
+        } catch (IllegalStateException e) {
+            sb.append(e.getMessage());
+        }
+        System.out.println(sb);
+    }
+
+    private static void check(Shape shape) {
+        if (shape.area() < 0) {
+            throw new IllegalStateException("negative area");
+        }
+    }
+
+    interface Shape {
+        int area();
+    }
+
+    static class Square implements Shape {
+        private int side;
+
+        Square(int side) {
+            this.side = side;
+        }
+
+        @Override
+        public int area() {
+            return side * side;
+        }
+    }
+
+    static class Circle implements Shape {
+        private int radius;
+
+        Circle(int radius) {
+            this.radius = radius;
+        }
+
+        @Override
+        public int area() {
+            return 3 * radius * radius;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.tooling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.teavm.tooling.data.CacheMain;
+import org.teavm.vm.TeaVMOptimizationLevel;
+
+public class SharedCacheTest {
+    private Path directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = Files.createTempDirectory("teavm-shared-cache");
+    }
+
+    @After
+    public void deleteDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Test
+    public void sameOptionsHitCache() throws Exception {
+        build(TeaVMOptimizationLevel.ADVANCED, "first");
+        long entries = countEntries();
+        assertTrue("Build should write cache entries", entries > 0);
+
+        build(TeaVMOptimizationLevel.ADVANCED, "second");
+        assertEquals("Build with the same options should not add entries", entries, countEntries());
+    }
+
+    @Test
+    public void optimizationLevelChangeMissesCache() throws Exception {
+        build(TeaVMOptimizationLevel.ADVANCED, "first");
+        long entries = countEntries();
+
+        build(TeaVMOptimizationLevel.FULL, "second");
+        assertTrue("Build with another optimization level should add entries", countEntries() > entries);
+    }
+
+    private void build(TeaVMOptimizationLevel optimizationLevel, String name) throws TeaVMToolException {
+        TeaVMTool tool = new TeaVMTool();
+        tool.setTargetType(TeaVMTargetType.JAVASCRIPT);
+        tool.setMainClass(CacheMain.class.getName());
+        tool.setClassLoader(SharedCacheTest.class.getClassLoader());
+        tool.setTargetDirectory(directory.resolve(name).toFile());
+        tool.setCacheDirectory(directory.resolve(name + "-cache").toFile());
+        tool.setSharedCacheDirectory(getSharedDirectory());
+        tool.setIncremental(true);
+        tool.setOptimizationLevel(optimizationLevel);
+        tool.generate();
+        assertTrue("Build failed", tool.getProblemProvider().getSevereProblems().isEmpty());
+    }
+
+    private File getSharedDirectory() {
+        return directory.resolve("shared").toFile();
+    }
+
+    private long countEntries() throws IOException {
+        try (Stream<Path> paths = Files.walk(getSharedDirectory().toPath())) {
+            return paths.filter(path -> path.toString().endsWith(".teavm-shared")).count();
+        }
+    }
+}
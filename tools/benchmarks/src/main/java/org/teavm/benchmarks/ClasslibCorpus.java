@@ -0,0 +1,138 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.stream.Stream;
+import org.apache.commons.io.IOUtils;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.tree.ClassNode;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.Program;
+import org.teavm.model.ReferenceCache;
+import org.teavm.parsing.Parser;
+
+/**
+ * Fixed corpus of class files for benchmarks of separate compiler passes. Consists of classes
+ * of <code>java.lang</code> and <code>java.util</code> packages of TeaVM class library
+ * (without subpackages).
+ */
+final class ClasslibCorpus {
+    private static final String[] PACKAGES = {
+            "org/teavm/classlib/java/lang/",
+            "org/teavm/classlib/java/util/"
+    };
+
+    private ClasslibCorpus() {
+    }
+
+    static List<byte[]> loadClassFiles() {
+        TreeMap<String, byte[]> classFiles = new TreeMap<>();
+        String probe = PACKAGES[0] + "TObject.class";
+        URL url = ClasslibCorpus.class.getClassLoader().getResource(probe);
+        if (url == null) {
+            throw new IllegalStateException("TeaVM class library not found in class path");
+        }
+        try {
+            if (url.getProtocol().equals("jar")) {
+                URLConnection connection = url.openConnection();
+                connection.setUseCaches(false);
+                try (JarFile jarFile = ((JarURLConnection) connection).getJarFile()) {
+                    Enumeration<JarEntry> entries = jarFile.entries();
+                    while (entries.hasMoreElements()) {
+                        JarEntry entry = entries.nextElement();
+                        if (isCorpusClass(entry.getName())) {
+                            try (InputStream input = jarFile.getInputStream(entry)) {
+                                classFiles.put(entry.getName(), IOUtils.toByteArray(input));
+                            }
+                        }
+                    }
+                }
+            } else {
+                Path root = Paths.get(url.toURI());
+                for (int i = 0; i < probe.split("/").length; ++i) {
+                    root = root.getParent();
+                }
+                for (String packageName : PACKAGES) {
+                    try (Stream<Path> files = Files.list(root.resolve(packageName))) {
+                        for (Path file : (Iterable<Path>) files::iterator) {
+                            String name = root.relativize(file).toString().replace('\\', '/');
+                            if (isCorpusClass(name)) {
+                                classFiles.put(name, Files.readAllBytes(file));
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (URISyntaxException e) {
+            throw new IllegalStateException(e);
+        }
+        return new ArrayList<>(classFiles.values());
+    }
+
+    private static boolean isCorpusClass(String name) {
+        if (!name.endsWith(".class")) {
+            return false;
+        }
+        for (String packageName : PACKAGES) {
+            if (name.startsWith(packageName) && name.indexOf('/', packageName.length()) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static List<ClassHolder> parseClasses(List<byte[]> classFiles, ReferenceCache referenceCache) {
+        Parser parser = new Parser(referenceCache);
+        List<ClassHolder> classes = new ArrayList<>();
+        for (byte[] classFile : classFiles) {
+            ClassNode node = new ClassNode();
+            new ClassReader(classFile).accept(node, 0);
+            classes.add(parser.parseClass(node));
+        }
+        return classes;
+    }
+
+    static List<Program> parsePrograms(ReferenceCache referenceCache) {
+        List<Program> programs = new ArrayList<>();
+        for (ClassHolder cls : parseClasses(loadClassFiles(), referenceCache)) {
+            for (MethodHolder method : cls.getMethods()) {
+                if (method.getProgram() != null) {
+                    programs.add(method.getProgram());
+                }
+            }
+        }
+        return programs;
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import org.teavm.backend.javascript.JavaScriptTarget;
+import org.teavm.cache.InMemorySymbolTable;
+import org.teavm.cache.MemoryCachedClassReaderSource;
+import org.teavm.diagnostics.DefaultProblemTextConsumer;
+import org.teavm.diagnostics.Problem;
+import org.teavm.model.ClassHolderSource;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.PreOptimizingClassHolderSource;
+import org.teavm.model.ReferenceCache;
+import org.teavm.parsing.ClasspathClassHolderSource;
+import org.teavm.vm.MemoryBuildTarget;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMOptimizationLevel;
+import org.teavm.vm.TeaVMPhase;
+import org.teavm.vm.TeaVMProgressFeedback;
+import org.teavm.vm.TeaVMProgressListener;
+
+/**
+ * Compiles {@link CorpusApplication}. Parsed classes are kept in memory between builds, so
+ * benchmarks that use the fixture don't measure parsing.
+ */
+class CompilerFixture {
+    private final ClassLoader classLoader = CompilerFixture.class.getClassLoader();
+    private final ReferenceCache referenceCache = new ReferenceCache();
+    private final MemoryCachedClassReaderSource classSource;
+
+    CompilerFixture() {
+        classSource = new MemoryCachedClassReaderSource(referenceCache, new InMemorySymbolTable(),
+                new InMemorySymbolTable(), new InMemorySymbolTable());
+        ClassHolderSource innerSource = new PreOptimizingClassHolderSource(
+                new ClasspathClassHolderSource(classLoader, referenceCache));
+        classSource.setProvider(innerSource::get);
+    }
+
+    /**
+     * Runs dependency analysis only. Build is cancelled as soon as compilation phase starts.
+     */
+    TeaVM analyze() {
+        TeaVM vm = createVM(new JavaScriptTarget(), TeaVMOptimizationLevel.SIMPLE);
+        vm.setProgressListener(new TeaVMProgressListener() {
+            @Override
+            public TeaVMProgressFeedback phaseStarted(TeaVMPhase phase, int count) {
+                return phase == TeaVMPhase.DEPENDENCY_ANALYSIS
+                        ? TeaVMProgressFeedback.CONTINUE
+                        : TeaVMProgressFeedback.CANCEL;
+            }
+
+            @Override
+            public TeaVMProgressFeedback progressReached(int progress) {
+                return TeaVMProgressFeedback.CONTINUE;
+            }
+        });
+        vm.build(new MemoryBuildTarget(), "classes.js");
+        checkProblems(vm);
+        return vm;
+    }
+
+    TeaVM build(JavaScriptTarget target, TeaVMOptimizationLevel optimizationLevel) {
+        TeaVM vm = createVM(target, optimizationLevel);
+        vm.build(new MemoryBuildTarget(), "classes.js");
+        checkProblems(vm);
+        return vm;
+    }
+
+    /**
+     * Returns classes that were passed to target by the full build, i.e. linked and optimized ones.
+     */
+    static ListableClassHolderSource getCompiledClasses(TeaVM vm) {
+        return (ListableClassHolderSource) vm.getWrittenClasses();
+    }
+
+    private TeaVM createVM(JavaScriptTarget target, TeaVMOptimizationLevel optimizationLevel) {
+        TeaVM vm = new TeaVMBuilder(target)
+                .setClassLoader(classLoader)
+                .setClassSource(classSource)
+                .setReferenceCache(referenceCache)
+                .build();
+        vm.setOptimizationLevel(optimizationLevel);
+        vm.installPlugins();
+        vm.entryPoint(CorpusApplication.class.getName());
+        return vm;
+    }
+
+    private static void checkProblems(TeaVM vm) {
+        if (!vm.getProblemProvider().getSevereProblems().isEmpty()) {
+            DefaultProblemTextConsumer consumer = new DefaultProblemTextConsumer();
+            StringBuilder sb = new StringBuilder("Could not compile corpus application:");
+            for (Problem problem : vm.getProblemProvider().getSevereProblems()) {
+                consumer.clear();
+                problem.render(consumer);
+                sb.append("\n").append(consumer.getText());
+            }
+            throw new IllegalStateException(sb.toString());
+        }
+    }
+}
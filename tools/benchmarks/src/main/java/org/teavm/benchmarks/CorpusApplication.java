@@ -0,0 +1,81 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+/**
+ * Fixed application that benchmarks of the whole compiler pipeline compile. It touches a reasonable
+ * part of the class library (collections, streams, string formatting, long arithmetic, exceptions),
+ * so that the compiler has to process several hundred classes. Do not change it, otherwise
+ * results become incomparable with previous runs.
+ */
+public final class CorpusApplication {
+    private CorpusApplication() {
+    }
+
+    public static void main(String[] args) {
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            words.add(Integer.toString(i * 7919, 16));
+        }
+        Collections.sort(words);
+
+        Map<Character, List<String>> byFirstChar = new HashMap<>();
+        for (String word : words.stream().filter(word -> word.length() > 2).collect(Collectors.toList())) {
+            byFirstChar.computeIfAbsent(word.charAt(0), c -> new ArrayList<>()).add(word);
+        }
+        Map<String, Integer> lengths = new TreeMap<>();
+        for (Map.Entry<Character, List<String>> entry : byFirstChar.entrySet()) {
+            lengths.put(String.valueOf(entry.getKey()), entry.getValue().size());
+        }
+
+        Map<Long, Long> fibonacci = new HashMap<>();
+        long sum = 0;
+        for (int i = 0; i < 50; ++i) {
+            sum += fibonacci(i, fibonacci);
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d words, %s, sum: %x%n", words.size(), lengths, sum));
+        try {
+            sb.append(Integer.parseInt(words.get(words.size() - 1)));
+        } catch (NumberFormatException e) {
+            sb.append(e.getMessage());
+        }
+        sb.append(' ').append(Math.sqrt(sum)).append(' ').append(Double.parseDouble("1e-3"));
+        System.out.println(sb);
+    }
+
+    private static long fibonacci(long n, Map<Long, Long> cache) {
+        if (n < 2) {
+            return n;
+        }
+        Long cached = cache.get(n);
+        if (cached != null) {
+            return cached;
+        }
+        long result = fibonacci(n - 1, cache) + fibonacci(n - 2, cache);
+        cache.put(n, result);
+        return result;
+    }
+}
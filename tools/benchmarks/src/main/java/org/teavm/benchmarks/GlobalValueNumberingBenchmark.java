@@ -0,0 +1,67 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.model.Program;
+import org.teavm.model.ReferenceCache;
+import org.teavm.model.optimization.GlobalValueNumbering;
+import org.teavm.model.util.ProgramUtils;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GlobalValueNumberingBenchmark {
+    private List<Program> originalPrograms;
+    private List<Program> programs = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        originalPrograms = ClasslibCorpus.parsePrograms(new ReferenceCache());
+    }
+
+    @Setup(Level.Invocation)
+    public void copyPrograms() {
+        programs.clear();
+        for (Program program : originalPrograms) {
+            programs.add(ProgramUtils.copy(program));
+        }
+    }
+
+    @Benchmark
+    public void optimize(Blackhole blackhole) {
+        for (Program program : programs) {
+            blackhole.consume(new GlobalValueNumbering(false).optimize(program));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.backend.javascript.JavaScriptTarget;
+import org.teavm.dependency.DependencyAnalyzer;
+import org.teavm.model.ClassHierarchy;
+import org.teavm.model.ClassHolder;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.model.MethodHolder;
+import org.teavm.model.MethodReference;
+import org.teavm.model.optimization.DefaultInliningStrategy;
+import org.teavm.model.optimization.Inlining;
+import org.teavm.model.optimization.InliningFilterFactory;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMOptimizationLevel;
+
+/**
+ * Measures inlining of linked, but not yet optimized, programs of {@link CorpusApplication} with the same
+ * strategy that is used in full optimization mode.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class InliningBenchmark {
+    private TeaVM vm;
+    private ListableClassHolderSource classes;
+
+    @Setup
+    public void setup() {
+        vm = new CompilerFixture().build(new JavaScriptTarget(), TeaVMOptimizationLevel.FULL);
+    }
+
+    @Setup(Level.Invocation)
+    public void link() {
+        classes = vm.link((DependencyAnalyzer) vm.getDependencyInfo());
+    }
+
+    @Benchmark
+    public void inline(Blackhole blackhole) {
+        Inlining inlining = new Inlining(new ClassHierarchy(classes), vm.getDependencyInfo(),
+                new DefaultInliningStrategy(20, 7, 300, false), classes, method -> false, true,
+                InliningFilterFactory.DEFAULT);
+        for (MethodReference methodReference : inlining.getOrder()) {
+            ClassHolder cls = classes.get(methodReference.getClassName());
+            MethodHolder method = cls != null ? cls.getMethod(methodReference.getDescriptor()) : null;
+            if (method != null && method.getProgram() != null) {
+                inlining.apply(method.getProgram(), methodReference);
+                blackhole.consume(method.getProgram());
+            }
+        }
+    }
+}
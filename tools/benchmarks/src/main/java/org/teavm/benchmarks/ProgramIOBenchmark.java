@@ -0,0 +1,79 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.cache.InMemorySymbolTable;
+import org.teavm.cache.ProgramIO;
+import org.teavm.model.Program;
+import org.teavm.model.ReferenceCache;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ProgramIOBenchmark {
+    private ProgramIO programIO;
+    private List<Program> programs;
+    private List<byte[]> serializedPrograms = new ArrayList<>();
+
+    @Setup
+    public void setup() throws IOException {
+        ReferenceCache referenceCache = new ReferenceCache();
+        programIO = new ProgramIO(referenceCache, new InMemorySymbolTable(), new InMemorySymbolTable(),
+                new InMemorySymbolTable());
+        programs = ClasslibCorpus.parsePrograms(referenceCache);
+        for (Program program : programs) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            programIO.write(program, output);
+            serializedPrograms.add(output.toByteArray());
+        }
+    }
+
+    @Benchmark
+    public void write(Blackhole blackhole) throws IOException {
+        for (Program program : programs) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            programIO.write(program, output);
+            blackhole.consume(output);
+        }
+    }
+
+    @Benchmark
+    public void read(Blackhole blackhole) throws IOException {
+        for (byte[] data : serializedPrograms) {
+            blackhole.consume(programIO.read(new ByteArrayInputStream(data)));
+        }
+    }
+}
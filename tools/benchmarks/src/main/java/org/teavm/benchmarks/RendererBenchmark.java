@@ -0,0 +1,64 @@
+/*
+ *  Copyright 2021 Alexey Andreev.
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License");
+ *  you may not use this file except in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.teavm.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.teavm.backend.javascript.JavaScriptTarget;
+import org.teavm.model.ListableClassHolderSource;
+import org.teavm.vm.MemoryBuildTarget;
+import org.teavm.vm.TeaVM;
+import org.teavm.vm.TeaVMOptimizationLevel;
+
+/**
+ * Measures generation of JavaScript from optimized classes of {@link CorpusApplication}. Renderer
+ * can't be set up without JavaScript target, so this includes decompilation, which is measured
+ * separately by {@link DecompilerBenchmark}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class RendererBenchmark {
+    private JavaScriptTarget target;
+    private ListableClassHolderSource classes;
+
+    @Setup
+    public void setup() {
+        target = new JavaScriptTarget();
+        TeaVM vm = new CompilerFixture().build(target, TeaVMOptimizationLevel.FULL);
+        classes = CompilerFixture.getCompiledClasses(vm);
+    }
+
+    @Benchmark
+    public void render(Blackhole blackhole) {
+        MemoryBuildTarget buildTarget = new MemoryBuildTarget();
+        target.emit(classes, buildTarget, "classes.js");
+        blackhole.consume(buildTarget.getContent("classes.js"));
+    }
+}
@@ -28,6 +28,7 @@ import org.apache.commons.cli.HelpFormatter;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
+import org.teavm.backend.javascript.JSModuleType;
 import org.teavm.backend.wasm.render.WasmBinaryVersion;
 import org.teavm.tooling.ConsoleTeaVMToolLog;
 import org.teavm.tooling.TeaVMProblemRenderer;
@@ -104,6 +105,24 @@ public final class TeaVMRunner {
                 .desc("Incremental build cache directory")
                 .longOpt("cachedir")
                 .build());
+        options.addOption(Option.builder()
+                .desc("Store incremental build cache of methods in a single packed file")
+                .longOpt("packed-cache")
+                .build());
+        options.addOption(Option.builder()
+                .desc("Detect changed classes in incremental build by content hash instead of modification date")
+                .longOpt("cache-content-hash")
+                .build());
+        options.addOption(Option.builder()
+                .argName("directory")
+                .hasArg()
+                .desc("Directory of optimized program cache shared between incremental builds")
+                .longOpt("shared-cache")
+                .build());
+        options.addOption(Option.builder()
+                .desc("Take parsed classes from snapshots shipped with libraries (e.g. classlib)")
+                .longOpt("class-snapshots")
+                .build());
         options.addOption(Option.builder("w")
                 .desc("Wait for command after compilation, in order to enable hot recompilation")
                 .longOpt("wait")
@@ -120,6 +139,19 @@ public final class TeaVMRunner {
                 .desc("Tell optimizer to not remove class, so that it can be found by Class.forName")
                 .longOpt("preserve-class")
                 .build());
+        options.addOption(Option.builder()
+                .argName("class name")
+                .hasArg()
+                .desc("Move code of class and classes used only by it to separate file, loaded on first use "
+                        + "(JavaScript target)")
+                .longOpt("split-point")
+                .build());
+        options.addOption(Option.builder()
+                .argName("type")
+                .hasArg()
+                .desc("Kind of JavaScript module to produce: none (default) or es2015")
+                .longOpt("js-module-type")
+                .build());
         options.addOption(Option.builder()
                 .longOpt("wasm-version")
                 .argName("version")
@@ -151,10 +183,45 @@ public final class TeaVMRunner {
                 .desc("Maximum number of names kept in top-level scope ("
                         + "other will be put in a separate object. 10000 by default.")
                 .build());
+        options.addOption(Option.builder()
+                .longOpt("compiler-threads")
+                .argName("number")
+                .hasArg()
+                .desc("Number of threads used to optimize methods (1 by default)")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("max-guarded-implementations")
+                .argName("number")
+                .hasArg()
+                .desc("Maximum number of implementations of virtual call site to be checked and called directly "
+                        + "(2 by default, 0 to disable). Requires -O2 or -O3")
+                .build());
         options.addOption(Option.builder()
                 .longOpt("no-longjmp")
                 .desc("Don't use setjmp/longjmp functions to emulate exceptions (C target)")
                 .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics")
+                .desc("Print time and memory spent on each compiler phase")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("metrics-json")
+                .argName("file")
+                .hasArg()
+                .desc("Write time and memory spent on each compiler phase to JSON file")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("profile-instrument")
+                .desc("Generate code that counts executions of its blocks and prints profile to error stream "
+                        + "on exit. Requires -O2 or -O3")
+                .build());
+        options.addOption(Option.builder()
+                .longOpt("profile")
+                .argName("file")
+                .hasArg()
+                .desc("Use execution profile printed by program built with --profile-instrument "
+                        + "and the same options to guide inlining")
+                .build());
     }
 
     private TeaVMRunner(CommandLine commandLine) {
@@ -187,12 +254,15 @@ public final class TeaVMRunner {
         parseOutputOptions();
         parseDebugOptions();
         parsePreserveClassOptions();
+        parseSplitPointOptions();
         parseOptimizationOption();
         parseIncrementalOptions();
         parseGenerationOptions();
         parseWasmOptions();
         parseCOptions();
         parseHeap();
+        parseMetricsOptions();
+        parseProfileOptions();
 
         if (commandLine.hasOption("e")) {
             tool.setEntryPointName(commandLine.getOptionValue("e"));
@@ -240,6 +310,20 @@ public final class TeaVMRunner {
         tool.setObfuscated(commandLine.hasOption("m"));
         tool.setStrict(commandLine.hasOption("strict"));
 
+        if (commandLine.hasOption("js-module-type")) {
+            switch (commandLine.getOptionValue("js-module-type").toLowerCase()) {
+                case "none":
+                    tool.setJsModuleType(JSModuleType.NONE);
+                    break;
+                case "es2015":
+                    tool.setJsModuleType(JSModuleType.ES2015);
+                    break;
+                default:
+                    System.err.println("Wrong JavaScript module type");
+                    printUsage();
+            }
+        }
+
         if (commandLine.hasOption("max-toplevel-names")) {
             try {
                 tool.setMaxTopLevelNames(Integer.parseInt(commandLine.getOptionValue("max-toplevel-names")));
@@ -265,6 +349,12 @@ public final class TeaVMRunner {
         }
     }
 
+    private void parseSplitPointOptions() {
+        if (commandLine.hasOption("split-point")) {
+            tool.getSplitPoints().addAll(Arrays.asList(commandLine.getOptionValues("split-point")));
+        }
+    }
+
     private void parseOptimizationOption() {
         if (commandLine.hasOption("O")) {
             int level;
@@ -290,6 +380,26 @@ public final class TeaVMRunner {
                     printUsage();
             }
         }
+        if (commandLine.hasOption("compiler-threads")) {
+            try {
+                tool.setParallelism(Integer.parseInt(commandLine.getOptionValue("compiler-threads")));
+            } catch (NumberFormatException e) {
+                System.err.println("'--compiler-threads' must be integer number");
+                printUsage();
+            }
+        }
+        if (commandLine.hasOption("max-guarded-implementations")) {
+            try {
+                tool.setMaxGuardedImplementations(Integer.parseInt(
+                        commandLine.getOptionValue("max-guarded-implementations")));
+            } catch (NumberFormatException e) {
+                System.err.println("'--max-guarded-implementations' must be integer number");
+                printUsage();
+            }
+        }
+        if (commandLine.hasOption("class-snapshots")) {
+            tool.setClassSnapshotsUsed(true);
+        }
     }
 
     private void parseIncrementalOptions() {
@@ -301,6 +411,33 @@ public final class TeaVMRunner {
         } else {
             tool.setCacheDirectory(new File(tool.getTargetDirectory(), "teavm-cache"));
         }
+        if (commandLine.hasOption("packed-cache")) {
+            tool.setPackedCache(true);
+        }
+        if (commandLine.hasOption("cache-content-hash")) {
+            tool.setContentHashCache(true);
+        }
+        if (commandLine.hasOption("shared-cache")) {
+            tool.setSharedCacheDirectory(new File(commandLine.getOptionValue("shared-cache")));
+        }
+    }
+
+    private void parseMetricsOptions() {
+        if (commandLine.hasOption("metrics")) {
+            tool.setMetricsCollected(true);
+        }
+        if (commandLine.hasOption("metrics-json")) {
+            tool.setMetricsFile(new File(commandLine.getOptionValue("metrics-json")));
+        }
+    }
+
+    private void parseProfileOptions() {
+        if (commandLine.hasOption("profile-instrument")) {
+            tool.setProfileInstrumented(true);
+        }
+        if (commandLine.hasOption("profile")) {
+            tool.setProfileFile(new File(commandLine.getOptionValue("profile")));
+        }
     }
 
     private void parseClassPathOptions() {
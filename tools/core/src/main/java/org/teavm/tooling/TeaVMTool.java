@@ -17,14 +17,23 @@ package org.teavm.tooling;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.Flushable;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.Reader;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.net.URISyntaxException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.CodeSource;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -36,27 +45,43 @@ import org.teavm.backend.c.CTarget;
 import org.teavm.backend.c.generate.CNameProvider;
 import org.teavm.backend.c.generate.ShorteningFileNameProvider;
 import org.teavm.backend.c.generate.SimpleFileNameProvider;
+import org.teavm.backend.javascript.JSModuleType;
 import org.teavm.backend.javascript.JavaScriptTarget;
 import org.teavm.backend.wasm.WasmTarget;
 import org.teavm.backend.wasm.render.WasmBinaryVersion;
 import org.teavm.cache.AlwaysStaleCacheStatus;
 import org.teavm.cache.CacheStatus;
+import org.teavm.cache.ContentHashCacheStatus;
+import org.teavm.cache.DirectorySharedCacheStore;
 import org.teavm.cache.DiskCachedClassReaderSource;
 import org.teavm.cache.DiskMethodNodeCache;
 import org.teavm.cache.DiskProgramCache;
 import org.teavm.cache.EmptyProgramCache;
 import org.teavm.cache.FileSymbolTable;
+import org.teavm.cache.MethodNodeCache;
+import org.teavm.cache.PackedCacheFile;
+import org.teavm.cache.PackedMethodNodeCache;
+import org.teavm.cache.PackedProgramCache;
+import org.teavm.cache.SharedCacheStore;
+import org.teavm.cache.SharedMethodNodeCache;
+import org.teavm.cache.SharedProgramCache;
+import org.teavm.common.HashUtils;
 import org.teavm.debugging.information.DebugInformation;
 import org.teavm.debugging.information.DebugInformationBuilder;
+import org.teavm.dependency.ConcurrentDependencyAnalyzer;
 import org.teavm.dependency.DependencyInfo;
 import org.teavm.dependency.FastDependencyAnalyzer;
 import org.teavm.dependency.PreciseDependencyAnalyzer;
 import org.teavm.diagnostics.ProblemProvider;
+import org.teavm.model.ClassHolder;
 import org.teavm.model.ClassHolderSource;
 import org.teavm.model.ClassHolderTransformer;
 import org.teavm.model.ClassReader;
 import org.teavm.model.PreOptimizingClassHolderSource;
+import org.teavm.model.ProgramCache;
 import org.teavm.model.ReferenceCache;
+import org.teavm.model.profile.ExecutionProfile;
+import org.teavm.parsing.ClassHashProvider;
 import org.teavm.parsing.ClasspathClassHolderSource;
 import org.teavm.tooling.sources.SourceFileProvider;
 import org.teavm.tooling.sources.SourceFilesCopier;
@@ -64,16 +89,19 @@ import org.teavm.vm.BuildTarget;
 import org.teavm.vm.DirectoryBuildTarget;
 import org.teavm.vm.TeaVM;
 import org.teavm.vm.TeaVMBuilder;
+import org.teavm.vm.TeaVMMetrics;
 import org.teavm.vm.TeaVMOptimizationLevel;
 import org.teavm.vm.TeaVMProgressListener;
 import org.teavm.vm.TeaVMTarget;
 
 public class TeaVMTool {
+    private static String compilerHash;
     private File targetDirectory = new File(".");
     private TeaVMTargetType targetType = TeaVMTargetType.JAVASCRIPT;
     private String targetFileName = "";
     private boolean obfuscated = true;
     private boolean strict;
+    private JSModuleType jsModuleType = JSModuleType.NONE;
     private int maxTopLevelNames = 10000;
     private String mainClass;
     private String entryPointName = "main";
@@ -83,13 +111,19 @@ public class TeaVMTool {
     private boolean sourceFilesCopied;
     private boolean incremental;
     private File cacheDirectory = new File("./teavm-cache");
+    private boolean packedCache;
+    private boolean contentHashCache;
+    private File sharedCacheDirectory;
+    private boolean classSnapshotsUsed;
     private List<String> transformers = new ArrayList<>();
     private List<String> classesToPreserve = new ArrayList<>();
+    private List<String> splitPoints = new ArrayList<>();
     private TeaVMToolLog log = new EmptyTeaVMToolLog();
     private ClassLoader classLoader = TeaVMTool.class.getClassLoader();
     private DiskCachedClassReaderSource cachedClassSource;
-    private DiskProgramCache programCache;
-    private DiskMethodNodeCache astCache;
+    private ProgramCache programCache;
+    private MethodNodeCache astCache;
+    private Flushable methodCacheFlusher;
     private FileSymbolTable symbolTable;
     private FileSymbolTable fileTable;
     private FileSymbolTable variableTable;
@@ -111,6 +145,13 @@ public class TeaVMTool {
     private boolean longjmpSupported = true;
     private boolean heapDump;
     private boolean shortFileNames;
+    private int parallelism;
+    private int maxGuardedImplementations = 2;
+    private boolean metricsCollected;
+    private File metricsFile;
+    private TeaVMMetrics metrics;
+    private boolean profileInstrumented;
+    private File profileFile;
 
     public File getTargetDirectory() {
         return targetDirectory;
@@ -132,6 +173,14 @@ public class TeaVMTool {
         this.strict = strict;
     }
 
+    public JSModuleType getJsModuleType() {
+        return jsModuleType;
+    }
+
+    public void setJsModuleType(JSModuleType jsModuleType) {
+        this.jsModuleType = jsModuleType;
+    }
+
     public void setMaxTopLevelNames(int maxTopLevelNames) {
         this.maxTopLevelNames = maxTopLevelNames;
     }
@@ -172,6 +221,50 @@ public class TeaVMTool {
         this.cacheDirectory = cacheDirectory;
     }
 
+    public boolean isPackedCache() {
+        return packedCache;
+    }
+
+    public void setPackedCache(boolean packedCache) {
+        this.packedCache = packedCache;
+    }
+
+    public boolean isContentHashCache() {
+        return contentHashCache;
+    }
+
+    /**
+     * Makes incremental build consider cached classes stale only when content of their class files
+     * (or compiler version and options) change, instead of comparing modification dates.
+     */
+    public void setContentHashCache(boolean contentHashCache) {
+        this.contentHashCache = contentHashCache;
+    }
+
+    public File getSharedCacheDirectory() {
+        return sharedCacheDirectory;
+    }
+
+    /**
+     * Sets directory of content-addressed cache of optimized programs and ASTs, which can be shared between
+     * several builds. Takes effect in incremental mode only and implies {@link #setContentHashCache(boolean)}.
+     */
+    public void setSharedCacheDirectory(File sharedCacheDirectory) {
+        this.sharedCacheDirectory = sharedCacheDirectory;
+    }
+
+    public boolean isClassSnapshotsUsed() {
+        return classSnapshotsUsed;
+    }
+
+    /**
+     * Makes compiler take parsed classes from snapshots shipped in class path entries (like classlib JAR)
+     * instead of parsing them from class files.
+     */
+    public void setClassSnapshotsUsed(boolean classSnapshotsUsed) {
+        this.classSnapshotsUsed = classSnapshotsUsed;
+    }
+
     public boolean isSourceMapsFileGenerated() {
         return sourceMapsFileGenerated;
     }
@@ -200,6 +293,10 @@ public class TeaVMTool {
         return classesToPreserve;
     }
 
+    public List<String> getSplitPoints() {
+        return splitPoints;
+    }
+
     public TeaVMToolLog getLog() {
         return log;
     }
@@ -268,6 +365,75 @@ public class TeaVMTool {
         this.shortFileNames = shortFileNames;
     }
 
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public int getMaxGuardedImplementations() {
+        return maxGuardedImplementations;
+    }
+
+    public void setMaxGuardedImplementations(int maxGuardedImplementations) {
+        this.maxGuardedImplementations = maxGuardedImplementations;
+    }
+
+    public boolean isMetricsCollected() {
+        return metricsCollected;
+    }
+
+    /**
+     * Makes compiler measure time and memory spent on each phase and print them after build.
+     */
+    public void setMetricsCollected(boolean metricsCollected) {
+        this.metricsCollected = metricsCollected;
+    }
+
+    public File getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * Sets file to write collected metrics to, in JSON format. Implies {@link #setMetricsCollected(boolean)}.
+     */
+    public void setMetricsFile(File metricsFile) {
+        this.metricsFile = metricsFile;
+    }
+
+    /**
+     * Returns metrics of the last build, or {@code null} if metrics were not collected.
+     */
+    public TeaVMMetrics getMetrics() {
+        return metrics;
+    }
+
+    public boolean isProfileInstrumented() {
+        return profileInstrumented;
+    }
+
+    /**
+     * Makes generated program count executions of its code and print counters to error stream on exit.
+     * Printed output can be later passed to {@link #setProfileFile(File)}.
+     */
+    public void setProfileInstrumented(boolean profileInstrumented) {
+        this.profileInstrumented = profileInstrumented;
+    }
+
+    public File getProfileFile() {
+        return profileFile;
+    }
+
+    /**
+     * Sets file with execution profile collected by a program built with {@link #setProfileInstrumented(boolean)}
+     * from the same code and with the same options. Profile is used to make inlining decisions.
+     */
+    public void setProfileFile(File profileFile) {
+        this.profileFile = profileFile;
+    }
+
     public void setProgressListener(TeaVMProgressListener progressListener) {
         this.progressListener = progressListener;
     }
@@ -321,6 +487,8 @@ public class TeaVMTool {
         javaScriptTarget.setObfuscated(obfuscated);
         javaScriptTarget.setStrict(strict);
         javaScriptTarget.setTopLevelNameLimit(maxTopLevelNames);
+        javaScriptTarget.setSplitPoints(splitPoints);
+        javaScriptTarget.setModuleType(jsModuleType);
 
         debugEmitter = debugInformationGenerated || sourceMapsFileGenerated
                 ? new DebugInformationBuilder(referenceCache) : null;
@@ -360,6 +528,7 @@ public class TeaVMTool {
             cancelled = false;
             log.info("Running TeaVM");
             referenceCache = new ReferenceCache();
+            metrics = metricsCollected || metricsFile != null ? new TeaVMMetrics() : null;
             TeaVMBuilder vmBuilder = new TeaVMBuilder(prepareTarget());
             CacheStatus cacheStatus;
             vmBuilder.setReferenceCache(referenceCache);
@@ -369,16 +538,21 @@ public class TeaVMTool {
                 fileTable = new FileSymbolTable(new File(cacheDirectory, "files"));
                 variableTable = new FileSymbolTable(new File(cacheDirectory, "variables"));
                 ClasspathClassHolderSource innerClassSource = new ClasspathClassHolderSource(classLoader,
-                        referenceCache);
-                ClassHolderSource classSource = new PreOptimizingClassHolderSource(innerClassSource);
-                cachedClassSource = new DiskCachedClassReaderSource(cacheDirectory, referenceCache, symbolTable,
-                        fileTable, variableTable, classSource, innerClassSource);
-                programCache = new DiskProgramCache(cacheDirectory, referenceCache, symbolTable, fileTable,
-                        variableTable);
-                if (targetType == TeaVMTargetType.JAVASCRIPT) {
-                    astCache = new DiskMethodNodeCache(cacheDirectory, referenceCache, symbolTable, fileTable,
-                            variableTable);
-                    javaScriptTarget.setAstCache(astCache);
+                        referenceCache, getPrefetchThreads(), classSnapshotsUsed);
+                ClassHolderSource classSource = new PreOptimizingClassHolderSource(measureParsing(innerClassSource));
+                cachedClassSource = contentHashCache || sharedCacheDirectory != null
+                        ? new DiskCachedClassReaderSource(cacheDirectory, referenceCache, symbolTable, fileTable,
+                                variableTable, classSource, innerClassSource, getCacheConfigurationHash())
+                        : new DiskCachedClassReaderSource(cacheDirectory, referenceCache, symbolTable, fileTable,
+                                variableTable, classSource, innerClassSource);
+                cacheStatus = cachedClassSource;
+                if (sharedCacheDirectory != null) {
+                    createSharedMethodCaches(innerClassSource);
+                    cacheStatus = new ContentHashCacheStatus(innerClassSource);
+                } else if (packedCache) {
+                    createPackedMethodCaches();
+                } else {
+                    createDiskMethodCaches();
                 }
                 try {
                     symbolTable.update();
@@ -388,16 +562,20 @@ public class TeaVMTool {
                     log.info("Cache is missing");
                 }
                 vmBuilder.setClassLoader(classLoader).setClassSource(cachedClassSource);
-                cacheStatus = cachedClassSource;
             } else {
                 vmBuilder.setClassLoader(classLoader).setClassSource(new PreOptimizingClassHolderSource(
-                        new ClasspathClassHolderSource(classLoader, referenceCache)));
+                        measureParsing(new ClasspathClassHolderSource(classLoader, referenceCache,
+                                getPrefetchThreads(), classSnapshotsUsed))));
                 cacheStatus = AlwaysStaleCacheStatus.INSTANCE;
             }
 
-            vmBuilder.setDependencyAnalyzerFactory(fastDependencyAnalysis
-                    ? FastDependencyAnalyzer::new
-                    : PreciseDependencyAnalyzer::new);
+            if (fastDependencyAnalysis) {
+                vmBuilder.setDependencyAnalyzerFactory(FastDependencyAnalyzer::new);
+            } else if (parallelism > 1) {
+                vmBuilder.setDependencyAnalyzerFactory(ConcurrentDependencyAnalyzer.factory(parallelism));
+            } else {
+                vmBuilder.setDependencyAnalyzerFactory(PreciseDependencyAnalyzer::new);
+            }
             vmBuilder.setObfuscated(obfuscated);
             vmBuilder.setStrict(strict);
 
@@ -407,6 +585,13 @@ public class TeaVMTool {
             }
 
             vm.setProperties(properties);
+            vm.setParallelism(parallelism);
+            vm.setMaxGuardedImplementations(maxGuardedImplementations);
+            vm.setMetrics(metrics);
+            vm.setProfileInstrumented(profileInstrumented);
+            if (profileFile != null) {
+                vm.setExecutionProfile(readProfile());
+            }
             vm.setProgramCache(incremental ? programCache : EmptyProgramCache.INSTANCE);
             vm.setCacheStatus(cacheStatus);
             vm.setOptimizationLevel(!fastDependencyAnalysis && !incremental
@@ -458,10 +643,7 @@ public class TeaVMTool {
             }
 
             if (incremental) {
-                programCache.flush();
-                if (astCache != null) {
-                    astCache.flush();
-                }
+                methodCacheFlusher.flush();
                 cachedClassSource.flush();
                 symbolTable.flush();
                 fileTable.flush();
@@ -470,11 +652,156 @@ public class TeaVMTool {
             }
 
             printStats();
+            writeMetrics();
         } catch (IOException e) {
             throw new TeaVMToolException("IO error occurred", e);
         }
     }
 
+    private ExecutionProfile readProfile() throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(profileFile), StandardCharsets.UTF_8)) {
+            return ExecutionProfile.read(reader);
+        }
+    }
+
+    private ClassHolderSource measureParsing(ClassHolderSource classSource) {
+        if (metrics == null) {
+            return classSource;
+        }
+        return name -> {
+            TeaVMMetrics.Measurement measurement = metrics.start("parsing");
+            ClassHolder cls = classSource.get(name);
+            measurement.end();
+            return cls;
+        };
+    }
+
+    private void createDiskMethodCaches() {
+        DiskProgramCache diskProgramCache = new DiskProgramCache(cacheDirectory, referenceCache, symbolTable,
+                fileTable, variableTable);
+        DiskMethodNodeCache diskAstCache = targetType == TeaVMTargetType.JAVASCRIPT
+                ? new DiskMethodNodeCache(cacheDirectory, referenceCache, symbolTable, fileTable, variableTable)
+                : null;
+        if (diskAstCache != null) {
+            javaScriptTarget.setAstCache(diskAstCache);
+        }
+        programCache = diskProgramCache;
+        astCache = diskAstCache;
+        methodCacheFlusher = () -> {
+            diskProgramCache.flush();
+            if (diskAstCache != null) {
+                diskAstCache.flush();
+            }
+        };
+    }
+
+    private void createPackedMethodCaches() {
+        PackedCacheFile packedCacheFile = new PackedCacheFile(new File(cacheDirectory, "methods.teavm-pack"));
+        programCache = new PackedProgramCache(packedCacheFile, referenceCache, symbolTable, fileTable,
+                variableTable);
+        if (targetType == TeaVMTargetType.JAVASCRIPT) {
+            astCache = new PackedMethodNodeCache(packedCacheFile, referenceCache, symbolTable, fileTable,
+                    variableTable);
+            javaScriptTarget.setAstCache(astCache);
+        }
+        methodCacheFlusher = packedCacheFile::flush;
+    }
+
+    private void createSharedMethodCaches(ClassHashProvider classHashProvider) {
+        SharedCacheStore store = new DirectorySharedCacheStore(sharedCacheDirectory);
+        String configurationHash = getCacheConfigurationHash();
+        SharedProgramCache sharedProgramCache = new SharedProgramCache(store, referenceCache, classHashProvider,
+                configurationHash);
+        SharedMethodNodeCache sharedAstCache = targetType == TeaVMTargetType.JAVASCRIPT
+                ? new SharedMethodNodeCache(store, referenceCache, classHashProvider, configurationHash)
+                : null;
+        if (sharedAstCache != null) {
+            javaScriptTarget.setAstCache(sharedAstCache);
+        }
+        programCache = sharedProgramCache;
+        astCache = sharedAstCache;
+        methodCacheFlusher = () -> {
+            sharedProgramCache.flush();
+            if (sharedAstCache != null) {
+                sharedAstCache.flush();
+            }
+        };
+    }
+
+    // Covers every option that affects generated code, so that builds with different options
+    // never share cache entries
+    private String getCacheConfigurationHash() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(getCompilerHash()).append(';').append(targetType).append(';').append(obfuscated).append(';')
+                .append(strict).append(';').append(wasmVersion).append(';').append(transformers);
+        sb.append(';').append(optimizationLevel).append(';').append(fastDependencyAnalysis)
+                .append(';').append(debugInformationGenerated).append(';').append(classesToPreserve);
+        sb.append(';').append(jsModuleType).append(';').append(maxTopLevelNames).append(';').append(splitPoints);
+        sb.append(';').append(minHeapSize).append(';').append(maxHeapSize).append(';').append(longjmpSupported)
+                .append(';').append(heapDump).append(';').append(shortFileNames);
+        sb.append(';').append(maxGuardedImplementations).append(';').append(profileInstrumented)
+                .append(';').append(getProfileHash());
+        properties.stringPropertyNames().stream()
+                .filter(name -> name.startsWith("teavm."))
+                .sorted()
+                .forEach(name -> sb.append(';').append(name).append('=').append(properties.getProperty(name)));
+        MessageDigest digest = HashUtils.createSha256Digest();
+        digest.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+        return HashUtils.toHex(digest.digest());
+    }
+
+    private String getProfileHash() {
+        if (profileFile == null) {
+            return "";
+        }
+        try {
+            MessageDigest digest = HashUtils.createSha256Digest();
+            digest.update(Files.readAllBytes(profileFile.toPath()));
+            return HashUtils.toHex(digest.digest());
+        } catch (IOException e) {
+            // Build fails later when reading the profile
+            return profileFile.getAbsolutePath();
+        }
+    }
+
+    private static synchronized String getCompilerHash() {
+        if (compilerHash == null) {
+            compilerHash = computeCompilerHash();
+        }
+        return compilerHash;
+    }
+
+    private static String computeCompilerHash() {
+        CodeSource codeSource = TeaVM.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) {
+            try {
+                File file = new File(codeSource.getLocation().toURI());
+                if (file.isFile()) {
+                    MessageDigest digest = HashUtils.createSha256Digest();
+                    try (InputStream input = new FileInputStream(file)) {
+                        byte[] buffer = new byte[65536];
+                        while (true) {
+                            int bytesRead = input.read(buffer);
+                            if (bytesRead < 0) {
+                                break;
+                            }
+                            digest.update(buffer, 0, bytesRead);
+                        }
+                    }
+                    return HashUtils.toHex(digest.digest());
+                }
+            } catch (URISyntaxException | IllegalArgumentException | IOException e) {
+                // Fall back to compiler version below
+            }
+        }
+        String version = TeaVM.class.getPackage().getImplementationVersion();
+        return version != null ? version : "";
+    }
+
+    private int getPrefetchThreads() {
+        return parallelism > 1 ? parallelism - 1 : 0;
+    }
+
     private String getResolvedTargetFileName() {
         if (targetFileName.isEmpty()) {
             switch (targetType) {
@@ -535,6 +862,42 @@ public class TeaVMTool {
 
         log.info("Classes compiled: " + classCount);
         log.info("Methods compiled: " + methodCount);
+
+        if (metrics != null) {
+            printMetrics();
+        }
+    }
+
+    private void printMetrics() {
+        log.info("Phase metrics (wall time, CPU time, allocated memory):");
+        for (TeaVMMetrics.PhaseMetrics phase : metrics.getPhases()) {
+            log.info("  " + phase.getName() + ": " + formatNanos(phase.getWallTime()) + ", "
+                    + formatNanos(phase.getCpuTime()) + ", " + formatBytes(phase.getAllocatedBytes()));
+            for (TeaVMMetrics.MethodMetrics method : phase.getSlowestMethods()) {
+                log.info("    " + formatNanos(method.getWallTime()) + " " + method.getMethod());
+            }
+        }
+    }
+
+    private static String formatNanos(long nanos) {
+        return nanos >= 0 ? (nanos / 1000000) + " ms" : "n/a";
+    }
+
+    private static String formatBytes(long bytes) {
+        return bytes >= 0 ? (bytes / 1024) + " KB" : "n/a";
+    }
+
+    private void writeMetrics() throws IOException {
+        if (metrics == null || metricsFile == null) {
+            return;
+        }
+        File parentDir = metricsFile.getAbsoluteFile().getParentFile();
+        if (parentDir != null) {
+            parentDir.mkdirs();
+        }
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(metricsFile), StandardCharsets.UTF_8)) {
+            metrics.writeJson(writer);
+        }
     }
 
     private void copySourceFiles() {